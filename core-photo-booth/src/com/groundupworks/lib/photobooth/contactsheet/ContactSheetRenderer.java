@@ -0,0 +1,581 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.contactsheet;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegDecoder;
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.pixels.PixelImage;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders printable contact sheets of photo strips, with a thumbnail of each photo strip in a grid of cells, page
+ * after page. It runs on the kiosk as well as headless on a desktop JVM:
+ * <pre>
+ * java com.groundupworks.lib.photobooth.contactsheet.ContactSheetRenderer &lt;strips&gt; &lt;output&gt; [options]
+ * </pre>
+ * Each page is streamed to the encoder one band of rows at a time. Thumbnails are only created when the first band
+ * reaches their row of cells and are released after the last one, so a page only ever holds one row of thumbnails
+ * however many photo strips there are. The thumbnails of a row are created in parallel, each scaled down in the Dct
+ * domain while decoding so the full size photo strip is never decoded.
+ *
+ * @author Benedict Lau
+ */
+public class ContactSheetRenderer {
+
+    /**
+     * The default page width, for A4 landscape at 150 dpi.
+     */
+    public static final int DEFAULT_PAGE_WIDTH = 1754;
+
+    /**
+     * The default page height, for A4 landscape at 150 dpi.
+     */
+    public static final int DEFAULT_PAGE_HEIGHT = 1240;
+
+    /**
+     * The default number of columns of cells on a page, sized for vertical photo strips.
+     */
+    public static final int DEFAULT_COLUMNS = 8;
+
+    /**
+     * The default number of rows of cells on a page.
+     */
+    public static final int DEFAULT_ROWS = 2;
+
+    /**
+     * The default space around the grid and between cells.
+     */
+    public static final int DEFAULT_SPACING = 32;
+
+    /**
+     * The height of a band of rows rendered at once. Must be a multiple of 16 to match Jpeg Mcus.
+     */
+    private static final int BAND_HEIGHT = 128;
+
+    /**
+     * The prefix of page file names, followed by the page number.
+     */
+    private static final String PAGE_PREFIX = "page-";
+
+    /**
+     * The extension of pages.
+     */
+    private static final String JPEG_EXTENSION = ".jpg";
+
+    /**
+     * The suffix of pages being written.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    //
+    // Colors of the contact sheet.
+    //
+
+    private static final int BACKGROUND_COLOR = 0xFFFFFFFF;
+
+    private static final int BORDER_COLOR = 0xFF444444;
+
+    private static final int MISSING_COLOR = 0xFFCCCCCC;
+
+    /**
+     * The width of a page.
+     */
+    private final int mPageWidth;
+
+    /**
+     * The height of a page.
+     */
+    private final int mPageHeight;
+
+    /**
+     * The number of columns of cells on a page.
+     */
+    private final int mColumns;
+
+    /**
+     * The number of rows of cells on a page.
+     */
+    private final int mRows;
+
+    /**
+     * The space around the grid and between cells.
+     */
+    private final int mSpacing;
+
+    /**
+     * The {@link EncodingProfile} of the pages. The format is ignored.
+     */
+    private final EncodingProfile mProfile;
+
+    /**
+     * The max number of thumbnails to create at once.
+     */
+    private final int mThreadCount;
+
+    /**
+     * Constructor.
+     *
+     * @param pageWidth   the width of a page.
+     * @param pageHeight  the height of a page.
+     * @param columns     the number of columns of cells on a page.
+     * @param rows        the number of rows of cells on a page.
+     * @param spacing     the space around the grid and between cells.
+     * @param profile     the {@link EncodingProfile} of the pages. The format is ignored.
+     * @param threadCount the max number of thumbnails to create at once.
+     */
+    public ContactSheetRenderer(int pageWidth, int pageHeight, int columns, int rows, int spacing,
+                                EncodingProfile profile, int threadCount) {
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mColumns = Math.max(1, columns);
+        mRows = Math.max(1, rows);
+        mSpacing = Math.max(0, spacing);
+        mProfile = profile;
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Entry point.
+     *
+     * @param args the directory to search for photo strips and the output directory, followed by options.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ContactSheetRenderer <strips dir> <output dir> [--page-width n]"
+                    + " [--page-height n] [--columns n] [--rows n] [--spacing n] [--quality n] [--threads n]");
+            return;
+        }
+
+        int pageWidth = DEFAULT_PAGE_WIDTH;
+        int pageHeight = DEFAULT_PAGE_HEIGHT;
+        int columns = DEFAULT_COLUMNS;
+        int rows = DEFAULT_ROWS;
+        int spacing = DEFAULT_SPACING;
+        int quality = EncodingProfile.PRINT.getQuality();
+        int threadCount = JpegEncoder.getDefaultThreadCount();
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 < args.length) {
+                int value = Integer.parseInt(args[++i]);
+                if ("--page-width".equals(option)) {
+                    pageWidth = value;
+                } else if ("--page-height".equals(option)) {
+                    pageHeight = value;
+                } else if ("--columns".equals(option)) {
+                    columns = value;
+                } else if ("--rows".equals(option)) {
+                    rows = value;
+                } else if ("--spacing".equals(option)) {
+                    spacing = value;
+                } else if ("--quality".equals(option)) {
+                    quality = value;
+                } else if ("--threads".equals(option)) {
+                    threadCount = value;
+                } else {
+                    System.err.println("Unknown option " + option);
+                    return;
+                }
+            } else {
+                System.err.println("Missing value for " + option);
+                return;
+            }
+        }
+
+        List<File> strips = new ArrayList<File>();
+        findJpegs(new File(args[0]), strips);
+        EncodingProfile profile = new EncodingProfile(EncodingProfile.PRINT.getName(), EncodingProfile.Format.JPEG,
+                quality, EncodingProfile.PRINT.getChromaSubsampling());
+        ContactSheetRenderer renderer = new ContactSheetRenderer(pageWidth, pageHeight, columns, rows, spacing,
+                profile, threadCount);
+        int pageCount = renderer.run(strips, new File(args[1]));
+        System.out.println("Rendered " + pageCount + " of " + renderer.getPageCount(strips.size()) + " pages from "
+                + strips.size() + " photo strips");
+    }
+
+    /**
+     * Gets the number of pages needed for a number of photo strips.
+     *
+     * @param stripCount the number of photo strips.
+     * @return the number of pages.
+     */
+    public int getPageCount(int stripCount) {
+        int cellsPerPage = mColumns * mRows;
+        return (stripCount + cellsPerPage - 1) / cellsPerPage;
+    }
+
+    /**
+     * Gets the file a page is written to by {@link #run(List, File)}.
+     *
+     * @param outputDirectory the output directory.
+     * @param page            the index of the page.
+     * @return the file.
+     */
+    public static File getPageFile(File outputDirectory, int page) {
+        return new File(outputDirectory, PAGE_PREFIX + String.format(Locale.US, "%03d", page + 1) + JPEG_EXTENSION);
+    }
+
+    /**
+     * Renders the contact sheets of photo strips, one Jpeg per page. Blocks until all pages are written.
+     *
+     * @param strips          the photo strip Jpegs, in the order to lay them out.
+     * @param outputDirectory the directory to write the pages to, named by {@link #getPageFile(File, int)}.
+     * @return the number of pages written.
+     */
+    public int run(List<File> strips, File outputDirectory) {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            return 0;
+        }
+
+        int pageCount = getPageCount(strips.size());
+        int renderedCount = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+        try {
+            for (int page = 0; page < pageCount; page++) {
+                if (renderToFile(strips, page, getPageFile(outputDirectory, page), executor)) {
+                    renderedCount++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return renderedCount;
+    }
+
+    /**
+     * Renders one page of the contact sheets and writes it as a Jpeg.
+     *
+     * @param strips       the photo strip Jpegs, in the order to lay them out.
+     * @param page         the index of the page.
+     * @param outputStream the output stream to write the Jpeg to.
+     * @param executor     the executor to create thumbnails on.
+     * @return true if successful; false otherwise.
+     */
+    public boolean render(List<File> strips, int page, OutputStream outputStream, ExecutorService executor) {
+        final int cellsPerPage = mColumns * mRows;
+        final int firstStrip = page * cellsPerPage;
+        final int cellCount = Math.min(cellsPerPage, strips.size() - firstStrip);
+        if (cellCount < 1) {
+            return false;
+        }
+
+        int[][] cells = new int[cellCount][];
+        for (int i = 0; i < cellCount; i++) {
+            cells[i] = getCellRect(i);
+            if (cells[i] == null) {
+                return false;
+            }
+        }
+
+        int[] rows = new int[mPageWidth * BAND_HEIGHT];
+        PixelImage[] thumbnails = new PixelImage[cellCount];
+        int[][] thumbnailRects = new int[cellCount][];
+        int loadedRow = -1;
+        JpegEncoder encoder = new JpegEncoder(outputStream, mPageWidth, mPageHeight, mProfile.getQuality(),
+                mThreadCount, mProfile.getChromaSubsampling());
+        try {
+            for (int bandTop = 0; bandTop < mPageHeight; bandTop += BAND_HEIGHT) {
+                int bandHeight = Math.min(BAND_HEIGHT, mPageHeight - bandTop);
+                int bandBottom = bandTop + bandHeight;
+                Arrays.fill(rows, BACKGROUND_COLOR);
+
+                for (int i = 0; i < cellCount; i++) {
+                    int[] cell = cells[i];
+                    if (cell[1] >= bandBottom || cell[3] <= bandTop) {
+                        continue;
+                    }
+
+                    // Create the thumbnails of a row of cells when the first band intersects it.
+                    int row = i / mColumns;
+                    if (row > loadedRow) {
+                        int first = row * mColumns;
+                        int last = Math.min(first + mColumns, cellCount);
+                        createThumbnails(strips, firstStrip, first, last, cells, thumbnails, thumbnailRects,
+                                executor);
+                        loadedRow = row;
+                    }
+
+                    if (thumbnails[i] != null) {
+                        int[] rect = thumbnailRects[i];
+                        thumbnails[i].draw(rows, mPageWidth, bandTop, bandHeight, rect);
+                        drawOutline(rows, mPageWidth, bandTop, bandHeight, rect[0] - 1, rect[1] - 1, rect[2],
+                                rect[3], BORDER_COLOR);
+                    } else {
+                        drawOutline(rows, mPageWidth, bandTop, bandHeight, cell[0], cell[1], cell[2] - 1,
+                                cell[3] - 1, MISSING_COLOR);
+                    }
+
+                    // Release the thumbnail after the last band.
+                    if (cell[3] <= bandBottom) {
+                        thumbnails[i] = null;
+                    }
+                }
+
+                encoder.writeRows(rows, 0, mPageWidth, bandHeight);
+            }
+            encoder.finish();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gets the rectangle of a cell on a page. Cells are laid out left to right, then top to bottom.
+     *
+     * @param index the index of the cell on the page.
+     * @return the rectangle as {left, top, right, bottom}; or null if the index is out of range or the cells do not
+     * fit the page.
+     */
+    public int[] getCellRect(int index) {
+        if (index < 0 || index >= mColumns * mRows) {
+            return null;
+        }
+
+        int cellWidth = (mPageWidth - mSpacing * (mColumns + 1)) / mColumns;
+        int cellHeight = (mPageHeight - mSpacing * (mRows + 1)) / mRows;
+        if (cellWidth < 1 || cellHeight < 1) {
+            return null;
+        }
+
+        // Center the grid on the page.
+        int left = (mPageWidth - cellWidth * mColumns - mSpacing * (mColumns - 1)) / 2;
+        int top = (mPageHeight - cellHeight * mRows - mSpacing * (mRows - 1)) / 2;
+        int column = index % mColumns;
+        int row = index / mColumns;
+        left += column * (cellWidth + mSpacing);
+        top += row * (cellHeight + mSpacing);
+        return new int[]{left, top, left + cellWidth, top + cellHeight};
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Renders one page to a file. The page is written to a temp file, synced and renamed, so an interrupted run never
+     * leaves a partial page under its final name.
+     *
+     * @param strips   the photo strip Jpegs, in the order to lay them out.
+     * @param page     the index of the page.
+     * @param output   the file to write.
+     * @param executor the executor to create thumbnails on.
+     * @return true if successful; false otherwise.
+     */
+    private boolean renderToFile(List<File> strips, int page, File output, ExecutorService executor) {
+        File temp = new File(output.getParentFile(), output.getName() + TEMP_SUFFIX);
+        boolean isSuccessful = false;
+        try {
+            FileOutputStream fileStream = new FileOutputStream(temp);
+            try {
+                BufferedOutputStream outputStream = new BufferedOutputStream(fileStream);
+                if (render(strips, page, outputStream, executor)) {
+                    outputStream.flush();
+                    fileStream.getFD().sync();
+                    isSuccessful = true;
+                }
+            } finally {
+                fileStream.close();
+            }
+        } catch (IOException e) {
+            isSuccessful = false;
+        }
+
+        if (isSuccessful) {
+            isSuccessful = (!output.exists() || output.delete()) && temp.renameTo(output);
+        }
+        if (!isSuccessful) {
+            temp.delete();
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Creates the thumbnails of a row of cells in parallel. A photo strip that cannot be read is left without a
+     * thumbnail.
+     *
+     * @param strips         the photo strip Jpegs.
+     * @param firstStrip     the index of the photo strip in the first cell of the page.
+     * @param first          the index of the first cell of the row.
+     * @param last           the index after the last cell of the row.
+     * @param cells          the rectangle of each cell.
+     * @param thumbnails     the array to store the thumbnail of each cell in.
+     * @param thumbnailRects the array to store the rectangle of each thumbnail in.
+     * @param executor       the executor to create thumbnails on.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void createThumbnails(List<File> strips, int firstStrip, int first, int last, int[][] cells,
+                                         PixelImage[] thumbnails, int[][] thumbnailRects, ExecutorService executor)
+            throws InterruptedException {
+        List<Future<PixelImage>> futures = new ArrayList<Future<PixelImage>>();
+        for (int i = first; i < last; i++) {
+            final File strip = strips.get(firstStrip + i);
+            final int[] cell = cells[i];
+            futures.add(executor.submit(new Callable<PixelImage>() {
+                @Override
+                public PixelImage call() throws IOException {
+                    return createThumbnail(readFile(strip), cell[2] - cell[0], cell[3] - cell[1]);
+                }
+            }));
+        }
+
+        for (int i = first; i < last; i++) {
+            try {
+                PixelImage thumbnail = futures.get(i - first).get();
+                int[] cell = cells[i];
+                int left = cell[0] + (cell[2] - cell[0] - thumbnail.getWidth()) / 2;
+                int top = cell[1] + (cell[3] - cell[1] - thumbnail.getHeight()) / 2;
+                thumbnails[i] = thumbnail;
+                thumbnailRects[i] = new int[]{left, top, left + thumbnail.getWidth(), top + thumbnail.getHeight()};
+            } catch (ExecutionException e) {
+                thumbnails[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Creates a thumbnail of a photo strip that fits a cell and keeps the aspect ratio. The Jpeg is scaled down in
+     * the Dct domain while decoding, then resampled to the thumbnail size.
+     *
+     * @param jpegData   the Jpeg data of the photo strip.
+     * @param cellWidth  the width of the cell.
+     * @param cellHeight the height of the cell.
+     * @return the thumbnail.
+     * @throws IOException if the Jpeg cannot be decoded.
+     */
+    private static PixelImage createThumbnail(byte[] jpegData, int cellWidth, int cellHeight) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpegData);
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int thumbnailWidth = cellWidth;
+        int thumbnailHeight = cellHeight;
+        if ((long) width * cellHeight > (long) height * cellWidth) {
+            thumbnailHeight = (int) Math.max(1L, (long) height * cellWidth / width);
+        } else {
+            thumbnailWidth = (int) Math.max(1L, (long) width * cellHeight / height);
+        }
+
+        PixelImage decoded = PixelImage.decode(jpegData, Math.min(thumbnailWidth, thumbnailHeight));
+        int[] pixels = new int[thumbnailWidth * thumbnailHeight];
+        decoded.draw(pixels, thumbnailWidth, 0, thumbnailHeight, new int[]{0, 0, thumbnailWidth, thumbnailHeight});
+        return new PixelImage(thumbnailWidth, thumbnailHeight, pixels);
+    }
+
+    /**
+     * Draws the outline of a rectangle into a band of rows. Coordinates are inclusive.
+     *
+     * @param rows       the pixels of the band as Argb.
+     * @param stride     the number of pixels per row of the band.
+     * @param bandTop    the top of the band.
+     * @param bandHeight the number of rows in the band.
+     * @param left       the left side of the rectangle.
+     * @param top        the top of the rectangle.
+     * @param right      the right side of the rectangle.
+     * @param bottom     the bottom of the rectangle.
+     * @param color      the color as Argb.
+     */
+    private static void drawOutline(int[] rows, int stride, int bandTop, int bandHeight, int left, int top,
+                                    int right, int bottom, int color) {
+        int clippedLeft = Math.max(0, left);
+        int clippedRight = Math.min(stride - 1, right);
+        int bandBottom = bandTop + bandHeight;
+        for (int y = Math.max(top, bandTop); y <= bottom && y < bandBottom; y++) {
+            int rowOffset = (y - bandTop) * stride;
+            if (y == top || y == bottom) {
+                if (clippedLeft <= clippedRight) {
+                    Arrays.fill(rows, rowOffset + clippedLeft, rowOffset + clippedRight + 1, color);
+                }
+            } else {
+                if (left >= 0 && left < stride) {
+                    rows[rowOffset + left] = color;
+                }
+                if (right >= 0 && right < stride) {
+                    rows[rowOffset + right] = color;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds Jpegs under a directory, in path order.
+     *
+     * @param directory the directory.
+     * @param jpegs     the list to add the Jpegs to.
+     */
+    private static void findJpegs(File directory, List<File> jpegs) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findJpegs(file, jpegs);
+            } else if (file.getName().toLowerCase(Locale.US).endsWith(JPEG_EXTENSION)) {
+                jpegs.add(file);
+            }
+        }
+    }
+
+    /**
+     * Reads a file into memory.
+     *
+     * @param file the file.
+     * @return the file contents.
+     * @throws IOException if the file cannot be read.
+     */
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(0L, Math.min(file.length(),
+                    Integer.MAX_VALUE)));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,770 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.export;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Exports files into one ZIP archive, so all photo strips of an event can be handed off as a single file. Entries
+ * are stored rather than deflated, since Jpegs do not compress. Each file is read once to compute its CRC, then
+ * copied into the archive with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the data is not copied through the heap.
+ * <p/>
+ * A file that is missing or cannot be read, for example because it was deleted while the export ran, is left out of
+ * the archive and reported by {@link #getSkippedNames()}, so one bad file does not fail the whole export.
+ * <p/>
+ * The archive is written to a part file next to it, and each entry is recorded in a journal once its data is synced:
+ * <pre>
+ * ENTRY &lt;header offset&gt; &lt;size&gt; &lt;crc&gt; &lt;dos time&gt; &lt;name&gt;
+ * SKIP &lt;name&gt;
+ * </pre>
+ * An interrupted or cancelled export resumes after the last recorded entry, as long as the entries recorded still
+ * match the size and modification time of the files being exported, and the files skipped are still missing. The
+ * central directory is streamed from the journal at the end, so memory use is constant no matter how many entries
+ * there are. ZIP64 records are added when the archive outgrows the ZIP format.
+ * <p/>
+ * Has no Android dependencies, so it can also run on a desktop JVM.
+ *
+ * @author Benedict Lau
+ */
+public class ZipExporter {
+
+    /**
+     * The suffix of the part file that the archive is written to.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * The suffix of the progress journal.
+     */
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * The max size of an entry, above which the entry itself would need ZIP64 sizes.
+     */
+    public static final long MAX_ENTRY_SIZE = 0xFFFFFFFEL;
+
+    /**
+     * Journal record of an entry written to the part file.
+     */
+    private static final String RECORD_ENTRY = "ENTRY";
+
+    /**
+     * Journal record of a file left out of the archive because it could not be read.
+     */
+    private static final String RECORD_SKIP = "SKIP";
+
+    /**
+     * The separator between fields in a journal record.
+     */
+    private static final char FIELD_SEPARATOR = ' ';
+
+    /**
+     * The encoding of the journal and entry names.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The number of entries written between syncs of the part file and the journal.
+     */
+    private static final int JOURNAL_BATCH_SIZE = 32;
+
+    /**
+     * The size of the buffer used for the CRC pass and the central directory.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+
+    private static final int END_SIGNATURE = 0x06054B50;
+
+    private static final int ZIP64_END_SIGNATURE = 0x06064B50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private static final int END_SIZE = 22;
+
+    private static final int ZIP64_END_SIZE = 56;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    /**
+     * The size of the ZIP64 extra field of a central header that only holds the header offset.
+     */
+    private static final int ZIP64_EXTRA_SIZE = 12;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    /**
+     * The version needed to extract a stored entry.
+     */
+    private static final int VERSION_STORED = 10;
+
+    /**
+     * The version needed to extract an entry with ZIP64 records.
+     */
+    private static final int VERSION_ZIP64 = 45;
+
+    /**
+     * General purpose flag marking the entry name as UTF-8.
+     */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int METHOD_STORED = 0;
+
+    /**
+     * Value of a 16-bit field that has overflowed into a ZIP64 record.
+     */
+    private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+    /**
+     * Value of a 32-bit field that has overflowed into a ZIP64 record.
+     */
+    private static final long ZIP64_MAGIC_INT = 0xFFFFFFFFL;
+
+    /**
+     * The archive.
+     */
+    private final File mZipFile;
+
+    /**
+     * The part file that the archive is written to.
+     */
+    private final File mPartFile;
+
+    /**
+     * The progress journal.
+     */
+    private final File mJournalFile;
+
+    /**
+     * The buffer used for the CRC pass.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Flag to track whether the export has been cancelled.
+     */
+    private volatile boolean mIsCancelled = false;
+
+    /**
+     * The names of the entries left out of the last export.
+     */
+    private volatile List<String> mSkippedNames = Collections.emptyList();
+
+    /**
+     * Constructor.
+     *
+     * @param zipFile the archive to export to. The part file and journal are written next to it.
+     */
+    public ZipExporter(File zipFile) {
+        mZipFile = zipFile;
+        mPartFile = new File(zipFile.getPath() + PART_SUFFIX);
+        mJournalFile = new File(zipFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the archive.
+     *
+     * @return the file.
+     */
+    public File getZipFile() {
+        return mZipFile;
+    }
+
+    /**
+     * Checks whether an interrupted export is waiting to be resumed.
+     *
+     * @return true if a part file and journal exist; false otherwise.
+     */
+    public boolean isResumable() {
+        return mPartFile.isFile() && mJournalFile.isFile();
+    }
+
+    /**
+     * Gets the names of the entries left out of the last export because their files were missing or could not be
+     * read, including those skipped before the export was resumed.
+     *
+     * @return the entry names, in export order.
+     */
+    public List<String> getSkippedNames() {
+        return mSkippedNames;
+    }
+
+    /**
+     * Cancels an export in progress. The entries written so far are kept, so the export can be resumed. May be
+     * called from any thread.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+    }
+
+    /**
+     * Exports files into the archive, resuming an interrupted export of the same files if there is one. Blocks until
+     * the archive is complete, so call from a background thread.
+     *
+     * @param names    the name of each entry, with '/' separators.
+     * @param files    the file of each entry, in the same order as the names.
+     * @param listener the listener to report progress to; or null to not report progress.
+     * @return true if the archive is complete, even if some files were skipped; false if the export failed or was
+     * cancelled.
+     */
+    public boolean export(List<String> names, List<File> files, ProgressListener listener) {
+        mIsCancelled = false;
+        final int entryCount = files.size();
+        long totalByteCount = 0L;
+        for (File file : files) {
+            totalByteCount += file.length();
+        }
+
+        // Resume after the entries already recorded, and cut off anything written after them.
+        Progress progress = readJournal(names, files);
+        boolean isSuccessful = false;
+        RandomAccessFile partFile = null;
+        FileOutputStream journal = null;
+        try {
+            partFile = new RandomAccessFile(mPartFile, "rw");
+            FileChannel channel = partFile.getChannel();
+            channel.truncate(progress.mPosition);
+            channel.position(progress.mPosition);
+            truncateJournal(progress.mJournalLength);
+            journal = new FileOutputStream(mJournalFile, true);
+
+            if (listener != null) {
+                listener.onProgress(progress.mEntryCount, entryCount, progress.mByteCount, totalByteCount);
+            }
+
+            StringBuilder pendingRecords = new StringBuilder();
+            int pendingCount = 0;
+            for (int i = progress.mEntryCount; i < entryCount; i++) {
+                if (mIsCancelled) {
+                    break;
+                }
+
+                String name = names.get(i);
+                String record = writeEntry(channel, name, files.get(i));
+                if (record != null) {
+                    progress.mArchivedCount++;
+                    progress.mByteCount += files.get(i).length();
+                } else {
+                    record = RECORD_SKIP + FIELD_SEPARATOR + name;
+                    progress.mSkippedNames.add(name);
+                }
+                pendingRecords.append(record).append('\n');
+                pendingCount++;
+                progress.mEntryCount++;
+
+                if (pendingCount == JOURNAL_BATCH_SIZE) {
+                    syncJournal(channel, journal, pendingRecords);
+                    pendingCount = 0;
+                }
+
+                if (listener != null) {
+                    listener.onProgress(progress.mEntryCount, entryCount, progress.mByteCount, totalByteCount);
+                }
+            }
+            syncJournal(channel, journal, pendingRecords);
+
+            if (progress.mEntryCount == entryCount) {
+                writeCentralDirectory(channel, progress.mArchivedCount);
+                channel.force(false);
+                isSuccessful = true;
+            }
+        } catch (IOException e) {
+            // Report failure.
+        } finally {
+            close(journal);
+            close(partFile);
+            mSkippedNames = Collections.unmodifiableList(progress.mSkippedNames);
+        }
+
+        // Move the complete archive into place.
+        if (isSuccessful) {
+            if (mZipFile.exists() && !mZipFile.delete()) {
+                return false;
+            }
+            isSuccessful = mPartFile.renameTo(mZipFile);
+            if (isSuccessful) {
+                mJournalFile.delete();
+            }
+        }
+        return isSuccessful;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Writes one stored entry at the position of the channel. The file is read once to compute its CRC, then
+     * transferred into the channel. Nothing is written if the file cannot be read.
+     *
+     * @param channel the channel of the part file.
+     * @param name    the entry name.
+     * @param file    the file of the entry.
+     * @return the journal record of the entry, without a line break; or null if the file is missing, too large, or
+     * cannot be read.
+     * @throws IOException if the part file cannot be written, or the file fails after it was read.
+     */
+    private String writeEntry(FileChannel channel, String name, File file) throws IOException {
+        long size = file.length();
+        if (!file.isFile() || size > MAX_ENTRY_SIZE) {
+            return null;
+        }
+
+        FileInputStream inputStream;
+        try {
+            inputStream = new FileInputStream(file);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            // Compute the CRC, which the local header needs ahead of the data.
+            CRC32 crc = new CRC32();
+            long readCount = 0L;
+            try {
+                int read;
+                while ((read = inputStream.read(mBuffer)) != -1) {
+                    crc.update(mBuffer, 0, read);
+                    readCount += read;
+                }
+            } catch (IOException e) {
+                return null;
+            }
+            if (readCount != size) {
+                return null;
+            }
+
+            long headerOffset = channel.position();
+            int dosTime = getDosTime(file.lastModified());
+            byte[] nameBytes = name.getBytes(ENCODING);
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(LOCAL_HEADER_SIGNATURE).putShort((short) VERSION_STORED).putShort((short) FLAG_UTF8)
+                    .putShort((short) METHOD_STORED).putInt(dosTime).putInt((int) crc.getValue())
+                    .putInt((int) size).putInt((int) size).putShort((short) nameBytes.length).putShort((short) 0)
+                    .put(nameBytes).flip();
+            writeFully(channel, header);
+
+            // Transfer the data without copying it through the heap.
+            FileChannel fileChannel = inputStream.getChannel();
+            long transferred = 0L;
+            while (transferred < size) {
+                long count = fileChannel.transferTo(transferred, size - transferred, channel);
+                if (count <= 0L) {
+                    throw new IOException("Failed to transfer " + file);
+                }
+                transferred += count;
+            }
+
+            return RECORD_ENTRY + FIELD_SEPARATOR + headerOffset + FIELD_SEPARATOR + size + FIELD_SEPARATOR
+                    + crc.getValue() + FIELD_SEPARATOR + dosTime + FIELD_SEPARATOR + name;
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    /**
+     * Syncs the entries written to the part file, then records them in the journal and syncs it, so the journal
+     * never records data that is not on disk.
+     *
+     * @param channel        the channel of the part file.
+     * @param journal        the output stream of the journal.
+     * @param pendingRecords the records of the entries written since the last sync. Cleared when recorded.
+     * @throws IOException if either file cannot be synced.
+     */
+    private static void syncJournal(FileChannel channel, FileOutputStream journal, StringBuilder pendingRecords)
+            throws IOException {
+        if (pendingRecords.length() == 0) {
+            return;
+        }
+
+        channel.force(false);
+        journal.write(pendingRecords.toString().getBytes(ENCODING));
+        journal.getFD().sync();
+        pendingRecords.setLength(0);
+    }
+
+    /**
+     * Reads how far a previous export of the same files got. Records are only trusted while they match the files in
+     * order, are complete and describe data that the part file holds. An entry must still match its file's size and
+     * modification time, and a skipped file must still be missing, or the export resumes from that file.
+     *
+     * @param names the name of each entry.
+     * @param files the file of each entry.
+     * @return the {@link Progress} to resume from.
+     */
+    private Progress readJournal(List<String> names, List<File> files) {
+        Progress progress = new Progress();
+        if (!mPartFile.isFile() || !mJournalFile.isFile()) {
+            return progress;
+        }
+
+        long partLength = mPartFile.length();
+        long journalLength = mJournalFile.length();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile),
+                    ENCODING));
+            try {
+                String line;
+                while (progress.mEntryCount < files.size() && (line = reader.readLine()) != null) {
+                    // A record cut short by a crash has no line break.
+                    long recordLength = line.getBytes(ENCODING).length + 1;
+                    if (progress.mJournalLength + recordLength > journalLength) {
+                        break;
+                    }
+
+                    String name = names.get(progress.mEntryCount);
+                    File file = files.get(progress.mEntryCount);
+                    if (isSkipRecord(line)) {
+                        // Retry a skipped file that has come back.
+                        if (!line.equals(RECORD_SKIP + FIELD_SEPARATOR + name) || file.isFile()) {
+                            break;
+                        }
+
+                        progress.mEntryCount++;
+                        progress.mSkippedNames.add(name);
+                        progress.mJournalLength += recordLength;
+                        continue;
+                    }
+
+                    Entry entry = Entry.parse(line);
+                    if (entry == null || !entry.mName.equals(name) || entry.mHeaderOffset != progress.mPosition
+                            || entry.mSize != file.length() || entry.mDosTime != getDosTime(file.lastModified())) {
+                        break;
+                    }
+                    long end = entry.getEnd();
+                    if (end > partLength) {
+                        break;
+                    }
+
+                    progress.mEntryCount++;
+                    progress.mArchivedCount++;
+                    progress.mByteCount += entry.mSize;
+                    progress.mPosition = end;
+                    progress.mJournalLength += recordLength;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Resume from the records read so far.
+        }
+        return progress;
+    }
+
+    /**
+     * Cuts the journal off after the records that are resumed from.
+     *
+     * @param length the length of the journal to keep.
+     * @throws IOException if the journal cannot be truncated.
+     */
+    private void truncateJournal(long length) throws IOException {
+        RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            journal.setLength(length);
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Writes the central directory from the entry records of the journal at the position of the channel, followed by
+     * the end records.
+     *
+     * @param channel    the channel of the part file.
+     * @param entryCount the number of entry records in the journal, not counting skip records.
+     * @throws IOException if the journal cannot be read or the part file cannot be written.
+     */
+    private void writeCentralDirectory(FileChannel channel, int entryCount) throws IOException {
+        final long centralOffset = channel.position();
+        OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + ZIP64_EXTRA_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long centralSize = 0L;
+
+        InputStream journalStream = new FileInputStream(mJournalFile);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(journalStream, ENCODING));
+            int i = 0;
+            while (i < entryCount) {
+                String line = reader.readLine();
+                if (line != null && isSkipRecord(line)) {
+                    continue;
+                }
+                Entry entry = Entry.parse(line);
+                if (entry == null) {
+                    throw new IOException("Journal does not match the part file");
+                }
+                i++;
+
+                byte[] nameBytes = entry.mName.getBytes(ENCODING);
+                boolean isZip64 = entry.mHeaderOffset >= ZIP64_MAGIC_INT;
+                int version = isZip64 ? VERSION_ZIP64 : VERSION_STORED;
+                buffer.clear();
+                buffer.putInt(CENTRAL_HEADER_SIGNATURE).putShort((short) version).putShort((short) version)
+                        .putShort((short) FLAG_UTF8).putShort((short) METHOD_STORED).putInt(entry.mDosTime)
+                        .putInt((int) entry.mCrc).putInt((int) entry.mSize).putInt((int) entry.mSize)
+                        .putShort((short) nameBytes.length).putShort((short) (isZip64 ? ZIP64_EXTRA_SIZE : 0))
+                        .putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0)
+                        .putInt((int) (isZip64 ? ZIP64_MAGIC_INT : entry.mHeaderOffset));
+                outputStream.write(buffer.array(), 0, CENTRAL_HEADER_SIZE);
+                outputStream.write(nameBytes);
+                int recordSize = CENTRAL_HEADER_SIZE + nameBytes.length;
+                if (isZip64) {
+                    buffer.clear();
+                    buffer.putShort((short) ZIP64_EXTRA_ID).putShort((short) (ZIP64_EXTRA_SIZE - 4))
+                            .putLong(entry.mHeaderOffset);
+                    outputStream.write(buffer.array(), 0, ZIP64_EXTRA_SIZE);
+                    recordSize += ZIP64_EXTRA_SIZE;
+                }
+                centralSize += recordSize;
+            }
+        } finally {
+            close(journalStream);
+        }
+
+        // Add the ZIP64 end records if any field of the end record overflows.
+        long zip64EndOffset = centralOffset + centralSize;
+        boolean isZip64 = entryCount >= ZIP64_MAGIC_SHORT || centralOffset >= ZIP64_MAGIC_INT
+                || centralSize >= ZIP64_MAGIC_INT;
+        ByteBuffer end = ByteBuffer.allocate(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE + END_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (isZip64) {
+            end.putInt(ZIP64_END_SIGNATURE).putLong(ZIP64_END_SIZE - 12).putShort((short) VERSION_ZIP64)
+                    .putShort((short) VERSION_ZIP64).putInt(0).putInt(0).putLong(entryCount).putLong(entryCount)
+                    .putLong(centralSize).putLong(centralOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE).putInt(0).putLong(zip64EndOffset).putInt(1);
+        }
+        int shortCount = isZip64 ? ZIP64_MAGIC_SHORT : entryCount;
+        end.putInt(END_SIGNATURE).putShort((short) 0).putShort((short) 0).putShort((short) shortCount)
+                .putShort((short) shortCount).putInt((int) Math.min(centralSize, ZIP64_MAGIC_INT))
+                .putInt((int) Math.min(centralOffset, ZIP64_MAGIC_INT)).putShort((short) 0);
+        outputStream.write(end.array(), 0, end.position());
+        outputStream.flush();
+    }
+
+    /**
+     * Checks whether a journal record is for a file left out of the archive.
+     *
+     * @param record the record.
+     * @return true if the record is a skip record; false otherwise.
+     */
+    private static boolean isSkipRecord(String record) {
+        return record.startsWith(RECORD_SKIP + FIELD_SEPARATOR);
+    }
+
+    /**
+     * Writes a buffer fully at the position of a channel.
+     *
+     * @param channel the channel.
+     * @param buffer  the buffer.
+     * @throws IOException if the write fails.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Converts a time to the MS-DOS date and time used by ZIP headers, in the local time zone.
+     *
+     * @param time the time in milliseconds.
+     * @return the date in the high 16 bits and the time in the low 16 bits.
+     */
+    private static int getDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // The earliest date that can be stored.
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Closes a file, ignoring failure.
+     *
+     * @param closeable the file; or null.
+     */
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Do nothing.
+            }
+        }
+    }
+
+    //
+    // Public inner classes.
+    //
+
+    /**
+     * Listener for the progress of an export.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Reports progress after each entry is written or skipped, including the entries resumed from a previous
+         * export. Called on the exporting thread.
+         *
+         * @param entryCount      the number of entries written or skipped so far.
+         * @param totalEntryCount the number of entries to export.
+         * @param byteCount       the number of file bytes in the archive so far.
+         * @param totalByteCount  the number of file bytes to export.
+         */
+        public void onProgress(int entryCount, int totalEntryCount, long byteCount, long totalByteCount);
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * How far an export has got.
+     */
+    private static class Progress {
+
+        /**
+         * The number of files done, whether archived or skipped.
+         */
+        private int mEntryCount = 0;
+
+        /**
+         * The number of entries in the part file.
+         */
+        private int mArchivedCount = 0;
+
+        private long mByteCount = 0L;
+
+        /**
+         * The end of the last entry in the part file.
+         */
+        private long mPosition = 0L;
+
+        /**
+         * The length of the journal up to the record of the last entry.
+         */
+        private long mJournalLength = 0L;
+
+        /**
+         * The names of the entries skipped so far.
+         */
+        private final List<String> mSkippedNames = new ArrayList<String>();
+    }
+
+    /**
+     * An entry recorded in the journal.
+     */
+    private static class Entry {
+
+        private final String mName;
+
+        private final long mHeaderOffset;
+
+        private final long mSize;
+
+        private final long mCrc;
+
+        private final int mDosTime;
+
+        /**
+         * Constructor.
+         *
+         * @param name         the entry name.
+         * @param headerOffset the offset of the local header in the archive.
+         * @param size         the size of the data.
+         * @param crc          the CRC-32 of the data.
+         * @param dosTime      the MS-DOS date and time of the entry.
+         */
+        private Entry(String name, long headerOffset, long size, long crc, int dosTime) {
+            mName = name;
+            mHeaderOffset = headerOffset;
+            mSize = size;
+            mCrc = crc;
+            mDosTime = dosTime;
+        }
+
+        /**
+         * Parses a journal record.
+         *
+         * @param record the record; or null.
+         * @return the {@link Entry}; or null if the record is not a valid entry record.
+         */
+        private static Entry parse(String record) {
+            if (record == null) {
+                return null;
+            }
+
+            String[] fields = record.split(String.valueOf(FIELD_SEPARATOR), 6);
+            if (fields.length != 6 || !RECORD_ENTRY.equals(fields[0]) || fields[5].length() == 0) {
+                return null;
+            }
+            try {
+                return new Entry(fields[5], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), Integer.parseInt(fields[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Gets the end of the entry in the archive.
+         *
+         * @return the offset after the data.
+         * @throws IOException if the name cannot be encoded.
+         */
+        private long getEnd() throws IOException {
+            return mHeaderOffset + LOCAL_HEADER_SIZE + mName.getBytes(ENCODING).length + mSize;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes entropy-coded Jpeg data, inserting a stuffed zero byte after every 0xFF byte.
+ *
+ * @author Benedict Lau
+ */
+class BitWriter {
+
+    /**
+     * The size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The output stream.
+     */
+    private final OutputStream mOut;
+
+    /**
+     * The output buffer.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of bytes in the output buffer.
+     */
+    private int mBufferLength = 0;
+
+    /**
+     * Bits waiting to be written, aligned to the least significant bit.
+     */
+    private int mBits = 0;
+
+    /**
+     * The number of bits waiting to be written.
+     */
+    private int mBitCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param out the output stream.
+     */
+    BitWriter(OutputStream out) {
+        mOut = out;
+    }
+
+    /**
+     * Writes the low bits of a value, most significant bit first.
+     *
+     * @param value  the value.
+     * @param length the number of bits to write, at most 16.
+     * @throws IOException if the write fails.
+     */
+    void writeBits(int value, int length) throws IOException {
+        mBits = (mBits << length) | (value & ((1 << length) - 1));
+        mBitCount += length;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            int b = (mBits >> mBitCount) & 0xFF;
+            writeByte(b);
+            if (b == 0xFF) {
+                writeByte(0);
+            }
+        }
+    }
+
+    /**
+     * Writes a Huffman code.
+     *
+     * @param code the code in the low 16 bits and the code length in the high 16 bits.
+     * @throws IOException if the write fails.
+     */
+    void writeCode(int code) throws IOException {
+        writeBits(code & 0xFFFF, code >>> 16);
+    }
+
+    /**
+     * Pads the pending bits with ones to the next byte boundary.
+     *
+     * @throws IOException if the write fails.
+     */
+    void alignToByte() throws IOException {
+        if (mBitCount > 0) {
+            writeBits(0x7F, 8 - mBitCount);
+        }
+        mBits = 0;
+    }
+
+    /**
+     * Writes a marker. Pending bits must be aligned before calling this.
+     *
+     * @param marker the marker code following the 0xFF prefix.
+     * @throws IOException if the write fails.
+     */
+    void writeMarker(int marker) throws IOException {
+        writeByte(0xFF);
+        writeByte(marker);
+    }
+
+    /**
+     * Writes raw bytes, bypassing byte stuffing. Pending bits must be aligned before calling this.
+     *
+     * @param bytes  the bytes.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @throws IOException if the write fails.
+     */
+    void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+        flush();
+        mOut.write(bytes, offset, length);
+    }
+
+    /**
+     * Writes a big-endian 16-bit header value. Pending bits must be aligned before calling this.
+     *
+     * @param value the value.
+     * @throws IOException if the write fails.
+     */
+    void writeShort(int value) throws IOException {
+        writeBytes(value >> 8, value & 0xFF);
+    }
+
+    /**
+     * Writes header bytes, bypassing byte stuffing. Pending bits must be aligned before calling this.
+     *
+     * @param values the byte values.
+     * @throws IOException if the write fails.
+     */
+    void writeBytes(int... values) throws IOException {
+        for (int value : values) {
+            writeByte(value & 0xFF);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream.
+     *
+     * @throws IOException if the write fails.
+     */
+    void flush() throws IOException {
+        if (mBufferLength > 0) {
+            mOut.write(mBuffer, 0, mBufferLength);
+            mBufferLength = 0;
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Writes a byte to the output buffer.
+     *
+     * @param b the byte.
+     * @throws IOException if the write fails.
+     */
+    private void writeByte(int b) throws IOException {
+        if (mBufferLength == BUFFER_SIZE) {
+            flush();
+        }
+        mBuffer[mBufferLength++] = (byte) b;
+    }
+}
@@ -0,0 +1,1097 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import java.io.IOException;
+
+/**
+ * A streaming baseline Jpeg decoder in plain Java that can scale the image down by 2, 4 or 8 while decoding. Scaling
+ * happens in the Dct domain: only the low-frequency coefficients needed for the output size are run through a smaller
+ * inverse Dct, so a 1/8 scale decode never computes a single full-size pixel. Pixels are returned one row of blocks at
+ * a time, and all buffers are allocated once per image.
+ * <p/>
+ * Usage:
+ * <pre>
+ * JpegDecoder decoder = new JpegDecoder(jpegData);
+ * decoder.setScale(JpegDecoder.getScaleForSize(decoder.getWidth(), decoder.getHeight(), minSize));
+ * int[] rows = new int[decoder.getOutputWidth() * decoder.getMaxRowsPerRead()];
+ * int numRows;
+ * while ((numRows = decoder.readRows(rows, 0, decoder.getOutputWidth())) > 0) {
+ *     // Consume rows.
+ * }
+ * </pre>
+ * Only sequential Huffman-coded 8-bit images with one or three components are supported, which covers camera output.
+ *
+ * @author Benedict Lau
+ */
+public class JpegDecoder {
+
+    /**
+     * The largest supported scale denominator.
+     */
+    public static final int MAX_SCALE = 8;
+
+    /**
+     * The width and height of a block.
+     */
+    private static final int BLOCK_LENGTH = 8;
+
+    /**
+     * Marker codes that terminate the header.
+     */
+    private static final int SOF1 = 0xC1;
+
+    /**
+     * The first start-of-frame marker code for unsupported coding processes.
+     */
+    private static final int SOF_UNSUPPORTED_FIRST = 0xC2;
+
+    /**
+     * The last start-of-frame marker code.
+     */
+    private static final int SOF_LAST = 0xCF;
+
+    /**
+     * Arithmetic coding conditioning marker, which shares the start-of-frame code range.
+     */
+    private static final int DAC = 0xCC;
+
+    /**
+     * The max number of symbols in a Huffman table, one for each byte value.
+     */
+    private static final int MAX_HUFFMAN_VALUES = 256;
+
+    //
+    // Fixed-point color conversion tables, indexed by the chroma sample.
+    //
+
+    private static final int COLOR_SHIFT = 16;
+
+    private static final int[] CR_TO_R = new int[256];
+
+    private static final int[] CB_TO_B = new int[256];
+
+    private static final int[] CR_TO_G = new int[256];
+
+    private static final int[] CB_TO_G = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            CR_TO_R[i] = (int) Math.round(1.402 * c);
+            CB_TO_B[i] = (int) Math.round(1.772 * c);
+            CR_TO_G[i] = (int) Math.round(-0.714136 * (1 << COLOR_SHIFT) * c);
+            CB_TO_G[i] = (int) Math.round(-0.344136 * (1 << COLOR_SHIFT) * c) + (1 << (COLOR_SHIFT - 1));
+        }
+    }
+
+    /**
+     * The Jpeg data.
+     */
+    private final byte[] mData;
+
+    /**
+     * The read position in the Jpeg data.
+     */
+    private int mPosition = 0;
+
+    /**
+     * The image width.
+     */
+    private int mWidth = 0;
+
+    /**
+     * The image height.
+     */
+    private int mHeight = 0;
+
+    /**
+     * The image components.
+     */
+    private Component[] mComponents = null;
+
+    /**
+     * The max horizontal sampling factor of the components.
+     */
+    private int mMaxH = 1;
+
+    /**
+     * The max vertical sampling factor of the components.
+     */
+    private int mMaxV = 1;
+
+    /**
+     * Quantization tables in natural order, indexed by table id.
+     */
+    private final int[][] mQuantization = new int[4][];
+
+    /**
+     * Huffman tables for Dc coefficients, indexed by table id.
+     */
+    private final HuffmanTable[] mDcTables = new HuffmanTable[4];
+
+    /**
+     * Huffman tables for Ac coefficients, indexed by table id.
+     */
+    private final HuffmanTable[] mAcTables = new HuffmanTable[4];
+
+    /**
+     * The number of Mcus between restart markers; or 0 if there are none.
+     */
+    private int mRestartInterval = 0;
+
+    /**
+     * The scale denominator.
+     */
+    private int mScale = 1;
+
+    /**
+     * The width and height of a decoded block at the current scale.
+     */
+    private int mBlockSize = BLOCK_LENGTH;
+
+    /**
+     * The inverse Dct basis at the current scale, as [position * block size + frequency].
+     */
+    private float[] mIdctBasis = null;
+
+    /**
+     * The number of Mcus in a row.
+     */
+    private int mMcusPerRow = 0;
+
+    /**
+     * The number of Mcu rows.
+     */
+    private int mMcuRows = 0;
+
+    /**
+     * The number of Mcu rows decoded so far.
+     */
+    private int mMcuRowsDecoded = 0;
+
+    /**
+     * The number of Mcus decoded so far.
+     */
+    private int mMcusDecoded = 0;
+
+    /**
+     * Bits read from the entropy-coded data, aligned to the least significant bit.
+     */
+    private int mBits = 0;
+
+    /**
+     * The number of valid bits in {@link #mBits}.
+     */
+    private int mBitCount = 0;
+
+    /**
+     * Whether a marker has been reached in the entropy-coded data.
+     */
+    private boolean mIsMarkerReached = false;
+
+    /**
+     * Reusable buffer for dequantized coefficients in natural order.
+     */
+    private final int[] mCoefficients = new int[JpegTables.BLOCK_SIZE];
+
+    /**
+     * Reusable buffer for the intermediate inverse Dct result.
+     */
+    private final float[] mTemp = new float[JpegTables.BLOCK_SIZE];
+
+    /**
+     * Constructor. Reads the headers up to the start of the entropy-coded data.
+     *
+     * @param data the Jpeg data.
+     * @throws IOException if the data is not a supported Jpeg.
+     */
+    public JpegDecoder(byte[] data) throws IOException {
+        mData = data;
+        readHeaders();
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the largest scale denominator that keeps the short edge of the output at least a given size.
+     *
+     * @param width        the image width.
+     * @param height       the image height.
+     * @param minShortEdge the min length of the short edge of the output.
+     * @return the scale denominator, one of 1, 2, 4 or 8.
+     */
+    public static int getScaleForSize(int width, int height, int minShortEdge) {
+        int shortEdge = Math.min(width, height);
+        int scale = 1;
+        while (scale < MAX_SCALE && getScaledLength(shortEdge, scale * 2) >= minShortEdge) {
+            scale *= 2;
+        }
+        return scale;
+    }
+
+    /**
+     * Gets the image width.
+     *
+     * @return the width.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Gets the image height.
+     *
+     * @return the height.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Sets the scale to decode at. Must be called before the first call to {@link #readRows(int[], int, int)}.
+     *
+     * @param scale the scale denominator, one of 1, 2, 4 or 8.
+     */
+    public void setScale(int scale) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("Unsupported scale 1/" + scale);
+        }
+        if (mMcuRowsDecoded > 0) {
+            throw new IllegalStateException("Scale must be set before decoding");
+        }
+
+        mScale = scale;
+        mBlockSize = BLOCK_LENGTH / scale;
+        mIdctBasis = null;
+        for (Component component : mComponents) {
+            component.mPlane = null;
+        }
+    }
+
+    /**
+     * Gets the width of the decoded output at the current scale.
+     *
+     * @return the output width.
+     */
+    public int getOutputWidth() {
+        return getScaledLength(mWidth, mScale);
+    }
+
+    /**
+     * Gets the height of the decoded output at the current scale.
+     *
+     * @return the output height.
+     */
+    public int getOutputHeight() {
+        return getScaledLength(mHeight, mScale);
+    }
+
+    /**
+     * Gets the max number of rows returned by one call to {@link #readRows(int[], int, int)}.
+     *
+     * @return the number of rows in one row of Mcus at the current scale.
+     */
+    public int getMaxRowsPerRead() {
+        return mMaxV * mBlockSize;
+    }
+
+    /**
+     * Decodes the next row of Mcus.
+     *
+     * @param argb   the output pixels as packed opaque ARGB colors.
+     * @param offset the index of the first pixel of the first row.
+     * @param stride the number of pixels between the starts of consecutive rows.
+     * @return the number of rows decoded, at most {@link #getMaxRowsPerRead()}; or 0 if all rows are decoded.
+     * @throws IOException if the entropy-coded data is corrupt.
+     */
+    public int readRows(int[] argb, int offset, int stride) throws IOException {
+        if (mMcuRowsDecoded >= mMcuRows) {
+            return 0;
+        }
+        if (mIdctBasis == null) {
+            prepareBuffers();
+        }
+
+        decodeMcuRow();
+
+        int outputHeight = getOutputHeight();
+        int firstRow = mMcuRowsDecoded * getMaxRowsPerRead();
+        int numRows = Math.min(getMaxRowsPerRead(), outputHeight - firstRow);
+        writeRows(argb, offset, stride, numRows);
+
+        mMcuRowsDecoded++;
+        return numRows;
+    }
+
+    //
+    // Package private methods.
+    //
+
+    /**
+     * Gets the number of components.
+     *
+     * @return the number of components.
+     */
+    int getComponentCount() {
+        return mComponents.length;
+    }
+
+    /**
+     * Gets the id of a component.
+     *
+     * @param component the component index.
+     * @return the component id.
+     */
+    int getComponentId(int component) {
+        return mComponents[component].mId;
+    }
+
+    /**
+     * Gets the horizontal sampling factor of a component.
+     *
+     * @param component the component index.
+     * @return the number of blocks of the component across one Mcu.
+     */
+    int getHorizontalSampling(int component) {
+        return mComponents[component].mH;
+    }
+
+    /**
+     * Gets the vertical sampling factor of a component.
+     *
+     * @param component the component index.
+     * @return the number of blocks of the component down one Mcu.
+     */
+    int getVerticalSampling(int component) {
+        return mComponents[component].mV;
+    }
+
+    /**
+     * Gets the id of the quantization table of a component.
+     *
+     * @param component the component index.
+     * @return the table id.
+     */
+    int getQuantizationTableId(int component) {
+        return mComponents[component].mQuantizationTable;
+    }
+
+    /**
+     * Gets the quantization table of a component.
+     *
+     * @param component the component index.
+     * @return the table in natural order.
+     */
+    int[] getQuantizationTable(int component) {
+        return mComponents[component].mQuantization;
+    }
+
+    /**
+     * Gets the number of Mcus in a row.
+     *
+     * @return the number of Mcus.
+     */
+    int getMcusPerRow() {
+        return mMcusPerRow;
+    }
+
+    /**
+     * Gets the number of Mcu rows.
+     *
+     * @return the number of Mcu rows.
+     */
+    int getMcuRows() {
+        return mMcuRows;
+    }
+
+    /**
+     * Decodes the quantized coefficients of the next row of Mcus, without dequantizing or transforming them. Cannot be
+     * mixed with {@link #readRows(int[], int, int)}.
+     *
+     * @param coefficients the output coefficients for each component, in natural order. The blocks of a component are
+     *                     laid out row by row, with {@link #getMcusPerRow()} times its horizontal sampling factor
+     *                     blocks in each row and its vertical sampling factor rows.
+     * @return true if a row was decoded; false if all rows are decoded.
+     * @throws IOException if the entropy-coded data is corrupt.
+     */
+    boolean readCoefficients(int[][] coefficients) throws IOException {
+        if (mMcuRowsDecoded >= mMcuRows) {
+            return false;
+        }
+
+        for (int mcuX = 0; mcuX < mMcusPerRow; mcuX++) {
+            startMcu();
+            for (int c = 0; c < mComponents.length; c++) {
+                Component component = mComponents[c];
+                int blocksPerLine = mMcusPerRow * component.mH;
+                for (int v = 0; v < component.mV; v++) {
+                    for (int h = 0; h < component.mH; h++) {
+                        int block = v * blocksPerLine + mcuX * component.mH + h;
+                        decodeBlock(component, coefficients[c], block * JpegTables.BLOCK_SIZE, null, BLOCK_LENGTH);
+                    }
+                }
+            }
+        }
+
+        mMcuRowsDecoded++;
+        return true;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets a length scaled down by a denominator, rounding up.
+     *
+     * @param length the length.
+     * @param scale  the scale denominator.
+     * @return the scaled length.
+     */
+    private static int getScaledLength(int length, int scale) {
+        return (length + scale - 1) / scale;
+    }
+
+    /**
+     * Reads the marker segments up to and including the start of scan.
+     *
+     * @throws IOException if the data is not a supported Jpeg.
+     */
+    private void readHeaders() throws IOException {
+        if (readByte() != 0xFF || readByte() != JpegTables.SOI) {
+            throw new IOException("Not a Jpeg");
+        }
+
+        while (true) {
+            int marker = readMarker();
+            if (marker == JpegTables.SOS) {
+                readStartOfScan();
+                return;
+            }
+
+            int length = readShort() - 2;
+            int segmentEnd = mPosition + length;
+            if (length < 0 || segmentEnd > mData.length) {
+                throw new IOException("Truncated segment");
+            }
+
+            if (marker == JpegTables.SOF0 || marker == SOF1) {
+                readStartOfFrame();
+            } else if (marker >= SOF_UNSUPPORTED_FIRST && marker <= SOF_LAST && marker != JpegTables.DHT
+                    && marker != DAC) {
+                throw new IOException("Unsupported coding process");
+            } else if (marker == JpegTables.DQT) {
+                readQuantizationTables(segmentEnd);
+            } else if (marker == JpegTables.DHT) {
+                readHuffmanTables(segmentEnd);
+            } else if (marker == JpegTables.DRI) {
+                mRestartInterval = readShort();
+            }
+            mPosition = segmentEnd;
+        }
+    }
+
+    /**
+     * Reads the next marker code, skipping fill bytes.
+     *
+     * @return the marker code.
+     * @throws IOException if the data ends.
+     */
+    private int readMarker() throws IOException {
+        if (readByte() != 0xFF) {
+            throw new IOException("Marker expected");
+        }
+        int marker = readByte();
+        while (marker == 0xFF) {
+            marker = readByte();
+        }
+        return marker;
+    }
+
+    /**
+     * Reads a start-of-frame segment.
+     *
+     * @throws IOException if the frame is not supported.
+     */
+    private void readStartOfFrame() throws IOException {
+        if (readByte() != 8) {
+            throw new IOException("Unsupported sample precision");
+        }
+        mHeight = readShort();
+        mWidth = readShort();
+        int numComponents = readByte();
+        if (mWidth <= 0 || mHeight <= 0 || (numComponents != 1 && numComponents != 3)) {
+            throw new IOException("Unsupported frame");
+        }
+
+        mComponents = new Component[numComponents];
+        for (int i = 0; i < numComponents; i++) {
+            Component component = new Component();
+            component.mId = readByte();
+            int sampling = readByte();
+            component.mH = Math.max(1, sampling >> 4);
+            component.mV = Math.max(1, sampling & 0x0F);
+            component.mQuantizationTable = readByte() & 0x03;
+            mComponents[i] = component;
+
+            mMaxH = Math.max(mMaxH, component.mH);
+            mMaxV = Math.max(mMaxV, component.mV);
+        }
+
+        // A single component is never interleaved, so its Mcu is one block.
+        if (numComponents == 1) {
+            mComponents[0].mH = 1;
+            mComponents[0].mV = 1;
+            mMaxH = 1;
+            mMaxV = 1;
+        }
+
+        mMcusPerRow = getScaledLength(mWidth, BLOCK_LENGTH * mMaxH);
+        mMcuRows = getScaledLength(mHeight, BLOCK_LENGTH * mMaxV);
+    }
+
+    /**
+     * Reads the quantization tables in a segment.
+     *
+     * @param segmentEnd the position of the end of the segment.
+     * @throws IOException if the data ends.
+     */
+    private void readQuantizationTables(int segmentEnd) throws IOException {
+        while (mPosition < segmentEnd) {
+            int precisionAndId = readByte();
+            boolean isSixteenBit = (precisionAndId >> 4) != 0;
+            int[] table = new int[JpegTables.BLOCK_SIZE];
+            for (int k = 0; k < JpegTables.BLOCK_SIZE; k++) {
+                table[JpegTables.ZIGZAG_TO_NATURAL[k]] = isSixteenBit ? readShort() : readByte();
+            }
+            mQuantization[precisionAndId & 0x03] = table;
+        }
+    }
+
+    /**
+     * Reads the Huffman tables in a segment.
+     *
+     * @param segmentEnd the position of the end of the segment.
+     * @throws IOException if the data ends or a table is malformed.
+     */
+    private void readHuffmanTables(int segmentEnd) throws IOException {
+        while (mPosition < segmentEnd) {
+            int classAndId = readByte();
+            int[] bits = new int[16];
+            int numValues = 0;
+            for (int i = 0; i < 16; i++) {
+                bits[i] = readByte();
+                numValues += bits[i];
+            }
+            if (numValues > MAX_HUFFMAN_VALUES || mPosition + numValues > segmentEnd) {
+                throw new IOException("Invalid Huffman table");
+            }
+            int[] values = new int[numValues];
+            for (int i = 0; i < numValues; i++) {
+                values[i] = readByte();
+            }
+
+            HuffmanTable table = new HuffmanTable(bits, values);
+            if ((classAndId >> 4) == 0) {
+                mDcTables[classAndId & 0x03] = table;
+            } else {
+                mAcTables[classAndId & 0x03] = table;
+            }
+        }
+    }
+
+    /**
+     * Reads a start-of-scan segment. Only a single scan with all components interleaved is supported.
+     *
+     * @throws IOException if the scan is not supported.
+     */
+    private void readStartOfScan() throws IOException {
+        readShort();
+        if (mComponents == null) {
+            throw new IOException("Scan before frame");
+        }
+
+        int numComponents = readByte();
+        if (numComponents != mComponents.length) {
+            throw new IOException("Unsupported scan");
+        }
+        for (int i = 0; i < numComponents; i++) {
+            int id = readByte();
+            int tables = readByte();
+            Component component = mComponents[i];
+            if (component.mId != id) {
+                throw new IOException("Unsupported component order");
+            }
+            component.mDcTable = mDcTables[(tables >> 4) & 0x03];
+            component.mAcTable = mAcTables[tables & 0x03];
+            component.mQuantization = mQuantization[component.mQuantizationTable];
+            if (component.mDcTable == null || component.mAcTable == null || component.mQuantization == null) {
+                throw new IOException("Missing table");
+            }
+        }
+
+        // Spectral selection and successive approximation are fixed for sequential images.
+        mPosition += 3;
+    }
+
+    /**
+     * Allocates the component planes and the inverse Dct basis for the current scale.
+     */
+    private void prepareBuffers() {
+        final int n = mBlockSize;
+        mIdctBasis = new float[n * n];
+        for (int x = 0; x < n; x++) {
+            for (int u = 0; u < n; u++) {
+                double c = u == 0 ? 1.0 / Math.sqrt(2.0) : 1.0;
+                mIdctBasis[x * n + u] = (float) (c / 2.0 * Math.cos((2 * x + 1) * u * Math.PI / (2 * n)));
+            }
+        }
+
+        for (Component component : mComponents) {
+            component.mPlaneWidth = mMcusPerRow * component.mH * n;
+            component.mPlane = new int[component.mPlaneWidth * component.mV * n];
+        }
+    }
+
+    /**
+     * Decodes one row of Mcus into the component planes.
+     *
+     * @throws IOException if the entropy-coded data is corrupt.
+     */
+    private void decodeMcuRow() throws IOException {
+        final int n = mBlockSize;
+        for (int mcuX = 0; mcuX < mMcusPerRow; mcuX++) {
+            startMcu();
+            for (Component component : mComponents) {
+                for (int v = 0; v < component.mV; v++) {
+                    for (int h = 0; h < component.mH; h++) {
+                        decodeBlock(component, mCoefficients, 0, component.mQuantization, n);
+                        int x = (mcuX * component.mH + h) * n;
+                        int y = v * n;
+                        inverseDct(component.mPlane, y * component.mPlaneWidth + x, component.mPlaneWidth);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the restart marker due before the next Mcu, if any, and counts the Mcu.
+     *
+     * @throws IOException if the restart marker is missing.
+     */
+    private void startMcu() throws IOException {
+        if (mRestartInterval > 0 && mMcusDecoded > 0 && mMcusDecoded % mRestartInterval == 0) {
+            processRestart();
+        }
+        mMcusDecoded++;
+    }
+
+    /**
+     * Huffman-decodes a block into coefficients in natural order.
+     *
+     * @param component    the component of the block.
+     * @param coefficients the output coefficients.
+     * @param offset       the index of the first coefficient of the block.
+     * @param quantization the quantization table to dequantize with; or null to keep the quantized values.
+     * @param keepSize     the number of low frequencies to keep in each direction. Others are left as 0.
+     * @throws IOException if the entropy-coded data is corrupt.
+     */
+    private void decodeBlock(Component component, int[] coefficients, int offset, int[] quantization, int keepSize)
+            throws IOException {
+        for (int i = 0; i < JpegTables.BLOCK_SIZE; i++) {
+            coefficients[offset + i] = 0;
+        }
+
+        // Decode Dc difference.
+        int size = decodeHuffman(component.mDcTable);
+        int diff = size == 0 ? 0 : receiveExtend(size);
+        component.mDcPredictor += diff;
+        coefficients[offset] = quantization == null ? component.mDcPredictor
+                : component.mDcPredictor * quantization[0];
+
+        // Decode Ac coefficients. All must be read, but only the low frequencies are kept.
+        int k = 1;
+        while (k < JpegTables.BLOCK_SIZE) {
+            int runAndSize = decodeHuffman(component.mAcTable);
+            int run = runAndSize >> 4;
+            size = runAndSize & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    // End of block.
+                    break;
+                }
+                k += 16;
+            } else {
+                k += run;
+                if (k >= JpegTables.BLOCK_SIZE) {
+                    throw new IOException("Corrupt block");
+                }
+                int value = receiveExtend(size);
+                int i = JpegTables.ZIGZAG_TO_NATURAL[k];
+                if ((i >> 3) < keepSize && (i & 0x07) < keepSize) {
+                    coefficients[offset + i] = quantization == null ? value : value * quantization[i];
+                }
+                k++;
+            }
+        }
+    }
+
+    /**
+     * Applies the inverse Dct at the current scale to the decoded coefficients and writes the samples to a plane.
+     *
+     * @param plane  the component plane.
+     * @param offset the index of the top-left sample of the block.
+     * @param stride the width of the plane.
+     */
+    private void inverseDct(int[] plane, int offset, int stride) {
+        final int n = mBlockSize;
+        final int[] coefficients = mCoefficients;
+
+        if (n == 1) {
+            // Only the Dc coefficient contributes.
+            plane[offset] = clamp(Math.round(coefficients[0] / 8f) + 128);
+            return;
+        }
+
+        final float[] basis = mIdctBasis;
+        final float[] temp = mTemp;
+
+        // Transform columns of the low-frequency coefficients. Most high-frequency columns are all zero.
+        for (int u = 0; u < n; u++) {
+            boolean isZero = true;
+            for (int v = 0; v < n && isZero; v++) {
+                isZero = coefficients[v * BLOCK_LENGTH + u] == 0;
+            }
+            if (isZero) {
+                for (int y = 0; y < n; y++) {
+                    temp[y * n + u] = 0f;
+                }
+                continue;
+            }
+
+            for (int y = 0; y < n; y++) {
+                float sum = 0f;
+                for (int v = 0; v < n; v++) {
+                    sum += basis[y * n + v] * coefficients[v * BLOCK_LENGTH + u];
+                }
+                temp[y * n + u] = sum;
+            }
+        }
+
+        // Transform rows.
+        for (int y = 0; y < n; y++) {
+            int rowOffset = offset + y * stride;
+            for (int x = 0; x < n; x++) {
+                float sum = 0f;
+                for (int u = 0; u < n; u++) {
+                    sum += basis[x * n + u] * temp[y * n + u];
+                }
+                plane[rowOffset + x] = clamp(Math.round(sum) + 128);
+            }
+        }
+    }
+
+    /**
+     * Converts the decoded component planes to ARGB rows, upsampling subsampled components by replication.
+     *
+     * @param argb    the output pixels.
+     * @param offset  the index of the first pixel of the first row.
+     * @param stride  the number of pixels between the starts of consecutive rows.
+     * @param numRows the number of rows to write.
+     */
+    private void writeRows(int[] argb, int offset, int stride, int numRows) {
+        final int outputWidth = getOutputWidth();
+        if (mComponents.length == 1) {
+            Component gray = mComponents[0];
+            for (int y = 0; y < numRows; y++) {
+                int planeRow = y * gray.mPlaneWidth;
+                int outRow = offset + y * stride;
+                for (int x = 0; x < outputWidth; x++) {
+                    int value = gray.mPlane[planeRow + x];
+                    argb[outRow + x] = 0xFF000000 | (value << 16) | (value << 8) | value;
+                }
+            }
+            return;
+        }
+
+        Component lumaComponent = mComponents[0];
+        Component cbComponent = mComponents[1];
+        Component crComponent = mComponents[2];
+        for (int y = 0; y < numRows; y++) {
+            int lumaRow = (y * lumaComponent.mV / mMaxV) * lumaComponent.mPlaneWidth;
+            int cbRow = (y * cbComponent.mV / mMaxV) * cbComponent.mPlaneWidth;
+            int crRow = (y * crComponent.mV / mMaxV) * crComponent.mPlaneWidth;
+            int outRow = offset + y * stride;
+            for (int x = 0; x < outputWidth; x++) {
+                int luma = lumaComponent.mPlane[lumaRow + x * lumaComponent.mH / mMaxH];
+                int cb = cbComponent.mPlane[cbRow + x * cbComponent.mH / mMaxH];
+                int cr = crComponent.mPlane[crRow + x * crComponent.mH / mMaxH];
+
+                int r = clamp(luma + CR_TO_R[cr]);
+                int g = clamp(luma + ((CB_TO_G[cb] + CR_TO_G[cr]) >> COLOR_SHIFT));
+                int b = clamp(luma + CB_TO_B[cb]);
+                argb[outRow + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Skips to the next restart marker and resets the decoder state.
+     *
+     * @throws IOException if no restart marker is found.
+     */
+    private void processRestart() throws IOException {
+        mBits = 0;
+        mBitCount = 0;
+        mIsMarkerReached = false;
+
+        // Find the restart marker, skipping any padding.
+        while (mPosition + 1 < mData.length) {
+            if ((mData[mPosition] & 0xFF) == 0xFF) {
+                int marker = mData[mPosition + 1] & 0xFF;
+                if (marker >= JpegTables.RST0 && marker <= JpegTables.RST0 + 7) {
+                    mPosition += 2;
+                    for (Component component : mComponents) {
+                        component.mDcPredictor = 0;
+                    }
+                    return;
+                }
+            }
+            mPosition++;
+        }
+        throw new IOException("Restart marker not found");
+    }
+
+    /**
+     * Decodes a Huffman-coded symbol.
+     *
+     * @param table the {@link HuffmanTable}.
+     * @return the symbol.
+     * @throws IOException if the code is invalid.
+     */
+    private int decodeHuffman(HuffmanTable table) throws IOException {
+        fillBits();
+
+        // Look up codes of up to 8 bits at once.
+        int peek = (mBits >>> (mBitCount - HuffmanTable.LOOKUP_BITS)) & ((1 << HuffmanTable.LOOKUP_BITS) - 1);
+        int entry = table.mLookup[peek];
+        if (entry != 0) {
+            mBitCount -= entry >> 8;
+            return entry & 0xFF;
+        }
+
+        // Decode longer codes a bit at a time.
+        int length = HuffmanTable.LOOKUP_BITS;
+        int code = peek;
+        mBitCount -= HuffmanTable.LOOKUP_BITS;
+        while (length < 16) {
+            code = (code << 1) | readBit();
+            length++;
+            if (code <= table.mMaxCode[length]) {
+                return table.mValues[table.mValueOffset[length] + code];
+            }
+        }
+        throw new IOException("Invalid Huffman code");
+    }
+
+    /**
+     * Reads bits and sign-extends them to a coefficient value.
+     *
+     * @param size the number of bits.
+     * @return the value.
+     */
+    private int receiveExtend(int size) {
+        fillBits();
+        int value = (mBits >>> (mBitCount - size)) & ((1 << size) - 1);
+        mBitCount -= size;
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    /**
+     * Reads one bit.
+     *
+     * @return the bit.
+     */
+    private int readBit() {
+        if (mBitCount == 0) {
+            fillBits();
+        }
+        mBitCount--;
+        return (mBits >>> mBitCount) & 1;
+    }
+
+    /**
+     * Fills the bit buffer with at least 17 bits, removing stuffed bytes. Zeros are fed once a marker is reached.
+     */
+    private void fillBits() {
+        while (mBitCount <= 24) {
+            int b = 0;
+            if (!mIsMarkerReached && mPosition < mData.length) {
+                b = mData[mPosition] & 0xFF;
+                if (b == 0xFF) {
+                    int next = mPosition + 1 < mData.length ? mData[mPosition + 1] & 0xFF : 0;
+                    if (next == 0) {
+                        mPosition += 2;
+                    } else {
+                        // Leave the marker for restart processing.
+                        mIsMarkerReached = true;
+                        b = 0;
+                    }
+                } else {
+                    mPosition++;
+                }
+            }
+            mBits = (mBits << 8) | b;
+            mBitCount += 8;
+        }
+    }
+
+    /**
+     * Reads a header byte.
+     *
+     * @return the byte value.
+     * @throws IOException if the data ends.
+     */
+    private int readByte() throws IOException {
+        if (mPosition >= mData.length) {
+            throw new IOException("Unexpected end of data");
+        }
+        return mData[mPosition++] & 0xFF;
+    }
+
+    /**
+     * Reads a big-endian 16-bit header value.
+     *
+     * @return the value.
+     * @throws IOException if the data ends.
+     */
+    private int readShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    /**
+     * Clamps a sample to the 8-bit range.
+     *
+     * @param value the sample.
+     * @return the clamped sample.
+     */
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * An image component and its decoding state.
+     */
+    private static class Component {
+
+        private int mId;
+
+        private int mH;
+
+        private int mV;
+
+        private int mQuantizationTable;
+
+        private int[] mQuantization;
+
+        private HuffmanTable mDcTable;
+
+        private HuffmanTable mAcTable;
+
+        private int mDcPredictor = 0;
+
+        private int[] mPlane = null;
+
+        private int mPlaneWidth = 0;
+    }
+
+    /**
+     * A Huffman table prepared for decoding.
+     */
+    private static class HuffmanTable {
+
+        /**
+         * The max code length resolved by a single lookup.
+         */
+        private static final int LOOKUP_BITS = 8;
+
+        /**
+         * Lookup of codes up to {@link #LOOKUP_BITS} long, indexed by the next bits. Each entry is the code length in
+         * bits 8 and up and the symbol in the low 8 bits; or 0 if the code is longer.
+         */
+        private final int[] mLookup = new int[1 << LOOKUP_BITS];
+
+        /**
+         * The largest code of each length; or -1 if there are none.
+         */
+        private final int[] mMaxCode = new int[17];
+
+        /**
+         * The offset to add to a code of each length to index {@link #mValues}.
+         */
+        private final int[] mValueOffset = new int[17];
+
+        /**
+         * The symbols in code order.
+         */
+        private final int[] mValues;
+
+        /**
+         * Constructor.
+         *
+         * @param bits   the number of codes of each length 1 to 16.
+         * @param values the symbols in code order, as many as there are codes.
+         * @throws IOException if the codes of a length overflow the codes of that length.
+         */
+        HuffmanTable(int[] bits, int[] values) throws IOException {
+            mValues = values;
+
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                int count = bits[length - 1];
+                mValueOffset[length] = k - code;
+                mMaxCode[length] = count > 0 ? code + count - 1 : -1;
+                if (code + count > (1 << length)) {
+                    throw new IOException("Invalid Huffman table");
+                }
+
+                for (int i = 0; i < count; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        // Fill every lookup entry that starts with this code.
+                        int shift = LOOKUP_BITS - length;
+                        int first = code << shift;
+                        for (int j = 0; j < (1 << shift); j++) {
+                            mLookup[first + j] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,860 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A streaming baseline Jpeg encoder in plain Java. Pixels are fed a band of rows at a time, so an image can be encoded
+ * without ever holding all of its pixels in memory.
+ * <p/>
+ * Chroma can be kept at full resolution or subsampled by {@link ChromaSubsampling}, which averages neighbouring chroma
+ * samples before the Dct.
+ * <p/>
+ * With more than one thread, each row of Mcus is a restart interval. Bands of one Mcu row are then independent and are
+ * encoded in parallel, and the resulting segments are stitched in order with restart markers in between. The output
+ * does not depend on the number of threads beyond the presence of restart markers.
+ * <p/>
+ * Usage:
+ * <pre>
+ * JpegEncoder encoder = new JpegEncoder(out, width, height, quality, JpegEncoder.getDefaultThreadCount());
+ * encoder.writeRows(pixels, 0, width, rows); // Repeat until all rows are written.
+ * encoder.finish();
+ * </pre>
+ *
+ * @author Benedict Lau
+ */
+public class JpegEncoder {
+
+    /**
+     * The number of color components.
+     */
+    private static final int NUM_COMPONENTS = 3;
+
+    /**
+     * The width and height of a block.
+     */
+    private static final int BLOCK_LENGTH = 8;
+
+    /**
+     * The number of restart marker codes, which cycle.
+     */
+    private static final int NUM_RESTART_MARKERS = 8;
+
+    /**
+     * The name of the encoder threads.
+     */
+    private static final String THREAD_NAME = "jpegEncoderThread";
+
+    /**
+     * The thread pool shared by all parallel encoders. Created on first use.
+     */
+    private static ExecutorService sExecutor = null;
+
+    /**
+     * The output stream.
+     */
+    private final OutputStream mOut;
+
+    /**
+     * The image width.
+     */
+    private final int mWidth;
+
+    /**
+     * The image height.
+     */
+    private final int mHeight;
+
+    /**
+     * The entropy-coded output.
+     */
+    private final BitWriter mWriter;
+
+    /**
+     * Quantization tables in natural order, indexed by table id.
+     */
+    private final int[][] mQuantization = new int[2][];
+
+    /**
+     * Reciprocals of the quantization steps with the AAN Dct scale factors folded in, in natural order and indexed by
+     * table id.
+     */
+    private final float[][] mDivisors = new float[2][];
+
+    /**
+     * The number of luminance blocks across one Mcu.
+     */
+    private final int mLumaH;
+
+    /**
+     * The number of luminance blocks down one Mcu.
+     */
+    private final int mLumaV;
+
+    /**
+     * The width of a band, rounded up to whole Mcus.
+     */
+    private final int mBandWidth;
+
+    /**
+     * The height of a band, which is one Mcu.
+     */
+    private final int mBandHeight;
+
+    /**
+     * The number of bands in the image.
+     */
+    private final int mNumBands;
+
+    /**
+     * Whether bands are encoded in parallel as restart intervals.
+     */
+    private final boolean mIsParallel;
+
+    /**
+     * The band encoders, one per thread. Filled in order and encoded together.
+     */
+    private final BandEncoder[] mBandEncoders;
+
+    /**
+     * The number of band encoders filled and waiting to be encoded.
+     */
+    private int mFilledBands = 0;
+
+    /**
+     * The number of bands written so far.
+     */
+    private int mBandsWritten = 0;
+
+    /**
+     * The number of rows written so far.
+     */
+    private int mRowsWritten = 0;
+
+    /**
+     * Whether the headers have been written.
+     */
+    private boolean mIsStarted = false;
+
+    /**
+     * Constructor for a single-threaded encoder.
+     *
+     * @param out     the output stream to write the Jpeg to.
+     * @param width   the image width.
+     * @param height  the image height.
+     * @param quality the Jpeg quality from 1 to 100.
+     */
+    public JpegEncoder(OutputStream out, int width, int height, int quality) {
+        this(out, width, height, quality, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out        the output stream to write the Jpeg to.
+     * @param width      the image width.
+     * @param height     the image height.
+     * @param quality    the Jpeg quality from 1 to 100.
+     * @param numThreads the number of bands to encode in parallel. Pass 1 to encode on the calling thread without
+     *                   restart markers.
+     */
+    public JpegEncoder(OutputStream out, int width, int height, int quality, int numThreads) {
+        this(out, width, height, quality, numThreads, ChromaSubsampling.YUV_444);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out               the output stream to write the Jpeg to.
+     * @param width             the image width.
+     * @param height            the image height.
+     * @param quality           the Jpeg quality from 1 to 100.
+     * @param numThreads        the number of bands to encode in parallel. Pass 1 to encode on the calling thread
+     *                          without restart markers.
+     * @param chromaSubsampling the {@link ChromaSubsampling}.
+     */
+    public JpegEncoder(OutputStream out, int width, int height, int quality, int numThreads,
+                       ChromaSubsampling chromaSubsampling) {
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mWriter = new BitWriter(out);
+
+        mQuantization[0] = JpegTables.scaleQuantization(JpegTables.LUMINANCE_QUANTIZATION, quality);
+        mQuantization[1] = JpegTables.scaleQuantization(JpegTables.CHROMINANCE_QUANTIZATION, quality);
+        mDivisors[0] = buildDivisors(mQuantization[0]);
+        mDivisors[1] = buildDivisors(mQuantization[1]);
+
+        mLumaH = chromaSubsampling.mHorizontalFactor;
+        mLumaV = chromaSubsampling.mVerticalFactor;
+        int mcuWidth = BLOCK_LENGTH * mLumaH;
+        mBandHeight = BLOCK_LENGTH * mLumaV;
+        mBandWidth = (width + mcuWidth - 1) / mcuWidth * mcuWidth;
+        mNumBands = (height + mBandHeight - 1) / mBandHeight;
+
+        // There is no point in more threads than bands.
+        numThreads = Math.max(1, Math.min(numThreads, mNumBands));
+        mIsParallel = numThreads > 1;
+        mBandEncoders = new BandEncoder[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            mBandEncoders[i] = new BandEncoder();
+        }
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the default number of threads for parallel encoding.
+     *
+     * @return the number of available processors.
+     */
+    public static int getDefaultThreadCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Encodes rows of pixels. Rows must be written top to bottom, and any number of rows can be written per call.
+     *
+     * @param argb    the pixels as packed ARGB colors. Alpha is ignored.
+     * @param offset  the index of the first pixel of the first row.
+     * @param stride  the number of pixels between the starts of consecutive rows.
+     * @param numRows the number of rows to write.
+     * @throws IOException if the write fails.
+     */
+    public void writeRows(int[] argb, int offset, int stride, int numRows) throws IOException {
+        if (mRowsWritten + numRows > mHeight) {
+            throw new IllegalArgumentException("More rows written than the image height");
+        }
+
+        if (!mIsStarted) {
+            writeHeaders();
+            mIsStarted = true;
+        }
+
+        for (int row = 0; row < numRows; row++) {
+            BandEncoder bandEncoder = mBandEncoders[mFilledBands];
+            bandEncoder.bufferRow(argb, offset + row * stride);
+            mRowsWritten++;
+            if (bandEncoder.isFull()) {
+                mFilledBands++;
+                if (mFilledBands == mBandEncoders.length) {
+                    encodeFilledBands();
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the Jpeg. All rows of the image must have been written.
+     *
+     * @throws IOException if the write fails.
+     */
+    public void finish() throws IOException {
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("Only " + mRowsWritten + " of " + mHeight + " rows written");
+        }
+
+        // Pad the last band by repeating the last row.
+        BandEncoder lastBand = mFilledBands < mBandEncoders.length ? mBandEncoders[mFilledBands] : null;
+        if (lastBand != null && !lastBand.isEmpty()) {
+            lastBand.pad();
+            mFilledBands++;
+        }
+        encodeFilledBands();
+
+        mWriter.alignToByte();
+        mWriter.writeMarker(JpegTables.EOI);
+        mWriter.flush();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Builds the quantization divisors for the AAN fast Dct.
+     *
+     * @param quantization the quantization table in natural order.
+     * @return the reciprocals of the scaled quantization steps in natural order.
+     */
+    private static float[] buildDivisors(int[] quantization) {
+        float[] divisors = new float[JpegTables.BLOCK_SIZE];
+        for (int row = 0; row < BLOCK_LENGTH; row++) {
+            for (int col = 0; col < BLOCK_LENGTH; col++) {
+                int i = row * BLOCK_LENGTH + col;
+                divisors[i] = (float) (1.0 / (quantization[i] * JpegTables.AAN_SCALE_FACTORS[row]
+                        * JpegTables.AAN_SCALE_FACTORS[col] * 8.0));
+            }
+        }
+        return divisors;
+    }
+
+    /**
+     * Gets the thread pool shared by all parallel encoders.
+     *
+     * @return the {@link ExecutorService}.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(getDefaultThreadCount(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Encodes the filled bands and writes them in order.
+     *
+     * @throws IOException if the write fails.
+     */
+    private void encodeFilledBands() throws IOException {
+        if (mFilledBands == 0) {
+            return;
+        }
+
+        if (!mIsParallel) {
+            // Encode directly to the output, continuing the Dc prediction from the previous band.
+            mBandEncoders[0].encode(mWriter);
+            mBandsWritten++;
+        } else {
+            // Encode each band as an independent segment.
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(mFilledBands);
+            ExecutorService executor = getExecutor();
+            for (int i = 0; i < mFilledBands; i++) {
+                futures.add(executor.submit(mBandEncoders[i]));
+            }
+
+            // Stitch the segments in order, separated by restart markers.
+            try {
+                for (int i = 0; i < mFilledBands; i++) {
+                    futures.get(i).get();
+                    mWriter.flush();
+                    mBandEncoders[i].writeSegment(mOut);
+                    if (mBandsWritten < mNumBands - 1) {
+                        mWriter.writeMarker(JpegTables.RST0 + mBandsWritten % NUM_RESTART_MARKERS);
+                    }
+                    mBandsWritten++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to encode band: " + e.getCause());
+            } finally {
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        mFilledBands = 0;
+    }
+
+    /**
+     * Gets the number of bits needed to represent the magnitude of a value.
+     *
+     * @param value the value.
+     * @return the number of bits.
+     */
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * Writes the Jpeg headers up to the start of the entropy-coded data.
+     *
+     * @throws IOException if the write fails.
+     */
+    private void writeHeaders() throws IOException {
+        mWriter.writeMarker(JpegTables.SOI);
+
+        writeJfifHeader(mWriter);
+
+        // Quantization tables in zig-zag order.
+        mWriter.writeMarker(JpegTables.DQT);
+        mWriter.writeShort(2 + 2 * (1 + JpegTables.BLOCK_SIZE));
+        for (int table = 0; table < 2; table++) {
+            byte[] values = new byte[1 + JpegTables.BLOCK_SIZE];
+            values[0] = (byte) table;
+            for (int k = 0; k < JpegTables.BLOCK_SIZE; k++) {
+                values[1 + k] = (byte) mQuantization[table][JpegTables.ZIGZAG_TO_NATURAL[k]];
+            }
+            mWriter.writeRaw(values, 0, values.length);
+        }
+
+        // Frame header with subsampled chroma.
+        mWriter.writeMarker(JpegTables.SOF0);
+        mWriter.writeShort(2 + 6 + NUM_COMPONENTS * 3);
+        mWriter.writeBytes(8);
+        mWriter.writeShort(mHeight);
+        mWriter.writeShort(mWidth);
+        mWriter.writeBytes(NUM_COMPONENTS, 1, (mLumaH << 4) | mLumaV, 0, 2, 0x11, 1, 3, 0x11, 1);
+
+        writeHuffmanTables(mWriter);
+
+        // Restart interval of one row of Mcus.
+        if (mIsParallel) {
+            mWriter.writeMarker(JpegTables.DRI);
+            mWriter.writeShort(4);
+            mWriter.writeShort(mBandWidth / (BLOCK_LENGTH * mLumaH));
+        }
+
+        // Scan header.
+        mWriter.writeMarker(JpegTables.SOS);
+        mWriter.writeShort(2 + 1 + NUM_COMPONENTS * 2 + 3);
+        mWriter.writeBytes(NUM_COMPONENTS, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0);
+    }
+
+    /**
+     * Writes the JFIF application segment.
+     *
+     * @param writer the writer.
+     * @throws IOException if the write fails.
+     */
+    static void writeJfifHeader(BitWriter writer) throws IOException {
+        writer.writeMarker(JpegTables.APP0);
+        writer.writeShort(16);
+        writer.writeBytes('J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0);
+    }
+
+    /**
+     * Writes the standard Huffman tables, with luminance tables as id 0 and chrominance tables as id 1.
+     *
+     * @param writer the writer.
+     * @throws IOException if the write fails.
+     */
+    static void writeHuffmanTables(BitWriter writer) throws IOException {
+        writeHuffmanTable(writer, 0x00, JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_LUMINANCE_VALUES);
+        writeHuffmanTable(writer, 0x10, JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES);
+        writeHuffmanTable(writer, 0x01, JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_CHROMINANCE_VALUES);
+        writeHuffmanTable(writer, 0x11, JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES);
+    }
+
+    /**
+     * Writes a Huffman table segment.
+     *
+     * @param writer     the writer.
+     * @param classAndId the table class in the high nibble and the table id in the low nibble.
+     * @param bits       the number of codes of each length 1 to 16.
+     * @param values     the symbols in code order.
+     * @throws IOException if the write fails.
+     */
+    private static void writeHuffmanTable(BitWriter writer, int classAndId, int[] bits, int[] values)
+            throws IOException {
+        writer.writeMarker(JpegTables.DHT);
+        writer.writeShort(2 + 1 + bits.length + values.length);
+        writer.writeBytes(classAndId);
+        writer.writeBytes(bits);
+        writer.writeBytes(values);
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * Buffers one band of rows and encodes it as one row of Mcus. All buffers are allocated once and reused for every
+     * band.
+     */
+    private final class BandEncoder implements Callable<Void> {
+
+        /**
+         * The band buffer holding one row of Mcus for each component at full resolution, as level-shifted samples.
+         */
+        private final float[][] mBand = new float[NUM_COMPONENTS][mBandWidth * mBandHeight];
+
+        /**
+         * The number of rows currently in the band buffer.
+         */
+        private int mBandRows = 0;
+
+        /**
+         * The Dc coefficient of the previous block of each component.
+         */
+        private final int[] mDcPredictors = new int[NUM_COMPONENTS];
+
+        /**
+         * Reusable buffer for block samples.
+         */
+        private final float[] mBlock = new float[JpegTables.BLOCK_SIZE];
+
+        /**
+         * Reusable buffer for quantized coefficients in zig-zag order.
+         */
+        private final int[] mCoefficients = new int[JpegTables.BLOCK_SIZE];
+
+        /**
+         * The encoded segment when encoding in parallel; or null.
+         */
+        private final ByteArrayOutputStream mSegment;
+
+        /**
+         * The writer of the encoded segment when encoding in parallel; or null.
+         */
+        private final BitWriter mSegmentWriter;
+
+        /**
+         * Constructor.
+         */
+        BandEncoder() {
+            if (mIsParallel) {
+                mSegment = new ByteArrayOutputStream();
+                mSegmentWriter = new BitWriter(mSegment);
+            } else {
+                mSegment = null;
+                mSegmentWriter = null;
+            }
+        }
+
+        /**
+         * Encodes the band as an independent segment. Called on an encoder thread.
+         *
+         * @return null.
+         * @throws IOException if the write fails.
+         */
+        @Override
+        public Void call() throws IOException {
+            mSegment.reset();
+            for (int c = 0; c < NUM_COMPONENTS; c++) {
+                mDcPredictors[c] = 0;
+            }
+            encode(mSegmentWriter);
+            mSegmentWriter.alignToByte();
+            mSegmentWriter.flush();
+            return null;
+        }
+
+        /**
+         * Writes the encoded segment.
+         *
+         * @param out the output stream.
+         * @throws IOException if the write fails.
+         */
+        void writeSegment(OutputStream out) throws IOException {
+            mSegment.writeTo(out);
+        }
+
+        /**
+         * Checks whether the band buffer is full.
+         *
+         * @return true if full; false otherwise.
+         */
+        boolean isFull() {
+            return mBandRows == mBandHeight;
+        }
+
+        /**
+         * Checks whether the band buffer is empty.
+         *
+         * @return true if empty; false otherwise.
+         */
+        boolean isEmpty() {
+            return mBandRows == 0;
+        }
+
+        /**
+         * Converts a row of pixels to level-shifted YCbCr samples in the band buffer, padding to whole blocks by
+         * repeating the last pixel.
+         *
+         * @param argb   the pixels.
+         * @param offset the index of the first pixel of the row.
+         */
+        void bufferRow(int[] argb, int offset) {
+            int bandOffset = mBandRows * mBandWidth;
+            float[] y = mBand[0];
+            float[] cb = mBand[1];
+            float[] cr = mBand[2];
+            for (int x = 0; x < mBandWidth; x++) {
+                int color = argb[offset + Math.min(x, mWidth - 1)];
+                int r = (color >> 16) & 0xFF;
+                int g = (color >> 8) & 0xFF;
+                int b = color & 0xFF;
+
+                int i = bandOffset + x;
+                y[i] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+                cb[i] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                cr[i] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+            }
+            mBandRows++;
+        }
+
+        /**
+         * Fills the rest of the band buffer by repeating the last row.
+         */
+        void pad() {
+            for (int c = 0; c < NUM_COMPONENTS; c++) {
+                float[] plane = mBand[c];
+                int lastRow = (mBandRows - 1) * mBandWidth;
+                for (int row = mBandRows; row < mBandHeight; row++) {
+                    System.arraycopy(plane, lastRow, plane, row * mBandWidth, mBandWidth);
+                }
+            }
+            mBandRows = mBandHeight;
+        }
+
+        /**
+         * Encodes the full band buffer as one row of Mcus and empties it.
+         *
+         * @param writer the writer to encode to.
+         * @throws IOException if the write fails.
+         */
+        void encode(BitWriter writer) throws IOException {
+            final int mcuWidth = BLOCK_LENGTH * mLumaH;
+            for (int mcuX = 0; mcuX < mBandWidth; mcuX += mcuWidth) {
+                // Luminance blocks at full resolution.
+                for (int blockY = 0; blockY < mLumaV; blockY++) {
+                    for (int blockX = 0; blockX < mLumaH; blockX++) {
+                        int blockOffset = blockY * BLOCK_LENGTH * mBandWidth + mcuX + blockX * BLOCK_LENGTH;
+                        for (int row = 0; row < BLOCK_LENGTH; row++) {
+                            System.arraycopy(mBand[0], blockOffset + row * mBandWidth, mBlock, row * BLOCK_LENGTH,
+                                    BLOCK_LENGTH);
+                        }
+                        encodeBlock(writer, 0);
+                    }
+                }
+
+                // One block of each chroma component, averaging the samples it covers.
+                for (int c = 1; c < NUM_COMPONENTS; c++) {
+                    float[] plane = mBand[c];
+                    float scale = 1f / (mLumaH * mLumaV);
+                    for (int row = 0; row < BLOCK_LENGTH; row++) {
+                        for (int col = 0; col < BLOCK_LENGTH; col++) {
+                            int sampleOffset = row * mLumaV * mBandWidth + mcuX + col * mLumaH;
+                            float sum = 0f;
+                            for (int dy = 0; dy < mLumaV; dy++) {
+                                for (int dx = 0; dx < mLumaH; dx++) {
+                                    sum += plane[sampleOffset + dy * mBandWidth + dx];
+                                }
+                            }
+                            mBlock[row * BLOCK_LENGTH + col] = sum * scale;
+                        }
+                    }
+                    encodeBlock(writer, c);
+                }
+            }
+            mBandRows = 0;
+        }
+
+        /**
+         * Transforms, quantizes and Huffman-encodes the samples in the block buffer.
+         *
+         * @param writer    the writer to encode to.
+         * @param component the component of the block.
+         * @throws IOException if the write fails.
+         */
+        private void encodeBlock(BitWriter writer, int component) throws IOException {
+            boolean isLuminance = component == 0;
+            forwardDct(mBlock);
+            quantize(mBlock, mDivisors[isLuminance ? 0 : 1], mCoefficients);
+            mDcPredictors[component] = JpegEncoder.encodeBlock(writer, mCoefficients, mDcPredictors[component],
+                    isLuminance ? JpegTables.DC_LUMINANCE_CODES : JpegTables.DC_CHROMINANCE_CODES,
+                    isLuminance ? JpegTables.AC_LUMINANCE_CODES : JpegTables.AC_CHROMINANCE_CODES);
+        }
+    }
+
+    /**
+     * Applies the AAN fast forward Dct to a block in place. The outputs are scaled by the AAN scale factors, which are
+     * folded into the quantization divisors.
+     *
+     * @param block the block samples in natural order.
+     */
+    private static void forwardDct(float[] block) {
+        // Transform rows, then columns.
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : BLOCK_LENGTH;
+            int lineStep = pass == 0 ? BLOCK_LENGTH : 1;
+            for (int line = 0; line < BLOCK_LENGTH; line++) {
+                int i0 = line * lineStep;
+                int i1 = i0 + step;
+                int i2 = i1 + step;
+                int i3 = i2 + step;
+                int i4 = i3 + step;
+                int i5 = i4 + step;
+                int i6 = i5 + step;
+                int i7 = i6 + step;
+
+                float tmp0 = block[i0] + block[i7];
+                float tmp7 = block[i0] - block[i7];
+                float tmp1 = block[i1] + block[i6];
+                float tmp6 = block[i1] - block[i6];
+                float tmp2 = block[i2] + block[i5];
+                float tmp5 = block[i2] - block[i5];
+                float tmp3 = block[i3] + block[i4];
+                float tmp4 = block[i3] - block[i4];
+
+                // Even part.
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+
+                block[i0] = tmp10 + tmp11;
+                block[i4] = tmp10 - tmp11;
+
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                block[i2] = tmp13 + z1;
+                block[i6] = tmp13 - z1;
+
+                // Odd part.
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+
+                block[i5] = z13 + z2;
+                block[i3] = z13 - z2;
+                block[i1] = z11 + z4;
+                block[i7] = z11 - z4;
+            }
+        }
+    }
+
+    /**
+     * Quantizes Dct coefficients.
+     *
+     * @param block        the scaled Dct coefficients in natural order.
+     * @param divisors     the quantization divisors in natural order.
+     * @param coefficients the output quantized coefficients in zig-zag order.
+     */
+    private static void quantize(float[] block, float[] divisors, int[] coefficients) {
+        for (int k = 0; k < JpegTables.BLOCK_SIZE; k++) {
+            int i = JpegTables.ZIGZAG_TO_NATURAL[k];
+            coefficients[k] = Math.round(block[i] * divisors[i]);
+        }
+    }
+
+    /**
+     * Huffman-encodes a block of quantized coefficients.
+     *
+     * @param writer       the writer to encode to.
+     * @param coefficients the quantized coefficients in zig-zag order.
+     * @param dcPredictor  the Dc coefficient of the previous block of the same component.
+     * @param dcCodes      the Huffman codes for Dc coefficients.
+     * @param acCodes      the Huffman codes for Ac coefficients.
+     * @return the Dc coefficient of this block.
+     * @throws IOException if the write fails.
+     */
+    static int encodeBlock(BitWriter writer, int[] coefficients, int dcPredictor, int[] dcCodes, int[] acCodes)
+            throws IOException {
+        // Encode Dc difference.
+        int dc = coefficients[0];
+        int diff = dc - dcPredictor;
+        int size = bitLength(diff);
+        writer.writeCode(dcCodes[size]);
+        if (size > 0) {
+            writer.writeBits(diff < 0 ? diff - 1 : diff, size);
+        }
+
+        // Encode Ac coefficients as runs of zeros followed by a value.
+        int run = 0;
+        for (int k = 1; k < JpegTables.BLOCK_SIZE; k++) {
+            int value = coefficients[k];
+            if (value == 0) {
+                run++;
+            } else {
+                while (run > 15) {
+                    writer.writeCode(acCodes[0xF0]);
+                    run -= 16;
+                }
+                size = bitLength(value);
+                writer.writeCode(acCodes[(run << 4) | size]);
+                writer.writeBits(value < 0 ? value - 1 : value, size);
+                run = 0;
+            }
+        }
+        if (run > 0) {
+            // End of block.
+            writer.writeCode(acCodes[0x00]);
+        }
+
+        return dc;
+    }
+
+    //
+    // Public enums.
+    //
+
+    /**
+     * The resolution of the chroma components relative to luminance.
+     */
+    public enum ChromaSubsampling {
+
+        /**
+         * Full-resolution chroma. Best for print and for sharp colored edges like text.
+         */
+        YUV_444(1, 1),
+
+        /**
+         * Chroma at half the horizontal resolution.
+         */
+        YUV_422(2, 1),
+
+        /**
+         * Chroma at half the horizontal and vertical resolution. Smallest output, and what most viewers expect for
+         * photos.
+         */
+        YUV_420(2, 2);
+
+        /**
+         * The number of luminance blocks across one Mcu.
+         */
+        private final int mHorizontalFactor;
+
+        /**
+         * The number of luminance blocks down one Mcu.
+         */
+        private final int mVerticalFactor;
+
+        /**
+         * Constructor.
+         *
+         * @param horizontalFactor the number of luminance blocks across one Mcu.
+         * @param verticalFactor   the number of luminance blocks down one Mcu.
+         */
+        private ChromaSubsampling(int horizontalFactor, int verticalFactor) {
+            mHorizontalFactor = horizontalFactor;
+            mVerticalFactor = verticalFactor;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Losslessly crops, mirrors and rotates a Jpeg by rearranging its quantized Dct coefficients, in the way of jpegtran.
+ * No pixels are decoded and nothing is quantized again, so there is no generational loss and the cost is one pass of
+ * Huffman decoding and encoding.
+ * <p/>
+ * The image is center-cropped to the largest square aligned to Mcu boundaries, so edge blocks that only partly cover
+ * the image are always cropped away and can be mirrored without artifacts. The source quantization tables are kept and
+ * the standard Huffman tables are used for the output.
+ *
+ * @author Benedict Lau
+ */
+public class JpegTransformer {
+
+    /**
+     * The width and height of a block.
+     */
+    private static final int BLOCK_LENGTH = 8;
+
+    /**
+     * The number of degrees in a quarter turn.
+     */
+    private static final int QUARTER_TURN = 90;
+
+    /**
+     * Prevents instantiation.
+     */
+    private JpegTransformer() {
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Checks whether a rotation can be applied losslessly.
+     *
+     * @param rotation clockwise rotation in degrees.
+     * @return true if the rotation is a multiple of 90 degrees; false otherwise.
+     */
+    public static boolean isLosslessRotation(float rotation) {
+        return rotation % QUARTER_TURN == 0;
+    }
+
+    /**
+     * Center-crops a Jpeg to a square, then optionally mirrors it horizontally and rotates it clockwise, matching the
+     * order of transformations applied when creating an image from camera data.
+     *
+     * @param jpegData   the Jpeg data.
+     * @param rotation   clockwise rotation in degrees. Must be a multiple of 90.
+     * @param reflection whether to mirror horizontally.
+     * @param out        the output stream for the transformed Jpeg.
+     * @return the width and height of the transformed Jpeg.
+     * @throws IOException if the Jpeg is not supported, or the write fails.
+     */
+    public static int transform(byte[] jpegData, float rotation, boolean reflection, OutputStream out)
+            throws IOException {
+        if (!isLosslessRotation(rotation)) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees");
+        }
+        final int quarterTurns = (((int) rotation / QUARTER_TURN) % 4 + 4) % 4;
+        final boolean isTransposed = quarterTurns % 2 == 1;
+
+        JpegDecoder decoder = new JpegDecoder(jpegData);
+        final int numComponents = decoder.getComponentCount();
+        int maxH = 1;
+        int maxV = 1;
+        for (int c = 0; c < numComponents; c++) {
+            maxH = Math.max(maxH, decoder.getHorizontalSampling(c));
+            maxV = Math.max(maxV, decoder.getVerticalSampling(c));
+        }
+
+        // Find the largest centered square aligned to Mcus in both the source and the output.
+        final int mcuWidth = BLOCK_LENGTH * maxH;
+        final int mcuHeight = BLOCK_LENGTH * maxV;
+        final int mcuSize = Math.max(mcuWidth, mcuHeight);
+        final int size = Math.min(decoder.getWidth(), decoder.getHeight()) / mcuSize * mcuSize;
+        if (size == 0) {
+            throw new IOException("Image is smaller than one Mcu");
+        }
+        final int cropMcuX = (decoder.getWidth() - size) / 2 / mcuWidth;
+        final int cropMcuY = (decoder.getHeight() - size) / 2 / mcuHeight;
+
+        // Collect the coefficients of the cropped blocks of each component. Quantized coefficients of 8-bit samples fit
+        // in a short, which halves the memory held for the whole crop.
+        short[][] crop = new short[numComponents][];
+        int[] cropBlocksX = new int[numComponents];
+        int[] cropBlocksY = new int[numComponents];
+        int[][] row = new int[numComponents][];
+        for (int c = 0; c < numComponents; c++) {
+            int h = decoder.getHorizontalSampling(c);
+            int v = decoder.getVerticalSampling(c);
+            cropBlocksX[c] = size / mcuWidth * h;
+            cropBlocksY[c] = size / mcuHeight * v;
+            crop[c] = new short[cropBlocksX[c] * cropBlocksY[c] * JpegTables.BLOCK_SIZE];
+            row[c] = new int[decoder.getMcusPerRow() * h * v * JpegTables.BLOCK_SIZE];
+        }
+
+        final int lastMcuRow = cropMcuY + size / mcuHeight;
+        for (int mcuRow = 0; mcuRow < lastMcuRow && decoder.readCoefficients(row); mcuRow++) {
+            if (mcuRow < cropMcuY) {
+                continue;
+            }
+
+            for (int c = 0; c < numComponents; c++) {
+                int h = decoder.getHorizontalSampling(c);
+                int v = decoder.getVerticalSampling(c);
+                int blocksPerLine = decoder.getMcusPerRow() * h;
+                for (int by = 0; by < v; by++) {
+                    int src = (by * blocksPerLine + cropMcuX * h) * JpegTables.BLOCK_SIZE;
+                    int dst = ((mcuRow - cropMcuY) * v + by) * cropBlocksX[c] * JpegTables.BLOCK_SIZE;
+                    int end = src + cropBlocksX[c] * JpegTables.BLOCK_SIZE;
+                    while (src < end) {
+                        crop[c][dst++] = (short) row[c][src++];
+                    }
+                }
+            }
+        }
+
+        // Build the coefficient mapping shared by all blocks.
+        int[] coefficientSource = new int[JpegTables.BLOCK_SIZE];
+        int[] coefficientSign = new int[JpegTables.BLOCK_SIZE];
+        buildCoefficientMapping(quarterTurns, reflection, coefficientSource, coefficientSign);
+
+        // Write headers.
+        BitWriter writer = new BitWriter(out);
+        writer.writeMarker(JpegTables.SOI);
+        JpegEncoder.writeJfifHeader(writer);
+        writeQuantizationTables(writer, decoder, isTransposed);
+
+        writer.writeMarker(JpegTables.SOF0);
+        writer.writeShort(2 + 6 + numComponents * 3);
+        writer.writeBytes(8);
+        writer.writeShort(size);
+        writer.writeShort(size);
+        writer.writeBytes(numComponents);
+        int[] outH = new int[numComponents];
+        int[] outV = new int[numComponents];
+        for (int c = 0; c < numComponents; c++) {
+            outH[c] = isTransposed ? decoder.getVerticalSampling(c) : decoder.getHorizontalSampling(c);
+            outV[c] = isTransposed ? decoder.getHorizontalSampling(c) : decoder.getVerticalSampling(c);
+            writer.writeBytes(decoder.getComponentId(c), (outH[c] << 4) | outV[c], decoder.getQuantizationTableId(c));
+        }
+
+        JpegEncoder.writeHuffmanTables(writer);
+
+        writer.writeMarker(JpegTables.SOS);
+        writer.writeShort(2 + 1 + numComponents * 2 + 3);
+        writer.writeBytes(numComponents);
+        for (int c = 0; c < numComponents; c++) {
+            writer.writeBytes(decoder.getComponentId(c), c == 0 ? 0x00 : 0x11);
+        }
+        writer.writeBytes(0, 63, 0);
+
+        // Encode the blocks in output Mcu order, fetching each from its source position.
+        final int outMaxH = isTransposed ? maxV : maxH;
+        final int outMaxV = isTransposed ? maxH : maxV;
+        final int outMcusX = size / (BLOCK_LENGTH * outMaxH);
+        final int outMcusY = size / (BLOCK_LENGTH * outMaxV);
+        int[] dcPredictors = new int[numComponents];
+        int[] block = new int[JpegTables.BLOCK_SIZE];
+        for (int mcuY = 0; mcuY < outMcusY; mcuY++) {
+            for (int mcuX = 0; mcuX < outMcusX; mcuX++) {
+                for (int c = 0; c < numComponents; c++) {
+                    // A single component is never interleaved, so its Mcu is one block.
+                    int h = numComponents == 1 ? 1 : outH[c];
+                    int v = numComponents == 1 ? 1 : outV[c];
+                    for (int by = 0; by < v; by++) {
+                        for (int bx = 0; bx < h; bx++) {
+                            int sourceBlock = getSourceBlock(mcuX * h + bx, mcuY * v + by, cropBlocksX[c],
+                                    cropBlocksY[c], quarterTurns, reflection);
+                            int sourceOffset = sourceBlock * JpegTables.BLOCK_SIZE;
+                            for (int k = 0; k < JpegTables.BLOCK_SIZE; k++) {
+                                int i = JpegTables.ZIGZAG_TO_NATURAL[k];
+                                block[k] = coefficientSign[i] * crop[c][sourceOffset + coefficientSource[i]];
+                            }
+                            dcPredictors[c] = JpegEncoder.encodeBlock(writer, block, dcPredictors[c],
+                                    c == 0 ? JpegTables.DC_LUMINANCE_CODES : JpegTables.DC_CHROMINANCE_CODES,
+                                    c == 0 ? JpegTables.AC_LUMINANCE_CODES : JpegTables.AC_CHROMINANCE_CODES);
+                        }
+                    }
+                }
+            }
+        }
+
+        writer.alignToByte();
+        writer.writeMarker(JpegTables.EOI);
+        writer.flush();
+        return size;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Builds the mapping from output coefficients to source coefficients within a block. Mirroring negates odd
+     * horizontal frequencies, and a clockwise quarter turn transposes the block and then mirrors it.
+     *
+     * @param quarterTurns the number of clockwise quarter turns.
+     * @param reflection   whether to mirror horizontally before rotating.
+     * @param source       the output for the natural index of the source coefficient of each output coefficient.
+     * @param sign         the output for the sign to apply to each output coefficient.
+     */
+    private static void buildCoefficientMapping(int quarterTurns, boolean reflection, int[] source, int[] sign) {
+        for (int i = 0; i < JpegTables.BLOCK_SIZE; i++) {
+            source[i] = i;
+            sign[i] = 1;
+        }
+
+        int[] previousSource = new int[JpegTables.BLOCK_SIZE];
+        int[] previousSign = new int[JpegTables.BLOCK_SIZE];
+        for (int step = reflection ? 0 : 1; step <= quarterTurns; step++) {
+            System.arraycopy(source, 0, previousSource, 0, JpegTables.BLOCK_SIZE);
+            System.arraycopy(sign, 0, previousSign, 0, JpegTables.BLOCK_SIZE);
+
+            // Step 0 is the mirror. Every later step is a quarter turn.
+            for (int v = 0; v < BLOCK_LENGTH; v++) {
+                for (int u = 0; u < BLOCK_LENGTH; u++) {
+                    int from = step == 0 ? v * BLOCK_LENGTH + u : u * BLOCK_LENGTH + v;
+                    int i = v * BLOCK_LENGTH + u;
+                    source[i] = previousSource[from];
+                    sign[i] = (u % 2 == 1 ? -1 : 1) * previousSign[from];
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the source block of an output block.
+     *
+     * @param x            the output block column.
+     * @param y            the output block row.
+     * @param width        the number of source block columns.
+     * @param height       the number of source block rows.
+     * @param quarterTurns the number of clockwise quarter turns.
+     * @param reflection   whether the source is mirrored horizontally before rotating.
+     * @return the index of the source block.
+     */
+    private static int getSourceBlock(int x, int y, int width, int height, int quarterTurns, boolean reflection) {
+        // Undo the quarter turns one at a time. A clockwise turn maps (x, y) to (h - 1 - y, x) in the rotated grid.
+        int w = quarterTurns % 2 == 1 ? height : width;
+        int h = quarterTurns % 2 == 1 ? width : height;
+        for (int i = 0; i < quarterTurns; i++) {
+            int previousX = y;
+            int previousY = w - 1 - x;
+            x = previousX;
+            y = previousY;
+            int previousW = h;
+            h = w;
+            w = previousW;
+        }
+
+        if (reflection) {
+            x = width - 1 - x;
+        }
+        return y * width + x;
+    }
+
+    /**
+     * Writes the quantization tables used by the source components. Tables move with their coefficients, so they are
+     * transposed along with the blocks.
+     *
+     * @param writer       the writer.
+     * @param decoder      the decoder of the source Jpeg.
+     * @param isTransposed whether the blocks are transposed.
+     * @throws IOException if the write fails.
+     */
+    private static void writeQuantizationTables(BitWriter writer, JpegDecoder decoder, boolean isTransposed)
+            throws IOException {
+        boolean[] isWritten = new boolean[4];
+        for (int c = 0; c < decoder.getComponentCount(); c++) {
+            int id = decoder.getQuantizationTableId(c);
+            if (isWritten[id]) {
+                continue;
+            }
+            isWritten[id] = true;
+
+            int[] table = decoder.getQuantizationTable(c);
+            boolean isSixteenBit = false;
+            for (int value : table) {
+                isSixteenBit |= value > 0xFF;
+            }
+
+            writer.writeMarker(JpegTables.DQT);
+            writer.writeShort(2 + 1 + JpegTables.BLOCK_SIZE * (isSixteenBit ? 2 : 1));
+            writer.writeBytes((isSixteenBit ? 0x10 : 0x00) | id);
+            for (int k = 0; k < JpegTables.BLOCK_SIZE; k++) {
+                int i = JpegTables.ZIGZAG_TO_NATURAL[k];
+                if (isTransposed) {
+                    i = (i % BLOCK_LENGTH) * BLOCK_LENGTH + i / BLOCK_LENGTH;
+                }
+                int value = table[i];
+                if (isSixteenBit) {
+                    writer.writeShort(value);
+                } else {
+                    writer.writeBytes(value);
+                }
+            }
+        }
+    }
+}
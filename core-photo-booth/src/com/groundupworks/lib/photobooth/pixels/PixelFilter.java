@@ -0,0 +1,92 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.pixels;
+
+/**
+ * Per-pixel image filters in plain Java, matching the Android filters that do not depend on neighbouring pixels, so
+ * frames can be filtered without the Android graphics stack.
+ *
+ * @author Benedict Lau
+ */
+public enum PixelFilter {
+
+    /**
+     * Converts to black and white with the weights of the grayscale filter.
+     */
+    BLACK_AND_WHITE {
+        @Override
+        public int apply(int argb) {
+            int luminance = (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 151 + (argb & 0xFF) * 28) >> 8;
+            return (argb & 0xFF000000) | (luminance << 16) | (luminance << 8) | luminance;
+        }
+    },
+
+    /**
+     * Applies the sepia color matrix.
+     */
+    SEPIA {
+        @Override
+        public int apply(int argb) {
+            int red = (argb >> 16) & 0xFF;
+            int green = (argb >> 8) & 0xFF;
+            int blue = argb & 0xFF;
+            int sepiaRed = clamp(0.393f * red + 0.769f * green + 0.189f * blue);
+            int sepiaGreen = clamp(0.349f * red + 0.686f * green + 0.168f * blue);
+            int sepiaBlue = clamp(0.272f * red + 0.534f * green + 0.131f * blue);
+            return (argb & 0xFF000000) | (sepiaRed << 16) | (sepiaGreen << 8) | sepiaBlue;
+        }
+    };
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Filters a pixel.
+     *
+     * @param argb the pixel as Argb.
+     * @return the filtered pixel as Argb.
+     */
+    public abstract int apply(int argb);
+
+    /**
+     * Filters pixels in place.
+     *
+     * @param argb   the pixels as Argb.
+     * @param offset the index of the first pixel.
+     * @param count  the number of pixels.
+     */
+    public void apply(int[] argb, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            argb[i] = apply(argb[i]);
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Rounds and clamps a color channel to 0 to 255.
+     *
+     * @param value the channel value.
+     * @return the clamped channel.
+     */
+    private static int clamp(float value) {
+        return Math.min(255, Math.max(0, Math.round(value)));
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.pixels;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegDecoder;
+
+import java.io.IOException;
+
+/**
+ * An Argb image in plain Java, decoded with the {@link JpegDecoder} and drawn with bilinear sampling. Frames are
+ * reflected, center-cropped to a square, rotated and filtered, and {@code ImageHelper} on Android creates its frames
+ * through here when decoding in pure Java.
+ *
+ * @author Benedict Lau
+ */
+public class PixelImage {
+
+    /**
+     * The width of the image.
+     */
+    private final int mWidth;
+
+    /**
+     * The height of the image.
+     */
+    private final int mHeight;
+
+    /**
+     * The pixels as Argb, row by row.
+     */
+    private final int[] mPixels;
+
+    /**
+     * Constructor.
+     *
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @param pixels the pixels as Argb, row by row.
+     */
+    public PixelImage(int width, int height, int[] pixels) {
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Decodes Jpeg data, scaling down in the Dct domain by the largest factor that keeps the short edge at least as
+     * large as a given size.
+     *
+     * @param jpegData     the Jpeg data.
+     * @param minShortEdge the min length of the short edge; or 0 to decode at full size.
+     * @return the decoded image.
+     * @throws IOException if the Jpeg cannot be decoded.
+     */
+    public static PixelImage decode(byte[] jpegData, int minShortEdge) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpegData);
+        if (minShortEdge > 0) {
+            decoder.setScale(JpegDecoder.getScaleForSize(decoder.getWidth(), decoder.getHeight(), minShortEdge));
+        }
+
+        final int width = decoder.getOutputWidth();
+        final int height = decoder.getOutputHeight();
+        int[] pixels = new int[width * height];
+        int offset = 0;
+        int rows;
+        while (offset < pixels.length && (rows = decoder.readRows(pixels, offset, width)) > 0) {
+            offset += rows * width;
+        }
+        return new PixelImage(width, height, pixels);
+    }
+
+    /**
+     * Creates a processed square frame from camera Jpeg data. The image is reflected, center-cropped, scaled, rotated
+     * and filtered.
+     *
+     * @param jpegData   the Jpeg data.
+     * @param rotation   clockwise rotation applied to the image in degrees. Rounded to a quarter turn.
+     * @param reflection horizontal reflection applied to the image.
+     * @param filter     the {@link PixelFilter} to apply; or null.
+     * @param frameSize  the width and height of the frame.
+     * @return the frame.
+     * @throws IOException if the Jpeg cannot be decoded.
+     */
+    public static PixelImage createFrame(byte[] jpegData, float rotation, boolean reflection, PixelFilter filter,
+                                         int frameSize) throws IOException {
+        PixelImage decoded = decode(jpegData, frameSize);
+        final int cropSize = Math.min(decoded.mWidth, decoded.mHeight);
+        final float cropLeft = (decoded.mWidth - cropSize) / 2;
+        final float cropTop = (decoded.mHeight - cropSize) / 2;
+        final float scale = (float) cropSize / frameSize;
+        final int quarterTurns = ((Math.round(rotation / 90f) % 4) + 4) % 4;
+        final int last = frameSize - 1;
+
+        int[] pixels = new int[frameSize * frameSize];
+        for (int y = 0; y < frameSize; y++) {
+            for (int x = 0; x < frameSize; x++) {
+                // Map back through the rotation, then the reflection, to the cropped source.
+                int u;
+                int v;
+                switch (quarterTurns) {
+                    case 1:
+                        u = y;
+                        v = last - x;
+                        break;
+                    case 2:
+                        u = last - x;
+                        v = last - y;
+                        break;
+                    case 3:
+                        u = last - y;
+                        v = x;
+                        break;
+                    default:
+                        u = x;
+                        v = y;
+                        break;
+                }
+                if (reflection) {
+                    u = last - u;
+                }
+
+                pixels[y * frameSize + x] = decoded.sample(cropLeft + (u + 0.5f) * scale - 0.5f,
+                        cropTop + (v + 0.5f) * scale - 0.5f);
+            }
+        }
+
+        if (filter != null) {
+            filter.apply(pixels, 0, pixels.length);
+        }
+        return new PixelImage(frameSize, frameSize, pixels);
+    }
+
+    /**
+     * Gets the width of the image.
+     *
+     * @return the width.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Gets the height of the image.
+     *
+     * @return the height.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Gets the pixels of the image.
+     *
+     * @return the pixels as Argb, row by row.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Draws the image into a rectangle of a band of rows, scaled to fill the rectangle and center-cropped. Only the
+     * rows of the rectangle that fall in the band are drawn.
+     *
+     * @param rows       the pixels of the band as Argb.
+     * @param stride     the number of pixels per row of the band.
+     * @param bandTop    the top of the band.
+     * @param bandHeight the number of rows in the band.
+     * @param rect       the rectangle as {left, top, right, bottom}.
+     */
+    public void draw(int[] rows, int stride, int bandTop, int bandHeight, int[] rect) {
+        final int rectWidth = rect[2] - rect[0];
+        final int rectHeight = rect[3] - rect[1];
+        final int top = Math.max(rect[1], bandTop);
+        final int bottom = Math.min(rect[3], bandTop + bandHeight);
+        if (rectWidth <= 0 || rectHeight <= 0 || top >= bottom) {
+            return;
+        }
+
+        if (mWidth == rectWidth && mHeight == rectHeight) {
+            for (int y = top; y < bottom; y++) {
+                System.arraycopy(mPixels, (y - rect[1]) * mWidth, rows, (y - bandTop) * stride + rect[0], mWidth);
+            }
+            return;
+        }
+
+        // Crop the image to the aspect ratio of the rectangle.
+        float cropLeft = 0f;
+        float cropTop = 0f;
+        float cropWidth = mWidth;
+        float cropHeight = mHeight;
+        if ((long) mWidth * rectHeight > (long) mHeight * rectWidth) {
+            cropWidth = (float) mHeight * rectWidth / rectHeight;
+            cropLeft = (mWidth - cropWidth) / 2f;
+        } else {
+            cropHeight = (float) mWidth * rectHeight / rectWidth;
+            cropTop = (mHeight - cropHeight) / 2f;
+        }
+        final float scaleX = cropWidth / rectWidth;
+        final float scaleY = cropHeight / rectHeight;
+
+        for (int y = top; y < bottom; y++) {
+            float sourceY = cropTop + (y - rect[1] + 0.5f) * scaleY - 0.5f;
+            int rowOffset = (y - bandTop) * stride;
+            for (int x = rect[0]; x < rect[2]; x++) {
+                rows[rowOffset + x] = sample(cropLeft + (x - rect[0] + 0.5f) * scaleX - 0.5f, sourceY);
+            }
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Samples the image between pixels with bilinear interpolation. Coordinates are clamped to the image.
+     *
+     * @param x the horizontal position in pixels.
+     * @param y the vertical position in pixels.
+     * @return the pixel as Argb.
+     */
+    private int sample(float x, float y) {
+        x = Math.max(0f, Math.min(x, mWidth - 1));
+        y = Math.max(0f, Math.min(y, mHeight - 1));
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = Math.min(x0 + 1, mWidth - 1);
+        int y1 = Math.min(y0 + 1, mHeight - 1);
+        int fx = (int) ((x - x0) * 256f);
+        int fy = (int) ((y - y0) * 256f);
+
+        int topLeft = mPixels[y0 * mWidth + x0];
+        int topRight = mPixels[y0 * mWidth + x1];
+        int bottomLeft = mPixels[y1 * mWidth + x0];
+        int bottomRight = mPixels[y1 * mWidth + x1];
+
+        int argb = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int upper = ((topLeft >>> shift) & 0xFF) * (256 - fx) + ((topRight >>> shift) & 0xFF) * fx;
+            int lower = ((bottomLeft >>> shift) & 0xFF) * (256 - fx) + ((bottomRight >>> shift) & 0xFF) * fx;
+            argb |= (((upper * (256 - fy) + lower * fy) >> 16) & 0xFF) << shift;
+        }
+        return argb;
+    }
+}
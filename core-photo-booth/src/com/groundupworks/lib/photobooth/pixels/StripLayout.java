@@ -0,0 +1,247 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.pixels;
+
+/**
+ * The grid layout of a photo strip in plain Java, shared by the Android arrangements and the headless renderer:
+ * panels of the frame size in grid cells with padding around and between them, and an optional header above or below
+ * the panels. The vertical and horizontal arrangements are grids of one column and one row, and the box arrangement
+ * is a grid of two columns.
+ * <p/>
+ * Rectangles are given as {left, top, right, bottom} with exclusive right and bottom.
+ *
+ * @author Benedict Lau
+ */
+public class StripLayout {
+
+    /**
+     * The default padding around and between panels, matching the arrangements.
+     */
+    public static final int DEFAULT_PADDING = 50;
+
+    /**
+     * Value for the number of rows to indicate that rows are added as needed by the frame count.
+     */
+    public static final int ROWS_AUTO = 0;
+
+    /**
+     * The number of columns in the grid.
+     */
+    private final int mColumns;
+
+    /**
+     * The number of rows in the grid; or {@link #ROWS_AUTO}.
+     */
+    private final int mRows;
+
+    /**
+     * The padding around and between panels.
+     */
+    private final int mPadding;
+
+    /**
+     * The slots as {column, row, columnSpan, rowSpan}; or null if frames fill the grid row by row.
+     */
+    private final int[][] mSlots;
+
+    /**
+     * Flag to track whether the header is above the panels.
+     */
+    private final boolean mIsHeaderOnTop;
+
+    /**
+     * Constructor.
+     *
+     * @param columns       the number of columns in the grid.
+     * @param rows          the number of rows in the grid; or {@link #ROWS_AUTO}.
+     * @param padding       the padding around and between panels.
+     * @param slots         the slots as {column, row, columnSpan, rowSpan}; or null to fill the grid row by row.
+     * @param isHeaderOnTop true to place the header above the panels; false to place it below.
+     */
+    public StripLayout(int columns, int rows, int padding, int[][] slots, boolean isHeaderOnTop) {
+        if (columns < 1 || rows < ROWS_AUTO || padding < 0 || (slots != null && rows == ROWS_AUTO)) {
+            throw new IllegalArgumentException("Invalid grid " + columns + "x" + rows);
+        }
+
+        mColumns = columns;
+        mRows = rows;
+        mPadding = padding;
+        mSlots = slots;
+        mIsHeaderOnTop = isHeaderOnTop;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Creates the layout of the vertical arrangement.
+     *
+     * @return the {@link StripLayout}.
+     */
+    public static StripLayout vertical() {
+        return new StripLayout(1, ROWS_AUTO, DEFAULT_PADDING, null, true);
+    }
+
+    /**
+     * Creates the layout of the box arrangement.
+     *
+     * @return the {@link StripLayout}.
+     */
+    public static StripLayout box() {
+        return new StripLayout(2, ROWS_AUTO, DEFAULT_PADDING, null, true);
+    }
+
+    /**
+     * Creates the layout of the horizontal arrangement.
+     *
+     * @param numFrames the number of frames in the photo strip.
+     * @return the {@link StripLayout}.
+     */
+    public static StripLayout horizontal(int numFrames) {
+        return new StripLayout(numFrames, 1, DEFAULT_PADDING, null, true);
+    }
+
+    /**
+     * Gets the max number of frames this layout can hold.
+     *
+     * @return the number of frames; or {@link Integer#MAX_VALUE} if rows are added as needed.
+     */
+    public int getCapacity() {
+        int capacity;
+        if (mSlots != null) {
+            capacity = mSlots.length;
+        } else if (mRows != ROWS_AUTO) {
+            capacity = mColumns * mRows;
+        } else {
+            capacity = Integer.MAX_VALUE;
+        }
+        return capacity;
+    }
+
+    /**
+     * Gets the width of the photo strip.
+     *
+     * @param frameWidth the width of each frame.
+     * @return the width.
+     */
+    public int getWidth(int frameWidth) {
+        return frameWidth * mColumns + mPadding * (mColumns + 1);
+    }
+
+    /**
+     * Gets the height of the photo strip.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header; or 0 if no header is applied.
+     * @return the height.
+     */
+    public int getHeight(int numFrames, int frameHeight, int headerHeight) {
+        int rows = getRows(numFrames);
+        return frameHeight * rows + mPadding * (rows + 1) + headerHeight;
+    }
+
+    /**
+     * Gets the top of the header.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header.
+     * @return the top of the header.
+     */
+    public int getHeaderTop(int numFrames, int frameHeight, int headerHeight) {
+        return mIsHeaderOnTop ? 0 : getHeight(numFrames, frameHeight, headerHeight) - headerHeight;
+    }
+
+    /**
+     * Gets the bounds of the header.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameWidth   the width of each frame.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header.
+     * @return the bounds of the header.
+     */
+    public int[] getHeaderRect(int numFrames, int frameWidth, int frameHeight, int headerHeight) {
+        int top = getHeaderTop(numFrames, frameHeight, headerHeight);
+        return new int[]{0, top, getWidth(frameWidth), top + headerHeight};
+    }
+
+    /**
+     * Gets the bounds of a panel.
+     *
+     * @param index        the index of the panel.
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameWidth   the width of each frame.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header; or 0 if no header is applied.
+     * @return the bounds of the panel; or null if the frame count exceeds the capacity.
+     */
+    public int[] getPanelRect(int index, int numFrames, int frameWidth, int frameHeight, int headerHeight) {
+        if (index < 0 || index >= numFrames || numFrames > getCapacity()) {
+            return null;
+        }
+
+        // Slot is {column, row, columnSpan, rowSpan}.
+        int[] slot = mSlots != null ? mSlots[index] : new int[]{index % mColumns, index / mColumns, 1, 1};
+        int left = (frameWidth + mPadding) * slot[0] + mPadding;
+        int top = (frameHeight + mPadding) * slot[1] + mPadding + (mIsHeaderOnTop ? headerHeight : 0);
+        int right = left + frameWidth * slot[2] + mPadding * (slot[2] - 1);
+        int bottom = top + frameHeight * slot[3] + mPadding * (slot[3] - 1);
+        return new int[]{left, top, right, bottom};
+    }
+
+    /**
+     * Gets the bounds of each panel.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameWidth   the width of each frame.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header; or 0 if no header is applied.
+     * @return the bounds of each panel; or null if the frame count exceeds the capacity.
+     */
+    public int[][] getPanelRects(int numFrames, int frameWidth, int frameHeight, int headerHeight) {
+        if (numFrames > getCapacity()) {
+            return null;
+        }
+
+        int[][] panels = new int[numFrames][];
+        for (int i = 0; i < numFrames; i++) {
+            panels[i] = getPanelRect(i, numFrames, frameWidth, frameHeight, headerHeight);
+        }
+        return panels;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the number of rows in the grid for a frame count.
+     *
+     * @param numFrames the number of frames in the photo strip.
+     * @return the number of rows.
+     */
+    private int getRows(int numFrames) {
+        int rows = mRows;
+        if (rows == ROWS_AUTO) {
+            rows = (numFrames + mColumns - 1) / mColumns;
+        }
+        return rows;
+    }
+}
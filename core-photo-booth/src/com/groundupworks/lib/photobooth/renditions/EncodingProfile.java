@@ -0,0 +1,152 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.renditions;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder.ChromaSubsampling;
+
+/**
+ * A named set of encoding settings: the output format, and for Jpegs the quality and chroma subsampling. Each
+ * {@link Rendition} is encoded with a profile, so output size and encode time can be tuned per use without touching
+ * the code that writes files.
+ *
+ * @author Benedict Lau
+ */
+public class EncodingProfile {
+
+    /**
+     * The profile for images sent to a printer. Full-resolution chroma keeps colored text and borders sharp.
+     */
+    public static final EncodingProfile PRINT = new EncodingProfile("print", Format.JPEG, 92,
+            ChromaSubsampling.YUV_444);
+
+    /**
+     * The profile for images uploaded or shown on screen, where subsampled chroma is not visible.
+     */
+    public static final EncodingProfile SHARE = new EncodingProfile("share", Format.JPEG, 85,
+            ChromaSubsampling.YUV_420);
+
+    /**
+     * The profile for the full-size images kept in the Android Gallery. Every saved photo strip is encoded with it, so
+     * it keeps the 4:2:0 chroma of the platform encoder instead of moving every save to the pure-Java encoder.
+     */
+    public static final EncodingProfile ARCHIVE = new EncodingProfile("archive", Format.JPEG, 95,
+            ChromaSubsampling.YUV_420);
+
+    /**
+     * The name of the profile.
+     */
+    private final String mName;
+
+    /**
+     * The output format.
+     */
+    private final Format mFormat;
+
+    /**
+     * The Jpeg quality from 0 to 100.
+     */
+    private final int mQuality;
+
+    /**
+     * The Jpeg chroma subsampling.
+     */
+    private final ChromaSubsampling mChromaSubsampling;
+
+    /**
+     * Constructor.
+     *
+     * @param name              the name of the profile.
+     * @param format            the output {@link Format}.
+     * @param quality           the Jpeg quality from 0 to 100. Ignored for other formats.
+     * @param chromaSubsampling the Jpeg {@link ChromaSubsampling}. Ignored for other formats.
+     */
+    public EncodingProfile(String name, Format format, int quality, ChromaSubsampling chromaSubsampling) {
+        mName = name;
+        mFormat = format;
+        mQuality = quality;
+        mChromaSubsampling = chromaSubsampling;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the profiles available to the app.
+     *
+     * @return the profiles.
+     */
+    public static EncodingProfile[] values() {
+        return new EncodingProfile[]{PRINT, SHARE, ARCHIVE};
+    }
+
+    /**
+     * Gets the name of the profile.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the output format.
+     *
+     * @return the {@link Format}.
+     */
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Gets the Jpeg quality.
+     *
+     * @return the Jpeg quality from 0 to 100.
+     */
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * Gets the Jpeg chroma subsampling.
+     *
+     * @return the {@link ChromaSubsampling}.
+     */
+    public ChromaSubsampling getChromaSubsampling() {
+        return mChromaSubsampling;
+    }
+
+    //
+    // Public enums.
+    //
+
+    /**
+     * The output formats.
+     */
+    public enum Format {
+
+        /**
+         * Lossy Jpeg.
+         */
+        JPEG,
+
+        /**
+         * Lossless PNG.
+         */
+        PNG
+    }
+}
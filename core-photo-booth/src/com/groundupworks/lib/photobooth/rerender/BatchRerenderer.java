@@ -0,0 +1,702 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.rerender;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.pixels.PixelFilter;
+import com.groundupworks.lib.photobooth.pixels.PixelImage;
+import com.groundupworks.lib.photobooth.pixels.StripLayout;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+import com.groundupworks.lib.photobooth.storage.FramePack;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Re-renders every session archived in the {@link FramePack} files of an event with a new layout, header or filter.
+ * Frames are decoded, composed and encoded with the pure-Java pixel path, so it runs headless on a desktop JVM:
+ * <pre>
+ * java com.groundupworks.lib.photobooth.rerender.BatchRerenderer &lt;event frames dir&gt; &lt;output dir&gt; [options]
+ * </pre>
+ * Sessions are rendered in parallel across cores. Each photo strip is streamed to the encoder one band of rows at a
+ * time and only holds the frames that intersect the current band, and the number of sessions rendered at once is
+ * limited so their frames fit in half of the heap.
+ * <p/>
+ * Each rendered session is recorded in a journal in the output directory once its photo strip is written, so an
+ * interrupted run resumes where it left off and a finished run can be extended as new sessions are archived.
+ *
+ * @author Benedict Lau
+ */
+public class BatchRerenderer {
+
+    /**
+     * The name of the progress journal in the output directory.
+     */
+    public static final String JOURNAL_FILENAME = "rerender.journal";
+
+    /**
+     * The default width and height to render each frame at.
+     */
+    public static final int DEFAULT_FRAME_SIZE = 1200;
+
+    /**
+     * The frame size that layouts are specified at, matching the frame size of photo strips on the device. Padding
+     * and the header are scaled with the frames from this size.
+     */
+    private static final int BASE_FRAME_SIZE = 600;
+
+    /**
+     * The height of a band of rows rendered at once. Must be a multiple of 16 to match Jpeg Mcus.
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * The number of bytes per pixel.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * The fraction of the max heap that sessions rendered at once may use.
+     */
+    private static final int HEAP_FRACTION = 2;
+
+    /**
+     * The memory needed to decode a frame, in frames. The decoder output can be up to twice the frame size in each
+     * dimension, and more on the long edge.
+     */
+    private static final int DECODE_FRAMES = 6;
+
+    /**
+     * Journal record of a rendered session, followed by the session id.
+     */
+    private static final String RECORD_DONE = "DONE";
+
+    /**
+     * The encoding of the journal.
+     */
+    private static final String JOURNAL_ENCODING = "UTF-8";
+
+    /**
+     * The extension of rendered photo strips.
+     */
+    private static final String JPEG_EXTENSION = ".jpg";
+
+    /**
+     * The suffix of photo strips being written.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    //
+    // Colors of the photo strip, matching the arrangements.
+    //
+
+    private static final int BACKGROUND_COLOR = 0xFFFFFFFF;
+
+    private static final int BORDER_COLOR = 0xFF444444;
+
+    private static final int OUTER_PANEL_BORDER_COLOR = 0xFFCCCCCC;
+
+    /**
+     * The layout of the photo strips.
+     */
+    private final StripLayout mLayout;
+
+    /**
+     * The width and height to render each frame at.
+     */
+    private final int mFrameSize;
+
+    /**
+     * The filter to apply to each frame; or null.
+     */
+    private final PixelFilter mFilter;
+
+    /**
+     * The header; or null if no header is applied.
+     */
+    private final PixelImage mHeader;
+
+    /**
+     * The {@link EncodingProfile} of the photo strips. The format is ignored.
+     */
+    private final EncodingProfile mProfile;
+
+    /**
+     * The max number of sessions to render at once.
+     */
+    private final int mThreadCount;
+
+    /**
+     * Constructor.
+     *
+     * @param layout      the layout of the photo strips.
+     * @param frameSize   the width and height to render each frame at.
+     * @param filter      the filter to apply to each frame; or null.
+     * @param header      the header, scaled to the width of the photo strip; or null if no header is applied.
+     * @param profile     the {@link EncodingProfile} of the photo strips. The format is ignored.
+     * @param threadCount the max number of sessions to render at once.
+     */
+    public BatchRerenderer(StripLayout layout, int frameSize, PixelFilter filter, PixelImage header,
+                           EncodingProfile profile, int threadCount) {
+        mLayout = layout;
+        mFrameSize = frameSize;
+        mFilter = filter;
+        mHeader = header;
+        mProfile = profile;
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Entry point.
+     *
+     * @param args the directory to search for frame packs and the output directory, followed by options.
+     * @throws IOException if the header cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchRerenderer <frames dir> <output dir> [--columns n] [--rows n]"
+                    + " [--padding n] [--frame-size n] [--filter black_and_white|sepia] [--header jpeg file]"
+                    + " [--header-bottom] [--quality n] [--threads n]");
+            return;
+        }
+
+        int columns = 1;
+        int rows = StripLayout.ROWS_AUTO;
+        int padding = StripLayout.DEFAULT_PADDING;
+        int frameSize = DEFAULT_FRAME_SIZE;
+        PixelFilter filter = null;
+        PixelImage header = null;
+        boolean isHeaderOnTop = true;
+        int quality = EncodingProfile.PRINT.getQuality();
+        int threadCount = JpegEncoder.getDefaultThreadCount();
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if ("--header-bottom".equals(option)) {
+                isHeaderOnTop = false;
+            } else if (i + 1 < args.length) {
+                String value = args[++i];
+                if ("--columns".equals(option)) {
+                    columns = Integer.parseInt(value);
+                } else if ("--rows".equals(option)) {
+                    rows = Integer.parseInt(value);
+                } else if ("--padding".equals(option)) {
+                    padding = Integer.parseInt(value);
+                } else if ("--frame-size".equals(option)) {
+                    frameSize = Integer.parseInt(value);
+                } else if ("--filter".equals(option)) {
+                    filter = PixelFilter.valueOf(value.toUpperCase(Locale.US));
+                } else if ("--header".equals(option)) {
+                    header = PixelImage.decode(readFile(value), 0);
+                } else if ("--quality".equals(option)) {
+                    quality = Integer.parseInt(value);
+                } else if ("--threads".equals(option)) {
+                    threadCount = Integer.parseInt(value);
+                } else {
+                    System.err.println("Unknown option " + option);
+                    return;
+                }
+            } else {
+                System.err.println("Missing value for " + option);
+                return;
+            }
+        }
+
+        StripLayout layout = new StripLayout(columns, rows, padding, null, isHeaderOnTop);
+        EncodingProfile profile = new EncodingProfile(EncodingProfile.PRINT.getName(), EncodingProfile.Format.JPEG,
+                quality, EncodingProfile.PRINT.getChromaSubsampling());
+        BatchRerenderer rerenderer = new BatchRerenderer(layout, frameSize, filter, header, profile, threadCount);
+        Result result = rerenderer.run(new File(args[0]), new File(args[1]));
+        System.out.println("Rendered " + result.getRenderedCount() + ", skipped " + result.getSkippedCount()
+                + ", failed " + result.getFailedCount());
+    }
+
+    /**
+     * Renders every session in the frame packs under a directory that is not yet recorded in the journal. Blocks
+     * until all sessions are rendered.
+     *
+     * @param inputDirectory  the directory to search for frame packs, usually the rendition directory of an event.
+     * @param outputDirectory the directory to write photo strips and the journal to. Photo strips are named after the
+     *                        session timestamp, in the same subdirectory as their frame pack.
+     * @return the {@link Result}.
+     */
+    public Result run(File inputDirectory, File outputDirectory) {
+        Result result = new Result();
+        final File journal = new File(outputDirectory, JOURNAL_FILENAME);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            return result;
+        }
+        Set<String> doneIds = readJournal(journal);
+
+        // Collect the sessions left to render.
+        List<File> packFiles = new ArrayList<File>();
+        findFramePacks(inputDirectory, packFiles);
+        List<Job> jobs = new ArrayList<Job>();
+        int maxFrameCount = 1;
+        for (File packFile : packFiles) {
+            String shardPath = getRelativePath(inputDirectory, packFile.getParentFile());
+            for (FramePack.Session session : FramePack.getInstance(packFile).getSessions()) {
+                String id = shardPath.length() > 0 ? shardPath + '/' + session.getTimestamp()
+                        : String.valueOf(session.getTimestamp());
+                if (doneIds.contains(id)) {
+                    result.mSkippedCount++;
+                } else {
+                    File output = new File(outputDirectory, id.replace('/', File.separatorChar) + JPEG_EXTENSION);
+                    jobs.add(new Job(id, session, output));
+                    maxFrameCount = Math.max(maxFrameCount, session.getFrameCount());
+                }
+            }
+        }
+        if (jobs.isEmpty()) {
+            return result;
+        }
+
+        // Render in parallel, with no more sessions at once than fit the heap budget.
+        ExecutorService executor = Executors.newFixedThreadPool(getConcurrency(maxFrameCount));
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (final Job job : jobs) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        boolean isRendered = renderToFile(job.mSession, job.mOutput);
+                        if (isRendered) {
+                            appendJournal(journal, job.mId);
+                        }
+                        return isRendered;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get()) {
+                        result.mRenderedCount++;
+                    } else {
+                        result.mFailedCount++;
+                    }
+                } catch (ExecutionException e) {
+                    result.mFailedCount++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Renders the photo strip of a session and writes it as a Jpeg.
+     *
+     * @param session      the {@link FramePack.Session}.
+     * @param outputStream the output stream to write the Jpeg to.
+     * @return true if successful; false otherwise.
+     */
+    public boolean render(FramePack.Session session, OutputStream outputStream) {
+        final int numFrames = session.getFrameCount();
+        if (numFrames < 1) {
+            return false;
+        }
+
+        /*
+         * Lay out photo strip at base scale, then scale it to the frame size.
+         */
+        int baseWidth = mLayout.getWidth(BASE_FRAME_SIZE);
+        int baseHeaderHeight = 0;
+        if (mHeader != null) {
+            baseHeaderHeight = Math.round((float) mHeader.getHeight() * baseWidth / mHeader.getWidth());
+        }
+        int[][] basePanels = mLayout.getPanelRects(numFrames, BASE_FRAME_SIZE, BASE_FRAME_SIZE, baseHeaderHeight);
+        if (basePanels == null) {
+            return false;
+        }
+
+        final float scale = (float) mFrameSize / BASE_FRAME_SIZE;
+        final int width = Math.round(baseWidth * scale);
+        final int height = Math.round(mLayout.getHeight(numFrames, BASE_FRAME_SIZE, baseHeaderHeight) * scale);
+        int[][] panels = new int[numFrames][];
+        for (int i = 0; i < numFrames; i++) {
+            panels[i] = scaleRect(basePanels[i], scale);
+        }
+        int[] headerRect = null;
+        if (mHeader != null) {
+            int[] baseHeaderRect = mLayout.getHeaderRect(numFrames, BASE_FRAME_SIZE, BASE_FRAME_SIZE,
+                    baseHeaderHeight);
+            headerRect = scaleRect(baseHeaderRect, scale);
+        }
+
+        /*
+         * Render and encode band by band.
+         */
+        int[] rows = new int[width * BAND_HEIGHT];
+        PixelImage[] frames = new PixelImage[numFrames];
+        JpegEncoder encoder = new JpegEncoder(outputStream, width, height, mProfile.getQuality(), 1,
+                mProfile.getChromaSubsampling());
+        try {
+            for (int bandTop = 0; bandTop < height; bandTop += BAND_HEIGHT) {
+                int bandHeight = Math.min(BAND_HEIGHT, height - bandTop);
+                int bandBottom = bandTop + bandHeight;
+                Arrays.fill(rows, BACKGROUND_COLOR);
+
+                if (headerRect != null) {
+                    mHeader.draw(rows, width, bandTop, bandHeight, headerRect);
+                }
+
+                for (int i = 0; i < numFrames; i++) {
+                    int[] panel = panels[i];
+                    if (panel[1] >= bandBottom || panel[3] <= bandTop) {
+                        continue;
+                    }
+
+                    // Create the frame when the first band intersects it, and release it after the last one.
+                    if (frames[i] == null) {
+                        frames[i] = PixelImage.createFrame(session.getJpegData(i), session.getRotation(i),
+                                session.getReflection(i), mFilter, Math.min(panel[2] - panel[0],
+                                        panel[3] - panel[1]));
+                    }
+                    frames[i].draw(rows, width, bandTop, bandHeight, panel);
+                    drawOutline(rows, width, bandTop, bandHeight, panel[0], panel[1], panel[2] - 1, panel[3] - 1,
+                            BORDER_COLOR);
+                    drawOutline(rows, width, bandTop, bandHeight, panel[0] - 1, panel[1] - 1, panel[2], panel[3],
+                            OUTER_PANEL_BORDER_COLOR);
+                    if (panel[3] <= bandBottom) {
+                        frames[i] = null;
+                    }
+                }
+                drawOutline(rows, width, bandTop, bandHeight, 0, 0, width - 1, height - 1, BORDER_COLOR);
+
+                encoder.writeRows(rows, 0, width, bandHeight);
+            }
+            encoder.finish();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Renders the photo strip of a session to a file. The photo strip is written to a temp file, synced and renamed,
+     * so an interrupted run never leaves a partial photo strip under its final name.
+     *
+     * @param session the {@link FramePack.Session}.
+     * @param output  the file to write.
+     * @return true if successful; false otherwise.
+     */
+    private boolean renderToFile(FramePack.Session session, File output) {
+        File directory = output.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            return false;
+        }
+
+        File temp = new File(directory, output.getName() + TEMP_SUFFIX);
+        boolean isSuccessful = false;
+        try {
+            FileOutputStream fileStream = new FileOutputStream(temp);
+            try {
+                BufferedOutputStream outputStream = new BufferedOutputStream(fileStream);
+                if (render(session, outputStream)) {
+                    outputStream.flush();
+                    fileStream.getFD().sync();
+                    isSuccessful = true;
+                }
+            } finally {
+                fileStream.close();
+            }
+        } catch (IOException e) {
+            isSuccessful = false;
+        }
+
+        if (isSuccessful) {
+            isSuccessful = temp.renameTo(output);
+        }
+        if (!isSuccessful) {
+            temp.delete();
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Gets the number of sessions to render at once, so the frames they hold fit the heap budget.
+     *
+     * @param maxFrameCount the max number of frames in a session.
+     * @return the number of sessions.
+     */
+    private int getConcurrency(int maxFrameCount) {
+        long bytesPerFrame = (long) mFrameSize * mFrameSize * BYTES_PER_PIXEL;
+        long bytesPerSession = bytesPerFrame * (maxFrameCount + DECODE_FRAMES);
+        long budget = Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+        return (int) Math.max(1L, Math.min(mThreadCount, budget / bytesPerSession));
+    }
+
+    /**
+     * Reads the ids of the sessions recorded in the journal. A record cut short by a crash is skipped.
+     *
+     * @param journal the journal file.
+     * @return the session ids; or an empty set if none.
+     */
+    private static Set<String> readJournal(File journal) {
+        Set<String> ids = new HashSet<String>();
+        if (!journal.isFile()) {
+            return ids;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal),
+                    JOURNAL_ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(RECORD_DONE + ' ') && line.length() > RECORD_DONE.length() + 1) {
+                        ids.add(line.substring(RECORD_DONE.length() + 1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Render the sessions again.
+        }
+        return ids;
+    }
+
+    /**
+     * Records a rendered session in the journal and syncs it.
+     *
+     * @param journal the journal file.
+     * @param id      the session id.
+     */
+    private static synchronized void appendJournal(File journal, String id) {
+        try {
+            FileOutputStream outputStream = new FileOutputStream(journal, true);
+            try {
+                outputStream.write((RECORD_DONE + ' ' + id + '\n').getBytes(JOURNAL_ENCODING));
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            // The session is rendered again on the next run.
+        }
+    }
+
+    /**
+     * Finds frame pack files under a directory, in path order.
+     *
+     * @param directory the directory.
+     * @param packFiles the list to add the frame pack files to.
+     */
+    private static void findFramePacks(File directory, List<File> packFiles) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findFramePacks(file, packFiles);
+            } else if (FramePack.FILENAME.equals(file.getName())) {
+                packFiles.add(file);
+            }
+        }
+    }
+
+    /**
+     * Gets the path of a directory relative to a root directory, with '/' separators.
+     *
+     * @param root      the root directory.
+     * @param directory the directory under the root.
+     * @return the relative path; or an empty string if the directory is the root.
+     */
+    private static String getRelativePath(File root, File directory) {
+        String rootPath = root.getAbsolutePath();
+        String path = directory.getAbsolutePath();
+        if (path.length() <= rootPath.length()) {
+            return "";
+        }
+        return path.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Draws the outline of a rectangle into a band of rows. Coordinates are inclusive.
+     *
+     * @param rows       the pixels of the band as Argb.
+     * @param stride     the number of pixels per row of the band.
+     * @param bandTop    the top of the band.
+     * @param bandHeight the number of rows in the band.
+     * @param left       the left side of the rectangle.
+     * @param top        the top of the rectangle.
+     * @param right      the right side of the rectangle.
+     * @param bottom     the bottom of the rectangle.
+     * @param color      the color as Argb.
+     */
+    private static void drawOutline(int[] rows, int stride, int bandTop, int bandHeight, int left, int top,
+                                    int right, int bottom, int color) {
+        int clippedLeft = Math.max(0, left);
+        int clippedRight = Math.min(stride - 1, right);
+        int bandBottom = bandTop + bandHeight;
+        for (int y = Math.max(top, bandTop); y <= bottom && y < bandBottom; y++) {
+            int rowOffset = (y - bandTop) * stride;
+            if (y == top || y == bottom) {
+                if (clippedLeft <= clippedRight) {
+                    Arrays.fill(rows, rowOffset + clippedLeft, rowOffset + clippedRight + 1, color);
+                }
+            } else {
+                if (left >= 0 && left < stride) {
+                    rows[rowOffset + left] = color;
+                }
+                if (right >= 0 && right < stride) {
+                    rows[rowOffset + right] = color;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scales a rectangle about the origin.
+     *
+     * @param rect  the rectangle as {left, top, right, bottom}.
+     * @param scale the scale factor.
+     * @return the scaled rectangle.
+     */
+    private static int[] scaleRect(int[] rect, float scale) {
+        return new int[]{Math.round(rect[0] * scale), Math.round(rect[1] * scale), Math.round(rect[2] * scale),
+                Math.round(rect[3] * scale)};
+    }
+
+    /**
+     * Reads a file into memory.
+     *
+     * @param path the path to the file.
+     * @return the file contents.
+     * @throws IOException if the file cannot be read.
+     */
+    private static byte[] readFile(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    //
+    // Public inner classes.
+    //
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Result {
+
+        private int mRenderedCount = 0;
+
+        private int mSkippedCount = 0;
+
+        private int mFailedCount = 0;
+
+        /**
+         * Gets the number of sessions rendered by the run.
+         *
+         * @return the number of sessions.
+         */
+        public int getRenderedCount() {
+            return mRenderedCount;
+        }
+
+        /**
+         * Gets the number of sessions skipped because the journal records them as rendered.
+         *
+         * @return the number of sessions.
+         */
+        public int getSkippedCount() {
+            return mSkippedCount;
+        }
+
+        /**
+         * Gets the number of sessions that failed to render.
+         *
+         * @return the number of sessions.
+         */
+        public int getFailedCount() {
+            return mFailedCount;
+        }
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * A session to render.
+     */
+    private static class Job {
+
+        private final String mId;
+
+        private final FramePack.Session mSession;
+
+        private final File mOutput;
+
+        /**
+         * Constructor.
+         *
+         * @param id      the session id recorded in the journal.
+         * @param session the {@link FramePack.Session}.
+         * @param output  the file to write the photo strip to.
+         */
+        private Job(String id, FramePack.Session session, File output) {
+            mId = id;
+            mSession = session;
+            mOutput = output;
+        }
+    }
+}
@@ -0,0 +1,660 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only pack of the source frames of photo booth sessions, so a photo strip can be re-rendered with a
+ * different theme, filter or template after it is saved. Each session is appended as one segment:
+ * <p/>
+ * <pre>
+ * header:  magic (int), version (int), segment length (long)
+ * data:    the camera Jpeg data of each frame, back to back
+ * index:   per frame, the data offset in the pack (long), length (int), rotation (float), reflection (int)
+ * footer:  magic (int), frame count (int), session timestamp (long), segment offset (long)
+ * </pre>
+ * Frames can also be appended one at a time as they are captured, each in a frame segment with the same header, the
+ * Jpeg data and a footer with its own magic number, so they are not held in memory until the session is saved. The
+ * session segment appended when it is saved then has no data of its own, and its index points at the frame segments.
+ * Frame segments that no session points at, from retaken frames or abandoned sessions, are skipped when reading.
+ * <p/>
+ * The footer has a fixed size and ends the pack, so sessions are found by walking back from the end of the file
+ * through the footers, without reading any frame data. Frame data is memory-mapped when read, so it is only paged in
+ * for the frames that are used. A segment cut short by a crash is truncated away before the next append.
+ * <p/>
+ * Has no Android dependencies, so packs copied off a device can be read on a desktop JVM.
+ *
+ * @author Benedict Lau
+ */
+public class FramePack {
+
+    /**
+     * The name of a pack file.
+     */
+    public static final String FILENAME = "frames.pack";
+
+    /**
+     * The magic number at the start of each segment.
+     */
+    private static final int HEADER_MAGIC = 0x46504B48;
+
+    /**
+     * The magic number at the start of each footer.
+     */
+    private static final int FOOTER_MAGIC = 0x46504B46;
+
+    /**
+     * The magic number at the start of the footer of a frame segment.
+     */
+    private static final int FRAME_FOOTER_MAGIC = 0x46504B44;
+
+    /**
+     * The version of the segment format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of a segment header in bytes.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The size of a frame index entry in bytes.
+     */
+    private static final int ENTRY_SIZE = 20;
+
+    /**
+     * The size of a segment footer in bytes.
+     */
+    private static final int FOOTER_SIZE = 24;
+
+    /**
+     * The instances by path.
+     */
+    private static final Map<String, FramePack> sInstances = new HashMap<String, FramePack>();
+
+    /**
+     * The pack file.
+     */
+    private final File mFile;
+
+    /**
+     * Flag to track whether a torn tail has been checked for since the instance was created.
+     */
+    private boolean mIsRecovered = false;
+
+    /**
+     * Constructor.
+     *
+     * @param file the pack file.
+     */
+    private FramePack(File file) {
+        mFile = file;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the pack stored in a file. The file is only created on the first append.
+     *
+     * @param file the pack file.
+     * @return the {@link FramePack}.
+     */
+    public static FramePack getInstance(File file) {
+        String path = file.getPath();
+        synchronized (sInstances) {
+            FramePack pack = sInstances.get(path);
+            if (pack == null) {
+                pack = new FramePack(file);
+                sInstances.put(path, pack);
+            }
+            return pack;
+        }
+    }
+
+    /**
+     * Gets the pack file.
+     *
+     * @return the file.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Appends the source frames of a session. Call from a background thread.
+     *
+     * @param timestamp       the time the session was saved in milliseconds, used to look it up.
+     * @param slotsJpegData   the Jpeg data of the frame in each slot.
+     * @param slotsRotation   the clockwise rotation in degrees applied to the frame in each slot.
+     * @param slotsReflection the horizontal reflection applied to the frame in each slot.
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean append(long timestamp, byte[][] slotsJpegData, float[] slotsRotation,
+                                       boolean[] slotsReflection) {
+        if (!mIsRecovered) {
+            recover();
+        }
+
+        final int frameCount = slotsJpegData.length;
+        boolean isSuccessful = false;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            long segmentOffset = channel.size();
+
+            long dataLength = 0L;
+            for (byte[] jpegData : slotsJpegData) {
+                dataLength += jpegData.length;
+            }
+            long segmentLength = HEADER_SIZE + dataLength + (long) frameCount * ENTRY_SIZE + FOOTER_SIZE;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(HEADER_MAGIC).putInt(VERSION).putLong(segmentLength).flip();
+
+            ByteBuffer index = ByteBuffer.allocate(frameCount * ENTRY_SIZE + FOOTER_SIZE);
+            long dataOffset = segmentOffset + HEADER_SIZE;
+            for (int i = 0; i < frameCount; i++) {
+                index.putLong(dataOffset).putInt(slotsJpegData[i].length).putFloat(slotsRotation[i])
+                        .putInt(slotsReflection[i] ? 1 : 0);
+                dataOffset += slotsJpegData[i].length;
+            }
+            index.putInt(FOOTER_MAGIC).putInt(frameCount).putLong(timestamp).putLong(segmentOffset).flip();
+
+            ByteBuffer[] buffers = new ByteBuffer[frameCount + 2];
+            buffers[0] = header;
+            for (int i = 0; i < frameCount; i++) {
+                buffers[i + 1] = ByteBuffer.wrap(slotsJpegData[i]);
+            }
+            buffers[frameCount + 1] = index;
+            writeSegment(channel, segmentOffset, buffers, segmentLength, true);
+            isSuccessful = true;
+        } catch (IOException e) {
+            // Report failure.
+        } finally {
+            close(file);
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Appends the camera Jpeg data of one frame as soon as it is captured. The frame only becomes part of a session
+     * once {@link #appendSession(long, long[], int[], float[], boolean[])} points at it. The data is not synced until
+     * then. Call from a background thread.
+     *
+     * @param jpegData the Jpeg data of the frame.
+     * @return the offset of the Jpeg data in the pack; or -1 if unsuccessful.
+     */
+    public synchronized long appendFrame(byte[] jpegData) {
+        if (!mIsRecovered) {
+            recover();
+        }
+
+        long dataOffset = -1L;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            long segmentOffset = channel.size();
+            long segmentLength = HEADER_SIZE + jpegData.length + FOOTER_SIZE;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(HEADER_MAGIC).putInt(VERSION).putLong(segmentLength).flip();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putInt(FRAME_FOOTER_MAGIC).putInt(0).putLong(0L).putLong(segmentOffset).flip();
+
+            writeSegment(channel, segmentOffset, new ByteBuffer[]{header, ByteBuffer.wrap(jpegData), footer},
+                    segmentLength, false);
+            dataOffset = segmentOffset + HEADER_SIZE;
+        } catch (IOException e) {
+            // Report failure.
+        } finally {
+            close(file);
+        }
+        return dataOffset;
+    }
+
+    /**
+     * Appends a session whose frames were appended with {@link #appendFrame(byte[])}, then syncs the pack, frames
+     * included. Call from a background thread.
+     *
+     * @param timestamp       the time the session was saved in milliseconds, used to look it up.
+     * @param dataOffsets     the offset in the pack of the Jpeg data of the frame in each slot.
+     * @param lengths         the length of the Jpeg data of the frame in each slot.
+     * @param slotsRotation   the clockwise rotation in degrees applied to the frame in each slot.
+     * @param slotsReflection the horizontal reflection applied to the frame in each slot.
+     * @return true if successful; false if a frame is not in the pack or the write fails.
+     */
+    public synchronized boolean appendSession(long timestamp, long[] dataOffsets, int[] lengths,
+                                              float[] slotsRotation, boolean[] slotsReflection) {
+        if (!mIsRecovered) {
+            recover();
+        }
+
+        final int frameCount = dataOffsets.length;
+        boolean isSuccessful = false;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            long segmentOffset = channel.size();
+            for (int i = 0; i < frameCount; i++) {
+                if (dataOffsets[i] < HEADER_SIZE || lengths[i] < 0 || dataOffsets[i] + lengths[i] > segmentOffset) {
+                    return false;
+                }
+            }
+            long segmentLength = HEADER_SIZE + (long) frameCount * ENTRY_SIZE + FOOTER_SIZE;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(HEADER_MAGIC).putInt(VERSION).putLong(segmentLength).flip();
+            ByteBuffer index = ByteBuffer.allocate(frameCount * ENTRY_SIZE + FOOTER_SIZE);
+            for (int i = 0; i < frameCount; i++) {
+                index.putLong(dataOffsets[i]).putInt(lengths[i]).putFloat(slotsRotation[i])
+                        .putInt(slotsReflection[i] ? 1 : 0);
+            }
+            index.putInt(FOOTER_MAGIC).putInt(frameCount).putLong(timestamp).putLong(segmentOffset).flip();
+
+            writeSegment(channel, segmentOffset, new ByteBuffer[]{header, index}, segmentLength, true);
+            isSuccessful = true;
+        } catch (IOException e) {
+            // Report failure.
+        } finally {
+            close(file);
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Reads the Jpeg data of a frame appended with {@link #appendFrame(byte[])}.
+     *
+     * @param dataOffset the offset of the Jpeg data in the pack.
+     * @param length     the length of the Jpeg data.
+     * @return the Jpeg data; or null if it cannot be read.
+     */
+    public byte[] readFrame(long dataOffset, int length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            if (dataOffset < HEADER_SIZE || length < 0 || dataOffset + length > file.length()) {
+                return null;
+            }
+            byte[] jpegData = new byte[length];
+            file.seek(dataOffset);
+            file.readFully(jpegData);
+            return jpegData;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Reads the index of every session in the pack. Frame data is mapped, not read.
+     *
+     * @return the sessions in the order they were appended; or an empty list if none.
+     */
+    public synchronized List<Session> getSessions() {
+        if (!mFile.isFile()) {
+            return Collections.emptyList();
+        }
+
+        List<Session> sessions = new ArrayList<Session>();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            long footerOffset = channel.size() - FOOTER_SIZE;
+            while (footerOffset >= HEADER_SIZE) {
+                footer.clear();
+                if (!readFully(channel, footer, footerOffset)) {
+                    break;
+                }
+
+                int magic = footer.getInt(0);
+                int frameCount = footer.getInt(4);
+                long timestamp = footer.getLong(8);
+                long segmentOffset = footer.getLong(16);
+                long segmentLength = footerOffset + FOOTER_SIZE - segmentOffset;
+                if ((magic != FOOTER_MAGIC && magic != FRAME_FOOTER_MAGIC) || frameCount < 0 || segmentOffset < 0L
+                        || segmentOffset > footerOffset
+                        || segmentLength < HEADER_SIZE + (long) frameCount * ENTRY_SIZE + FOOTER_SIZE) {
+                    // A torn tail or a corrupt segment, so nothing before it can be found.
+                    break;
+                }
+
+                // Frame segments are only read through the sessions that point at them.
+                if (magic == FOOTER_MAGIC) {
+                    Session session = Session.read(channel, segmentOffset, footerOffset, frameCount, timestamp);
+                    if (session == null) {
+                        break;
+                    }
+                    sessions.add(session);
+                }
+                footerOffset = segmentOffset - FOOTER_SIZE;
+            }
+        } catch (IOException e) {
+            // Return the sessions found so far.
+        } finally {
+            close(file);
+        }
+
+        Collections.reverse(sessions);
+        return sessions;
+    }
+
+    /**
+     * Finds a session by the time it was saved.
+     *
+     * @param timestamp the time the session was saved in milliseconds.
+     * @return the {@link Session}; or null if not found.
+     */
+    public Session getSession(long timestamp) {
+        List<Session> sessions = getSessions();
+        for (int i = sessions.size() - 1; i >= 0; i--) {
+            Session session = sessions.get(i);
+            if (session.getTimestamp() == timestamp) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Truncates a segment cut short by a crash from the end of the pack. Walks forward through the segment headers,
+     * which only reads a few bytes per session. Call from a background thread.
+     *
+     * @return true if the pack is intact or was repaired; false otherwise.
+     */
+    public synchronized boolean recover() {
+        mIsRecovered = true;
+        if (!mFile.isFile()) {
+            return true;
+        }
+
+        boolean isSuccessful = false;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            long offset = 0L;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer footerMagic = ByteBuffer.allocate(4);
+            while (offset < size) {
+                header.clear();
+                footerMagic.clear();
+                if (!readFully(channel, header, offset) || header.getInt(0) != HEADER_MAGIC) {
+                    break;
+                }
+
+                long segmentLength = header.getLong(8);
+                if (segmentLength < HEADER_SIZE + FOOTER_SIZE || offset + segmentLength > size
+                        || !readFully(channel, footerMagic, offset + segmentLength - FOOTER_SIZE)
+                        || (footerMagic.getInt(0) != FOOTER_MAGIC && footerMagic.getInt(0) != FRAME_FOOTER_MAGIC)) {
+                    break;
+                }
+                offset += segmentLength;
+            }
+
+            if (offset < size) {
+                channel.truncate(offset);
+            }
+            isSuccessful = true;
+        } catch (IOException e) {
+            // Report failure.
+        } finally {
+            close(file);
+        }
+        return isSuccessful;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Writes a segment at the end of the pack in one gathering write, footer last. A segment that fails to write is
+     * truncated away, so the next append does not follow a torn segment.
+     *
+     * @param channel       the {@link FileChannel} of the pack.
+     * @param segmentOffset the offset of the segment, which is the current size of the pack.
+     * @param buffers       the buffers making up the segment.
+     * @param segmentLength the total length of the buffers.
+     * @param isSynced      true to flush the pack to storage before returning.
+     * @throws IOException if the write fails.
+     */
+    private static void writeSegment(FileChannel channel, long segmentOffset, ByteBuffer[] buffers,
+                                     long segmentLength, boolean isSynced) throws IOException {
+        try {
+            channel.position(segmentOffset);
+            long remaining = segmentLength;
+            while (remaining > 0L) {
+                remaining -= channel.write(buffers);
+            }
+            if (isSynced) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(segmentOffset);
+            } catch (IOException truncateException) {
+                // The torn segment is truncated by the next recovery.
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads from a channel at a position until the buffer is full.
+     *
+     * @param channel  the {@link FileChannel}.
+     * @param buffer   the buffer to fill.
+     * @param position the position in the channel.
+     * @return true if the buffer was filled; false if the end of the channel was reached first.
+     * @throws IOException if the read fails.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes a file, ignoring errors.
+     *
+     * @param file the file; or null.
+     */
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Do nothing.
+            }
+        }
+    }
+
+    //
+    // Public inner classes.
+    //
+
+    /**
+     * The source frames of one session, backed by a read-only mapping of its frame data.
+     */
+    public static class Session {
+
+        private final ByteBuffer mData;
+
+        private final long mTimestamp;
+
+        private final int[] mOffsets;
+
+        private final int[] mLengths;
+
+        private final float[] mRotations;
+
+        private final boolean[] mReflections;
+
+        /**
+         * Constructor.
+         *
+         * @param data        the mapped frame data.
+         * @param timestamp   the time the session was saved in milliseconds.
+         * @param offsets     the offset of the Jpeg data of each frame in the mapped frame data.
+         * @param lengths     the length of the Jpeg data of each frame.
+         * @param rotations   the clockwise rotation in degrees applied to each frame.
+         * @param reflections the horizontal reflection applied to each frame.
+         */
+        private Session(ByteBuffer data, long timestamp, int[] offsets, int[] lengths, float[] rotations,
+                        boolean[] reflections) {
+            mData = data;
+            mTimestamp = timestamp;
+            mOffsets = offsets;
+            mLengths = lengths;
+            mRotations = rotations;
+            mReflections = reflections;
+        }
+
+        /**
+         * Reads the frame index of a session segment and maps the frame data it points at, which is either in the
+         * segment itself or in frame segments before it.
+         *
+         * @param channel       the {@link FileChannel} of the pack.
+         * @param segmentOffset the offset of the segment in the pack.
+         * @param footerOffset  the offset of the footer of the segment in the pack.
+         * @param frameCount    the number of frames in the footer.
+         * @param timestamp     the session timestamp in the footer.
+         * @return the {@link Session}; or null if the segment is corrupt.
+         * @throws IOException if the read fails.
+         */
+        private static Session read(FileChannel channel, long segmentOffset, long footerOffset, int frameCount,
+                                    long timestamp) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!readFully(channel, header, segmentOffset) || header.getInt(0) != HEADER_MAGIC
+                    || header.getLong(8) != footerOffset + FOOTER_SIZE - segmentOffset) {
+                return null;
+            }
+
+            long indexOffset = footerOffset - (long) frameCount * ENTRY_SIZE;
+            ByteBuffer index = ByteBuffer.allocate(frameCount * ENTRY_SIZE);
+            if (!readFully(channel, index, indexOffset)) {
+                return null;
+            }
+
+            long[] dataOffsets = new long[frameCount];
+            int[] lengths = new int[frameCount];
+            float[] rotations = new float[frameCount];
+            boolean[] reflections = new boolean[frameCount];
+            long mapOffset = indexOffset;
+            for (int i = 0; i < frameCount; i++) {
+                int entryOffset = i * ENTRY_SIZE;
+                long dataOffset = index.getLong(entryOffset);
+                int length = index.getInt(entryOffset + 8);
+                if (dataOffset < HEADER_SIZE || length < 0 || dataOffset + length > indexOffset) {
+                    return null;
+                }
+                dataOffsets[i] = dataOffset;
+                lengths[i] = length;
+                rotations[i] = index.getFloat(entryOffset + 12);
+                reflections[i] = index.getInt(entryOffset + 16) != 0;
+                mapOffset = Math.min(mapOffset, dataOffset);
+            }
+            if (indexOffset - mapOffset > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, mapOffset, indexOffset - mapOffset);
+            int[] offsets = new int[frameCount];
+            for (int i = 0; i < frameCount; i++) {
+                offsets[i] = (int) (dataOffsets[i] - mapOffset);
+            }
+            return new Session(data, timestamp, offsets, lengths, rotations, reflections);
+        }
+
+        /**
+         * Gets the time the session was saved.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * Gets the number of frames.
+         *
+         * @return the number of frames.
+         */
+        public int getFrameCount() {
+            return mOffsets.length;
+        }
+
+        /**
+         * Copies the camera Jpeg data of a frame out of the pack.
+         *
+         * @param index the index of the frame.
+         * @return the Jpeg data.
+         */
+        public byte[] getJpegData(int index) {
+            byte[] jpegData = new byte[mLengths[index]];
+            ByteBuffer frame = mData.duplicate();
+            frame.position(mOffsets[index]);
+            frame.get(jpegData);
+            return jpegData;
+        }
+
+        /**
+         * Gets the clockwise rotation applied to a frame.
+         *
+         * @param index the index of the frame.
+         * @return the rotation in degrees.
+         */
+        public float getRotation(int index) {
+            return mRotations[index];
+        }
+
+        /**
+         * Gets the horizontal reflection applied to a frame.
+         *
+         * @param index the index of the frame.
+         * @return true if reflected; false otherwise.
+         */
+        public boolean getReflection(int index) {
+            return mReflections[index];
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * An append-only file of newline-terminated text records, like the event manifest. A record is only complete once
+ * its newline is written, so an append cut short by a crash leaves a torn tail without one. The torn tail is
+ * truncated away on recovery, before it can be read as a record or have the next record appended to it.
+ * <p/>
+ * Has no Android dependencies.
+ *
+ * @author Benedict Lau
+ */
+public class RecordLog {
+
+    /**
+     * The character ending each record.
+     */
+    private static final byte RECORD_END = '\n';
+
+    /**
+     * The number of bytes read at a time when looking for the end of the last record.
+     */
+    private static final int SCAN_BUFFER_SIZE = 4096;
+
+    /**
+     * Prevents instantiation.
+     */
+    private RecordLog() {
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Appends a record. A failed append is truncated away, so it does not leave a torn tail behind.
+     *
+     * @param file   the log file, which is created if missing.
+     * @param record the encoded record, without the newline.
+     * @return the offset of the record in the file; or -1 if unsuccessful.
+     */
+    public static long append(File file, byte[] record) {
+        RandomAccessFile log = null;
+        long offset = -1L;
+        try {
+            log = new RandomAccessFile(file, "rw");
+            offset = log.length();
+            byte[] line = new byte[record.length + 1];
+            System.arraycopy(record, 0, line, 0, record.length);
+            line[record.length] = RECORD_END;
+            log.seek(offset);
+            log.write(line);
+            return offset;
+        } catch (IOException e) {
+            if (log != null && offset >= 0L) {
+                try {
+                    log.setLength(offset);
+                } catch (IOException truncateException) {
+                    // The torn tail is truncated by the next recovery.
+                }
+            }
+            return -1L;
+        } finally {
+            close(log);
+        }
+    }
+
+    /**
+     * Truncates a torn tail left by an append cut short, so the file ends with a complete record. Call on startup,
+     * before the file is read or appended to.
+     *
+     * @param file the log file.
+     * @return the number of bytes truncated; or -1 if the file cannot be read or truncated.
+     */
+    public static long recover(File file) {
+        if (!file.isFile()) {
+            return 0L;
+        }
+
+        RandomAccessFile log = null;
+        try {
+            log = new RandomAccessFile(file, "rw");
+            long length = log.length();
+
+            // Walk back from the end to just past the last newline; or to the start if there is none.
+            long end = length;
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            boolean isFound = false;
+            while (end > 0L && !isFound) {
+                int count = (int) Math.min(buffer.length, end);
+                log.seek(end - count);
+                log.readFully(buffer, 0, count);
+                int i = count;
+                while (i > 0 && buffer[i - 1] != RECORD_END) {
+                    i--;
+                }
+                isFound = i > 0;
+                end -= count - i;
+            }
+
+            if (end < length) {
+                log.setLength(end);
+            }
+            return length - end;
+        } catch (IOException e) {
+            return -1L;
+        } finally {
+            close(log);
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Closes a file, ignoring failures.
+     *
+     * @param file the file; or null.
+     */
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Do nothing.
+            }
+        }
+    }
+}
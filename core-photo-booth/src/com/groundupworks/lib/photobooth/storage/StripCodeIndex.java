@@ -0,0 +1,561 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An on-disk hash index from the short codes given to photo strips to the offset of their record in the event
+ * manifest, so a photo strip can be found by its code without reading the manifest or walking the file system. The
+ * index is an open-addressing table with linear probing, kept at most half full:
+ * <p/>
+ * <pre>
+ * header: magic (int), version (int), capacity (int), count (int), indexed manifest length (long)
+ * slots:  per slot, code + 1 or 0 if empty (int), manifest offset (long)
+ * </pre>
+ * A lookup reads the header and the few slots probed, and an insert writes one slot and the header. The table is
+ * rewritten at double the capacity when it would become more than half full. The indexed manifest length tells how
+ * much of the manifest is covered, so records appended after a crash can be indexed from there, and the index can
+ * always be rebuilt from the manifest.
+ * <p/>
+ * Codes are 5 characters from an alphabet without easily confused letters, 33,554,432 codes in all.
+ * <p/>
+ * Has no Android dependencies.
+ *
+ * @author Benedict Lau
+ */
+public class StripCodeIndex {
+
+    /**
+     * The name of an index file.
+     */
+    public static final String FILENAME = "codes.idx";
+
+    /**
+     * The number of characters in a code.
+     */
+    public static final int CODE_LENGTH = 5;
+
+    /**
+     * The characters of a code, each worth 5 bits.
+     */
+    private static final String ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+
+    /**
+     * The number of bits each character of a code is worth.
+     */
+    private static final int BITS_PER_CHAR = 5;
+
+    /**
+     * The magic number at the start of the index.
+     */
+    private static final int MAGIC = 0x53434958;
+
+    /**
+     * The version of the index format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The size of a slot in bytes.
+     */
+    private static final int SLOT_SIZE = 12;
+
+    /**
+     * The capacity of a new index. Must be a power of 2.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The key of an empty slot.
+     */
+    private static final int EMPTY_KEY = 0;
+
+    /**
+     * The suffix of the temp file an index is rewritten to.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The instances by path.
+     */
+    private static final Map<String, StripCodeIndex> sInstances = new HashMap<String, StripCodeIndex>();
+
+    /**
+     * The index file.
+     */
+    private final File mFile;
+
+    /**
+     * Constructor.
+     *
+     * @param file the index file.
+     */
+    private StripCodeIndex(File file) {
+        mFile = file;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the index stored in a file. The file is only created on the first insert.
+     *
+     * @param file the index file.
+     * @return the {@link StripCodeIndex}.
+     */
+    public static StripCodeIndex getInstance(File file) {
+        String path = file.getPath();
+        synchronized (sInstances) {
+            StripCodeIndex index = sInstances.get(path);
+            if (index == null) {
+                index = new StripCodeIndex(file);
+                sInstances.put(path, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Generates a random code.
+     *
+     * @param random the source of randomness.
+     * @return the code.
+     */
+    public static int generateCode(Random random) {
+        return random.nextInt(1 << (BITS_PER_CHAR * CODE_LENGTH));
+    }
+
+    /**
+     * Formats a code as text.
+     *
+     * @param code the code.
+     * @return the text of the code.
+     */
+    public static String formatCode(int code) {
+        char[] chars = new char[CODE_LENGTH];
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt(code & (ALPHABET.length() - 1));
+            code >>>= BITS_PER_CHAR;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses the text of a code as typed by a person. Case, spaces and dashes are ignored, and letters that look like
+     * digits are read as those digits.
+     *
+     * @param text the text of the code.
+     * @return the code; or -1 if the text is not a code.
+     */
+    public static int parseCode(String text) {
+        String normalized = text.toUpperCase(Locale.US).replace(" ", "").replace("-", "").replace('O', '0')
+                .replace('I', '1').replace('L', '1');
+        if (normalized.length() != CODE_LENGTH) {
+            return -1;
+        }
+
+        int code = 0;
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            int value = ALPHABET.indexOf(normalized.charAt(i));
+            if (value < 0) {
+                return -1;
+            }
+            code = (code << BITS_PER_CHAR) | value;
+        }
+        return code;
+    }
+
+    /**
+     * Gets the index file.
+     *
+     * @return the file.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Looks up the manifest offset of a code.
+     *
+     * @param code the code.
+     * @return the offset of the record in the manifest; or -1 if the code is not indexed.
+     */
+    public synchronized long get(int code) {
+        if (!mFile.isFile()) {
+            return -1L;
+        }
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                Header header = readHeader(channel);
+                if (header == null) {
+                    return -1L;
+                }
+
+                int slot = findSlot(channel, header.mCapacity, code);
+                if (slot >= 0) {
+                    ByteBuffer buffer = readSlot(channel, slot);
+                    if (buffer.getInt() == code + 1) {
+                        return buffer.getLong();
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // Treat as not indexed.
+        }
+        return -1L;
+    }
+
+    /**
+     * Gets the length of the manifest covered by the index.
+     *
+     * @return the length in bytes; or -1 if the index is missing or invalid.
+     */
+    public synchronized long getIndexedLength() {
+        if (!mFile.isFile()) {
+            return -1L;
+        }
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                Header header = readHeader(file.getChannel());
+                return header != null ? header.mIndexedLength : -1L;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Inserts a code, or updates its manifest offset if it is already indexed. An index that is missing or invalid is
+     * started over.
+     *
+     * @param code          the code.
+     * @param offset        the offset of the record in the manifest.
+     * @param indexedLength the length of the manifest covered by the index after this insert.
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean put(int code, long offset, long indexedLength) {
+        try {
+            Header header = null;
+            if (mFile.isFile()) {
+                RandomAccessFile file = new RandomAccessFile(mFile, "r");
+                try {
+                    header = readHeader(file.getChannel());
+                } finally {
+                    file.close();
+                }
+            }
+
+            // Start over or grow the table before it gets more than half full.
+            if (header == null) {
+                writeTable(new int[0], new long[0], 0, indexedLength, INITIAL_CAPACITY);
+            } else if ((header.mCount + 1) * 2 > header.mCapacity) {
+                grow(header);
+            }
+
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                header = readHeader(channel);
+                if (header == null) {
+                    return false;
+                }
+
+                int slot = findSlot(channel, header.mCapacity, code);
+                if (slot < 0) {
+                    return false;
+                }
+                if (readSlot(channel, slot).getInt() == EMPTY_KEY) {
+                    header.mCount++;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+                buffer.putInt(code + 1).putLong(offset).flip();
+                channel.write(buffer, HEADER_SIZE + (long) slot * SLOT_SIZE);
+                header.mIndexedLength = Math.max(header.mIndexedLength, indexedLength);
+                writeHeader(channel, header);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the index from scratch with a set of codes.
+     *
+     * @param codes         the codes.
+     * @param offsets       the offset of the record of each code in the manifest.
+     * @param count         the number of codes.
+     * @param indexedLength the length of the manifest covered by the codes.
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean rebuild(int[] codes, long[] offsets, int count, long indexedLength) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < count * 2) {
+            capacity *= 2;
+        }
+
+        try {
+            writeTable(codes, offsets, count, indexedLength, capacity);
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Rewrites the table at double its capacity.
+     *
+     * @param header the current header.
+     * @throws IOException if the index cannot be read or written.
+     */
+    private void grow(Header header) throws IOException {
+        int[] codes = new int[header.mCount];
+        long[] offsets = new long[header.mCount];
+        int count = 0;
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            ByteBuffer table = ByteBuffer.allocate(header.mCapacity * SLOT_SIZE);
+            readFully(file.getChannel(), table, HEADER_SIZE);
+            table.flip();
+            while (table.remaining() >= SLOT_SIZE && count < codes.length) {
+                int key = table.getInt();
+                long offset = table.getLong();
+                if (key != EMPTY_KEY) {
+                    codes[count] = key - 1;
+                    offsets[count] = offset;
+                    count++;
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        writeTable(codes, offsets, count, header.mIndexedLength, header.mCapacity * 2);
+    }
+
+    /**
+     * Writes a new table to a temp file and renames it over the index.
+     *
+     * @param codes         the codes.
+     * @param offsets       the offset of the record of each code in the manifest.
+     * @param count         the number of codes.
+     * @param indexedLength the length of the manifest covered by the codes.
+     * @param capacity      the number of slots. Must be a power of 2 and at least twice the count.
+     * @throws IOException if the index cannot be written.
+     */
+    private void writeTable(int[] codes, long[] offsets, int count, long indexedLength, int capacity)
+            throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + capacity * SLOT_SIZE);
+        int inserted = 0;
+        for (int i = 0; i < count; i++) {
+            // Probe for the slot of the code, or the first empty slot.
+            int slot = hash(codes[i], capacity);
+            int key;
+            while ((key = table.getInt(HEADER_SIZE + slot * SLOT_SIZE)) != EMPTY_KEY && key != codes[i] + 1) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (key == EMPTY_KEY) {
+                inserted++;
+            }
+            table.putInt(HEADER_SIZE + slot * SLOT_SIZE, codes[i] + 1);
+            table.putLong(HEADER_SIZE + slot * SLOT_SIZE + 4, offsets[i]);
+        }
+
+        Header header = new Header(capacity, inserted, indexedLength);
+        table.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, header.mCapacity).putInt(12, header.mCount)
+                .putLong(16, header.mIndexedLength);
+
+        File tempFile = new File(mFile.getPath() + TEMP_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0L);
+            while (table.hasRemaining()) {
+                channel.write(table);
+            }
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile);
+        }
+    }
+
+    /**
+     * Probes for the slot of a code, or the first empty slot if the code is not indexed.
+     *
+     * @param channel  the channel of the index file.
+     * @param capacity the number of slots.
+     * @param code     the code.
+     * @return the slot; or -1 if every slot is taken by other codes.
+     * @throws IOException if the index cannot be read.
+     */
+    private static int findSlot(FileChannel channel, int capacity, int code) throws IOException {
+        int slot = hash(code, capacity);
+        for (int probes = 0; probes < capacity; probes++) {
+            int key = readSlot(channel, slot).getInt();
+            if (key == EMPTY_KEY || key == code + 1) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the home slot of a code.
+     *
+     * @param code     the code.
+     * @param capacity the number of slots. Must be a power of 2.
+     * @return the slot.
+     */
+    private static int hash(int code, int capacity) {
+        int mixed = code * 0x9E3779B1;
+        return (mixed ^ (mixed >>> 16)) & (capacity - 1);
+    }
+
+    /**
+     * Reads and validates the header.
+     *
+     * @param channel the channel of the index file.
+     * @return the {@link Header}; or null if invalid.
+     * @throws IOException if the index cannot be read.
+     */
+    private Header readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, buffer, 0L);
+        buffer.flip();
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        int capacity = buffer.getInt();
+        int count = buffer.getInt();
+        long indexedLength = buffer.getLong();
+        if (magic != MAGIC || version != VERSION || capacity < INITIAL_CAPACITY
+                || Integer.bitCount(capacity) != 1 || count < 0 || count > capacity / 2
+                || channel.size() < HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+            return null;
+        }
+        return new Header(capacity, count, indexedLength);
+    }
+
+    /**
+     * Writes the count and indexed manifest length of the header.
+     *
+     * @param channel the channel of the index file.
+     * @param header  the {@link Header}.
+     * @throws IOException if the index cannot be written.
+     */
+    private static void writeHeader(FileChannel channel, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE - 12);
+        buffer.putInt(header.mCount).putLong(header.mIndexedLength).flip();
+        channel.write(buffer, 12L);
+    }
+
+    /**
+     * Reads a slot.
+     *
+     * @param channel the channel of the index file.
+     * @param slot    the slot.
+     * @return the slot, positioned at its key.
+     * @throws IOException if the index cannot be read.
+     */
+    private static ByteBuffer readSlot(FileChannel channel, int slot) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        readFully(channel, buffer, HEADER_SIZE + (long) slot * SLOT_SIZE);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Fills a buffer from a position in a channel.
+     *
+     * @param channel  the channel.
+     * @param buffer   the buffer.
+     * @param position the position to read from.
+     * @throws IOException if the channel ends before the buffer is filled.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of index");
+            }
+            position += read;
+        }
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * The header of the index.
+     */
+    private static class Header {
+
+        private final int mCapacity;
+
+        private int mCount;
+
+        private long mIndexedLength;
+
+        private Header(int capacity, int count, long indexedLength) {
+            mCapacity = capacity;
+            mCount = count;
+            mIndexedLength = indexedLength;
+        }
+    }
+}
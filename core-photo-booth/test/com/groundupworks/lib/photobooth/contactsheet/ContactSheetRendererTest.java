@@ -0,0 +1,229 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.contactsheet;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link ContactSheetRenderer} page layout and of rendered pages read back with ImageIO.
+ *
+ * @author Benedict Lau
+ */
+public class ContactSheetRendererTest {
+
+    private static final int PAGE_WIDTH = 320;
+
+    private static final int PAGE_HEIGHT = 240;
+
+    private static final int COLUMNS = 4;
+
+    private static final int ROWS = 2;
+
+    private static final int SPACING = 8;
+
+    /**
+     * The max difference of a color channel after Jpeg compression of a flat color.
+     */
+    private static final int MAX_CHANNEL_ERROR = 12;
+
+    private static final int[] STRIP_COLORS = {0xFFE04020, 0xFF20A040, 0xFF3050D0, 0xFFD0C020, 0xFF8030A0,
+            0xFF20B0B0, 0xFF606060, 0xFFA06020, 0xFF102080};
+
+    private File mDirectory;
+
+    private ContactSheetRenderer mRenderer;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("contact_sheet", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+        mRenderer = new ContactSheetRenderer(PAGE_WIDTH, PAGE_HEIGHT, COLUMNS, ROWS, SPACING, EncodingProfile.PRINT,
+                2);
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void testGetPageCount() {
+        assertEquals(0, mRenderer.getPageCount(0));
+        assertEquals(1, mRenderer.getPageCount(1));
+        assertEquals(1, mRenderer.getPageCount(COLUMNS * ROWS));
+        assertEquals(2, mRenderer.getPageCount(COLUMNS * ROWS + 1));
+        assertEquals(250, mRenderer.getPageCount(2000));
+    }
+
+    @Test
+    public void testCellRectsFitPageWithoutOverlap() {
+        List<int[]> rects = new ArrayList<int[]>();
+        for (int i = 0; i < COLUMNS * ROWS; i++) {
+            int[] rect = mRenderer.getCellRect(i);
+            assertNotNull(rect);
+            assertTrue(rect[0] >= SPACING && rect[1] >= SPACING);
+            assertTrue(rect[2] <= PAGE_WIDTH - SPACING && rect[3] <= PAGE_HEIGHT - SPACING);
+            assertTrue(rect[0] < rect[2] && rect[1] < rect[3]);
+            for (int[] other : rects) {
+                assertFalse(rect[0] < other[2] && other[0] < rect[2] && rect[1] < other[3] && other[1] < rect[3]);
+            }
+            rects.add(rect);
+        }
+
+        // Cells are laid out left to right, then top to bottom.
+        assertTrue(rects.get(1)[0] > rects.get(0)[0]);
+        assertEquals(rects.get(0)[1], rects.get(1)[1]);
+        assertEquals(rects.get(0)[0], rects.get(COLUMNS)[0]);
+        assertTrue(rects.get(COLUMNS)[1] > rects.get(0)[1]);
+    }
+
+    @Test
+    public void testCellRectOutOfRange() {
+        assertNull(mRenderer.getCellRect(-1));
+        assertNull(mRenderer.getCellRect(COLUMNS * ROWS));
+        ContactSheetRenderer tooSmall = new ContactSheetRenderer(16, 16, 4, 4, 8, EncodingProfile.PRINT, 1);
+        assertNull(tooSmall.getCellRect(0));
+    }
+
+    @Test
+    public void testRunRendersEveryStrip() throws IOException {
+        List<File> strips = new ArrayList<File>();
+        for (int i = 0; i < STRIP_COLORS.length; i++) {
+            strips.add(createStrip("strip" + i + ".jpg", STRIP_COLORS[i]));
+        }
+
+        File outputDirectory = new File(mDirectory, "sheets");
+        assertEquals(2, mRenderer.run(strips, outputDirectory));
+
+        for (int i = 0; i < STRIP_COLORS.length; i++) {
+            BufferedImage page = readPage(outputDirectory, i / (COLUMNS * ROWS));
+            assertColor(STRIP_COLORS[i], getCellCenter(page, i % (COLUMNS * ROWS)));
+        }
+
+        // The cells past the last photo strip stay blank.
+        BufferedImage lastPage = readPage(outputDirectory, 1);
+        assertColor(0xFFFFFFFF, getCellCenter(lastPage, 1));
+        assertFalse(ContactSheetRenderer.getPageFile(outputDirectory, 2).exists());
+    }
+
+    @Test
+    public void testUnreadableStripLeavesCellBlank() throws IOException {
+        List<File> strips = new ArrayList<File>();
+        strips.add(createStrip("strip0.jpg", STRIP_COLORS[0]));
+        strips.add(new File(mDirectory, "missing.jpg"));
+        File corrupt = new File(mDirectory, "corrupt.jpg");
+        write(corrupt, new byte[]{(byte) 0xFF, (byte) 0xD8, 1, 2, 3});
+        strips.add(corrupt);
+        strips.add(createStrip("strip3.jpg", STRIP_COLORS[3]));
+
+        File outputDirectory = new File(mDirectory, "sheets");
+        assertEquals(1, mRenderer.run(strips, outputDirectory));
+
+        BufferedImage page = readPage(outputDirectory, 0);
+        assertColor(STRIP_COLORS[0], getCellCenter(page, 0));
+        assertColor(0xFFFFFFFF, getCellCenter(page, 1));
+        assertColor(0xFFFFFFFF, getCellCenter(page, 2));
+        assertColor(STRIP_COLORS[3], getCellCenter(page, 3));
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates a vertical photo strip of one flat color, larger than a cell so it is scaled down.
+     */
+    private File createStrip(String name, int color) throws IOException {
+        int width = 160;
+        int height = 480;
+        int[] argb = new int[width * height];
+        Arrays.fill(argb, color);
+
+        File file = new File(mDirectory, name);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            JpegEncoder encoder = new JpegEncoder(outputStream, width, height, 95, 1,
+                    JpegEncoder.ChromaSubsampling.YUV_444);
+            encoder.writeRows(argb, 0, width, height);
+            encoder.finish();
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private int getCellCenter(BufferedImage page, int cell) {
+        int[] rect = mRenderer.getCellRect(cell);
+        return page.getRGB((rect[0] + rect[2]) / 2, (rect[1] + rect[3]) / 2);
+    }
+
+    private static BufferedImage readPage(File outputDirectory, int page) throws IOException {
+        BufferedImage image = ImageIO.read(ContactSheetRenderer.getPageFile(outputDirectory, page));
+        assertNotNull(image);
+        assertEquals(PAGE_WIDTH, image.getWidth());
+        assertEquals(PAGE_HEIGHT, image.getHeight());
+        return image;
+    }
+
+    private static void assertColor(int expected, int actual) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            int difference = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+            assertTrue(Integer.toHexString(expected) + " != " + Integer.toHexString(actual),
+                    difference <= MAX_CHANNEL_ERROR);
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.export;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trip tests of {@link ZipExporter} archives read back with {@link ZipFile}.
+ *
+ * @author Benedict Lau
+ */
+public class ZipExporterTest {
+
+    private static final int FILE_COUNT = 5;
+
+    private File mDirectory;
+
+    private List<String> mNames;
+
+    private List<File> mFiles;
+
+    private List<byte[]> mData;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("zip_exporter", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+
+        Random random = new Random(FILE_COUNT);
+        mNames = new ArrayList<String>();
+        mFiles = new ArrayList<File>();
+        mData = new ArrayList<byte[]>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            byte[] data = new byte[1000 + random.nextInt(100000)];
+            random.nextBytes(data);
+            File file = new File(mDirectory, "strip" + i + ".jpg");
+            write(file, data);
+            mNames.add("Event/2014/strip" + i + ".jpg");
+            mFiles.add(file);
+            mData.add(data);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ZipExporter exporter = new ZipExporter(new File(mDirectory, "event.zip"));
+        assertTrue(exporter.export(mNames, mFiles, null));
+        assertFalse(exporter.isResumable());
+        assertTrue(exporter.getSkippedNames().isEmpty());
+        assertArchive(exporter.getZipFile(), mNames, mData);
+    }
+
+    @Test
+    public void testEmptyArchive() throws IOException {
+        ZipExporter exporter = new ZipExporter(new File(mDirectory, "event.zip"));
+        assertTrue(exporter.export(Collections.<String>emptyList(), Collections.<File>emptyList(), null));
+        assertArchive(exporter.getZipFile(), Collections.<String>emptyList(), Collections.<byte[]>emptyList());
+    }
+
+    @Test
+    public void testMissingFileIsSkipped() throws IOException {
+        assertTrue(mFiles.get(2).delete());
+
+        ZipExporter exporter = new ZipExporter(new File(mDirectory, "event.zip"));
+        assertTrue(exporter.export(mNames, mFiles, null));
+        assertEquals(Collections.singletonList(mNames.get(2)), exporter.getSkippedNames());
+        assertArchive(exporter.getZipFile(), without(mNames, 2), without(mData, 2));
+    }
+
+    @Test
+    public void testResumeAfterCancel() throws IOException {
+        final ZipExporter exporter = new ZipExporter(new File(mDirectory, "event.zip"));
+        assertFalse(exporter.export(mNames, mFiles, new CancellingListener(exporter, 2)));
+        assertTrue(exporter.isResumable());
+
+        CountingListener listener = new CountingListener();
+        assertTrue(exporter.export(mNames, mFiles, listener));
+        assertEquals(2, listener.mFirstEntryCount);
+        assertArchive(exporter.getZipFile(), mNames, mData);
+    }
+
+    @Test
+    public void testResumeRewritesModifiedFile() throws IOException {
+        ZipExporter exporter = new ZipExporter(new File(mDirectory, "event.zip"));
+        assertFalse(exporter.export(mNames, mFiles, new CancellingListener(exporter, 2)));
+
+        // Re-render the first photo strip at the same size.
+        File file = mFiles.get(0);
+        long lastModified = file.lastModified();
+        byte[] data = mData.get(0).clone();
+        Arrays.fill(data, 0, 100, (byte) 7);
+        write(file, data);
+        assertTrue(file.setLastModified(lastModified + 60000L));
+        mData.set(0, data);
+
+        CountingListener listener = new CountingListener();
+        assertTrue(exporter.export(mNames, mFiles, listener));
+        assertEquals(0, listener.mFirstEntryCount);
+        assertArchive(exporter.getZipFile(), mNames, mData);
+    }
+
+    @Test
+    public void testResumeRetriesSkippedFileThatCameBack() throws IOException {
+        File file = mFiles.get(0);
+        assertTrue(file.delete());
+        ZipExporter exporter = new ZipExporter(new File(mDirectory, "event.zip"));
+        assertFalse(exporter.export(mNames, mFiles, new CancellingListener(exporter, 2)));
+        assertEquals(Collections.singletonList(mNames.get(0)), exporter.getSkippedNames());
+
+        write(file, mData.get(0));
+        assertTrue(exporter.export(mNames, mFiles, null));
+        assertTrue(exporter.getSkippedNames().isEmpty());
+        assertArchive(exporter.getZipFile(), mNames, mData);
+    }
+
+    //
+    // Private methods.
+    //
+
+    private static void assertArchive(File zipFile, List<String> names, List<byte[]> data) throws IOException {
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            assertEquals(names.size(), zip.size());
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            for (int i = 0; i < names.size(); i++) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(names.get(i), entry.getName());
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertEquals(data.get(i).length, entry.getSize());
+
+                CRC32 crc = new CRC32();
+                crc.update(data.get(i));
+                assertEquals(crc.getValue(), entry.getCrc());
+
+                InputStream inputStream = zip.getInputStream(entry);
+                assertNotNull(inputStream);
+                try {
+                    assertArrayEquals(names.get(i), data.get(i), read(inputStream, data.get(i).length));
+                    assertEquals(-1, inputStream.read());
+                } finally {
+                    inputStream.close();
+                }
+            }
+            assertFalse(entries.hasMoreElements());
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static <T> List<T> without(List<T> list, int index) {
+        List<T> copy = new ArrayList<T>(list);
+        copy.remove(index);
+        return copy;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static byte[] read(InputStream inputStream, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = inputStream.read(data, offset, length - offset);
+            if (count < 0) {
+                break;
+            }
+            offset += count;
+        }
+        return data;
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * Cancels the export once a number of entries are done.
+     */
+    private static class CancellingListener implements ZipExporter.ProgressListener {
+
+        private final ZipExporter mExporter;
+
+        private final int mCancelCount;
+
+        private CancellingListener(ZipExporter exporter, int cancelCount) {
+            mExporter = exporter;
+            mCancelCount = cancelCount;
+        }
+
+        @Override
+        public void onProgress(int entryCount, int totalEntryCount, long byteCount, long totalByteCount) {
+            if (entryCount >= mCancelCount) {
+                mExporter.cancel();
+            }
+        }
+    }
+
+    /**
+     * Records the entry count reported when the export starts.
+     */
+    private static class CountingListener implements ZipExporter.ProgressListener {
+
+        private int mFirstEntryCount = -1;
+
+        @Override
+        public void onProgress(int entryCount, int totalEntryCount, long byteCount, long totalByteCount) {
+            if (mFirstEntryCount < 0) {
+                mFirstEntryCount = entryCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder.ChromaSubsampling;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trip tests of {@link JpegEncoder} and {@link JpegDecoder}. The output of the encoder is also decoded with the
+ * Jpeg reader of the JVM, so both are checked against an independent decoder.
+ *
+ * @author Benedict Lau
+ */
+public class JpegCodecTest {
+
+    /**
+     * An image size that is not a multiple of any Mcu size, so partial Mcus are covered.
+     */
+    private static final int WIDTH = 70;
+
+    private static final int HEIGHT = 45;
+
+    private static final int QUALITY = 95;
+
+    /**
+     * The min peak signal-to-noise ratio in dB of a decoded image against the source at {@link #QUALITY}. The
+     * {@link JpegDecoder} replicates chroma samples instead of interpolating them, so it sets the bar for subsampled
+     * images.
+     */
+    private static final double MIN_PSNR = 33.0;
+
+    /**
+     * The min peak signal-to-noise ratio in dB between independent encoders or decoders, which only differ in rounding
+     * and chroma upsampling.
+     */
+    private static final double MIN_REFERENCE_PSNR = 40.0;
+
+    /**
+     * The min peak signal-to-noise ratio in dB between decoders of an image without chroma subsampling, which only
+     * differ in rounding.
+     */
+    private static final double MIN_DECODER_PSNR = 55.0;
+
+    /**
+     * The number of code lengths in a Huffman table.
+     */
+    private static final int HUFFMAN_LENGTHS = 16;
+
+    private static final long FUZZ_SEED = 20000L;
+
+    private static final int FUZZ_ITERATIONS = 2000;
+
+    @Test
+    public void testRoundTripForEachSubsampling() throws IOException {
+        int[] source = createTestImage(WIDTH, HEIGHT);
+        for (ChromaSubsampling subsampling : ChromaSubsampling.values()) {
+            byte[] jpeg = encode(source, WIDTH, HEIGHT, 1, subsampling);
+
+            int[] decoded = decode(jpeg, 1);
+            int[] reference = decodeWithImageIo(jpeg);
+            assertTrue(subsampling + " decoded " + psnr(source, decoded), psnr(source, decoded) > MIN_PSNR);
+            assertTrue(subsampling + " reference " + psnr(source, reference),
+                    psnr(source, reference) > MIN_REFERENCE_PSNR);
+            if (subsampling == ChromaSubsampling.YUV_444) {
+                assertTrue("Decoders " + psnr(reference, decoded), psnr(reference, decoded) > MIN_DECODER_PSNR);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesReferenceEncoder() throws IOException {
+        // The Jpeg writer of the JVM encodes with 4:2:0 subsampling and the same scaled quantization tables.
+        int[] source = createTestImage(WIDTH, HEIGHT);
+        int[] expected = decodeWithImageIo(encodeWithImageIo(source, WIDTH, HEIGHT));
+        int[] actual = decodeWithImageIo(encode(source, WIDTH, HEIGHT, 1, ChromaSubsampling.YUV_420));
+        assertTrue("Encoders " + psnr(expected, actual), psnr(expected, actual) > MIN_REFERENCE_PSNR);
+    }
+
+    @Test
+    public void testSolidColorsAreExact() throws IOException {
+        int[] colors = {0xFF000000, 0xFFFFFFFF, 0xFF808080, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF};
+        for (ChromaSubsampling subsampling : ChromaSubsampling.values()) {
+            for (int color : colors) {
+                int[] source = new int[WIDTH * HEIGHT];
+                Arrays.fill(source, color);
+
+                // Only the Dc coefficients are non-zero, so nothing is lost beyond color conversion rounding.
+                int[] decoded = decode(encode(source, WIDTH, HEIGHT, 1, subsampling), 1);
+                int maxError = maxChannelError(source, decoded);
+                assertTrue(subsampling + " " + Integer.toHexString(color) + " off by " + maxError, maxError <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void testRestartIntervalsDoNotChangePixels() throws IOException {
+        int[] source = createTestImage(WIDTH, HEIGHT);
+        for (ChromaSubsampling subsampling : ChromaSubsampling.values()) {
+            byte[] serial = encode(source, WIDTH, HEIGHT, 1, subsampling);
+            for (int numThreads = 2; numThreads <= 5; numThreads++) {
+                byte[] parallel = encode(source, WIDTH, HEIGHT, numThreads, subsampling);
+                assertFalse(hasMarker(serial, JpegTables.DRI));
+                assertTrue(hasMarker(parallel, JpegTables.DRI));
+
+                // Restart markers reset the Dc prediction, but the coefficients and so the pixels are the same.
+                assertArrayEquals(decode(serial, 1), decode(parallel, 1));
+                assertArrayEquals(decodeWithImageIo(serial), decodeWithImageIo(parallel));
+            }
+        }
+    }
+
+    @Test
+    public void testScaledDecode() throws IOException {
+        int[] source = createTestImage(WIDTH, HEIGHT);
+        for (ChromaSubsampling subsampling : ChromaSubsampling.values()) {
+            byte[] jpeg = encode(source, WIDTH, HEIGHT, 3, subsampling);
+            for (int scale = 1; scale <= JpegDecoder.MAX_SCALE; scale *= 2) {
+                JpegDecoder decoder = new JpegDecoder(jpeg);
+                decoder.setScale(scale);
+                assertEquals((WIDTH + scale - 1) / scale, decoder.getOutputWidth());
+                assertEquals((HEIGHT + scale - 1) / scale, decoder.getOutputHeight());
+                assertNotNull(decode(jpeg, scale));
+            }
+        }
+    }
+
+    @Test
+    public void testRowsWrittenInPieces() throws IOException {
+        int[] source = createTestImage(WIDTH, HEIGHT);
+        byte[] whole = encode(source, WIDTH, HEIGHT, 1, ChromaSubsampling.YUV_420);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegEncoder encoder = new JpegEncoder(out, WIDTH, HEIGHT, QUALITY, 1, ChromaSubsampling.YUV_420);
+        int row = 0;
+        int numRows = 1;
+        while (row < HEIGHT) {
+            int rows = Math.min(numRows, HEIGHT - row);
+            encoder.writeRows(source, row * WIDTH, WIDTH, rows);
+            row += rows;
+            numRows += 3;
+        }
+        encoder.finish();
+
+        assertArrayEquals(whole, out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testHuffmanCountsPastSegmentAreRejected() throws IOException {
+        byte[] jpeg = encode(createTestImage(WIDTH, HEIGHT), WIDTH, HEIGHT, 1, ChromaSubsampling.YUV_420);
+        int counts = findHuffmanCounts(jpeg);
+        Arrays.fill(jpeg, counts, counts + HUFFMAN_LENGTHS, (byte) 0xFF);
+        decode(jpeg, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOverflowingHuffmanCodesAreRejected() throws IOException {
+        byte[] jpeg = encode(createTestImage(WIDTH, HEIGHT), WIDTH, HEIGHT, 1, ChromaSubsampling.YUV_420);
+        int counts = findHuffmanCounts(jpeg);
+        int numValues = 0;
+        for (int i = 0; i < HUFFMAN_LENGTHS; i++) {
+            numValues += jpeg[counts + i] & 0xFF;
+        }
+
+        // Three codes of one bit, keeping the number of symbols so the segment still parses.
+        Arrays.fill(jpeg, counts, counts + HUFFMAN_LENGTHS, (byte) 0);
+        jpeg[counts] = 3;
+        jpeg[counts + HUFFMAN_LENGTHS - 1] = (byte) (numValues - 3);
+        decode(jpeg, 1);
+    }
+
+    @Test
+    public void testMutatedHuffmanTablesOnlyFailWithIoException() throws IOException {
+        byte[] jpeg = encode(createTestImage(WIDTH, HEIGHT), WIDTH, HEIGHT, 1, ChromaSubsampling.YUV_420);
+        int counts = findHuffmanCounts(jpeg);
+        Random random = new Random(FUZZ_SEED);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] mutated = jpeg.clone();
+            int numMutations = 1 + random.nextInt(4);
+            for (int j = 0; j < numMutations; j++) {
+                mutated[counts + random.nextInt(HUFFMAN_LENGTHS)] = (byte) random.nextInt(256);
+            }
+            try {
+                decode(mutated, 1);
+            } catch (IOException e) {
+                // Expected for most mutations.
+            }
+        }
+    }
+
+    //
+    // Package private methods.
+    //
+
+    /**
+     * Creates an image with gradients across the full range of each color channel.
+     *
+     * @param width  the image width.
+     * @param height the image height.
+     * @return the pixels as packed ARGB colors.
+     */
+    static int[] createTestImage(int width, int height) {
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / (width - 1);
+                int g = y * 255 / (height - 1);
+                int b = (int) (128.0 + 100.0 * Math.sin(x * 0.2 + y * 0.1));
+                argb[y * width + x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * Encodes an image.
+     *
+     * @param argb        the pixels as packed ARGB colors.
+     * @param width       the image width.
+     * @param height      the image height.
+     * @param numThreads  the number of bands to encode in parallel.
+     * @param subsampling the {@link ChromaSubsampling}.
+     * @return the Jpeg data.
+     * @throws IOException if encoding fails.
+     */
+    static byte[] encode(int[] argb, int width, int height, int numThreads, ChromaSubsampling subsampling)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegEncoder encoder = new JpegEncoder(out, width, height, QUALITY, numThreads, subsampling);
+        encoder.writeRows(argb, 0, width, height);
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes an image with the Jpeg writer of the JVM.
+     *
+     * @param argb   the pixels as packed ARGB colors.
+     * @param width  the image width.
+     * @param height the image height.
+     * @return the Jpeg data.
+     * @throws IOException if encoding fails.
+     */
+    static byte[] encodeWithImageIo(int[] argb, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(QUALITY / 100f);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream imageOut = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            imageOut.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes an image with {@link JpegDecoder}.
+     *
+     * @param jpeg  the Jpeg data.
+     * @param scale the scale denominator.
+     * @return the pixels as packed ARGB colors.
+     * @throws IOException if decoding fails.
+     */
+    static int[] decode(byte[] jpeg, int scale) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpeg);
+        decoder.setScale(scale);
+        int width = decoder.getOutputWidth();
+        int height = decoder.getOutputHeight();
+        int[] argb = new int[width * height];
+        int[] rows = new int[width * decoder.getMaxRowsPerRead()];
+        int row = 0;
+        int numRows;
+        while ((numRows = decoder.readRows(rows, 0, width)) > 0) {
+            System.arraycopy(rows, 0, argb, row * width, numRows * width);
+            row += numRows;
+        }
+        assertEquals(height, row);
+        return argb;
+    }
+
+    /**
+     * Decodes an image with the Jpeg reader of the JVM.
+     *
+     * @param jpeg the Jpeg data.
+     * @return the pixels as packed ARGB colors.
+     * @throws IOException if decoding fails.
+     */
+    static int[] decodeWithImageIo(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Computes the peak signal-to-noise ratio between two images over all color channels.
+     *
+     * @param expected the expected pixels.
+     * @param actual   the actual pixels.
+     * @return the ratio in dB; or {@link Double#POSITIVE_INFINITY} if the images are identical.
+     */
+    static double psnr(int[] expected, int[] actual) {
+        assertEquals(expected.length, actual.length);
+        double squaredError = 0.0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int error = (expected[i] >> shift & 0xFF) - (actual[i] >> shift & 0xFF);
+                squaredError += error * error;
+            }
+        }
+        if (squaredError == 0.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double meanSquaredError = squaredError / (expected.length * 3);
+        return 10.0 * Math.log10(255.0 * 255.0 / meanSquaredError);
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the largest difference of any color channel between two images.
+     *
+     * @param expected the expected pixels.
+     * @param actual   the actual pixels.
+     * @return the largest difference.
+     */
+    private static int maxChannelError(int[] expected, int[] actual) {
+        assertEquals(expected.length, actual.length);
+        int maxError = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                maxError = Math.max(maxError, Math.abs((expected[i] >> shift & 0xFF) - (actual[i] >> shift & 0xFF)));
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * Checks whether Jpeg data has a marker before the start of the entropy-coded data.
+     *
+     * @param jpeg   the Jpeg data.
+     * @param marker the marker code, without the 0xFF prefix.
+     * @return true if the marker is found; false otherwise.
+     */
+    private static boolean hasMarker(byte[] jpeg, int marker) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int code = jpeg[offset + 1] & 0xFF;
+            if (code == marker) {
+                return true;
+            }
+            if (code == JpegTables.SOS) {
+                break;
+            }
+            offset += 2 + ((jpeg[offset + 2] & 0xFF) << 8 | jpeg[offset + 3] & 0xFF);
+        }
+        return false;
+    }
+
+    /**
+     * Finds the code counts of the first Huffman table.
+     *
+     * @param jpeg the Jpeg data.
+     * @return the offset of the count of 1-bit codes.
+     */
+    private static int findHuffmanCounts(byte[] jpeg) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int code = jpeg[offset + 1] & 0xFF;
+            if (code == JpegTables.DHT) {
+                // Skip the marker, the segment length and the table class and id.
+                return offset + 5;
+            }
+            offset += 2 + ((jpeg[offset + 2] & 0xFF) << 8 | jpeg[offset + 3] & 0xFF);
+        }
+        fail("No Huffman table");
+        return -1;
+    }
+}
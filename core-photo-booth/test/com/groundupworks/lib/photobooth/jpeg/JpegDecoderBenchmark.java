@@ -0,0 +1,142 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures {@link JpegDecoder} at each supported scale against a full-size decode. Kept with the tests, so it is not
+ * shipped in the jar. Run it on a desktop JVM with the main and test classes on the classpath:
+ * <pre>
+ * java com.groundupworks.lib.photobooth.jpeg.JpegDecoderBenchmark photo.jpg [iterations]
+ * </pre>
+ *
+ * @author Benedict Lau
+ */
+public class JpegDecoderBenchmark {
+
+    /**
+     * The default number of timed runs per scale.
+     */
+    private static final int DEFAULT_ITERATIONS = 20;
+
+    /**
+     * The number of untimed runs before measuring, so the JIT has compiled the decoder.
+     */
+    private static final int WARM_UP_RUNS = 5;
+
+    /**
+     * Entry point.
+     *
+     * @param args the path to a Jpeg file, optionally followed by the number of timed runs per scale.
+     * @throws IOException if the file cannot be read or decoded.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: JpegDecoderBenchmark <jpeg file> [iterations]");
+            return;
+        }
+
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        System.out.print(benchmark(readFile(args[0]), iterations));
+    }
+
+    /**
+     * Decodes Jpeg data at scales 1, 1/2, 1/4 and 1/8 and reports the average time of each.
+     *
+     * @param jpegData   the Jpeg data.
+     * @param iterations the number of timed runs per scale.
+     * @return the report.
+     * @throws IOException if the Jpeg cannot be decoded.
+     */
+    public static String benchmark(byte[] jpegData, int iterations) throws IOException {
+        JpegDecoder header = new JpegDecoder(jpegData);
+        StringBuilder report = new StringBuilder();
+        report.append("Jpeg decode ").append(header.getWidth()).append("x").append(header.getHeight()).append('\n');
+
+        long fullNanos = 0L;
+        for (int scale = 1; scale <= JpegDecoder.MAX_SCALE; scale *= 2) {
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                decode(jpegData, scale);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                decode(jpegData, scale);
+            }
+            long nanos = (System.nanoTime() - start) / Math.max(1, iterations);
+            if (scale == 1) {
+                fullNanos = nanos;
+            }
+
+            report.append("1/").append(scale).append(": ").append(String.format("%.1f", nanos / 1000000.0))
+                    .append(" ms");
+            if (scale > 1 && nanos > 0) {
+                report.append(", ").append(String.format("%.1f", (double) fullNanos / nanos)).append("x faster");
+            }
+            report.append('\n');
+        }
+
+        return report.toString();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Decodes Jpeg data at a scale, discarding the pixels.
+     *
+     * @param jpegData the Jpeg data.
+     * @param scale    the scale denominator.
+     * @throws IOException if the Jpeg cannot be decoded.
+     */
+    private static void decode(byte[] jpegData, int scale) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpegData);
+        decoder.setScale(scale);
+        int width = decoder.getOutputWidth();
+        int[] rows = new int[width * decoder.getMaxRowsPerRead()];
+        while (decoder.readRows(rows, 0, width) > 0) {
+            // Keep decoding.
+        }
+    }
+
+    /**
+     * Reads a file into memory.
+     *
+     * @param path the path to the file.
+     * @return the file contents.
+     * @throws IOException if the file cannot be read.
+     */
+    private static byte[] readFile(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
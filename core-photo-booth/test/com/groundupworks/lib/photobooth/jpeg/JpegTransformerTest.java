@@ -0,0 +1,228 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.jpeg;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder.ChromaSubsampling;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link JpegTransformer} against the same crop, mirror and rotation applied to decoded pixels.
+ *
+ * @author Benedict Lau
+ */
+public class JpegTransformerTest {
+
+    /**
+     * An image size whose center square is not aligned to Mcus in either direction for any subsampling.
+     */
+    private static final int WIDTH = 100;
+
+    private static final int HEIGHT = 74;
+
+    @Test
+    public void testIsLosslessRotation() {
+        assertTrue(JpegTransformer.isLosslessRotation(0f));
+        assertTrue(JpegTransformer.isLosslessRotation(90f));
+        assertTrue(JpegTransformer.isLosslessRotation(-270f));
+        assertTrue(JpegTransformer.isLosslessRotation(540f));
+        assertFalse(JpegTransformer.isLosslessRotation(45f));
+        assertFalse(JpegTransformer.isLosslessRotation(90.5f));
+    }
+
+    @Test
+    public void testEachSubsamplingRotationAndReflection() throws IOException {
+        int[] source = JpegCodecTest.createTestImage(WIDTH, HEIGHT);
+        for (ChromaSubsampling subsampling : ChromaSubsampling.values()) {
+            byte[] jpeg = JpegCodecTest.encode(source, WIDTH, HEIGHT, 1, subsampling);
+            int mcuSize = subsampling == ChromaSubsampling.YUV_444 ? 8 : 16;
+            int mcuWidth = subsampling == ChromaSubsampling.YUV_444 ? 8 : 16;
+            int mcuHeight = subsampling == ChromaSubsampling.YUV_420 ? 16 : 8;
+            for (int rotation = -90; rotation <= 360; rotation += 90) {
+                for (int i = 0; i < 2; i++) {
+                    boolean reflection = i == 1;
+                    String name = subsampling + " " + rotation + (reflection ? " reflected" : "");
+                    assertTransform(name, jpeg, rotation, reflection, mcuSize, mcuWidth, mcuHeight);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRestartIntervals() throws IOException {
+        int[] source = JpegCodecTest.createTestImage(WIDTH, HEIGHT);
+        byte[] jpeg = JpegCodecTest.encode(source, WIDTH, HEIGHT, 4, ChromaSubsampling.YUV_420);
+        assertTransform("restart intervals", jpeg, 90, true, 16, 16, 16);
+    }
+
+    @Test
+    public void testMcuAlignedImage() throws IOException {
+        // The crop is empty along the short edge and Mcu-aligned along the long edge.
+        int[] source = JpegCodecTest.createTestImage(96, 64);
+        byte[] jpeg = JpegCodecTest.encode(source, 96, 64, 1, ChromaSubsampling.YUV_420);
+        assertTransform("aligned", jpeg, 270, false, 16, 16, 16);
+    }
+
+    @Test
+    public void testPortraitImage() throws IOException {
+        int[] source = JpegCodecTest.createTestImage(HEIGHT, WIDTH);
+        byte[] jpeg = JpegCodecTest.encode(source, HEIGHT, WIDTH, 1, ChromaSubsampling.YUV_422);
+        assertTransform("portrait", jpeg, 90, true, 16, 16, 8);
+    }
+
+    @Test
+    public void testGrayscaleImage() throws IOException {
+        // A single component is not interleaved, so its Mcu is one block.
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        image.getGraphics().drawImage(toImage(JpegCodecTest.createTestImage(WIDTH, HEIGHT), WIDTH, HEIGHT), 0, 0,
+                null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpeg", out));
+        assertTransform("grayscale", out.toByteArray(), 90, true, 8, 8, 8);
+    }
+
+    @Test
+    public void testImageSmallerThanMcu() throws IOException {
+        int[] source = JpegCodecTest.createTestImage(40, 12);
+        byte[] jpeg = JpegCodecTest.encode(source, 40, 12, 1, ChromaSubsampling.YUV_420);
+        try {
+            JpegTransformer.transform(jpeg, 0f, false, new ByteArrayOutputStream());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLossyRotation() throws IOException {
+        int[] source = JpegCodecTest.createTestImage(WIDTH, HEIGHT);
+        byte[] jpeg = JpegCodecTest.encode(source, WIDTH, HEIGHT, 1, ChromaSubsampling.YUV_420);
+        JpegTransformer.transform(jpeg, 45f, false, new ByteArrayOutputStream());
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Transforms a Jpeg and checks the output against the same crop, mirror and rotation applied to its decoded pixels.
+     *
+     * @param name       the name of the case, for failure messages.
+     * @param jpeg       the Jpeg data.
+     * @param rotation   clockwise rotation in degrees.
+     * @param reflection whether to mirror horizontally.
+     * @param mcuSize    the expected size the square crop is a multiple of.
+     * @param mcuWidth   the width of an Mcu of the source, which the horizontal crop offset is a multiple of.
+     * @param mcuHeight  the height of an Mcu of the source, which the vertical crop offset is a multiple of.
+     * @throws IOException if the transform fails.
+     */
+    private static void assertTransform(String name, byte[] jpeg, int rotation, boolean reflection, int mcuSize,
+                                        int mcuWidth, int mcuHeight) throws IOException {
+        JpegDecoder decoder = new JpegDecoder(jpeg);
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int[] decoded = JpegCodecTest.decode(jpeg, 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = JpegTransformer.transform(jpeg, rotation, reflection, out);
+        assertEquals(name, Math.min(width, height) / mcuSize * mcuSize, size);
+
+        // The crop offset is rounded down to whole Mcus, so the crop is off center by less than one Mcu.
+        int cropX = (width - size) / 2 / mcuWidth * mcuWidth;
+        int cropY = (height - size) / 2 / mcuHeight * mcuHeight;
+        int[] expected = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                expected[y * size + x] = decoded[(cropY + y) * width + cropX + x];
+            }
+        }
+        if (reflection) {
+            expected = reflect(expected, size);
+        }
+        for (int turns = ((rotation / 90) % 4 + 4) % 4; turns > 0; turns--) {
+            expected = rotateClockwise(expected, size);
+        }
+
+        // The coefficients are moved, not quantized again, and the decoder replicates chroma samples the same way in
+        // any orientation, so the pixels match exactly.
+        int[] actual = JpegCodecTest.decode(out.toByteArray(), 1);
+        assertArrayEquals(name, expected, actual);
+
+        // The output is a valid Jpeg for an independent decoder too.
+        assertEquals(size * size, JpegCodecTest.decodeWithImageIo(out.toByteArray()).length);
+    }
+
+    /**
+     * Wraps pixels in an image.
+     *
+     * @param argb   the pixels as packed ARGB colors.
+     * @param width  the image width.
+     * @param height the image height.
+     * @return the image.
+     */
+    private static BufferedImage toImage(int[] argb, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    /**
+     * Mirrors square pixels horizontally.
+     *
+     * @param argb the pixels.
+     * @param size the width and height.
+     * @return the mirrored pixels.
+     */
+    private static int[] reflect(int[] argb, int size) {
+        int[] reflected = new int[argb.length];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                reflected[y * size + x] = argb[y * size + size - 1 - x];
+            }
+        }
+        return reflected;
+    }
+
+    /**
+     * Rotates square pixels a quarter turn clockwise.
+     *
+     * @param argb the pixels.
+     * @param size the width and height.
+     * @return the rotated pixels.
+     */
+    private static int[] rotateClockwise(int[] argb, int size) {
+        int[] rotated = new int[argb.length];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                rotated[y * size + x] = argb[(size - 1 - x) * size + y];
+            }
+        }
+        return rotated;
+    }
+}
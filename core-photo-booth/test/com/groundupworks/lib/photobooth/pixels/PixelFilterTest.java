@@ -0,0 +1,60 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.pixels;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link PixelFilter} against known filtered colors.
+ *
+ * @author Benedict Lau
+ */
+public class PixelFilterTest {
+
+    @Test
+    public void testBlackAndWhite() {
+        assertEquals(0xFF000000, PixelFilter.BLACK_AND_WHITE.apply(0xFF000000));
+        assertEquals(0xFFFFFFFF, PixelFilter.BLACK_AND_WHITE.apply(0xFFFFFFFF));
+        assertEquals(0xFF4C4C4C, PixelFilter.BLACK_AND_WHITE.apply(0xFFFF0000));
+        assertEquals(0xFF969696, PixelFilter.BLACK_AND_WHITE.apply(0xFF00FF00));
+        assertEquals(0xFF1B1B1B, PixelFilter.BLACK_AND_WHITE.apply(0xFF0000FF));
+    }
+
+    @Test
+    public void testSepia() {
+        assertEquals(0xFF000000, PixelFilter.SEPIA.apply(0xFF000000));
+        assertEquals(0xFFFFFFEF, PixelFilter.SEPIA.apply(0xFFFFFFFF));
+        assertEquals(0xFFAD9A78, PixelFilter.SEPIA.apply(0xFF808080));
+        assertEquals(0xFF645945, PixelFilter.SEPIA.apply(0xFFFF0000));
+    }
+
+    @Test
+    public void testAlphaIsKept() {
+        assertEquals(0x80FFFFFF, PixelFilter.BLACK_AND_WHITE.apply(0x80FFFFFF));
+        assertEquals(0x00FFFFEF, PixelFilter.SEPIA.apply(0x00FFFFFF));
+    }
+
+    @Test
+    public void testApplyToRange() {
+        int[] argb = {0xFFFF0000, 0xFFFF0000, 0xFFFF0000, 0xFFFF0000};
+        PixelFilter.BLACK_AND_WHITE.apply(argb, 1, 2);
+        assertArrayEquals(new int[]{0xFFFF0000, 0xFF4C4C4C, 0xFF4C4C4C, 0xFFFF0000}, argb);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.pixels;
+
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder.ChromaSubsampling;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link PixelImage#createFrame(byte[], float, boolean, PixelFilter, int)} against the known quadrants of a
+ * test image after each rotation and reflection.
+ *
+ * @author Benedict Lau
+ */
+public class PixelImageTest {
+
+    /**
+     * The test image is a square of four solid quadrants between gray margins that the center crop removes. Each
+     * quadrant is one 8x8 block, so only Dc coefficients are coded and the colors survive within rounding.
+     */
+    private static final int WIDTH = 32;
+
+    private static final int HEIGHT = 16;
+
+    private static final int QUALITY = 95;
+
+    private static final int MAX_ERROR = 2;
+
+    //
+    // Colors of the quadrants and the margins.
+    //
+
+    private static final int RED = 0xFFFF0000;
+
+    private static final int GREEN = 0xFF00FF00;
+
+    private static final int BLUE = 0xFF0000FF;
+
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private static final int GRAY = 0xFF808080;
+
+    @Test
+    public void testEachRotation() throws IOException {
+        byte[] jpeg = createTestJpeg();
+        assertQuadrants("0", PixelImage.createFrame(jpeg, 0f, false, null, HEIGHT), RED, GREEN, BLUE, WHITE);
+        assertQuadrants("90", PixelImage.createFrame(jpeg, 90f, false, null, HEIGHT), BLUE, RED, WHITE, GREEN);
+        assertQuadrants("180", PixelImage.createFrame(jpeg, 180f, false, null, HEIGHT), WHITE, BLUE, GREEN, RED);
+        assertQuadrants("270", PixelImage.createFrame(jpeg, 270f, false, null, HEIGHT), GREEN, WHITE, RED, BLUE);
+        assertQuadrants("-90", PixelImage.createFrame(jpeg, -90f, false, null, HEIGHT), GREEN, WHITE, RED, BLUE);
+    }
+
+    @Test
+    public void testReflectionBeforeRotation() throws IOException {
+        byte[] jpeg = createTestJpeg();
+        assertQuadrants("0 reflected", PixelImage.createFrame(jpeg, 0f, true, null, HEIGHT), GREEN, RED, WHITE, BLUE);
+        assertQuadrants("90 reflected", PixelImage.createFrame(jpeg, 90f, true, null, HEIGHT), WHITE, GREEN, BLUE,
+                RED);
+    }
+
+    @Test
+    public void testScaledFrame() throws IOException {
+        PixelImage frame = PixelImage.createFrame(createTestJpeg(), 0f, false, null, HEIGHT / 2);
+        assertQuadrants("scaled", frame, RED, GREEN, BLUE, WHITE);
+    }
+
+    @Test
+    public void testFilterIsAppliedLast() throws IOException {
+        byte[] jpeg = createTestJpeg();
+        int[] expected = PixelImage.createFrame(jpeg, 90f, true, null, HEIGHT).getPixels();
+        PixelFilter.SEPIA.apply(expected, 0, expected.length);
+
+        PixelImage frame = PixelImage.createFrame(jpeg, 90f, true, PixelFilter.SEPIA, HEIGHT);
+        assertArrayEquals(expected, frame.getPixels());
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates the test image and encodes it without chroma subsampling.
+     *
+     * @return the Jpeg data.
+     * @throws IOException if encoding fails.
+     */
+    private static byte[] createTestJpeg() throws IOException {
+        final int margin = (WIDTH - HEIGHT) / 2;
+        final int half = HEIGHT / 2;
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int color;
+                if (x < margin || x >= margin + HEIGHT) {
+                    color = GRAY;
+                } else if (y < half) {
+                    color = x < margin + half ? RED : GREEN;
+                } else {
+                    color = x < margin + half ? BLUE : WHITE;
+                }
+                argb[y * WIDTH + x] = color;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegEncoder encoder = new JpegEncoder(out, WIDTH, HEIGHT, QUALITY, 1, ChromaSubsampling.YUV_444);
+        encoder.writeRows(argb, 0, WIDTH, HEIGHT);
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Asserts that a square frame is made of four solid quadrants.
+     *
+     * @param name        the name of the case.
+     * @param frame       the frame.
+     * @param topLeft     the expected color of the top-left quadrant.
+     * @param topRight    the expected color of the top-right quadrant.
+     * @param bottomLeft  the expected color of the bottom-left quadrant.
+     * @param bottomRight the expected color of the bottom-right quadrant.
+     */
+    private static void assertQuadrants(String name, PixelImage frame, int topLeft, int topRight, int bottomLeft,
+                                        int bottomRight) {
+        final int size = frame.getWidth();
+        final int half = size / 2;
+        assertEquals(name, size, frame.getHeight());
+
+        int[] pixels = frame.getPixels();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int expected = y < half ? (x < half ? topLeft : topRight) : (x < half ? bottomLeft : bottomRight);
+                int actual = pixels[y * size + x];
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int error = Math.abs(((expected >>> shift) & 0xFF) - ((actual >>> shift) & 0xFF));
+                    assertTrue(name + " at " + x + "," + y + " is " + Integer.toHexString(actual), error <= MAX_ERROR);
+                }
+            }
+        }
+    }
+}
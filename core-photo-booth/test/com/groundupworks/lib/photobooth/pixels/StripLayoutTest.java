@@ -0,0 +1,113 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.pixels;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of {@link StripLayout} pinned against the geometry of the vertical, horizontal and box arrangements.
+ *
+ * @author Benedict Lau
+ */
+public class StripLayoutTest {
+
+    private static final int FRAME_WIDTH = 100;
+
+    private static final int FRAME_HEIGHT = 80;
+
+    private static final int HEADER_HEIGHT = 30;
+
+    @Test
+    public void testVertical() {
+        StripLayout layout = StripLayout.vertical();
+        assertEquals(Integer.MAX_VALUE, layout.getCapacity());
+        assertEquals(200, layout.getWidth(FRAME_WIDTH));
+        assertEquals(440, layout.getHeight(3, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{50, 50, 150, 130}, layout.getPanelRect(0, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{50, 180, 150, 260}, layout.getPanelRect(1, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{50, 310, 150, 390}, layout.getPanelRect(2, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+    }
+
+    @Test
+    public void testHorizontal() {
+        StripLayout layout = StripLayout.horizontal(3);
+        assertEquals(3, layout.getCapacity());
+        assertEquals(500, layout.getWidth(FRAME_WIDTH));
+        assertEquals(180, layout.getHeight(3, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{50, 50, 150, 130}, layout.getPanelRect(0, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{200, 50, 300, 130}, layout.getPanelRect(1, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{350, 50, 450, 130}, layout.getPanelRect(2, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertNull(layout.getPanelRects(4, FRAME_WIDTH, FRAME_HEIGHT, 0));
+    }
+
+    @Test
+    public void testBox() {
+        StripLayout layout = StripLayout.box();
+        assertEquals(350, layout.getWidth(FRAME_WIDTH));
+        assertEquals(310, layout.getHeight(4, FRAME_HEIGHT, 0));
+
+        int[][] panels = layout.getPanelRects(4, FRAME_WIDTH, FRAME_HEIGHT, 0);
+        assertEquals(4, panels.length);
+        assertArrayEquals(new int[]{50, 50, 150, 130}, panels[0]);
+        assertArrayEquals(new int[]{200, 50, 300, 130}, panels[1]);
+        assertArrayEquals(new int[]{50, 180, 150, 260}, panels[2]);
+        assertArrayEquals(new int[]{200, 180, 300, 260}, panels[3]);
+    }
+
+    @Test
+    public void testHeaderOnTopShiftsPanels() {
+        StripLayout layout = StripLayout.box();
+        assertEquals(340, layout.getHeight(4, FRAME_HEIGHT, HEADER_HEIGHT));
+        assertArrayEquals(new int[]{0, 0, 350, 30}, layout.getHeaderRect(4, FRAME_WIDTH, FRAME_HEIGHT, HEADER_HEIGHT));
+        assertArrayEquals(new int[]{50, 80, 150, 160},
+                layout.getPanelRect(0, 4, FRAME_WIDTH, FRAME_HEIGHT, HEADER_HEIGHT));
+        assertArrayEquals(new int[]{200, 210, 300, 290},
+                layout.getPanelRect(3, 4, FRAME_WIDTH, FRAME_HEIGHT, HEADER_HEIGHT));
+    }
+
+    @Test
+    public void testHeaderBelowPanels() {
+        StripLayout layout = new StripLayout(1, StripLayout.ROWS_AUTO, StripLayout.DEFAULT_PADDING, null, false);
+        assertEquals(470, layout.getHeight(3, FRAME_HEIGHT, HEADER_HEIGHT));
+        assertArrayEquals(new int[]{0, 440, 200, 470},
+                layout.getHeaderRect(3, FRAME_WIDTH, FRAME_HEIGHT, HEADER_HEIGHT));
+        assertArrayEquals(new int[]{50, 50, 150, 130},
+                layout.getPanelRect(0, 3, FRAME_WIDTH, FRAME_HEIGHT, HEADER_HEIGHT));
+    }
+
+    @Test
+    public void testSlotsSpanCells() {
+        int[][] slots = {{0, 0, 2, 1}, {0, 1, 1, 1}, {1, 1, 1, 1}};
+        StripLayout layout = new StripLayout(2, 2, StripLayout.DEFAULT_PADDING, slots, true);
+        assertEquals(3, layout.getCapacity());
+        assertEquals(310, layout.getHeight(3, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{50, 50, 300, 130}, layout.getPanelRect(0, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{50, 180, 150, 260}, layout.getPanelRect(1, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertArrayEquals(new int[]{200, 180, 300, 260}, layout.getPanelRect(2, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertNull(layout.getPanelRect(3, 3, FRAME_WIDTH, FRAME_HEIGHT, 0));
+        assertNull(layout.getPanelRects(4, FRAME_WIDTH, FRAME_HEIGHT, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlotsNeedFixedRows() {
+        new StripLayout(2, StripLayout.ROWS_AUTO, StripLayout.DEFAULT_PADDING, new int[][]{{0, 0, 1, 1}}, true);
+    }
+}
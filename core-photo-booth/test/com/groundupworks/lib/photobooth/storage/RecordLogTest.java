@@ -0,0 +1,135 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link RecordLog} appends and torn tail recovery.
+ *
+ * @author Benedict Lau
+ */
+public class RecordLogTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("record_log", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testAppendReturnsOffsets() throws IOException {
+        assertEquals(0L, RecordLog.append(mFile, bytes("first")));
+        assertEquals(6L, RecordLog.append(mFile, bytes("second")));
+        assertArrayEquals(bytes("first\nsecond\n"), read(mFile));
+    }
+
+    @Test
+    public void testRecoverMissingFile() {
+        assertTrue(mFile.delete());
+        assertEquals(0L, RecordLog.recover(mFile));
+    }
+
+    @Test
+    public void testRecoverCompleteRecords() throws IOException {
+        write(mFile, bytes("first\nsecond\n"));
+        assertEquals(0L, RecordLog.recover(mFile));
+        assertArrayEquals(bytes("first\nsecond\n"), read(mFile));
+    }
+
+    @Test
+    public void testRecoverTornTail() throws IOException {
+        write(mFile, bytes("first\nsecond\nthi"));
+        assertEquals(3L, RecordLog.recover(mFile));
+        assertArrayEquals(bytes("first\nsecond\n"), read(mFile));
+    }
+
+    @Test
+    public void testRecoverTornFirstRecord() throws IOException {
+        write(mFile, bytes("fir"));
+        assertEquals(3L, RecordLog.recover(mFile));
+        assertEquals(0L, mFile.length());
+    }
+
+    @Test
+    public void testRecoverTornTailLongerThanScanBuffer() throws IOException {
+        byte[] tail = new byte[10000];
+        Arrays.fill(tail, (byte) 'x');
+        byte[] records = bytes("first\n");
+        byte[] data = new byte[records.length + tail.length];
+        System.arraycopy(records, 0, data, 0, records.length);
+        System.arraycopy(tail, 0, data, records.length, tail.length);
+        write(mFile, data);
+
+        assertEquals(tail.length, RecordLog.recover(mFile));
+        assertArrayEquals(records, read(mFile));
+    }
+
+    @Test
+    public void testAppendAfterRecover() throws IOException {
+        write(mFile, bytes("first\nsec"));
+        RecordLog.recover(mFile);
+        assertEquals(6L, RecordLog.append(mFile, bytes("second")));
+        assertArrayEquals(bytes("first\nsecond\n"), read(mFile));
+    }
+
+    //
+    // Private methods.
+    //
+
+    private static byte[] bytes(String text) throws IOException {
+        return text.getBytes("UTF-8");
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -16,7 +16,12 @@
  */
 package com.groundupworks.flyingphotobooth;
 
+import android.os.Handler;
+
 import com.groundupworks.lib.photobooth.framework.BaseApplication;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.storage.MediaScanScheduler;
+import com.groundupworks.lib.photobooth.storage.StorageMonitor;
 
 /**
  * A concrete {@link BaseApplication} class.
@@ -24,4 +29,19 @@ import com.groundupworks.lib.photobooth.framework.BaseApplication;
  * @author Benedict Lau
  */
 public class MyApplication extends BaseApplication {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StorageMonitor.getInstance().start();
+
+        // Clean up writes interrupted by a crash, and add photo strips left pending to the Android Gallery.
+        new Handler(getWorkerLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                ImageHelper.recoverImageDirectories(getString(R.string.image_helper__image_folder_name));
+                MediaScanScheduler.getInstance().restore();
+            }
+        });
+    }
 }
@@ -18,7 +18,6 @@ package com.groundupworks.flyingphotobooth.controllers;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Point;
 import android.os.Bundle;
 import android.os.Message;
 
@@ -35,17 +34,15 @@ import com.groundupworks.lib.photobooth.framework.BaseController;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper.Arrangement;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper.ImageFilter;
+import com.groundupworks.lib.photobooth.renditions.Rendition;
+import com.groundupworks.lib.photobooth.renditions.RenditionGenerator;
+import com.groundupworks.lib.photobooth.storage.EncodedImageCache;
 import com.groundupworks.wings.Wings;
 import com.groundupworks.wings.dropbox.DropboxEndpoint;
 import com.groundupworks.wings.facebook.FacebookEndpoint;
 import com.groundupworks.wings.gcp.GoogleCloudPrintEndpoint;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
 
 /**
  * Controller class for the {@link ShareFragment}.
@@ -70,8 +67,24 @@ public class ShareController extends BaseController {
 
     public static final int DROPBOX_SHARE_MARKED = 4;
 
+    //
+    // Indices of the renditions generated from the photo strip.
+    //
+
+    private static final int RENDITION_FULL = 0;
+
+    private static final int RENDITION_WEB = 1;
+
+    private static final int RENDITION_THUMB = 2;
+
+    private static final int RENDITION_GALLERY_ICON = 3;
+
+    private static final int RENDITION_COUNT = 4;
+
     private String mJpegPath = null;
 
+    private String mWebJpegPath = null;
+
     private Bitmap mThumb = null;
 
     private boolean mIsGcpShareActive = true;
@@ -117,47 +130,36 @@ public class ShareController extends BaseController {
                 int thumbMaxHeight = bundle.getInt(ShareFragment.MESSAGE_BUNDLE_KEY_MAX_THUMB_HEIGHT);
 
                 // Select filter.
-                ImageFilter[] filters = new ImageFilter[ShareFragment.MESSAGE_BUNDLE_KEY_JPEG_DATA.length];
-                if (filterPref.equals(context.getString(R.string.pref__filter_bw))) {
-                    filters[0] = new BlackAndWhiteFilter();
-                    filters[1] = new BlackAndWhiteFilter();
-                    filters[2] = new BlackAndWhiteFilter();
-                    filters[3] = new BlackAndWhiteFilter();
-                } else if (filterPref.equals(context.getString(R.string.pref__filter_bw_mixed))) {
-                    if (arrangementPref.equals(context.getString(R.string.pref__arrangement_box))) {
-                        filters[0] = new BlackAndWhiteFilter();
-                        filters[3] = new BlackAndWhiteFilter();
-                    } else {
-                        filters[0] = new BlackAndWhiteFilter();
-                        filters[2] = new BlackAndWhiteFilter();
-                    }
-                } else if (filterPref.equals(context.getString(R.string.pref__filter_sepia))) {
-                    filters[0] = new SepiaFilter();
-                    filters[1] = new SepiaFilter();
-                    filters[2] = new SepiaFilter();
-                    filters[3] = new SepiaFilter();
-                } else if (filterPref.equals(context.getString(R.string.pref__filter_sepia_mixed))) {
-                    if (arrangementPref.equals(context.getString(R.string.pref__arrangement_box))) {
-                        filters[0] = new SepiaFilter();
-                        filters[3] = new SepiaFilter();
+                boolean isBox = arrangementPref.equals(context.getString(R.string.pref__arrangement_box));
+                ImageFilter[] filters = new ImageFilter[jpegDataLength];
+                for (int i = 0; i < jpegDataLength; i++) {
+                    // Mixed filters apply to alternating frames, in a checkerboard pattern for the box arrangement.
+                    boolean isAlternate = isBox ? (i % 2 + i / 2) % 2 == 0 : i % 2 == 0;
+
+                    if (filterPref.equals(context.getString(R.string.pref__filter_bw))) {
+                        filters[i] = new BlackAndWhiteFilter();
+                    } else if (filterPref.equals(context.getString(R.string.pref__filter_bw_mixed))) {
+                        if (isAlternate) {
+                            filters[i] = new BlackAndWhiteFilter();
+                        }
+                    } else if (filterPref.equals(context.getString(R.string.pref__filter_sepia))) {
+                        filters[i] = new SepiaFilter();
+                    } else if (filterPref.equals(context.getString(R.string.pref__filter_sepia_mixed))) {
+                        if (isAlternate) {
+                            filters[i] = new SepiaFilter();
+                        }
+                    } else if (filterPref.equals(context.getString(R.string.pref__filter_line_art))) {
+                        filters[i] = new LineArtFilter();
                     } else {
-                        filters[0] = new SepiaFilter();
-                        filters[2] = new SepiaFilter();
+                        // No filter. Keep filter as null.
                     }
-                } else if (filterPref.equals(context.getString(R.string.pref__filter_line_art))) {
-                    filters[0] = new LineArtFilter();
-                    filters[1] = new LineArtFilter();
-                    filters[2] = new LineArtFilter();
-                    filters[3] = new LineArtFilter();
-                } else {
-                    // No filter. Keep filter as null.
                 }
 
                 // Select arrangement.
                 Arrangement arrangement = null;
                 if (arrangementPref.equals(context.getString(R.string.pref__arrangement_horizontal))) {
                     arrangement = new HorizontalArrangement();
-                } else if (arrangementPref.equals(context.getString(R.string.pref__arrangement_box))) {
+                } else if (isBox) {
                     arrangement = new BoxArrangement();
                 } else {
                     arrangement = new VerticalArrangement();
@@ -193,47 +195,71 @@ public class ShareController extends BaseController {
                 }
                 bitmaps = null;
 
-                // Notify ui.
+                // Generate renditions from the photo strip in one pass.
+                Rendition[] renditions = new Rendition[RENDITION_COUNT];
+                renditions[RENDITION_FULL] = Rendition.FULL;
+                renditions[RENDITION_WEB] = Rendition.WEB;
+                renditions[RENDITION_THUMB] = Rendition.createThumb(thumbMaxWidth, thumbMaxHeight);
+                renditions[RENDITION_GALLERY_ICON] = Rendition.GALLERY_ICON;
+                Bitmap[] renditionBitmaps = null;
                 if (photoStrip != null) {
-                    // Create thumbnail.
-                    Point fittedSize = ImageHelper.getAspectFitSize(thumbMaxWidth, thumbMaxHeight,
-                            photoStrip.getWidth(), photoStrip.getHeight());
-                    mThumb = Bitmap.createScaledBitmap(photoStrip, fittedSize.x, fittedSize.y, true);
-                    if (mThumb != null) {
-                        // Thumbnail bitmap is ready.
-                        Message uiMsg = Message.obtain();
-                        uiMsg.what = THUMB_READY;
-                        uiMsg.obj = mThumb;
-                        sendUiUpdate(uiMsg);
-                    } else {
-                        // An error has occurred.
-                        reportError();
+                    renditionBitmaps = RenditionGenerator.generate(photoStrip, renditions);
+                    if (renditionBitmaps == null) {
+                        photoStrip.recycle();
                     }
+                }
+                photoStrip = null;
+
+                // Notify ui.
+                if (renditionBitmaps != null) {
+                    // Thumbnail bitmap is ready.
+                    mThumb = renditionBitmaps[RENDITION_THUMB];
+                    Message uiMsg = Message.obtain();
+                    uiMsg.what = THUMB_READY;
+                    uiMsg.obj = mThumb;
+                    sendUiUpdate(uiMsg);
                 } else {
                     // An error has occurred.
                     reportError();
                 }
 
                 /*
-                 * Save image bitmap as Jpeg.
+                 * Save renditions as Jpeg.
                  */
-                try {
+                if (renditionBitmaps != null) {
                     String imageDirectory = ImageHelper.getCapturedImageDirectory(context
                             .getString(R.string.image_helper__image_folder_name));
                     if (imageDirectory != null) {
                         String imageName = ImageHelper.generateCapturedImageName(context
                                 .getString(R.string.image_helper__image_filename_prefix));
                         File file = new File(imageDirectory, imageName);
-                        final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
 
-                        // Convert to Jpeg and writes to file.
-                        boolean isSuccessful = ImageHelper.writeJpeg(photoStrip, outputStream);
-                        outputStream.flush();
-                        outputStream.close();
-
-                        if (isSuccessful) {
+                        // Cache the full-size photo strip, which is displayed for sharing and printing.
+                        byte[] jpegData = RenditionGenerator.encode(renditionBitmaps[RENDITION_FULL], Rendition.FULL);
+                        if (jpegData != null && EncodedImageCache.getInstance().write(jpegData, file)) {
                             mJpegPath = file.getPath();
 
+                            // Save the smaller renditions where they are hidden from the Android Gallery.
+                            mWebJpegPath = mJpegPath;
+                            String renditionDirectory = ImageHelper.getRenditionDirectory(context
+                                    .getString(R.string.image_helper__image_folder_name));
+                            if (renditionDirectory != null) {
+                                for (int i = 0; i < RENDITION_COUNT; i++) {
+                                    if (i == RENDITION_FULL) {
+                                        continue;
+                                    }
+
+                                    File renditionFile = new File(renditionDirectory,
+                                            ImageHelper.generateRenditionImageName(imageName,
+                                                    renditions[i].getSuffix()));
+                                    boolean isWritten = RenditionGenerator.write(renditionBitmaps[i], renditions[i],
+                                            renditionFile);
+                                    if (isWritten && i == RENDITION_WEB) {
+                                        mWebJpegPath = renditionFile.getPath();
+                                    }
+                                }
+                            }
+
                             // Notify ui the Jpeg is saved.
                             Message uiMsg = Message.obtain();
                             uiMsg.what = JPEG_SAVED;
@@ -246,19 +272,17 @@ public class ShareController extends BaseController {
                         // Invalid external storage state or failed directory creation.
                         reportError();
                     }
-                } catch (FileNotFoundException e) {
-                    reportError();
-                } catch (IOException e) {
-                    reportError();
-                }
 
-                /*
-                 * Recycle photo strip bitmap if it is not the same object referenced by mThumb.
-                 */
-                if (photoStrip != null && photoStrip != mThumb) {
-                    photoStrip.recycle();
+                    /*
+                     * Recycle rendition bitmaps except for the one referenced by mThumb.
+                     */
+                    for (Bitmap bitmap : renditionBitmaps) {
+                        if (bitmap != mThumb) {
+                            bitmap.recycle();
+                        }
+                    }
+                    renditionBitmaps = null;
                 }
-                photoStrip = null;
 
                 break;
             case ShareFragment.GCP_SHARE_REQUESTED:
@@ -280,7 +304,7 @@ public class ShareController extends BaseController {
             case ShareFragment.FACEBOOK_SHARE_REQUESTED:
                 // Create record in Wings.
                 if (mIsFacebookShareActive) {
-                    if (mJpegPath != null && Wings.share(mJpegPath, FacebookEndpoint.class)) {
+                    if (mWebJpegPath != null && Wings.share(mWebJpegPath, FacebookEndpoint.class)) {
                         // Disable to ensure we only make one share request.
                         mIsFacebookShareActive = false;
 
@@ -296,7 +320,7 @@ public class ShareController extends BaseController {
             case ShareFragment.DROPBOX_SHARE_REQUESTED:
                 // Create record in Wings.
                 if (mIsDropboxShareActive) {
-                    if (mJpegPath != null && Wings.share(mJpegPath, DropboxEndpoint.class)) {
+                    if (mWebJpegPath != null && Wings.share(mWebJpegPath, DropboxEndpoint.class)) {
                         // Disable to ensure we only make one share request.
                         mIsDropboxShareActive = false;
 
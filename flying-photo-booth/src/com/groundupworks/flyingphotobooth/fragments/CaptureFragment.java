@@ -53,6 +53,8 @@ import com.groundupworks.lib.photobooth.framework.BaseApplication;
 import com.groundupworks.lib.photobooth.helpers.CameraAudioHelper;
 import com.groundupworks.lib.photobooth.helpers.CameraHelper;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper.JpegCodec;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
 import com.groundupworks.lib.photobooth.views.CenteredPreview;
 
 import java.util.List;
@@ -120,9 +122,9 @@ public class CaptureFragment extends Fragment {
     private static final float REVIEW_REMOVE_GESTURE_THRESHOLD = 100f;
 
     /**
-     * The default captured Jpeg quality.
+     * The captured Jpeg quality. Captured frames are the source of every rendition, so they use archive quality.
      */
-    private static final int CAPTURED_JPEG_QUALITY = 100;
+    private static final int CAPTURED_JPEG_QUALITY = EncodingProfile.ARCHIVE.getQuality();
 
     /**
      * Flag to indicate whether the fragment is launched with preference to use the front-facing camera.
@@ -569,7 +571,13 @@ public class CaptureFragment extends Fragment {
                 // Setup review overlay for user to review captured frame.
                 mReviewStatus.setText(getString(R.string.capture__review_instructions));
                 mReviewStatus.setTextColor(getResources().getColor(R.color.text_color));
-                Bitmap bitmap = ImageHelper.createImage(data, mPreviewDisplayOrientation, mIsReflected, null);
+                // Decode only as many pixels as the review overlay can show.
+                int reviewSize = Math.min(mReviewImage.getWidth(), mReviewImage.getHeight());
+                if (reviewSize <= 0 || reviewSize > ImageHelper.IMAGE_SIZE) {
+                    reviewSize = ImageHelper.IMAGE_SIZE;
+                }
+                Bitmap bitmap = ImageHelper.createImage(data, mPreviewDisplayOrientation, mIsReflected, null,
+                        reviewSize, JpegCodec.PLATFORM);
                 mReviewImage.setImageBitmap(bitmap);
 
                 // Setup task to clear the review overlay after a frame removal event or after timeout.
@@ -23,7 +23,6 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.graphics.Bitmap;
 import android.graphics.Point;
-import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Message;
@@ -42,6 +41,8 @@ import com.groundupworks.flyingphotobooth.controllers.ShareController;
 import com.groundupworks.lib.photobooth.framework.ControllerBackedFragment;
 import com.groundupworks.lib.photobooth.helpers.BeamHelper;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.storage.MediaScanScheduler;
+import com.groundupworks.lib.photobooth.views.StripViewer;
 import com.groundupworks.wings.Wings;
 import com.groundupworks.wings.WingsEndpoint;
 import com.groundupworks.wings.dropbox.DropboxEndpoint;
@@ -163,6 +164,8 @@ public class ShareFragment extends ControllerBackedFragment<ShareController> {
 
     private FrameLayout mPhotoStripContainer;
 
+    private Bitmap mThumbBitmap = null;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         /*
@@ -443,6 +446,7 @@ public class ShareFragment extends ControllerBackedFragment<ShareController> {
                 break;
             case ShareController.THUMB_READY:
                 Bitmap thumbBitmap = (Bitmap) msg.obj;
+                mThumbBitmap = thumbBitmap;
 
                 int bitmapWidth = thumbBitmap.getWidth();
                 int bitmapHeight = thumbBitmap.getHeight();
@@ -470,6 +474,13 @@ public class ShareFragment extends ControllerBackedFragment<ShareController> {
             case ShareController.JPEG_SAVED:
                 mJpegUri = Uri.parse("file://" + (String) msg.obj);
 
+                // Replace the thumbnail with a viewer that decodes only the visible tiles of the saved Jpeg.
+                StripViewer stripViewer = new StripViewer(activity);
+                stripViewer.setImage(mJpegUri.getPath(), mThumbBitmap);
+                mPhotoStripContainer.removeAllViews();
+                mPhotoStripContainer.addView(stripViewer, new FrameLayout.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
                 // Enable sharing options.
                 mShareButton.setEnabled(true);
 
@@ -499,9 +510,8 @@ public class ShareFragment extends ControllerBackedFragment<ShareController> {
                 // Setup Android Beam.
                 BeamHelper.beamUris(activity, new Uri[]{mJpegUri});
 
-                // Request adding Jpeg to Android Gallery.
-                MediaScannerConnection.scanFile(appContext, new String[]{mJpegUri.getPath()},
-                        new String[]{ImageHelper.JPEG_MIME_TYPE}, null);
+                // Queue adding Jpeg to Android Gallery.
+                MediaScanScheduler.getInstance().scan(mJpegUri.getPath());
                 break;
             case ShareController.GCP_SHARE_MARKED:
                 mGcpButton.setEnabled(false);
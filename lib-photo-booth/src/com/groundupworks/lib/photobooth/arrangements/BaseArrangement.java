@@ -20,11 +20,15 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper.Arrangement;
+import com.groundupworks.lib.photobooth.pixels.StripLayout;
 
 /**
- * Base class where other {@link Arrangement} implementations extend from.
+ * Base class where other {@link Arrangement} implementations extend from. The layout of the photo strip comes from a
+ * plain-Java {@link StripLayout}, and this class only draws it onto bitmaps.
  *
  * @author Benedict Lau
  */
@@ -33,12 +37,155 @@ public abstract class BaseArrangement implements Arrangement {
     /**
      * Photo strip panel padding.
      */
-    public static final int PHOTO_STRIP_PANEL_PADDING = 50;
+    public static final int PHOTO_STRIP_PANEL_PADDING = StripLayout.DEFAULT_PADDING;
+
+    @Override
+    public Bitmap createPhotoStrip(Bitmap[] srcBitmaps) {
+        Bitmap returnBitmap = null;
+
+        PhotoStripSurface surface = createSurface(srcBitmaps.length, srcBitmaps[0].getWidth(),
+                srcBitmaps[0].getHeight());
+        if (surface != null) {
+            // Draw photo bitmaps.
+            for (int i = 0; i < srcBitmaps.length; i++) {
+                surface.drawFrame(i, srcBitmaps[i]);
+            }
+            returnBitmap = surface.getBitmap();
+        }
+
+        return returnBitmap;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Creates a pre-laid-out photo strip surface with the header and borders drawn, and all panels left empty. Frames
+     * can then be drawn into their panels one at a time as they become available.
+     *
+     * @param numFrames   the number of frames in the photo strip.
+     * @param frameWidth  the width of each frame.
+     * @param frameHeight the height of each frame.
+     * @return the {@link PhotoStripSurface}; or null if unsuccessful.
+     */
+    public PhotoStripSurface createSurface(int numFrames, int frameWidth, int frameHeight) {
+        PhotoStripSurface surface = null;
+
+        // Calculate return bitmap width.
+        int returnBitmapWidth = getPhotoStripWidth(numFrames, frameWidth);
+
+        // Get header bitmap if applied.
+        int headerHeight = 0;
+        Bitmap header = getHeader(returnBitmapWidth);
+        if (header != null) {
+            headerHeight = header.getHeight();
+        }
+
+        // Calculate return bitmap height.
+        int returnBitmapHeight = getPhotoStripHeight(numFrames, frameHeight, headerHeight);
+
+        // Lay out panels.
+        Rect[] panels = new Rect[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            panels[i] = getPanelRect(i, numFrames, frameWidth, frameHeight, headerHeight);
+            if (panels[i] == null) {
+                // The frame count is not supported by this arrangement.
+                if (header != null) {
+                    header.recycle();
+                }
+                return null;
+            }
+        }
+
+        Bitmap returnBitmap = Bitmap.createBitmap(returnBitmapWidth, returnBitmapHeight, ImageHelper.BITMAP_CONFIG);
+        if (returnBitmap != null) {
+            // Create canvas and draw photo strip.
+            Canvas canvas = new Canvas(returnBitmap);
+            canvas.drawColor(Color.WHITE);
+
+            // Draw header bitmap.
+            if (header != null) {
+                canvas.drawBitmap(header, 0, getHeaderTop(numFrames, frameHeight, headerHeight), null);
+                header.recycle();
+                header = null;
+            }
+
+            // Draw photo strip borders.
+            drawPhotoStripBorders(canvas, 0, 0, returnBitmapWidth - 1, returnBitmapHeight - 1);
+
+            surface = new PhotoStripSurface(returnBitmap, canvas, panels);
+        }
+
+        return surface;
+    }
 
     //
     // Private methods.
     //
 
+    /**
+     * Gets the layout of the photo strip.
+     *
+     * @param numFrames the number of frames in the photo strip.
+     * @return the {@link StripLayout}.
+     */
+    protected abstract StripLayout getLayout(int numFrames);
+
+    /**
+     * Gets the width of the photo strip.
+     *
+     * @param numFrames  the number of frames in the photo strip.
+     * @param frameWidth the width of each frame.
+     * @return the width of the photo strip.
+     */
+    protected int getPhotoStripWidth(int numFrames, int frameWidth) {
+        return getLayout(numFrames).getWidth(frameWidth);
+    }
+
+    /**
+     * Gets the height of the photo strip.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header; or 0 if no header is applied.
+     * @return the height of the photo strip.
+     */
+    protected int getPhotoStripHeight(int numFrames, int frameHeight, int headerHeight) {
+        return getLayout(numFrames).getHeight(numFrames, frameHeight, headerHeight);
+    }
+
+    /**
+     * Gets the bounds of a panel in the photo strip.
+     *
+     * @param index        the index of the panel.
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameWidth   the width of each frame.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header; or 0 if no header is applied.
+     * @return the bounds of the panel; or null if the frame count is not supported.
+     */
+    protected Rect getPanelRect(int index, int numFrames, int frameWidth, int frameHeight, int headerHeight) {
+        Rect rect = null;
+        int[] panel = getLayout(numFrames).getPanelRect(index, numFrames, frameWidth, frameHeight, headerHeight);
+        if (panel != null) {
+            rect = new Rect(panel[0], panel[1], panel[2], panel[3]);
+        }
+        return rect;
+    }
+
+    /**
+     * Gets the top of the header in the photo strip.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameHeight  the height of each frame.
+     * @param headerHeight the height of the header.
+     * @return the top of the header.
+     */
+    protected int getHeaderTop(int numFrames, int frameHeight, int headerHeight) {
+        return getLayout(numFrames).getHeaderTop(numFrames, frameHeight, headerHeight);
+    }
+
     /**
      * Gets the header bitmap for the photo strip. The base implementation returns null.
      *
@@ -49,6 +196,38 @@ public abstract class BaseArrangement implements Arrangement {
         return null;
     }
 
+    /**
+     * Draws a frame into a panel, along with the panel borders. A frame that does not match the panel size is scaled
+     * to fill the panel and center-cropped.
+     *
+     * @param canvas     the canvas to draw on.
+     * @param frame      the frame bitmap.
+     * @param panel      the bounds of the panel.
+     * @param scalePaint the {@link Paint} to use for drawing a scaled frame.
+     */
+    static void drawPanel(Canvas canvas, Bitmap frame, Rect panel, Paint scalePaint) {
+        int frameWidth = frame.getWidth();
+        int frameHeight = frame.getHeight();
+
+        if (frameWidth == panel.width() && frameHeight == panel.height()) {
+            canvas.drawBitmap(frame, panel.left, panel.top, null);
+        } else {
+            // Crop the frame to the aspect ratio of the panel.
+            Rect src;
+            if (frameWidth * panel.height() > frameHeight * panel.width()) {
+                int cropWidth = frameHeight * panel.width() / panel.height();
+                int cropLeft = (frameWidth - cropWidth) / 2;
+                src = new Rect(cropLeft, 0, cropLeft + cropWidth, frameHeight);
+            } else {
+                int cropHeight = frameWidth * panel.height() / panel.width();
+                int cropTop = (frameHeight - cropHeight) / 2;
+                src = new Rect(0, cropTop, frameWidth, cropTop + cropHeight);
+            }
+            canvas.drawBitmap(frame, src, panel, scalePaint);
+        }
+        drawPanelBorders(canvas, panel.left, panel.top, panel.right - 1, panel.bottom - 1);
+    }
+
     /**
      * Draws the border for the photo strip.
      *
@@ -0,0 +1,57 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.arrangements;
+
+import com.groundupworks.lib.photobooth.pixels.StripLayout;
+
+/**
+ * Grid arrangement of bitmaps to create a photo strip, laid out according to a {@link GridTemplate}.
+ *
+ * @author Benedict Lau
+ */
+public class GridArrangement extends BaseArrangement {
+
+    /**
+     * The template.
+     */
+    private final GridTemplate mTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param template the {@link GridTemplate}.
+     */
+    public GridArrangement(GridTemplate template) {
+        mTemplate = template;
+    }
+
+    @Override
+    protected StripLayout getLayout(int numFrames) {
+        return mTemplate.getLayout();
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * @return the {@link GridTemplate} of this arrangement.
+     */
+    public GridTemplate getTemplate() {
+        return mTemplate;
+    }
+}
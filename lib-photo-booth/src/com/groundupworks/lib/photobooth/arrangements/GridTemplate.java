@@ -0,0 +1,385 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.arrangements;
+
+import android.content.res.AssetManager;
+
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+import com.groundupworks.lib.photobooth.pixels.StripLayout;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A declarative photo strip template describing a grid of panels. Templates are written as Json, for example:
+ * <pre>
+ * {
+ *   "columns": 3,
+ *   "rows": 2,
+ *   "padding": 50,
+ *   "header": "top",
+ *   "slots": [[0, 0, 2, 2], [2, 0], [2, 1]]
+ * }
+ * </pre>
+ * Each slot is given as {@code [column, row]} or {@code [column, row, columnSpan, rowSpan]} in grid cells. When
+ * {@code "slots"} is omitted, frames fill the grid row by row, and when {@code "rows"} is also omitted, the grid grows
+ * as many rows as the frame count needs. {@code "header"} is one of {@code "top"}, {@code "bottom"} or {@code "none"}.
+ * <p/>
+ * Templates are validated when they are loaded, and are immutable afterwards.
+ *
+ * @author Benedict Lau
+ */
+public class GridTemplate {
+
+    /**
+     * Placement of the photo strip header.
+     */
+    public enum HeaderPlacement {
+
+        /**
+         * Header above the panels.
+         */
+        TOP,
+
+        /**
+         * Header below the panels.
+         */
+        BOTTOM,
+
+        /**
+         * No header.
+         */
+        NONE
+    }
+
+    /**
+     * Value for the number of rows to indicate that rows are added as needed by the frame count.
+     */
+    public static final int ROWS_AUTO = StripLayout.ROWS_AUTO;
+
+    //
+    // Json keys.
+    //
+
+    private static final String KEY_COLUMNS = "columns";
+
+    private static final String KEY_ROWS = "rows";
+
+    private static final String KEY_PADDING = "padding";
+
+    private static final String KEY_HEADER = "header";
+
+    private static final String KEY_SLOTS = "slots";
+
+    /**
+     * The max number of columns or rows in a grid.
+     */
+    private static final int MAX_GRID_LENGTH = 10;
+
+    /**
+     * Buffer size for reading template files.
+     */
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    /**
+     * Encoding of template files.
+     */
+    private static final String DEFAULT_ENCODING = "UTF-8";
+
+    /**
+     * Templates that have been loaded from assets, keyed by path.
+     */
+    private static final Map<String, GridTemplate> sLoadedTemplates = new ConcurrentHashMap<String, GridTemplate>();
+
+    /**
+     * The number of columns in the grid.
+     */
+    private final int mColumns;
+
+    /**
+     * The number of rows in the grid; or {@link #ROWS_AUTO}.
+     */
+    private final int mRows;
+
+    /**
+     * The padding around and between panels.
+     */
+    private final int mPadding;
+
+    /**
+     * The header placement.
+     */
+    private final HeaderPlacement mHeaderPlacement;
+
+    /**
+     * The slots as {column, row, columnSpan, rowSpan}; or null if frames fill the grid row by row.
+     */
+    private final int[][] mSlots;
+
+    /**
+     * The plain-Java layout of the grid.
+     */
+    private final StripLayout mLayout;
+
+    /**
+     * Constructor.
+     *
+     * @param columns         the number of columns in the grid.
+     * @param rows            the number of rows in the grid; or {@link #ROWS_AUTO}.
+     * @param padding         the padding around and between panels.
+     * @param headerPlacement the header placement.
+     * @param slots           the slots as {column, row, columnSpan, rowSpan}; or null to fill the grid row by row.
+     */
+    private GridTemplate(int columns, int rows, int padding, HeaderPlacement headerPlacement, int[][] slots) {
+        mColumns = columns;
+        mRows = rows;
+        mPadding = padding;
+        mHeaderPlacement = headerPlacement;
+        mSlots = slots;
+        mLayout = new StripLayout(columns, rows, padding, slots, !HeaderPlacement.BOTTOM.equals(headerPlacement));
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Creates a template from its Json specification. The specification is validated in the process.
+     *
+     * @param json the Json specification.
+     * @return the template; or null if the specification is invalid.
+     */
+    public static GridTemplate fromJson(String json) {
+        GridTemplate template = null;
+        try {
+            JSONObject spec = new JSONObject(json);
+
+            int columns = spec.getInt(KEY_COLUMNS);
+            int rows = spec.optInt(KEY_ROWS, ROWS_AUTO);
+            int padding = spec.optInt(KEY_PADDING, BaseArrangement.PHOTO_STRIP_PANEL_PADDING);
+            String header = spec.optString(KEY_HEADER, HeaderPlacement.TOP.name());
+            HeaderPlacement headerPlacement = HeaderPlacement.valueOf(header.toUpperCase(Locale.US));
+
+            if (columns < 1 || columns > MAX_GRID_LENGTH) {
+                throw new IllegalArgumentException("Invalid column count " + columns);
+            }
+            if (rows < ROWS_AUTO || rows > MAX_GRID_LENGTH) {
+                throw new IllegalArgumentException("Invalid row count " + rows);
+            }
+            if (padding < 0) {
+                throw new IllegalArgumentException("Invalid padding " + padding);
+            }
+
+            int[][] slots = null;
+            JSONArray slotsArray = spec.optJSONArray(KEY_SLOTS);
+            if (slotsArray != null) {
+                if (rows == ROWS_AUTO) {
+                    throw new IllegalArgumentException("Rows must be specified with slots");
+                }
+                slots = parseSlots(slotsArray, columns, rows);
+            }
+
+            template = new GridTemplate(columns, rows, padding, headerPlacement, slots);
+        } catch (JSONException e) {
+            LogsHelper.slog(GridTemplate.class, "fromJson", "Malformed template: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            LogsHelper.slog(GridTemplate.class, "fromJson", "Invalid template: " + e.getMessage());
+        }
+
+        return template;
+    }
+
+    /**
+     * Loads a template from assets. Each template is parsed and validated only once, and is cached for subsequent
+     * loads.
+     *
+     * @param assets the {@link AssetManager}.
+     * @param path   the path of the template file relative to the assets root.
+     * @return the template; or null if the template file is missing or invalid.
+     */
+    public static GridTemplate load(AssetManager assets, String path) {
+        GridTemplate template = sLoadedTemplates.get(path);
+        if (template == null) {
+            InputStream in = null;
+            try {
+                in = assets.open(path);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, length);
+                }
+
+                template = fromJson(out.toString(DEFAULT_ENCODING));
+                if (template != null) {
+                    sLoadedTemplates.put(path, template);
+                }
+            } catch (IOException e) {
+                LogsHelper.slog(GridTemplate.class, "load", "Failed to read template " + path);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Do nothing.
+                    }
+                }
+            }
+        }
+
+        return template;
+    }
+
+    /**
+     * @return the number of columns in the grid.
+     */
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Gets the number of rows in the grid for a frame count.
+     *
+     * @param numFrames the number of frames in the photo strip.
+     * @return the number of rows.
+     */
+    public int getRows(int numFrames) {
+        int rows = mRows;
+        if (rows == ROWS_AUTO) {
+            rows = (numFrames + mColumns - 1) / mColumns;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the padding around and between panels.
+     */
+    public int getPadding() {
+        return mPadding;
+    }
+
+    /**
+     * @return the header placement.
+     */
+    public HeaderPlacement getHeaderPlacement() {
+        return mHeaderPlacement;
+    }
+
+    /**
+     * Gets the max number of frames this template can hold.
+     *
+     * @return the number of frames; or {@link Integer#MAX_VALUE} if rows are added as needed.
+     */
+    public int getCapacity() {
+        int capacity;
+        if (mSlots != null) {
+            capacity = mSlots.length;
+        } else if (mRows != ROWS_AUTO) {
+            capacity = mColumns * mRows;
+        } else {
+            capacity = Integer.MAX_VALUE;
+        }
+        return capacity;
+    }
+
+    /**
+     * Gets the plain-Java layout of the grid.
+     *
+     * @return the {@link StripLayout}.
+     */
+    public StripLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Gets a slot in grid cells.
+     *
+     * @param index the index of the frame.
+     * @return the slot as {column, row, columnSpan, rowSpan}; or null if the index exceeds the capacity.
+     */
+    public int[] getSlot(int index) {
+        int[] slot = null;
+        if (index >= 0 && index < getCapacity()) {
+            if (mSlots != null) {
+                slot = mSlots[index].clone();
+            } else {
+                slot = new int[]{index % mColumns, index / mColumns, 1, 1};
+            }
+        }
+        return slot;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Parses and validates the slots of a template. Slots must lie within the grid and must not overlap.
+     *
+     * @param slotsArray the Json array of slots.
+     * @param columns    the number of columns in the grid.
+     * @param rows       the number of rows in the grid.
+     * @return the slots as {column, row, columnSpan, rowSpan}.
+     * @throws JSONException if the Json is malformed.
+     */
+    private static int[][] parseSlots(JSONArray slotsArray, int columns, int rows) throws JSONException {
+        int numSlots = slotsArray.length();
+        if (numSlots == 0) {
+            throw new IllegalArgumentException("No slots");
+        }
+
+        int[][] slots = new int[numSlots][];
+        boolean[] occupied = new boolean[columns * rows];
+        for (int i = 0; i < numSlots; i++) {
+            JSONArray slotArray = slotsArray.getJSONArray(i);
+            if (slotArray.length() != 2 && slotArray.length() != 4) {
+                throw new IllegalArgumentException("Slot " + i + " must have 2 or 4 values");
+            }
+
+            int column = slotArray.getInt(0);
+            int row = slotArray.getInt(1);
+            int columnSpan = slotArray.length() == 4 ? slotArray.getInt(2) : 1;
+            int rowSpan = slotArray.length() == 4 ? slotArray.getInt(3) : 1;
+            if (column < 0 || row < 0 || columnSpan < 1 || rowSpan < 1 || column + columnSpan > columns
+                    || row + rowSpan > rows) {
+                throw new IllegalArgumentException("Slot " + i + " is outside the grid");
+            }
+
+            // Mark cells covered by the slot.
+            for (int r = row; r < row + rowSpan; r++) {
+                for (int c = column; c < column + columnSpan; c++) {
+                    if (occupied[r * columns + c]) {
+                        throw new IllegalArgumentException("Slot " + i + " overlaps another slot");
+                    }
+                    occupied[r * columns + c] = true;
+                }
+            }
+
+            slots[i] = new int[]{column, row, columnSpan, rowSpan};
+        }
+
+        return slots;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.arrangements;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * A photo strip that has been laid out by a {@link BaseArrangement} ahead of time, with the header and borders drawn
+ * and each panel available as a slot. Frames are drawn straight into their slots as they become available, so the
+ * frames themselves do not need to be kept around until the photo strip is assembled.
+ *
+ * @author Benedict Lau
+ */
+public class PhotoStripSurface {
+
+    /**
+     * The photo strip bitmap.
+     */
+    private Bitmap mBitmap;
+
+    /**
+     * The canvas backed by the photo strip bitmap.
+     */
+    private final Canvas mCanvas;
+
+    /**
+     * The bounds of the panels.
+     */
+    private final Rect[] mPanels;
+
+    /**
+     * The {@link Paint} used to clear slots.
+     */
+    private final Paint mClearPaint;
+
+    /**
+     * The {@link Paint} used to draw frames that need scaling to fit their panels.
+     */
+    private final Paint mScalePaint;
+
+    /**
+     * Constructor.
+     *
+     * @param bitmap      the photo strip bitmap with the header and borders drawn.
+     * @param canvas      the canvas backed by the photo strip bitmap.
+     * @param panels the bounds of the panels.
+     */
+    PhotoStripSurface(Bitmap bitmap, Canvas canvas, Rect[] panels) {
+        mBitmap = bitmap;
+        mCanvas = canvas;
+        mPanels = panels;
+
+        mClearPaint = new Paint();
+        mClearPaint.setColor(Color.WHITE);
+
+        mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * @return the number of slots in the photo strip.
+     */
+    public int getSlotCount() {
+        return mPanels.length;
+    }
+
+    /**
+     * Gets the bounds of a slot in the photo strip.
+     *
+     * @param slot the index of the slot.
+     * @return the bounds of the slot.
+     */
+    public Rect getSlotRect(int slot) {
+        return new Rect(mPanels[slot]);
+    }
+
+    /**
+     * Draws a frame into its slot. Any frame previously drawn into the slot is replaced. A frame that does not match
+     * the slot size is scaled to fill the slot and center-cropped.
+     *
+     * @param slot  the index of the slot.
+     * @param frame the frame bitmap.
+     */
+    public void drawFrame(int slot, Bitmap frame) {
+        BaseArrangement.drawPanel(mCanvas, frame, mPanels[slot], mScalePaint);
+    }
+
+    /**
+     * Clears a slot back to its empty state, including the panel borders.
+     *
+     * @param slot the index of the slot.
+     */
+    public void clearSlot(int slot) {
+        Rect panel = mPanels[slot];
+
+        // The outer panel border is drawn one pixel outside the frame.
+        mCanvas.drawRect(panel.left - 1, panel.top - 1, panel.right + 1, panel.bottom + 1, mClearPaint);
+    }
+
+    /**
+     * Gets the photo strip bitmap. The bitmap is complete only after every slot has been drawn.
+     *
+     * @return the photo strip bitmap; or null if the surface has been recycled.
+     */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * Recycles the photo strip bitmap. The surface must not be used afterwards.
+     */
+    public void recycle() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
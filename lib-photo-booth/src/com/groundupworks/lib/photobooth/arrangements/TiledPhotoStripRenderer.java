@@ -0,0 +1,303 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.arrangements;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Renders a photo strip laid out by a {@link BaseArrangement} at a resolution larger than what fits in a single bitmap.
+ * The photo strip is drawn one tile at a time and streamed to a {@link JpegEncoder} band by band, so no bitmap exceeds
+ * {@link ImageHelper#GL_TEXTURE_SIZE_LIMIT}, and frames are only held in memory while the band being rendered
+ * intersects them.
+ *
+ * @author Benedict Lau
+ */
+public class TiledPhotoStripRenderer {
+
+    /**
+     * The height of a band of rows rendered at once. Must be a multiple of 8 to match Jpeg blocks.
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * The max width of a tile.
+     */
+    private static final int TILE_WIDTH = ImageHelper.GL_TEXTURE_SIZE_LIMIT;
+
+    /**
+     * The fraction of the max heap that frames held at once may use.
+     */
+    private static final int FRAME_HEAP_FRACTION = 4;
+
+    /**
+     * The number of bytes per pixel of a frame bitmap.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * The arrangement that lays out the photo strip.
+     */
+    private final BaseArrangement mArrangement;
+
+    /**
+     * Constructor.
+     *
+     * @param arrangement the arrangement that lays out the photo strip.
+     */
+    public TiledPhotoStripRenderer(BaseArrangement arrangement) {
+        mArrangement = arrangement;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Renders the photo strip and writes it as a Jpeg. The photo strip is laid out at {@link ImageHelper#IMAGE_SIZE}
+     * and scaled so each frame is rendered at the requested frame size. The frame size is reduced if the frames held
+     * at once would not fit the heap budget.
+     *
+     * @param numFrames    the number of frames in the photo strip.
+     * @param frameSize    the width and height to render each frame at.
+     * @param source       the {@link FrameSource} to create frames from.
+     * @param profile      the {@link EncodingProfile} for the Jpeg. The format is ignored.
+     * @param outputStream the output stream to write the Jpeg to.
+     * @return true if successful; false otherwise.
+     */
+    public boolean render(int numFrames, int frameSize, FrameSource source, EncodingProfile profile,
+                          OutputStream outputStream) {
+        boolean isSuccessful = false;
+
+        /*
+         * Lay out photo strip at base scale.
+         */
+        final int baseFrameSize = ImageHelper.IMAGE_SIZE;
+        int baseWidth = mArrangement.getPhotoStripWidth(numFrames, baseFrameSize);
+
+        // Get header bitmap if applied.
+        int baseHeaderHeight = 0;
+        Bitmap header = mArrangement.getHeader(baseWidth);
+        if (header != null) {
+            baseHeaderHeight = header.getHeight();
+        }
+        int baseHeight = mArrangement.getPhotoStripHeight(numFrames, baseFrameSize, baseHeaderHeight);
+
+        Rect[] basePanels = new Rect[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            basePanels[i] = mArrangement.getPanelRect(i, numFrames, baseFrameSize, baseFrameSize, baseHeaderHeight);
+            if (basePanels[i] == null) {
+                recycle(header);
+                return false;
+            }
+        }
+
+        /*
+         * Scale layout to print resolution.
+         */
+        frameSize = fitFrameSizeToHeap(basePanels, frameSize, baseFrameSize);
+        final float scale = (float) frameSize / baseFrameSize;
+        final int width = Math.round(baseWidth * scale);
+        final int height = Math.round(baseHeight * scale);
+
+        Rect[] panels = new Rect[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            panels[i] = scaleRect(basePanels[i], scale);
+        }
+
+        Rect headerRect = null;
+        if (header != null) {
+            int headerTop = mArrangement.getHeaderTop(numFrames, baseFrameSize, baseHeaderHeight);
+            headerRect = scaleRect(new Rect(0, headerTop, baseWidth, headerTop + baseHeaderHeight), scale);
+        }
+
+        /*
+         * Render and encode band by band.
+         */
+        int tileWidth = Math.min(width, TILE_WIDTH);
+        Bitmap tile = Bitmap.createBitmap(tileWidth, BAND_HEIGHT, ImageHelper.BITMAP_CONFIG);
+        if (tile != null) {
+            Canvas canvas = new Canvas(tile);
+            Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            int[] rows = new int[width * BAND_HEIGHT];
+            SparseArray<Bitmap> frames = new SparseArray<Bitmap>();
+            JpegEncoder encoder = new JpegEncoder(outputStream, width, height, profile.getQuality(),
+                    JpegEncoder.getDefaultThreadCount(), profile.getChromaSubsampling());
+
+            try {
+                isSuccessful = true;
+                for (int bandTop = 0; bandTop < height && isSuccessful; bandTop += BAND_HEIGHT) {
+                    int bandHeight = Math.min(BAND_HEIGHT, height - bandTop);
+                    int bandBottom = bandTop + bandHeight;
+
+                    // Create the frames that intersect this band.
+                    for (int i = 0; i < numFrames && isSuccessful; i++) {
+                        if (panels[i].top < bandBottom && panels[i].bottom > bandTop && frames.get(i) == null) {
+                            Bitmap frame = source.createFrame(i, frameSize);
+                            if (frame != null) {
+                                frames.put(i, frame);
+                            } else {
+                                isSuccessful = false;
+                            }
+                        }
+                    }
+                    if (!isSuccessful) {
+                        break;
+                    }
+
+                    // Draw each tile of the band and collect its pixels.
+                    for (int tileLeft = 0; tileLeft < width; tileLeft += tileWidth) {
+                        int tileRight = Math.min(tileLeft + tileWidth, width);
+
+                        canvas.save();
+                        canvas.translate(-tileLeft, -bandTop);
+                        canvas.drawColor(Color.WHITE);
+                        if (header != null && Rect.intersects(headerRect,
+                                new Rect(tileLeft, bandTop, tileRight, bandBottom))) {
+                            canvas.drawBitmap(header, null, headerRect, scalePaint);
+                        }
+                        for (int i = 0; i < numFrames; i++) {
+                            Bitmap frame = frames.get(i);
+                            if (frame != null && panels[i].left < tileRight && panels[i].right > tileLeft) {
+                                BaseArrangement.drawPanel(canvas, frame, panels[i], scalePaint);
+                            }
+                        }
+                        BaseArrangement.drawPhotoStripBorders(canvas, 0, 0, width - 1, height - 1);
+                        canvas.restore();
+
+                        tile.getPixels(rows, tileLeft, width, 0, 0, tileRight - tileLeft, bandHeight);
+                    }
+
+                    encoder.writeRows(rows, 0, width, bandHeight);
+
+                    // Recycle the frames that are fully rendered.
+                    for (int i = 0; i < numFrames; i++) {
+                        Bitmap frame = frames.get(i);
+                        if (frame != null && panels[i].bottom <= bandBottom) {
+                            frame.recycle();
+                            frames.remove(i);
+                        }
+                    }
+                }
+
+                if (isSuccessful) {
+                    encoder.finish();
+                }
+            } catch (IOException e) {
+                isSuccessful = false;
+            } finally {
+                for (int i = 0; i < frames.size(); i++) {
+                    frames.valueAt(i).recycle();
+                }
+                frames.clear();
+                tile.recycle();
+            }
+        }
+
+        recycle(header);
+
+        return isSuccessful;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Reduces the frame size if the frames held at once would exceed the heap budget. The most frames are held at once
+     * when a band intersects a whole row of panels.
+     *
+     * @param basePanels    the bounds of the panels at base scale.
+     * @param frameSize     the requested frame size.
+     * @param baseFrameSize the frame size at base scale.
+     * @return the frame size that fits the heap budget, at least the base frame size.
+     */
+    private static int fitFrameSizeToHeap(Rect[] basePanels, int frameSize, int baseFrameSize) {
+        // Count the max number of panels that share a row.
+        int maxFramesHeld = 1;
+        for (Rect panel : basePanels) {
+            int framesHeld = 0;
+            for (Rect other : basePanels) {
+                if (other.top < panel.bottom && other.bottom > panel.top) {
+                    framesHeld++;
+                }
+            }
+            maxFramesHeld = Math.max(maxFramesHeld, framesHeld);
+        }
+
+        long budget = Runtime.getRuntime().maxMemory() / FRAME_HEAP_FRACTION;
+        long bytesPerFrame = (long) frameSize * frameSize * BYTES_PER_PIXEL;
+        if (bytesPerFrame * maxFramesHeld > budget) {
+            frameSize = (int) Math.sqrt(budget / maxFramesHeld / BYTES_PER_PIXEL);
+        }
+
+        return Math.max(baseFrameSize, Math.min(frameSize, ImageHelper.GL_TEXTURE_SIZE_LIMIT));
+    }
+
+    /**
+     * Scales a rectangle about the origin.
+     *
+     * @param rect  the rectangle.
+     * @param scale the scale factor.
+     * @return the scaled rectangle.
+     */
+    private static Rect scaleRect(Rect rect, float scale) {
+        return new Rect(Math.round(rect.left * scale), Math.round(rect.top * scale), Math.round(rect.right * scale),
+                Math.round(rect.bottom * scale));
+    }
+
+    /**
+     * Recycles a bitmap if it is not null.
+     *
+     * @param bitmap the bitmap; or null.
+     */
+    private static void recycle(Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
+    //
+    // Public interfaces.
+    //
+
+    /**
+     * Source of the frames in a photo strip.
+     */
+    public interface FrameSource {
+
+        /**
+         * Creates a frame. The renderer recycles the frame once it has been drawn.
+         *
+         * @param index     the index of the frame.
+         * @param frameSize the width and height of the frame.
+         * @return the frame; or null if unsuccessful.
+         */
+        public Bitmap createFrame(int index, int frameSize);
+    }
+}
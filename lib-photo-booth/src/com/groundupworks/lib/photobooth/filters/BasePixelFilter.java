@@ -0,0 +1,55 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.filters;
+
+import android.graphics.Bitmap;
+
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper.ImageFilter;
+import com.groundupworks.lib.photobooth.pixels.PixelFilter;
+
+/**
+ * Base class for filters that adapt a plain-Java {@link PixelFilter} to bitmaps, so frames filtered on the device
+ * match frames filtered by the headless renderer.
+ *
+ * @author Benedict Lau
+ */
+public abstract class BasePixelFilter implements ImageFilter {
+
+    @Override
+    public Bitmap applyFilter(Bitmap srcBitmap) {
+        final int width = srcBitmap.getWidth();
+        final int height = srcBitmap.getHeight();
+        int[] pixels = new int[width * height];
+        srcBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        getPixelFilter().apply(pixels, 0, pixels.length);
+
+        return Bitmap.createBitmap(pixels, 0, width, width, height, ImageHelper.BITMAP_CONFIG);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the plain-Java filter applied by this filter.
+     *
+     * @return the {@link PixelFilter}.
+     */
+    public abstract PixelFilter getPixelFilter();
+}
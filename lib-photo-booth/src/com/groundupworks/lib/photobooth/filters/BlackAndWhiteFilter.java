@@ -16,31 +16,17 @@
  */
 package com.groundupworks.lib.photobooth.filters;
 
-import android.graphics.Bitmap;
-
-import com.groundupworks.lib.photobooth.helpers.ImageHelper.ImageFilter;
-import com.jabistudio.androidjhlabs.filter.GrayscaleFilter;
-import com.jabistudio.androidjhlabs.filter.util.AndroidUtils;
+import com.groundupworks.lib.photobooth.pixels.PixelFilter;
 
 /**
  * Filter to covert image to black and white.
  *
  * @author Benedict Lau
  */
-public class BlackAndWhiteFilter implements ImageFilter {
+public class BlackAndWhiteFilter extends BasePixelFilter {
 
     @Override
-    public Bitmap applyFilter(Bitmap srcBitmap) {
-        final int width = srcBitmap.getWidth();
-        final int height = srcBitmap.getHeight();
-        int[] colors = AndroidUtils.bitmapToIntArray(srcBitmap);
-
-        /*
-         * Apply image filters.
-         */
-        GrayscaleFilter grayscaleFilter = new GrayscaleFilter();
-        colors = grayscaleFilter.filter(colors, width, height);
-
-        return Bitmap.createBitmap(colors, 0, width, width, height, Bitmap.Config.ARGB_8888);
+    public PixelFilter getPixelFilter() {
+        return PixelFilter.BLACK_AND_WHITE;
     }
 }
@@ -66,6 +66,14 @@ public abstract class BaseController {
      */
     protected abstract void handleEvent(Message msg);
 
+    /**
+     * Releases resources held by the controller on the worker thread, after the events queued before the
+     * {@link Fragment} was detached. Override to recycle bitmaps and the like; the controller is not used again.
+     */
+    protected void dispose() {
+        // Do nothing by default.
+    }
+
     //
     // Package private methods.
     //
@@ -84,6 +92,12 @@ public abstract class BaseController {
      */
     void detachFragment() {
         mFragment = null;
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispose();
+            }
+        });
     }
 
     /**
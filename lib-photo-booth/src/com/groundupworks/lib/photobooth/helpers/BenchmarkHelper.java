@@ -0,0 +1,196 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.helpers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+
+import com.groundupworks.lib.photobooth.helpers.ImageHelper.JpegCodec;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A helper class to compare the speed and output size of image codecs on a device. Results are returned as a readable
+ * report and written to the debug logs.
+ *
+ * @author Benedict Lau
+ */
+public class BenchmarkHelper {
+
+    /**
+     * The number of untimed runs before measuring, so class loading and thread pool start-up are excluded.
+     */
+    private static final int WARM_UP_RUNS = 1;
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Encodes a bitmap with each {@link JpegCodec} and reports the average time and output size.
+     *
+     * @param bitmap     the bitmap to encode. Must not be null.
+     * @param quality    the Jpeg quality from 0 to 100.
+     * @param iterations the number of timed runs per codec.
+     * @return the report.
+     */
+    public static String benchmarkJpegCodecs(Bitmap bitmap, int quality, int iterations) {
+        StringBuilder report = new StringBuilder();
+        report.append("Jpeg encode ").append(bitmap.getWidth()).append("x").append(bitmap.getHeight())
+                .append(" q").append(quality).append('\n');
+
+        for (JpegCodec codec : JpegCodec.values()) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                outputStream.reset();
+                ImageHelper.writeJpeg(bitmap, quality, codec, outputStream);
+            }
+
+            long elapsed = 0L;
+            boolean isSuccessful = true;
+            for (int i = 0; i < iterations && isSuccessful; i++) {
+                outputStream.reset();
+                long start = SystemClock.elapsedRealtime();
+                isSuccessful = ImageHelper.writeJpeg(bitmap, quality, codec, outputStream);
+                elapsed += SystemClock.elapsedRealtime() - start;
+            }
+
+            appendResult(report, codec.name(), isSuccessful, elapsed, iterations, outputStream.size());
+        }
+
+        String result = report.toString();
+        LogsHelper.slog(BenchmarkHelper.class, "benchmarkJpegCodecs", result);
+        return result;
+    }
+
+    /**
+     * Encodes photo strips with each {@link EncodingProfile} and reports the average time and output size, so profiles
+     * can be chosen by measurement. Pass one strip rendered from each template to cover the template set.
+     *
+     * @param photoStrips the photo strips to encode. Must not be null.
+     * @param iterations  the number of timed runs per strip and profile.
+     * @return the report.
+     */
+    public static String benchmarkEncodingProfiles(Bitmap[] photoStrips, int iterations) {
+        StringBuilder report = new StringBuilder();
+        for (Bitmap photoStrip : photoStrips) {
+            report.append("Encoding profiles ").append(photoStrip.getWidth()).append("x")
+                    .append(photoStrip.getHeight()).append('\n');
+
+            for (EncodingProfile profile : EncodingProfile.values()) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                for (int i = 0; i < WARM_UP_RUNS; i++) {
+                    outputStream.reset();
+                    ImageHelper.writeImage(photoStrip, profile, outputStream);
+                }
+
+                long elapsed = 0L;
+                boolean isSuccessful = true;
+                for (int i = 0; i < iterations && isSuccessful; i++) {
+                    outputStream.reset();
+                    long start = SystemClock.elapsedRealtime();
+                    isSuccessful = ImageHelper.writeImage(photoStrip, profile, outputStream);
+                    elapsed += SystemClock.elapsedRealtime() - start;
+                }
+
+                appendResult(report, profile.getName(), isSuccessful, elapsed, iterations, outputStream.size());
+            }
+        }
+
+        String result = report.toString();
+        LogsHelper.slog(BenchmarkHelper.class, "benchmarkEncodingProfiles", result);
+        return result;
+    }
+
+    /**
+     * Creates an image from Jpeg data with each {@link JpegCodec}, and with a full-size platform decode for reference,
+     * and reports the average time of each.
+     *
+     * @param jpegData   the Jpeg data. Must not be null.
+     * @param imageSize  the width and height of the image.
+     * @param iterations the number of timed runs per decoder.
+     * @return the report.
+     */
+    public static String benchmarkJpegDecoders(byte[] jpegData, int imageSize, int iterations) {
+        StringBuilder report = new StringBuilder();
+        report.append("Jpeg decode to ").append(imageSize).append("x").append(imageSize).append('\n');
+
+        // Reference full-size decode.
+        long elapsed = 0L;
+        boolean isSuccessful = true;
+        for (int i = 0; i < WARM_UP_RUNS + iterations && isSuccessful; i++) {
+            long start = SystemClock.elapsedRealtime();
+            Bitmap bitmap = BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length);
+            if (i >= WARM_UP_RUNS) {
+                elapsed += SystemClock.elapsedRealtime() - start;
+            }
+            isSuccessful = bitmap != null;
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+        appendResult(report, "FULL", isSuccessful, elapsed, iterations, jpegData.length);
+
+        for (JpegCodec codec : JpegCodec.values()) {
+            elapsed = 0L;
+            isSuccessful = true;
+            for (int i = 0; i < WARM_UP_RUNS + iterations && isSuccessful; i++) {
+                long start = SystemClock.elapsedRealtime();
+                Bitmap bitmap = ImageHelper.createImage(jpegData, 0f, false, null, imageSize, codec);
+                if (i >= WARM_UP_RUNS) {
+                    elapsed += SystemClock.elapsedRealtime() - start;
+                }
+                isSuccessful = bitmap != null;
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+            appendResult(report, codec.name(), isSuccessful, elapsed, iterations, jpegData.length);
+        }
+
+        String result = report.toString();
+        LogsHelper.slog(BenchmarkHelper.class, "benchmarkJpegDecoders", result);
+        return result;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Appends one line of results to a report.
+     *
+     * @param report       the report.
+     * @param name         the name of the measured codec or profile.
+     * @param isSuccessful whether all runs succeeded.
+     * @param elapsed      the total time of all runs in milliseconds.
+     * @param iterations   the number of runs.
+     * @param size         the encoded size in bytes.
+     */
+    private static void appendResult(StringBuilder report, String name, boolean isSuccessful, long elapsed,
+                                     int iterations, int size) {
+        report.append(name).append(": ");
+        if (isSuccessful) {
+            report.append(elapsed / Math.max(1, iterations)).append(" ms, ").append(size).append(" bytes");
+        } else {
+            report.append("failed");
+        }
+        report.append('\n');
+    }
+}
@@ -29,7 +29,18 @@ import android.net.Uri;
 import android.util.DisplayMetrics;
 
 import com.groundupworks.lib.photobooth.R;
-
+import com.groundupworks.lib.photobooth.filters.BasePixelFilter;
+import com.groundupworks.lib.photobooth.jpeg.JpegDecoder;
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder.ChromaSubsampling;
+import com.groundupworks.lib.photobooth.jpeg.JpegTransformer;
+import com.groundupworks.lib.photobooth.pixels.PixelFilter;
+import com.groundupworks.lib.photobooth.pixels.PixelImage;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+import com.groundupworks.lib.photobooth.storage.AtomicFileWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,6 +63,11 @@ public class ImageHelper {
      */
     public static final int IMAGE_SIZE = 600;
 
+    /**
+     * The max width and height of an image rendered for print.
+     */
+    public static final int PRINT_IMAGE_SIZE = 1200;
+
     /**
      * Bitmap configuration.
      */
@@ -62,15 +78,35 @@ public class ImageHelper {
      */
     private static final String JPEG_EXTENSION = ".jpg";
 
+    /**
+     * The suffix appended to the file name of a print-resolution image.
+     */
+    private static final String PRINT_IMAGE_SUFFIX = "_print";
+
+    /**
+     * The folder, relative to the captured image directory, that stores renditions hidden from the Android Gallery.
+     */
+    private static final String RENDITION_FOLDER = ".renditions";
+
+    /**
+     * The file that hides a folder from the Android media scanner.
+     */
+    private static final String NO_MEDIA_FILE = ".nomedia";
+
     /**
      * OpenGL texture size limit. This sets a limit on the maximum bitmap size that can be used in a {@link Canvas}.
      */
-    private static final int GL_TEXTURE_SIZE_LIMIT = 2048;
+    public static final int GL_TEXTURE_SIZE_LIMIT = 2048;
 
     /**
      * The default Jpeg quality.
      */
-    private static final int JPEG_COMPRESSION = 100;
+    public static final int JPEG_COMPRESSION = 100;
+
+    /**
+     * The number of rows fed to the pure-Java Jpeg encoder at a time.
+     */
+    private static final int PURE_JAVA_BAND_HEIGHT = 64;
 
     /**
      * Error code to indicate an error in the bitmap decoding process.
@@ -259,7 +295,80 @@ public class ImageHelper {
      * @return the automatically generated file name.
      */
     public static String generateCapturedImageName(String filenamePrefix) {
-        return filenamePrefix + Long.toString(System.currentTimeMillis()) + JPEG_EXTENSION;
+        return generateCapturedImageName(filenamePrefix, System.currentTimeMillis());
+    }
+
+    /**
+     * Generates a file name for a Jpeg captured at a given time.
+     *
+     * @param filenamePrefix the prefix for the saved Jpeg filename.
+     * @param timestamp      the capture time in milliseconds.
+     * @return the generated file name.
+     */
+    public static String generateCapturedImageName(String filenamePrefix, long timestamp) {
+        return filenamePrefix + Long.toString(timestamp) + JPEG_EXTENSION;
+    }
+
+    /**
+     * Generates a file name for the print-resolution rendition of a captured Jpeg.
+     *
+     * @param imageName the file name of the captured Jpeg.
+     * @return the file name for the print-resolution Jpeg.
+     */
+    public static String generatePrintImageName(String imageName) {
+        return generateRenditionImageName(imageName, PRINT_IMAGE_SUFFIX);
+    }
+
+    /**
+     * Generates a file name for a rendition of a captured Jpeg.
+     *
+     * @param imageName the file name of the captured Jpeg.
+     * @param suffix    the suffix identifying the rendition.
+     * @return the file name for the rendition Jpeg.
+     */
+    public static String generateRenditionImageName(String imageName, String suffix) {
+        String baseName = imageName;
+        if (imageName.endsWith(JPEG_EXTENSION)) {
+            baseName = imageName.substring(0, imageName.length() - JPEG_EXTENSION.length());
+        }
+        return baseName + suffix + JPEG_EXTENSION;
+    }
+
+    /**
+     * Gets the path to the writable directory storing renditions of captured images. The directory is hidden from the
+     * Android Gallery.
+     *
+     * @param imageFolder the image folder name.
+     * @return the path to the rendition directory; or null if unsuccessful.
+     */
+    public static String getRenditionDirectory(String imageFolder) {
+        String renditionDirectory = null;
+        if (getCapturedImageDirectory(imageFolder) != null) {
+            renditionDirectory = StorageHelper.getDirectory("/" + imageFolder + "/" + RENDITION_FOLDER);
+            if (renditionDirectory != null) {
+                File noMediaFile = new File(renditionDirectory, NO_MEDIA_FILE);
+                try {
+                    if (!noMediaFile.exists() && !noMediaFile.createNewFile()) {
+                        renditionDirectory = null;
+                    }
+                } catch (IOException e) {
+                    renditionDirectory = null;
+                }
+            }
+        }
+
+        return renditionDirectory;
+    }
+
+    /**
+     * Removes temp files left in the captured image and rendition directories by writes interrupted by a crash. Call
+     * on startup from a background thread.
+     *
+     * @param imageFolder the image folder name.
+     */
+    public static void recoverImageDirectories(String imageFolder) {
+        AtomicFileWriter.recover(getCapturedImageDirectory(imageFolder));
+        AtomicFileWriter.recover(getRenditionDirectory(imageFolder));
     }
 
     /**
@@ -270,9 +379,64 @@ public class ImageHelper {
      * @return true if successful; false otherwise.
      */
     public static boolean writeJpeg(Bitmap bitmap, OutputStream outputStream) {
+        return writeJpeg(bitmap, JPEG_COMPRESSION, outputStream);
+    }
+
+    /**
+     * Compresses a bitmap to Jpeg at a given quality and writes the Jpeg data to an output stream.
+     *
+     * @param bitmap       the bitmap to compress.
+     * @param quality      the Jpeg quality from 0 to 100.
+     * @param outputStream the outputstream to write the compressed data.
+     * @return true if successful; false otherwise.
+     */
+    public static boolean writeJpeg(Bitmap bitmap, int quality, OutputStream outputStream) {
+        return writeJpeg(bitmap, quality, JpegCodec.PLATFORM, outputStream);
+    }
+
+    /**
+     * Compresses a bitmap to Jpeg at a given quality with a selected encoder and writes the Jpeg data to an output
+     * stream.
+     *
+     * @param bitmap       the bitmap to compress.
+     * @param quality      the Jpeg quality from 0 to 100.
+     * @param codec        the {@link JpegCodec} to encode with.
+     * @param outputStream the outputstream to write the compressed data.
+     * @return true if successful; false otherwise.
+     */
+    public static boolean writeJpeg(Bitmap bitmap, int quality, JpegCodec codec, OutputStream outputStream) {
         boolean isSuccessful = false;
         if (bitmap != null) {
-            isSuccessful = bitmap.compress(CompressFormat.JPEG, JPEG_COMPRESSION, outputStream);
+            if (JpegCodec.PURE_JAVA.equals(codec)) {
+                isSuccessful = writeJpegPureJava(bitmap, quality, ChromaSubsampling.YUV_444, outputStream);
+            } else {
+                isSuccessful = bitmap.compress(CompressFormat.JPEG, quality, outputStream);
+            }
+        }
+
+        return isSuccessful;
+    }
+
+    /**
+     * Compresses a bitmap with an encoding profile and writes the data to an output stream. Jpegs with 4:2:0 chroma use
+     * the platform encoder, which always subsamples that way; other chroma subsampling uses the pure-Java encoder.
+     *
+     * @param bitmap       the bitmap to compress.
+     * @param profile      the {@link EncodingProfile}.
+     * @param outputStream the outputstream to write the compressed data.
+     * @return true if successful; false otherwise.
+     */
+    public static boolean writeImage(Bitmap bitmap, EncodingProfile profile, OutputStream outputStream) {
+        boolean isSuccessful = false;
+        if (bitmap != null) {
+            if (EncodingProfile.Format.PNG.equals(profile.getFormat())) {
+                isSuccessful = writePng(bitmap, outputStream);
+            } else if (ChromaSubsampling.YUV_420.equals(profile.getChromaSubsampling())) {
+                isSuccessful = bitmap.compress(CompressFormat.JPEG, profile.getQuality(), outputStream);
+            } else {
+                isSuccessful = writeJpegPureJava(bitmap, profile.getQuality(), profile.getChromaSubsampling(),
+                        outputStream);
+            }
         }
 
         return isSuccessful;
@@ -294,6 +458,36 @@ public class ImageHelper {
         return isSuccessful;
     }
 
+    /**
+     * Gets the length of the short edge of an image from its Jpeg data, without decoding the pixels.
+     *
+     * @param jpegData byte array of Jpeg data.
+     * @return the length of the short edge in pixels; or -1 if the Jpeg data cannot be read.
+     */
+    public static int getImageShortEdge(byte[] jpegData) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length, options);
+        return Math.min(options.outWidth, options.outHeight);
+    }
+
+    /**
+     * Gets the size to render images at for print. The size is limited by the resolution of the source images, so
+     * frames are never upscaled beyond what the camera captured.
+     *
+     * @param shortEdges the length of the short edge of each source image, from {@link #getImageShortEdge(byte[])}.
+     * @return the width and height of an image rendered for print; or {@link #IMAGE_SIZE} if the source images are
+     * too small or cannot be read.
+     */
+    public static int getPrintImageSize(int[] shortEdges) {
+        int printImageSize = PRINT_IMAGE_SIZE;
+        for (int shortEdge : shortEdges) {
+            printImageSize = Math.min(printImageSize, shortEdge);
+        }
+
+        return Math.max(printImageSize, IMAGE_SIZE);
+    }
+
     /**
      * Creates a processed bitmap image from Jpeg data in a byte array. Transformations and image filters are applied to
      * the original image in the process.
@@ -305,19 +499,71 @@ public class ImageHelper {
      * @return the image; or null if unsuccessful.
      */
     public static Bitmap createImage(byte[] jpegData, float rotation, boolean reflection, ImageFilter filter) {
+        return createImage(jpegData, rotation, reflection, filter, IMAGE_SIZE);
+    }
+
+    /**
+     * Creates a processed bitmap image of a given size from Jpeg data in a byte array. Transformations and image
+     * filters are applied to the original image in the process.
+     *
+     * @param jpegData   byte array of Jpeg data.
+     * @param rotation   clockwise rotation applied to image in degrees.
+     * @param reflection horizontal reflection applied to image.
+     * @param filter     an optional {@link ImageFilter} to apply. Pass null to disable.
+     * @param imageSize  the width and height of the image.
+     * @return the image; or null if unsuccessful.
+     */
+    public static Bitmap createImage(byte[] jpegData, float rotation, boolean reflection, ImageFilter filter,
+                                     int imageSize) {
+        return createImage(jpegData, rotation, reflection, filter, imageSize, JpegCodec.PLATFORM);
+    }
+
+    /**
+     * Creates a processed bitmap image of a given size from Jpeg data in a byte array, decoding with a selected
+     * decoder. Transformations and image filters are applied to the original image in the process. With the pure-Java
+     * decoder and a rotation that is a multiple of 90 degrees, the image is created by {@link PixelImage}, the same
+     * way as by the headless renderer.
+     *
+     * @param jpegData   byte array of Jpeg data.
+     * @param rotation   clockwise rotation applied to image in degrees.
+     * @param reflection horizontal reflection applied to image.
+     * @param filter     an optional {@link ImageFilter} to apply. Pass null to disable.
+     * @param imageSize  the width and height of the image.
+     * @param codec      the {@link JpegCodec} to decode with.
+     * @return the image; or null if unsuccessful.
+     */
+    public static Bitmap createImage(byte[] jpegData, float rotation, boolean reflection, ImageFilter filter,
+                                     int imageSize, JpegCodec codec) {
         Bitmap returnBitmap = null;
 
+        final boolean isPureJava = JpegCodec.PURE_JAVA.equals(codec);
+        final boolean isQuarterTurn = JpegTransformer.isLosslessRotation(rotation);
+        if (jpegData != null && isPureJava && isQuarterTurn) {
+            returnBitmap = createImagePureJava(jpegData, rotation, reflection, filter, imageSize);
+            if (returnBitmap != null) {
+                return returnBitmap;
+            }
+        }
+
         if (jpegData != null) {
-            // Decode Jpeg to create source Bitmap.
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            Bitmap decodedBitmap = BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length, options);
+            // Decode Jpeg to create source Bitmap, at the smallest scale that still covers the image size.
+            Bitmap decodedBitmap = null;
+            if (isPureJava && !isQuarterTurn) {
+                decodedBitmap = decodeJpegPureJava(jpegData, imageSize);
+            }
+            if (decodedBitmap == null) {
+                decodedBitmap = decodeJpegPlatform(jpegData, imageSize);
+            }
+
+            if (decodedBitmap != null) {
+                final int decodedWidth = decodedBitmap.getWidth();
+                final int decodedHeight = decodedBitmap.getHeight();
 
-            if (decodedBitmap != null && options.outWidth != DECODE_ERROR && options.outHeight != DECODE_ERROR) {
                 /*
                  * Scale bitmap.
                  */
                 // Determine scale factor.
-                float scaleFactor = (float) IMAGE_SIZE / Math.min(options.outWidth, options.outHeight);
+                float scaleFactor = (float) imageSize / Math.min(decodedWidth, decodedHeight);
 
                 // Create matrix to scale and reflect bitmap.
                 float scaleFactorX = scaleFactor;
@@ -331,7 +577,7 @@ public class ImageHelper {
                 scaleMatrix.setScale(scaleFactorX, scaleFactorY);
 
                 // Create new scaled bitmap.
-                Bitmap scaledBitmap = Bitmap.createBitmap(decodedBitmap, 0, 0, options.outWidth, options.outHeight,
+                Bitmap scaledBitmap = Bitmap.createBitmap(decodedBitmap, 0, 0, decodedWidth, decodedHeight,
                         scaleMatrix, true);
 
                 // Recycle old decoded bitmap if it is not the same object referenced by scaledBitmap.
@@ -344,21 +590,21 @@ public class ImageHelper {
                     int scaledBitmapWidth = scaledBitmap.getWidth();
                     int scaledBitmapHeight = scaledBitmap.getHeight();
 
-                    if (scaledBitmapWidth >= IMAGE_SIZE && scaledBitmapHeight >= IMAGE_SIZE) {
+                    if (scaledBitmapWidth >= imageSize && scaledBitmapHeight >= imageSize) {
                         /*
                          * Crop and rotate bitmap.
                          */
                         // Determine crop region.
-                        int cropStartX = (scaledBitmapWidth - IMAGE_SIZE) / 2;
-                        int cropStartY = (scaledBitmapHeight - IMAGE_SIZE) / 2;
+                        int cropStartX = (scaledBitmapWidth - imageSize) / 2;
+                        int cropStartY = (scaledBitmapHeight - imageSize) / 2;
 
                         // Create matrix to rotate Bitmap.
                         Matrix rotationMatrix = new Matrix();
                         rotationMatrix.setRotate(rotation);
 
                         // Create new rotated and cropped bitmap.
-                        Bitmap croppedBitmap = Bitmap.createBitmap(scaledBitmap, cropStartX, cropStartY, IMAGE_SIZE,
-                                IMAGE_SIZE, rotationMatrix, true);
+                        Bitmap croppedBitmap = Bitmap.createBitmap(scaledBitmap, cropStartX, cropStartY, imageSize,
+                                imageSize, rotationMatrix, true);
 
                         if (croppedBitmap != null) {
                             if (filter != null) {
@@ -387,6 +633,32 @@ public class ImageHelper {
         return returnBitmap;
     }
 
+    /**
+     * Losslessly center-crops Jpeg data to a square, then applies the reflection and rotation used when creating an
+     * image from it, with the {@link JpegTransformer}. Nothing is decoded or encoded again, and the result can be
+     * decoded without transformations.
+     *
+     * @param jpegData   byte array of Jpeg data.
+     * @param rotation   clockwise rotation applied to image in degrees.
+     * @param reflection horizontal reflection applied to image.
+     * @return the transformed Jpeg data; or null if the rotation is not a multiple of 90 degrees or the Jpeg is not
+     * supported.
+     */
+    public static byte[] createOrientedJpeg(byte[] jpegData, float rotation, boolean reflection) {
+        if (jpegData == null || !JpegTransformer.isLosslessRotation(rotation)) {
+            return null;
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(jpegData.length);
+        try {
+            JpegTransformer.transform(jpegData, rotation, reflection, outputStream);
+        } catch (IOException e) {
+            LogsHelper.slog(ImageHelper.class, "createOrientedJpeg", "Lossless transform failed: " + e.getMessage());
+            return null;
+        }
+        return outputStream.toByteArray();
+    }
+
     /**
      * Creates a photo strip consisting of an array of bitmaps. The bitmaps must be identical in size.
      *
@@ -403,6 +675,174 @@ public class ImageHelper {
         return returnBitmap;
     }
 
+    //
+    // Private methods.
+    //
+
+    /**
+     * Decodes Jpeg data with the platform decoder, subsampling by the largest power of 2 that keeps the short edge at
+     * least as large as a given size.
+     *
+     * @param jpegData  byte array of Jpeg data.
+     * @param imageSize the min length of the short edge.
+     * @return the decoded bitmap; or null if unsuccessful.
+     */
+    private static Bitmap decodeJpegPlatform(byte[] jpegData, int imageSize) {
+        // Get the source bitmap size.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length, options);
+        if (options.outWidth == DECODE_ERROR || options.outHeight == DECODE_ERROR) {
+            return null;
+        }
+
+        // Calculate the largest subsampling factor that is a power of 2 and keeps the short edge at least as large as
+        // the image size.
+        int inSampleSize = 1;
+        final int shortEdge = Math.min(options.outWidth, options.outHeight);
+        while (shortEdge / (inSampleSize * 2) >= imageSize) {
+            inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        return BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length, options);
+    }
+
+    /**
+     * Decodes Jpeg data with the pure-Java {@link JpegDecoder}, scaling down in the Dct domain by the largest factor
+     * that keeps the short edge at least as large as a given size. Rows are copied into the bitmap one row of blocks
+     * at a time.
+     *
+     * @param jpegData  byte array of Jpeg data.
+     * @param imageSize the min length of the short edge.
+     * @return the decoded bitmap; or null if the Jpeg is not supported by the decoder.
+     */
+    private static Bitmap decodeJpegPureJava(byte[] jpegData, int imageSize) {
+        Bitmap bitmap = null;
+        try {
+            JpegDecoder decoder = new JpegDecoder(jpegData);
+            decoder.setScale(JpegDecoder.getScaleForSize(decoder.getWidth(), decoder.getHeight(), imageSize));
+
+            final int width = decoder.getOutputWidth();
+            final int height = decoder.getOutputHeight();
+            bitmap = Bitmap.createBitmap(width, height, BITMAP_CONFIG);
+
+            int[] pixels = new int[width * decoder.getMaxRowsPerRead()];
+            int y = 0;
+            int rows;
+            while ((rows = decoder.readRows(pixels, 0, width)) > 0) {
+                bitmap.setPixels(pixels, 0, width, 0, y, width, rows);
+                y += rows;
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(ImageHelper.class, "decodeJpegPureJava", "Failed to decode: " + e.getMessage());
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Creates a processed bitmap image with the plain-Java {@link PixelImage}. Filters backed by a {@link PixelFilter}
+     * are applied in plain Java; other filters are applied to the bitmap.
+     *
+     * @param jpegData   byte array of Jpeg data.
+     * @param rotation   clockwise rotation applied to image in degrees. Must be a multiple of 90 degrees.
+     * @param reflection horizontal reflection applied to image.
+     * @param filter     an optional {@link ImageFilter} to apply. Pass null to disable.
+     * @param imageSize  the width and height of the image.
+     * @return the image; or null if the Jpeg is not supported by the decoder.
+     */
+    private static Bitmap createImagePureJava(byte[] jpegData, float rotation, boolean reflection, ImageFilter filter,
+                                              int imageSize) {
+        PixelFilter pixelFilter = null;
+        if (filter instanceof BasePixelFilter) {
+            pixelFilter = ((BasePixelFilter) filter).getPixelFilter();
+            filter = null;
+        }
+
+        PixelImage frame;
+        try {
+            frame = PixelImage.createFrame(jpegData, rotation, reflection, pixelFilter, imageSize);
+        } catch (IOException e) {
+            LogsHelper.slog(ImageHelper.class, "createImagePureJava", "Failed to decode: " + e.getMessage());
+            return null;
+        }
+
+        Bitmap returnBitmap = Bitmap.createBitmap(frame.getPixels(), 0, imageSize, imageSize, imageSize, BITMAP_CONFIG);
+        if (returnBitmap != null && filter != null) {
+            Bitmap filteredBitmap = filter.applyFilter(returnBitmap);
+            if (filteredBitmap != returnBitmap) {
+                returnBitmap.recycle();
+            }
+            returnBitmap = filteredBitmap;
+        }
+
+        return returnBitmap;
+    }
+
+    /**
+     * Compresses a bitmap with the pure-Java {@link JpegEncoder}, feeding it a band of rows at a time and encoding
+     * restart intervals in parallel.
+     *
+     * @param bitmap            the bitmap to compress. Must not be null.
+     * @param quality           the Jpeg quality from 0 to 100.
+     * @param chromaSubsampling the {@link ChromaSubsampling}.
+     * @param outputStream      the outputstream to write the compressed data.
+     * @return true if successful; false otherwise.
+     */
+    private static boolean writeJpegPureJava(Bitmap bitmap, int quality, ChromaSubsampling chromaSubsampling,
+                                             OutputStream outputStream) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int bandHeight = Math.min(height, PURE_JAVA_BAND_HEIGHT);
+
+        boolean isSuccessful = false;
+        try {
+            JpegEncoder encoder = new JpegEncoder(outputStream, width, height, quality,
+                    JpegEncoder.getDefaultThreadCount(), chromaSubsampling);
+            int[] pixels = new int[width * bandHeight];
+            for (int y = 0; y < height; y += bandHeight) {
+                int rows = Math.min(bandHeight, height - y);
+                bitmap.getPixels(pixels, 0, width, 0, y, width, rows);
+                encoder.writeRows(pixels, 0, width, rows);
+            }
+            encoder.finish();
+            isSuccessful = true;
+        } catch (IOException e) {
+            LogsHelper.slog(ImageHelper.class, "writeJpegPureJava", "Failed to encode: " + e.getMessage());
+        }
+
+        return isSuccessful;
+    }
+
+    //
+    // Public enums.
+    //
+
+    /**
+     * The Jpeg codecs available to {@link #writeJpeg(Bitmap, int, JpegCodec, OutputStream)} and
+     * {@link #createImage(byte[], float, boolean, ImageFilter, int, JpegCodec)}.
+     */
+    public enum JpegCodec {
+
+        /**
+         * The platform codec behind {@link Bitmap#compress(CompressFormat, int, OutputStream)} and
+         * {@link BitmapFactory}.
+         */
+        PLATFORM,
+
+        /**
+         * The pure-Java {@link JpegEncoder}, encoding restart intervals in parallel, and {@link JpegDecoder}, decoding
+         * at a reduced scale. Decoding falls back to the platform for Jpegs it does not support.
+         */
+        PURE_JAVA
+    }
+
     //
     // Public interfaces.
     //
@@ -23,6 +23,8 @@ import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A helper class containing methods to read and write to external storage.
@@ -41,6 +43,11 @@ public class StorageHelper {
      */
     private static final String DEFAULT_HASH_ALGORITHM = "SHA-1";
 
+    /**
+     * The directories already resolved by {@link #getDirectory(String)}, by folder.
+     */
+    private static final Map<String, String> sDirectories = new ConcurrentHashMap<String, String>();
+
     //
     // Public methods.
     //
@@ -89,12 +96,43 @@ public class StorageHelper {
 
     /**
      * Gets the full path to the writable directory in external storage. The directory will be created if it does not
+     * exist. Resolved directories are cached until {@link #clearDirectoryCache()} is called, so only the first call
+     * for a folder touches storage.
+     *
+     * @param folder the directory relative to external storage root.
+     * @return the full path to the directory; or null if unsuccessful.
+     */
+    public static String getDirectory(String folder) {
+        String directoryPath = sDirectories.get(folder);
+        if (directoryPath == null) {
+            directoryPath = resolveDirectory(folder);
+            if (directoryPath != null) {
+                sDirectories.put(folder, directoryPath);
+            }
+        }
+        return directoryPath;
+    }
+
+    /**
+     * Clears the directories cached by {@link #getDirectory(String)}. Call when external storage is mounted or
+     * unmounted.
+     */
+    public static void clearDirectoryCache() {
+        sDirectories.clear();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Resolves the full path to the writable directory in external storage, creating the directory if it does not
      * exist.
      *
      * @param folder the directory relative to external storage root.
      * @return the full path to the directory; or null if unsuccessful.
      */
-    public synchronized static String getDirectory(String folder) {
+    private synchronized static String resolveDirectory(String folder) {
         String directoryPath = null;
 
         // Check if we currently have read and write access to the external storage.
@@ -0,0 +1,137 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.renditions;
+
+/**
+ * Describes one rendition of an image: the box it is fitted into, the {@link EncodingProfile} it is encoded with, and
+ * the suffix identifying its file.
+ *
+ * @author Benedict Lau
+ */
+public class Rendition {
+
+    /**
+     * Size indicating that the rendition keeps the size of the source image.
+     */
+    public static final int SIZE_ORIGINAL = 0;
+
+    /**
+     * The full-size rendition archived to the Android Gallery, encoded with {@link EncodingProfile#ARCHIVE}.
+     */
+    public static final Rendition FULL = new Rendition("", SIZE_ORIGINAL, SIZE_ORIGINAL, EncodingProfile.ARCHIVE);
+
+    /**
+     * The rendition uploaded to social and storage services.
+     */
+    public static final Rendition WEB = new Rendition("_web", 2048, 2048, EncodingProfile.SHARE);
+
+    /**
+     * The rendition used as a gallery icon.
+     */
+    public static final Rendition GALLERY_ICON = new Rendition("_icon", 128, 128, EncodingProfile.SHARE);
+
+    /**
+     * The suffix for thumbnail renditions.
+     */
+    private static final String THUMB_SUFFIX = "_thumb";
+
+    /**
+     * The suffix appended to the file name of the rendition.
+     */
+    private final String mSuffix;
+
+    /**
+     * The max width of the rendition; or {@link #SIZE_ORIGINAL}.
+     */
+    private final int mMaxWidth;
+
+    /**
+     * The max height of the rendition; or {@link #SIZE_ORIGINAL}.
+     */
+    private final int mMaxHeight;
+
+    /**
+     * The encoding profile.
+     */
+    private final EncodingProfile mEncodingProfile;
+
+    /**
+     * Constructor.
+     *
+     * @param suffix    the suffix appended to the file name of the rendition.
+     * @param maxWidth  the max width of the rendition; or {@link #SIZE_ORIGINAL}.
+     * @param maxHeight the max height of the rendition; or {@link #SIZE_ORIGINAL}.
+     * @param profile   the {@link EncodingProfile}.
+     */
+    public Rendition(String suffix, int maxWidth, int maxHeight, EncodingProfile profile) {
+        mSuffix = suffix;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mEncodingProfile = profile;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Creates a thumbnail rendition that fits in the ui.
+     *
+     * @param maxWidth  the max width of the thumbnail.
+     * @param maxHeight the max height of the thumbnail.
+     * @return the {@link Rendition}.
+     */
+    public static Rendition createThumb(int maxWidth, int maxHeight) {
+        return new Rendition(THUMB_SUFFIX, maxWidth, maxHeight, EncodingProfile.SHARE);
+    }
+
+    /**
+     * Gets the suffix appended to the file name of the rendition.
+     *
+     * @return the suffix.
+     */
+    public String getSuffix() {
+        return mSuffix;
+    }
+
+    /**
+     * Gets the max width of the rendition.
+     *
+     * @return the max width; or {@link #SIZE_ORIGINAL}.
+     */
+    public int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    /**
+     * Gets the max height of the rendition.
+     *
+     * @return the max height; or {@link #SIZE_ORIGINAL}.
+     */
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    /**
+     * Gets the encoding profile of the rendition.
+     *
+     * @return the {@link EncodingProfile}.
+     */
+    public EncodingProfile getEncodingProfile() {
+        return mEncodingProfile;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.renditions;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.storage.AtomicFileWriter;
+import com.groundupworks.lib.photobooth.storage.EncodedImageCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Generates a pyramid of {@link Rendition}s from a source image in one cascaded pass. The renditions are produced from
+ * largest to smallest, each by repeatedly halving the previous level with a box filter and finishing with one exact
+ * resample, so no rendition is ever scaled down from the full-size source by more than a factor of two in one step.
+ *
+ * @author Benedict Lau
+ */
+public class RenditionGenerator {
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Generates the renditions of a source image.
+     *
+     * @param source     the source image.
+     * @param renditions the renditions to generate.
+     * @return the rendition bitmaps in the same order as the requested renditions; or null if unsuccessful. A
+     * rendition the size of the source image is the source bitmap itself, so the source bitmap must not be recycled
+     * separately from the renditions.
+     */
+    public static Bitmap[] generate(Bitmap source, Rendition[] renditions) {
+        final int numRenditions = renditions.length;
+        final Point[] sizes = new Point[numRenditions];
+        for (int i = 0; i < numRenditions; i++) {
+            sizes[i] = getRenditionSize(source, renditions[i]);
+        }
+
+        // Order renditions from largest to smallest so each level cascades from the previous one.
+        Integer[] order = new Integer[numRenditions];
+        for (int i = 0; i < numRenditions; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long lhsArea = (long) sizes[lhs].x * sizes[lhs].y;
+                long rhsArea = (long) sizes[rhs].x * sizes[rhs].y;
+                return lhsArea > rhsArea ? -1 : (lhsArea == rhsArea ? 0 : 1);
+            }
+        });
+
+        Bitmap[] bitmaps = new Bitmap[numRenditions];
+        Bitmap level = source;
+        boolean isSuccessful = true;
+        for (int index : order) {
+            Point size = sizes[index];
+
+            // Halve the current level while it stays at least as large as the rendition.
+            while (level.getWidth() / 2 >= size.x && level.getHeight() / 2 >= size.y) {
+                Bitmap halved = halve(level);
+                if (halved == null) {
+                    isSuccessful = false;
+                    break;
+                }
+                if (!isReferenced(level, source, bitmaps)) {
+                    level.recycle();
+                }
+                level = halved;
+            }
+            if (!isSuccessful) {
+                break;
+            }
+
+            // Finish with an exact resample.
+            if (level.getWidth() == size.x && level.getHeight() == size.y) {
+                bitmaps[index] = level;
+            } else {
+                bitmaps[index] = Bitmap.createScaledBitmap(level, size.x, size.y, true);
+                if (bitmaps[index] == null) {
+                    isSuccessful = false;
+                    break;
+                }
+            }
+        }
+
+        if (!isReferenced(level, source, bitmaps)) {
+            level.recycle();
+        }
+
+        if (!isSuccessful) {
+            for (Bitmap bitmap : bitmaps) {
+                if (bitmap != null && bitmap != source) {
+                    bitmap.recycle();
+                }
+            }
+            bitmaps = null;
+        }
+
+        return bitmaps;
+    }
+
+    /**
+     * Encodes a rendition with its {@link EncodingProfile} into memory, for a rendition that is kept in the
+     * {@link EncodedImageCache} because it is read back.
+     *
+     * @param bitmap    the rendition bitmap.
+     * @param rendition the {@link Rendition}.
+     * @return the encoded rendition; or null if unsuccessful.
+     */
+    public static byte[] encode(Bitmap bitmap, Rendition rendition) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (!ImageHelper.writeImage(bitmap, rendition.getEncodingProfile(), outputStream)) {
+            return null;
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Encodes a rendition with its {@link EncodingProfile} straight into a temp file of the {@link AtomicFileWriter}
+     * and writes it to a file atomically. The encoded rendition is not cached.
+     *
+     * @param bitmap    the rendition bitmap.
+     * @param rendition the {@link Rendition}.
+     * @param file      the file to write to.
+     * @return true if successful; false otherwise.
+     */
+    public static boolean write(final Bitmap bitmap, final Rendition rendition, File file) {
+        return AtomicFileWriter.getInstance().write(new AtomicFileWriter.Encoder() {
+            @Override
+            public boolean encode(OutputStream outputStream) {
+                return ImageHelper.writeImage(bitmap, rendition.getEncodingProfile(), outputStream);
+            }
+        }, file);
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the size of a rendition by fitting the source image into the rendition box. Renditions are never larger
+     * than the source image.
+     *
+     * @param source    the source image.
+     * @param rendition the {@link Rendition}.
+     * @return a {@link Point} where the (x, y) corresponds to the (width, height) of the rendition.
+     */
+    private static Point getRenditionSize(Bitmap source, Rendition rendition) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int maxWidth = rendition.getMaxWidth();
+        int maxHeight = rendition.getMaxHeight();
+
+        if (maxWidth == Rendition.SIZE_ORIGINAL || maxHeight == Rendition.SIZE_ORIGINAL
+                || (width <= maxWidth && height <= maxHeight)) {
+            return new Point(width, height);
+        }
+
+        Point size = ImageHelper.getAspectFitSize(maxWidth, maxHeight, width, height);
+        return new Point(Math.max(1, size.x), Math.max(1, size.y));
+    }
+
+    /**
+     * Halves a bitmap with a 2x2 box filter. The last row and column of odd-sized bitmaps are dropped. Pixels are
+     * processed two rows at a time so no full-size pixel buffer is allocated.
+     *
+     * @param bitmap the bitmap to halve.
+     * @return the halved bitmap; or null if unsuccessful.
+     */
+    private static Bitmap halve(Bitmap bitmap) {
+        final int srcWidth = bitmap.getWidth();
+        final int dstWidth = srcWidth / 2;
+        final int dstHeight = bitmap.getHeight() / 2;
+
+        Bitmap halved = Bitmap.createBitmap(dstWidth, dstHeight, ImageHelper.BITMAP_CONFIG);
+        if (halved != null) {
+            int[] srcRows = new int[srcWidth * 2];
+            int[] dstRow = new int[dstWidth];
+            for (int y = 0; y < dstHeight; y++) {
+                bitmap.getPixels(srcRows, 0, srcWidth, 0, y * 2, srcWidth, 2);
+                for (int x = 0; x < dstWidth; x++) {
+                    int topLeft = srcRows[x * 2];
+                    int topRight = srcRows[x * 2 + 1];
+                    int bottomLeft = srcRows[srcWidth + x * 2];
+                    int bottomRight = srcRows[srcWidth + x * 2 + 1];
+                    dstRow[x] = average(topLeft, topRight, bottomLeft, bottomRight, 24)
+                            | average(topLeft, topRight, bottomLeft, bottomRight, 16)
+                            | average(topLeft, topRight, bottomLeft, bottomRight, 8)
+                            | average(topLeft, topRight, bottomLeft, bottomRight, 0);
+                }
+                halved.setPixels(dstRow, 0, dstWidth, 0, y, dstWidth, 1);
+            }
+        }
+
+        return halved;
+    }
+
+    /**
+     * Averages one 8-bit channel of four packed pixels, rounding to nearest.
+     *
+     * @param a     the first pixel.
+     * @param b     the second pixel.
+     * @param c     the third pixel.
+     * @param d     the fourth pixel.
+     * @param shift the bit offset of the channel.
+     * @return the averaged channel at its bit offset.
+     */
+    private static int average(int a, int b, int c, int d, int shift) {
+        int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+        return ((sum + 2) >> 2) << shift;
+    }
+
+    /**
+     * Checks whether a bitmap must be kept because it is the source image or one of the renditions.
+     *
+     * @param bitmap  the bitmap.
+     * @param source  the source image.
+     * @param bitmaps the renditions generated so far.
+     * @return true if the bitmap is referenced; false otherwise.
+     */
+    private static boolean isReferenced(Bitmap bitmap, Bitmap source, Bitmap[] bitmaps) {
+        if (bitmap == source) {
+            return true;
+        }
+        for (Bitmap rendition : bitmaps) {
+            if (bitmap == rendition) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
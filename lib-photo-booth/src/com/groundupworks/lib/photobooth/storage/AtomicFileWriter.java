@@ -0,0 +1,359 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes files so that a crash never leaves a partially written file under its final name. Data is written to a temp
+ * file and forced to storage, then the temp file is renamed to its final name, which is atomic on the same file system.
+ * Writing and forcing the temp file happen outside the lock, so concurrent writers only wait on each other to rename.
+ * <p/>
+ * The directory entries of renamed files are forced to storage in batches instead of one at a time: a sync happens when
+ * a number of files are waiting or a time interval has passed since the last sync, whichever comes first. A file
+ * renamed since the last sync may be missing after a crash, but whatever is found under a final name is complete. Temp
+ * files orphaned by a crash are removed by {@link #recover(String)}.
+ *
+ * @author Benedict Lau
+ */
+public class AtomicFileWriter {
+
+    /**
+     * The suffix of temp files.
+     */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The default number of files written between syncs.
+     */
+    private static final int DEFAULT_SYNC_FILE_COUNT = 8;
+
+    /**
+     * The default max time in milliseconds that a written file waits to be synced.
+     */
+    private static final long DEFAULT_SYNC_INTERVAL = 5000L;
+
+    /**
+     * The size of the buffer that encoded data is streamed through to the temp file.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The name of the timer thread.
+     */
+    private static final String TIMER_NAME = "atomicFileWriterTimer";
+
+    /**
+     * The writer shared by the application. Created on first use.
+     */
+    private static AtomicFileWriter sInstance = null;
+
+    /**
+     * The number of files written between syncs.
+     */
+    private final int mSyncFileCount;
+
+    /**
+     * The max time in milliseconds that a written file waits to be synced.
+     */
+    private final long mSyncInterval;
+
+    /**
+     * The counter that makes temp file names unique, so concurrent writes to the same file do not share a temp file.
+     */
+    private final AtomicInteger mTempFileCount = new AtomicInteger();
+
+    /**
+     * The directories of files renamed to their final names since the last sync.
+     */
+    private final Set<File> mUnsyncedDirectories = new HashSet<File>();
+
+    /**
+     * The number of files renamed to their final names since the last sync.
+     */
+    private int mUnsyncedFileCount = 0;
+
+    /**
+     * The time of the last sync.
+     */
+    private long mLastSyncTime = System.currentTimeMillis();
+
+    /**
+     * The timer that syncs files left waiting. Created on first use and reused for every batch.
+     */
+    private Timer mSyncTimer = null;
+
+    /**
+     * The scheduled sync; or null if none is scheduled.
+     */
+    private TimerTask mSyncTask = null;
+
+    /**
+     * Constructor.
+     *
+     * @param syncFileCount the number of files written between syncs. Pass 1 to sync every file.
+     * @param syncInterval  the max time in milliseconds that a written file waits to be synced.
+     */
+    public AtomicFileWriter(int syncFileCount, long syncInterval) {
+        mSyncFileCount = Math.max(1, syncFileCount);
+        mSyncInterval = syncInterval;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the writer shared by the application.
+     *
+     * @return the {@link AtomicFileWriter}.
+     */
+    public static synchronized AtomicFileWriter getInstance() {
+        if (sInstance == null) {
+            sInstance = new AtomicFileWriter(DEFAULT_SYNC_FILE_COUNT, DEFAULT_SYNC_INTERVAL);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Removes temp files orphaned by a crash. Call on startup, before any writes to the directory.
+     *
+     * @param directory the path to the directory; or null.
+     * @return the number of files removed.
+     */
+    public static int recover(String directory) {
+        int removed = 0;
+        if (directory != null) {
+            File[] files = new File(directory).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isFile() && file.getName().endsWith(TEMP_SUFFIX) && file.delete()) {
+                        removed++;
+                    }
+                }
+            }
+        }
+
+        if (removed > 0) {
+            LogsHelper.slog(AtomicFileWriter.class, "recover", "Removed " + removed + " temp files from " + directory);
+        }
+        return removed;
+    }
+
+    /**
+     * Encodes data straight into a temp file and writes it to a file atomically.
+     *
+     * @param encoder the {@link Encoder}.
+     * @param file    the file to write to.
+     * @return true if successful; false otherwise.
+     */
+    public boolean write(Encoder encoder, File file) {
+        File tempFile = createTempFile(file);
+        boolean isSuccessful = false;
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+            try {
+                OutputStream outputStream = new BufferedOutputStream(fileOutputStream, BUFFER_SIZE);
+                if (encoder.encode(outputStream)) {
+                    outputStream.flush();
+                    fileOutputStream.getFD().sync();
+                    isSuccessful = true;
+                }
+            } finally {
+                fileOutputStream.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(AtomicFileWriter.class, "write", "Failed to write " + tempFile + ": " + e.getMessage());
+            isSuccessful = false;
+        }
+
+        return commit(isSuccessful, tempFile, file);
+    }
+
+    /**
+     * Writes data to a file atomically.
+     *
+     * @param data the data.
+     * @param file the file to write to.
+     * @return true if successful; false otherwise.
+     */
+    public boolean write(final byte[] data, File file) {
+        return write(new Encoder() {
+            @Override
+            public boolean encode(OutputStream outputStream) {
+                try {
+                    outputStream.write(data);
+                    return true;
+                } catch (IOException e) {
+                    LogsHelper.slog(AtomicFileWriter.class, "write", "Failed to write data: " + e.getMessage());
+                    return false;
+                }
+            }
+        }, file);
+    }
+
+    /**
+     * Forces the directory entries of all renamed files to storage.
+     */
+    public void sync() {
+        List<File> directories;
+        synchronized (this) {
+            directories = new ArrayList<File>(mUnsyncedDirectories);
+            mUnsyncedDirectories.clear();
+            mUnsyncedFileCount = 0;
+            mLastSyncTime = System.currentTimeMillis();
+
+            if (mSyncTask != null) {
+                mSyncTask.cancel();
+                mSyncTask = null;
+            }
+        }
+
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates a temp file name next to a file.
+     *
+     * @param file the file to write to.
+     * @return the temp file.
+     */
+    private File createTempFile(File file) {
+        return new File(file.getParentFile(), file.getName() + "." + mTempFileCount.incrementAndGet() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Renames a written temp file to its final name, and syncs if due or schedules a sync otherwise.
+     *
+     * @param isWritten true if the temp file is written and forced to storage; false to discard it.
+     * @param tempFile  the temp file.
+     * @param file      the file to write to.
+     * @return true if successful; false otherwise.
+     */
+    private boolean commit(boolean isWritten, File tempFile, File file) {
+        boolean isSyncDue = false;
+        boolean isSuccessful = false;
+        if (isWritten) {
+            synchronized (this) {
+                if (tempFile.renameTo(file)) {
+                    mUnsyncedDirectories.add(file.getParentFile());
+                    mUnsyncedFileCount++;
+                    isSyncDue = mUnsyncedFileCount >= mSyncFileCount
+                            || System.currentTimeMillis() - mLastSyncTime >= mSyncInterval;
+                    if (!isSyncDue) {
+                        scheduleSync();
+                    }
+                    isSuccessful = true;
+                } else {
+                    LogsHelper.slog(AtomicFileWriter.class, "commit", "Failed to rename " + tempFile);
+                }
+            }
+        }
+
+        if (!isSuccessful) {
+            tempFile.delete();
+        } else if (isSyncDue) {
+            sync();
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Schedules a sync after the sync interval, unless one is already scheduled. Must be called holding the lock.
+     */
+    private void scheduleSync() {
+        if (mSyncTask == null) {
+            if (mSyncTimer == null) {
+                mSyncTimer = new Timer(TIMER_NAME, true);
+            }
+
+            mSyncTask = new TimerTask() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            };
+            mSyncTimer.schedule(mSyncTask, mSyncInterval);
+        }
+    }
+
+    /**
+     * Forces a directory to storage, so the renames in it survive a crash. Directories cannot be opened from Java, so
+     * this is a no-op before Lollipop, where a rename is left to the file system to commit.
+     *
+     * @param directory the directory.
+     */
+    @SuppressLint("NewApi")
+    private static void syncDirectory(File directory) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+                try {
+                    Os.fsync(fd);
+                } finally {
+                    Os.close(fd);
+                }
+            } catch (ErrnoException e) {
+                // The directory may have been deleted since. Nothing left to sync.
+            }
+        }
+    }
+
+    //
+    // Public interfaces.
+    //
+
+    /**
+     * Encodes data to be written by an {@link AtomicFileWriter}.
+     */
+    public interface Encoder {
+
+        /**
+         * Encodes data to an output stream.
+         *
+         * @param outputStream the outputstream to write the encoded data.
+         * @return true if successful; false otherwise.
+         */
+        public boolean encode(OutputStream outputStream);
+    }
+}
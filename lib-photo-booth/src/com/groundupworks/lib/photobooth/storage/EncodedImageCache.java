@@ -0,0 +1,147 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import android.support.v4.util.LruCache;
+
+import java.io.File;
+
+/**
+ * A byte-budgeted in-memory LRU cache of encoded Jpegs, keyed by the path they are written to. Jpegs are added as
+ * they are written through {@link #write(byte[], File)}, so the most recent photo strips can be read back without
+ * disk I/O, and decoded only when displayed. Only write the Jpegs that are read back, such as the photo strip that is
+ * reshared or reprinted, through the cache. Other renditions go straight to the {@link AtomicFileWriter}.
+ *
+ * @author Benedict Lau
+ */
+public class EncodedImageCache {
+
+    /**
+     * The fraction of the max heap used by the cache shared by the application.
+     */
+    private static final int DEFAULT_HEAP_FRACTION = 16;
+
+    /**
+     * The cache shared by the application. Created on first use.
+     */
+    private static EncodedImageCache sInstance = null;
+
+    /**
+     * The encoded Jpegs keyed by path, sized by their length in bytes.
+     */
+    private final LruCache<String, byte[]> mCache;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the max total size of the cached Jpegs in bytes.
+     */
+    public EncodedImageCache(int maxSize) {
+        mCache = new LruCache<String, byte[]>(maxSize) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the cache shared by the application.
+     *
+     * @return the {@link EncodedImageCache}.
+     */
+    public static synchronized EncodedImageCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new EncodedImageCache((int) (Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Writes an encoded Jpeg to a file atomically with the {@link AtomicFileWriter}, and caches it if successful.
+     *
+     * @param jpegData the encoded Jpeg. Must not be modified after the call.
+     * @param file     the file to write to.
+     * @return true if successful; false otherwise.
+     */
+    public boolean write(byte[] jpegData, File file) {
+        boolean isSuccessful = AtomicFileWriter.getInstance().write(jpegData, file);
+        if (isSuccessful) {
+            mCache.put(file.getPath(), jpegData);
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Gets an encoded Jpeg from the cache.
+     *
+     * @param path the path the Jpeg was written to.
+     * @return the encoded Jpeg, which must not be modified; or null if not cached.
+     */
+    public byte[] get(String path) {
+        return mCache.get(path);
+    }
+
+    /**
+     * Removes an encoded Jpeg from the cache. Call when the file is deleted.
+     *
+     * @param path the path the Jpeg was written to.
+     */
+    public void remove(String path) {
+        mCache.remove(path);
+    }
+
+    /**
+     * Gets the total size of the cached Jpegs.
+     *
+     * @return the size in bytes.
+     */
+    public int getSize() {
+        return mCache.size();
+    }
+
+    /**
+     * Gets the max total size of the cached Jpegs.
+     *
+     * @return the size in bytes.
+     */
+    public int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * Gets the number of reads served from the cache.
+     *
+     * @return the hit count.
+     */
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    /**
+     * Gets the number of reads that were not cached.
+     *
+     * @return the miss count.
+     */
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+}
@@ -0,0 +1,1122 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import android.os.Environment;
+
+import com.groundupworks.lib.photobooth.contactsheet.ContactSheetRenderer;
+import com.groundupworks.lib.photobooth.export.ZipExporter;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+import com.groundupworks.lib.photobooth.helpers.StorageHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Storage of the photo strips of one event. Photo strips are kept in a directory per event, sharded into a
+ * subdirectory per day and hour so that no directory grows large over a multi-day event. Renditions are sharded the
+ * same way under the rendition directory, along with a {@link FramePack} of the source frames of each photo strip.
+ * <p/>
+ * Each event has an append-only manifest recording every saved photo strip with its timestamp and template, and the
+ * result of sharing it to each service, so galleries, exports and cleanup can enumerate photo strips without walking
+ * the file system. A record cut short by a crash is skipped when the manifest is read. All photo strips of an event
+ * can be exported into one archive with a {@link ZipExporter}, or laid out on printable pages with a
+ * {@link ContactSheetRenderer}.
+ * <p/>
+ * Photo strips can be given a short code for guests to find them by later. Codes are recorded in the manifest and
+ * indexed by a {@link StripCodeIndex} in the event directory, so a photo strip is found by its code in constant time.
+ * <p/>
+ * Resolved directories are cached, so saving a photo strip only touches storage when a new shard is started.
+ *
+ * @author Benedict Lau
+ */
+public class EventStorage {
+
+    /**
+     * The name of the manifest file in the event directory.
+     */
+    public static final String MANIFEST_FILENAME = "manifest.tsv";
+
+    /**
+     * The extension of the archive that the photo strips of an event are exported to.
+     */
+    public static final String EXPORT_EXTENSION = ".zip";
+
+    /**
+     * The suffix of the directory that the contact sheets of an event are rendered to.
+     */
+    public static final String CONTACT_SHEET_SUFFIX = "_contact_sheet";
+
+    /**
+     * The event name used when the title and date give no name.
+     */
+    private static final String DEFAULT_EVENT_NAME = "event";
+
+    /**
+     * The max length of the title part of an event name.
+     */
+    private static final int MAX_TITLE_LENGTH = 40;
+
+    /**
+     * The encoding of the manifest.
+     */
+    private static final String MANIFEST_ENCODING = "UTF-8";
+
+    /**
+     * The separator between fields of a manifest record.
+     */
+    private static final char FIELD_SEPARATOR = '\t';
+
+    /**
+     * Manifest record of a saved photo strip, followed by the timestamp, relative path and template.
+     */
+    private static final String RECORD_STRIP = "STRIP";
+
+    /**
+     * Manifest record of a photo strip shared to a service, followed by the relative path, service and result.
+     */
+    private static final String RECORD_SHARE = "SHARE";
+
+    /**
+     * Manifest record of a photo strip removed from storage, followed by the relative path.
+     */
+    private static final String RECORD_REMOVE = "REMOVE";
+
+    /**
+     * Result of a successful share in the manifest.
+     */
+    private static final String SHARE_SUCCESS = "shared";
+
+    /**
+     * Result of a failed share in the manifest.
+     */
+    private static final String SHARE_FAILURE = "failed";
+
+    /**
+     * The separator between the photo strip name and the suffix in rendition file names.
+     */
+    private static final String RENDITION_SEPARATOR = "_";
+
+    /**
+     * The max number of random codes tried before giving up on reserving a code.
+     */
+    private static final int MAX_CODE_ATTEMPTS = 64;
+
+    /**
+     * The max length of a manifest record read when looking up a code.
+     */
+    private static final int MAX_RECORD_LENGTH = 4096;
+
+    /**
+     * The instances by image folder and event name.
+     */
+    private static final Map<String, EventStorage> sInstances = new HashMap<String, EventStorage>();
+
+    /**
+     * The image folder name.
+     */
+    private final String mImageFolder;
+
+    /**
+     * The event name, which is also the name of the event directory.
+     */
+    private final String mEventName;
+
+    /**
+     * The resolved event directory; or null if not resolved.
+     */
+    private volatile String mEventDirectory = null;
+
+    /**
+     * The shard path and resolved image directory of the last shard used, cached as a pair; or null if none.
+     */
+    private volatile String[] mImageShard = null;
+
+    /**
+     * The shard path and resolved rendition directory of the last shard used, cached as a pair; or null if none.
+     */
+    private volatile String[] mRenditionShard = null;
+
+    /**
+     * The source of random codes.
+     */
+    private final Random mRandom = new SecureRandom();
+
+    /**
+     * The codes handed out but not yet recorded in the manifest.
+     */
+    private final Set<Integer> mReservedCodes = new HashSet<Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param imageFolder the image folder name.
+     * @param eventName   the event name.
+     */
+    private EventStorage(String imageFolder, String eventName) {
+        mImageFolder = imageFolder;
+        mEventName = eventName;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the storage of an event. Each event has one instance, so manifest records are never interleaved.
+     *
+     * @param imageFolder the image folder name.
+     * @param eventName   the event name, as generated by {@link #generateEventName(String, long)}.
+     * @return the {@link EventStorage}.
+     */
+    public static synchronized EventStorage getInstance(String imageFolder, String eventName) {
+        String key = imageFolder + File.separator + eventName;
+        EventStorage instance = sInstances.get(key);
+        if (instance == null) {
+            instance = new EventStorage(imageFolder, eventName);
+            sInstances.put(key, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Generates an event name that is a valid directory name, made of the event date and title.
+     *
+     * @param title the event title; or null.
+     * @param date  the event date in milliseconds; or a negative value if the event has no date.
+     * @return the event name.
+     */
+    public static String generateEventName(String title, long date) {
+        StringBuilder builder = new StringBuilder();
+        if (date >= 0L) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(date);
+            appendNumber(builder, calendar.get(Calendar.YEAR), 4).append('-');
+            appendNumber(builder, calendar.get(Calendar.MONTH) + 1, 2).append('-');
+            appendNumber(builder, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        }
+
+        // Keep letters and digits of the title, and collapse everything else into single dashes.
+        StringBuilder titleBuilder = new StringBuilder();
+        if (title != null) {
+            boolean isDashPending = false;
+            for (int i = 0; i < title.length() && titleBuilder.length() < MAX_TITLE_LENGTH; i++) {
+                char c = title.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    if (isDashPending) {
+                        titleBuilder.append('-');
+                        isDashPending = false;
+                    }
+                    titleBuilder.append(c);
+                } else {
+                    isDashPending = titleBuilder.length() > 0;
+                }
+            }
+        }
+
+        if (builder.length() > 0 && titleBuilder.length() > 0) {
+            builder.append('_');
+        }
+        builder.append(titleBuilder);
+
+        return builder.length() > 0 ? builder.toString() : DEFAULT_EVENT_NAME;
+    }
+
+    /**
+     * Gets the storage of every event in an image folder that has a manifest.
+     *
+     * @param imageFolder the image folder name.
+     * @return the {@link EventStorage} of each event; or an empty list if none.
+     */
+    public static List<EventStorage> getEvents(String imageFolder) {
+        List<EventStorage> events = new ArrayList<EventStorage>();
+        if (!StorageHelper.isExternalStorageAvailable()) {
+            return events;
+        }
+
+        File[] files = new File(Environment.getExternalStorageDirectory(), imageFolder).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && new File(file, MANIFEST_FILENAME).isFile()) {
+                    events.add(getInstance(imageFolder, file.getName()));
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Clears the directories cached by all instances. Call when external storage is mounted or unmounted.
+     */
+    public static synchronized void clearDirectoryCaches() {
+        for (EventStorage instance : sInstances.values()) {
+            instance.mEventDirectory = null;
+            instance.mImageShard = null;
+            instance.mRenditionShard = null;
+        }
+    }
+
+    /**
+     * Gets the event name.
+     *
+     * @return the event name.
+     */
+    public String getEventName() {
+        return mEventName;
+    }
+
+    /**
+     * Gets the path to the event directory, creating it if needed.
+     *
+     * @return the path; or null if external storage is unavailable or the directory cannot be created.
+     */
+    public String getEventDirectory() {
+        String eventDirectory = mEventDirectory;
+        if (eventDirectory == null && StorageHelper.isExternalStorageAvailable()) {
+            eventDirectory = makeDirectory(getEventPath());
+            mEventDirectory = eventDirectory;
+        }
+        return eventDirectory;
+    }
+
+    /**
+     * Gets the path to the shard of the event directory for photo strips saved at a time, creating it if needed.
+     *
+     * @param timestamp the time in milliseconds.
+     * @return the path; or null if the directory cannot be created.
+     */
+    public String getImageDirectory(long timestamp) {
+        String shardPath = getShardPath(timestamp);
+        String[] shard = mImageShard;
+        if (shard != null && shard[0].equals(shardPath)) {
+            return shard[1];
+        }
+
+        String eventDirectory = getEventDirectory();
+        if (eventDirectory == null) {
+            return null;
+        }
+        String imageDirectory = makeDirectory(new File(eventDirectory, shardPath));
+        if (imageDirectory != null) {
+            mImageShard = new String[]{shardPath, imageDirectory};
+        }
+        return imageDirectory;
+    }
+
+    /**
+     * Gets the path to the shard of the rendition directory for photo strips saved at a time, creating it if needed.
+     * The directory is hidden from the Android Gallery.
+     *
+     * @param timestamp the time in milliseconds.
+     * @return the path; or null if the directory cannot be created.
+     */
+    public String getRenditionDirectory(long timestamp) {
+        String shardPath = getShardPath(timestamp);
+        String[] shard = mRenditionShard;
+        if (shard != null && shard[0].equals(shardPath)) {
+            return shard[1];
+        }
+
+        String renditionDirectory = ImageHelper.getRenditionDirectory(mImageFolder);
+        if (renditionDirectory == null) {
+            return null;
+        }
+        renditionDirectory = makeDirectory(new File(renditionDirectory, mEventName + File.separator + shardPath));
+        if (renditionDirectory != null) {
+            mRenditionShard = new String[]{shardPath, renditionDirectory};
+        }
+        return renditionDirectory;
+    }
+
+    /**
+     * Records a saved photo strip in the manifest.
+     *
+     * @param path      the path to the photo strip.
+     * @param timestamp the time the photo strip was saved in milliseconds.
+     * @param template  the name of the template of the photo strip.
+     * @param code      the code reserved for the photo strip by {@link #reserveCode()}; or null if none.
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean addStrip(String path, long timestamp, String template, String code) {
+        String record = RECORD_STRIP + FIELD_SEPARATOR + timestamp + FIELD_SEPARATOR + getRelativePath(path)
+                + FIELD_SEPARATOR + sanitizeField(template);
+        int codeValue = code != null ? StripCodeIndex.parseCode(code) : -1;
+        if (codeValue >= 0) {
+            record += FIELD_SEPARATOR + StripCodeIndex.formatCode(codeValue);
+        }
+
+        byte[] recordData;
+        try {
+            recordData = record.getBytes(MANIFEST_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            return false;
+        }
+        long offset = appendRecord(recordData);
+        if (offset < 0L) {
+            return false;
+        }
+
+        if (codeValue >= 0) {
+            mReservedCodes.remove(codeValue);
+            StripCodeIndex index = getCodeIndex();
+
+            // The index covers the manifest up to the end of this record, including its newline.
+            if (index == null || !index.put(codeValue, offset, offset + recordData.length + 1)) {
+                // The code is still in the manifest, and gets indexed on the next recovery.
+                LogsHelper.slog(EventStorage.class, "addStrip", "Failed to index code " + code);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserves a new short code for a photo strip, to be recorded when the photo strip is added. Codes are never
+     * reused within an event, even after their photo strips are removed. The code index is usually built by
+     * {@link #recover()}, and otherwise from the manifest on first use, so only one call per event scans the manifest.
+     *
+     * @return the code; or null if the code index is not available.
+     */
+    public synchronized String reserveCode() {
+        StripCodeIndex index = getBuiltCodeIndex();
+        if (index == null) {
+            return null;
+        }
+
+        for (int i = 0; i < MAX_CODE_ATTEMPTS; i++) {
+            int code = StripCodeIndex.generateCode(mRandom);
+            if (!mReservedCodes.contains(code) && index.get(code) < 0L) {
+                mReservedCodes.add(code);
+                return StripCodeIndex.formatCode(code);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds a photo strip by its code, reading only its record in the manifest. Share results are not read.
+     *
+     * @param code the code, as typed by a person.
+     * @return the photo strip; or null if no photo strip with the code is saved.
+     */
+    public synchronized Strip findStrip(String code) {
+        int codeValue = StripCodeIndex.parseCode(code);
+        StripCodeIndex index = getBuiltCodeIndex();
+        if (codeValue < 0 || index == null) {
+            return null;
+        }
+
+        long offset = index.get(codeValue);
+        if (offset < 0L) {
+            return null;
+        }
+
+        String eventDirectory = getEventDirectory();
+        File manifest = new File(eventDirectory, MANIFEST_FILENAME);
+        String line = null;
+        try {
+            RandomAccessFile file = new RandomAccessFile(manifest, "r");
+            try {
+                byte[] buffer = new byte[(int) Math.min(MAX_RECORD_LENGTH, Math.max(0L, file.length() - offset))];
+                file.seek(offset);
+                file.readFully(buffer);
+                for (int i = 0; i < buffer.length && line == null; i++) {
+                    if (buffer[i] == '\n') {
+                        line = new String(buffer, 0, i, MANIFEST_ENCODING);
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(EventStorage.class, "findStrip", "Failed to read " + manifest + ": " + e.getMessage());
+        }
+
+        Strip strip = null;
+        if (line != null) {
+            Map<String, Strip> strips = new HashMap<String, Strip>();
+            readRecord(eventDirectory, line, strips);
+            for (Strip candidate : strips.values()) {
+                // Removed photo strips are deleted, so their records are not followed.
+                if (StripCodeIndex.formatCode(codeValue).equals(candidate.getCode())
+                        && new File(candidate.getPath()).isFile()) {
+                    strip = candidate;
+                }
+            }
+        }
+        return strip;
+    }
+
+    /**
+     * Records the result of sharing a photo strip to a service in the manifest.
+     *
+     * @param path     the path to the photo strip.
+     * @param service  the name of the service.
+     * @param isShared true if the photo strip was shared; false if sharing failed.
+     * @return true if successful; false otherwise.
+     */
+    public boolean setShareState(String path, String service, boolean isShared) {
+        return appendRecord(RECORD_SHARE + FIELD_SEPARATOR + getRelativePath(path) + FIELD_SEPARATOR
+                + sanitizeField(service) + FIELD_SEPARATOR + (isShared ? SHARE_SUCCESS : SHARE_FAILURE)) >= 0L;
+    }
+
+    /**
+     * Deletes a photo strip and its renditions, and records the removal in the manifest.
+     *
+     * @param strip the photo strip.
+     * @return the number of bytes freed.
+     */
+    public long removeStrip(Strip strip) {
+        long freedBytes = 0L;
+        EncodedImageCache encodedImageCache = EncodedImageCache.getInstance();
+        File file = new File(strip.getPath());
+        long length = file.length();
+        if (file.delete()) {
+            freedBytes += length;
+        }
+        encodedImageCache.remove(file.getPath());
+
+        // Renditions are named after the photo strip, in the same shard of the rendition directory.
+        String relativePath = getRelativePath(strip.getPath());
+        String renditionDirectory = ImageHelper.getRenditionDirectory(mImageFolder);
+        File relativeFile = new File(relativePath);
+        if (renditionDirectory != null && relativeFile.getParent() != null) {
+            String baseName = file.getName();
+            int extensionStart = baseName.lastIndexOf('.');
+            if (extensionStart > 0) {
+                baseName = baseName.substring(0, extensionStart);
+            }
+
+            File renditionShard = new File(renditionDirectory, mEventName + File.separator + relativeFile.getParent());
+            File[] renditions = renditionShard.listFiles();
+            if (renditions != null) {
+                for (File rendition : renditions) {
+                    length = rendition.length();
+                    if (rendition.getName().startsWith(baseName + RENDITION_SEPARATOR) && rendition.delete()) {
+                        freedBytes += length;
+                        encodedImageCache.remove(rendition.getPath());
+                    }
+                }
+            }
+
+            // The source frames of a shard can only go once no photo strip in the shard is left to re-render.
+            String[] remaining = file.getParentFile().list();
+            File framePack = new File(renditionShard, FramePack.FILENAME);
+            length = framePack.length();
+            if (remaining != null && remaining.length == 0 && framePack.delete()) {
+                freedBytes += length;
+            }
+        }
+
+        appendRecord(RECORD_REMOVE + FIELD_SEPARATOR + relativePath);
+        return freedBytes;
+    }
+
+    /**
+     * Gets the pack that the source frames of photo strips saved at a time are appended to, creating its shard of the
+     * rendition directory if needed.
+     *
+     * @param timestamp the time in milliseconds.
+     * @return the {@link FramePack}; or null if the directory cannot be created.
+     */
+    public FramePack getFramePack(long timestamp) {
+        String renditionDirectory = getRenditionDirectory(timestamp);
+        if (renditionDirectory == null) {
+            return null;
+        }
+        return FramePack.getInstance(new File(renditionDirectory, FramePack.FILENAME));
+    }
+
+    /**
+     * Gets the pack holding the source frames of a photo strip. Look up the frames with
+     * {@link FramePack#getSession(long)} and the timestamp of the photo strip.
+     *
+     * @param strip the photo strip.
+     * @return the {@link FramePack}; or null if storage is unavailable.
+     */
+    public FramePack getFramePack(Strip strip) {
+        String renditionDirectory = ImageHelper.getRenditionDirectory(mImageFolder);
+        String shardPath = new File(getRelativePath(strip.getPath())).getParent();
+        if (renditionDirectory == null || shardPath == null) {
+            return null;
+        }
+        return FramePack.getInstance(new File(renditionDirectory, mEventName + File.separator + shardPath
+                + File.separator + FramePack.FILENAME));
+    }
+
+    /**
+     * Reads the photo strips recorded in the manifest.
+     *
+     * @return the photo strips in the order they were saved; or an empty list if none.
+     */
+    public synchronized List<Strip> getStrips() {
+        String eventDirectory = getEventDirectory();
+        if (eventDirectory == null) {
+            return Collections.emptyList();
+        }
+
+        File manifest = new File(eventDirectory, MANIFEST_FILENAME);
+        if (!manifest.isFile()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Strip> strips = new LinkedHashMap<String, Strip>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest),
+                    MANIFEST_ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    readRecord(eventDirectory, line, strips);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(EventStorage.class, "getStrips", "Failed to read " + manifest + ": " + e.getMessage());
+        }
+
+        return new ArrayList<Strip>(strips.values());
+    }
+
+    /**
+     * Gets the exporter for the archive of the photo strips of the event, which is written next to the event
+     * directory so it can be copied off the device as one file.
+     *
+     * @return the {@link ZipExporter}.
+     */
+    public ZipExporter getExporter() {
+        File eventPath = getEventPath();
+        return new ZipExporter(new File(eventPath.getParentFile(), mEventName + EXPORT_EXTENSION));
+    }
+
+    /**
+     * Exports every photo strip recorded in the manifest into one archive, in the order they were saved. Entries are
+     * named by their path under the event directory, inside a directory named after the event. Photo strips that are
+     * missing or cannot be read, for example because retention evicted them during the export, are left out and
+     * reported by {@link ZipExporter#getSkippedNames()}. An export interrupted by a crash or cancelled resumes where it
+     * left off. Call from a background thread.
+     *
+     * @param exporter the {@link ZipExporter} from {@link #getExporter()}, which can be used to cancel the export.
+     * @param listener the listener to report progress to; or null to not report progress.
+     * @return true if the archive is complete; false if the export failed or was cancelled.
+     */
+    public boolean exportStrips(ZipExporter exporter, ZipExporter.ProgressListener listener) {
+        List<String> names = new ArrayList<String>();
+        List<File> files = new ArrayList<File>();
+        for (Strip strip : getStrips()) {
+            String relativePath = getRelativePath(strip.getPath()).replace(File.separatorChar, '/');
+            names.add(mEventName + '/' + relativePath);
+            files.add(new File(strip.getPath()));
+        }
+
+        boolean isExported = exporter.export(names, files, listener);
+        if (!isExported) {
+            LogsHelper.slog(EventStorage.class, "exportStrips", "Export to " + exporter.getZipFile()
+                    + " stopped before completion");
+        }
+        List<String> skippedNames = exporter.getSkippedNames();
+        if (!skippedNames.isEmpty()) {
+            LogsHelper.slog(EventStorage.class, "exportStrips", "Skipped " + skippedNames.size()
+                    + " unreadable photo strips: " + skippedNames);
+        }
+        return isExported;
+    }
+
+    /**
+     * Gets the directory that the contact sheets of the event are rendered to, next to the event directory.
+     *
+     * @return the directory, whether or not it exists.
+     */
+    public File getContactSheetDirectory() {
+        File eventPath = getEventPath();
+        return new File(eventPath.getParentFile(), mEventName + CONTACT_SHEET_SUFFIX);
+    }
+
+    /**
+     * Renders contact sheets of every photo strip recorded in the manifest, in the order they were saved, replacing
+     * any rendered before. Call from a background thread.
+     *
+     * @param renderer the {@link ContactSheetRenderer} with the page layout.
+     * @return the number of pages rendered; or -1 if any page failed to render.
+     */
+    public int renderContactSheet(ContactSheetRenderer renderer) {
+        List<File> files = new ArrayList<File>();
+        for (Strip strip : getStrips()) {
+            File file = new File(strip.getPath());
+            if (file.isFile()) {
+                files.add(file);
+            }
+        }
+
+        File directory = getContactSheetDirectory();
+        File[] oldPages = directory.listFiles();
+        if (oldPages != null) {
+            for (File oldPage : oldPages) {
+                oldPage.delete();
+            }
+        }
+
+        int pageCount = renderer.getPageCount(files.size());
+        int renderedCount = renderer.run(files, directory);
+        if (renderedCount < pageCount) {
+            LogsHelper.slog(EventStorage.class, "renderContactSheet", "Rendered " + renderedCount + " of "
+                    + pageCount + " pages to " + directory);
+            return -1;
+        }
+        return renderedCount;
+    }
+
+    /**
+     * Removes temp files and the torn tails of the manifest and frame pack left by writes interrupted by a crash, and
+     * indexes codes recorded in the manifest but not yet in the code index. Only the latest shards are checked, since
+     * those are the only ones written to. Call on startup from a background thread.
+     */
+    public void recover() {
+        if (StorageHelper.isExternalStorageAvailable()) {
+            AtomicFileWriter.recover(getLatestShard(getEventPath()));
+        }
+
+        String eventDirectory = getEventDirectory();
+        if (eventDirectory != null) {
+            File manifest = new File(eventDirectory, MANIFEST_FILENAME);
+            if (RecordLog.recover(manifest) != 0L) {
+                LogsHelper.slog(EventStorage.class, "recover", "Truncated torn tail of " + manifest);
+            }
+
+            // Build the code index now, so reserving a code never scans the manifest.
+            StripCodeIndex index = getCodeIndex();
+            if (index != null) {
+                indexCodes(index);
+            }
+        }
+
+        String renditionDirectory = ImageHelper.getRenditionDirectory(mImageFolder);
+        if (renditionDirectory != null) {
+            String latestShard = getLatestShard(new File(renditionDirectory, mEventName));
+            AtomicFileWriter.recover(latestShard);
+            if (latestShard != null) {
+                FramePack.getInstance(new File(latestShard, FramePack.FILENAME)).recover();
+            }
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Appends a record to the manifest.
+     *
+     * @param record the record.
+     * @return the offset of the record in the manifest; or -1 if unsuccessful.
+     */
+    private synchronized long appendRecord(String record) {
+        try {
+            return appendRecord(record.getBytes(MANIFEST_ENCODING));
+        } catch (UnsupportedEncodingException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Appends an encoded record to the manifest.
+     *
+     * @param record the record encoded with the manifest encoding, without the newline.
+     * @return the offset of the record in the manifest; or -1 if unsuccessful.
+     */
+    private synchronized long appendRecord(byte[] record) {
+        String eventDirectory = getEventDirectory();
+        if (eventDirectory == null) {
+            return -1L;
+        }
+
+        File manifest = new File(eventDirectory, MANIFEST_FILENAME);
+        long offset = RecordLog.append(manifest, record);
+        if (offset < 0L) {
+            LogsHelper.slog(EventStorage.class, "appendRecord", "Failed to append to " + manifest);
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the code index of the event.
+     *
+     * @return the {@link StripCodeIndex}; or null if the event directory is not available.
+     */
+    private StripCodeIndex getCodeIndex() {
+        String eventDirectory = getEventDirectory();
+        if (eventDirectory == null) {
+            return null;
+        }
+        return StripCodeIndex.getInstance(new File(eventDirectory, StripCodeIndex.FILENAME));
+    }
+
+    /**
+     * Gets the code index of the event, building it from the manifest first if it is missing or invalid, as when the
+     * event was not recovered in this process.
+     *
+     * @return the {@link StripCodeIndex}; or null if the index is not available or cannot be built.
+     */
+    private synchronized StripCodeIndex getBuiltCodeIndex() {
+        StripCodeIndex index = getCodeIndex();
+        if (index != null && index.getIndexedLength() < 0L && !indexCodes(index)) {
+            LogsHelper.slog(EventStorage.class, "getBuiltCodeIndex", "Failed to build code index");
+            index = null;
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the codes recorded in the manifest past the part the index covers, or rebuilds the index from the whole
+     * manifest if it is missing or invalid.
+     *
+     * @param index the {@link StripCodeIndex}.
+     * @return true if successful; false otherwise.
+     */
+    private synchronized boolean indexCodes(StripCodeIndex index) {
+        File manifest = new File(getEventDirectory(), MANIFEST_FILENAME);
+        long indexedLength = index.getIndexedLength();
+        final boolean isRebuild = indexedLength < 0L;
+        long offset = isRebuild ? 0L : indexedLength;
+
+        List<Integer> codes = new ArrayList<Integer>();
+        List<Long> offsets = new ArrayList<Long>();
+        List<Long> ends = new ArrayList<Long>();
+        if (manifest.length() > offset) {
+            try {
+                InputStream inputStream = new BufferedInputStream(new FileInputStream(manifest));
+                try {
+                    long skipped = 0L;
+                    while (skipped < offset) {
+                        long count = inputStream.skip(offset - skipped);
+                        if (count <= 0L) {
+                            throw new IOException("Manifest shorter than index");
+                        }
+                        skipped += count;
+                    }
+
+                    // Read record by record, skipping a record cut short at the end.
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    int b;
+                    while ((b = inputStream.read()) != -1) {
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+
+                        String[] fields = line.toString(MANIFEST_ENCODING).split(String.valueOf(FIELD_SEPARATOR));
+                        if (RECORD_STRIP.equals(fields[0]) && fields.length == 5) {
+                            int code = StripCodeIndex.parseCode(fields[4]);
+                            if (code >= 0) {
+                                codes.add(code);
+                                offsets.add(offset);
+                                ends.add(offset + line.size() + 1);
+                            }
+                        }
+                        offset += line.size() + 1;
+                        line.reset();
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            } catch (IOException e) {
+                LogsHelper.slog(EventStorage.class, "indexCodes", "Failed to read " + manifest + ": "
+                        + e.getMessage());
+                return false;
+            }
+        }
+
+        if (isRebuild) {
+            int[] codeArray = new int[codes.size()];
+            long[] offsetArray = new long[offsets.size()];
+            for (int i = 0; i < codeArray.length; i++) {
+                codeArray[i] = codes.get(i);
+                offsetArray[i] = offsets.get(i);
+            }
+            return index.rebuild(codeArray, offsetArray, codeArray.length, offset);
+        }
+
+        boolean isSuccessful = true;
+        for (int i = 0; i < codes.size(); i++) {
+            isSuccessful &= index.put(codes.get(i), offsets.get(i), ends.get(i));
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Applies one manifest record to the photo strips read so far. Malformed records are skipped.
+     *
+     * @param eventDirectory the path to the event directory.
+     * @param line           the record.
+     * @param strips         the photo strips by relative path.
+     */
+    private static void readRecord(String eventDirectory, String line, Map<String, Strip> strips) {
+        String[] fields = line.split(String.valueOf(FIELD_SEPARATOR));
+        if (RECORD_STRIP.equals(fields[0]) && (fields.length == 4 || fields.length == 5)) {
+            try {
+                long timestamp = Long.parseLong(fields[1]);
+                String code = fields.length == 5 ? fields[4] : null;
+                strips.put(fields[2], new Strip(new File(eventDirectory, fields[2]).getPath(), timestamp, fields[3],
+                        code));
+            } catch (NumberFormatException e) {
+                // Skip the record.
+            }
+        } else if (RECORD_SHARE.equals(fields[0]) && fields.length == 4) {
+            Strip strip = strips.get(fields[1]);
+            if (strip != null) {
+                strip.mShareStates.put(fields[2], SHARE_SUCCESS.equals(fields[3]));
+            }
+        } else if (RECORD_REMOVE.equals(fields[0]) && fields.length == 2) {
+            strips.remove(fields[1]);
+        }
+    }
+
+    /**
+     * Gets the path of a file relative to the event directory.
+     *
+     * @param path the path to the file.
+     * @return the relative path; or the path itself if it is not in the event directory.
+     */
+    private String getRelativePath(String path) {
+        String eventDirectory = getEventPath().getPath();
+        if (path.startsWith(eventDirectory + File.separator)) {
+            return path.substring(eventDirectory.length() + 1);
+        }
+        return sanitizeField(path);
+    }
+
+    /**
+     * Gets the path to the event directory, whether or not it exists.
+     *
+     * @return the event directory.
+     */
+    private File getEventPath() {
+        return new File(Environment.getExternalStorageDirectory(), mImageFolder + File.separator + mEventName);
+    }
+
+    /**
+     * Gets the shard path for a time, made of the day and hour.
+     *
+     * @param timestamp the time in milliseconds.
+     * @return the shard path relative to the event directory.
+     */
+    private static String getShardPath(long timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+
+        StringBuilder builder = new StringBuilder();
+        appendNumber(builder, calendar.get(Calendar.YEAR), 4);
+        appendNumber(builder, calendar.get(Calendar.MONTH) + 1, 2);
+        appendNumber(builder, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        builder.append(File.separatorChar);
+        appendNumber(builder, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        return builder.toString();
+    }
+
+    /**
+     * Gets the latest day and hour shard in a directory.
+     *
+     * @param directory the directory.
+     * @return the path to the latest shard; or null if none.
+     */
+    private static String getLatestShard(File directory) {
+        File latestDay = getLatestSubdirectory(directory);
+        if (latestDay == null) {
+            return null;
+        }
+
+        File latestHour = getLatestSubdirectory(latestDay);
+        return latestHour != null ? latestHour.getPath() : null;
+    }
+
+    /**
+     * Gets the subdirectory with the greatest name.
+     *
+     * @param directory the directory.
+     * @return the subdirectory; or null if none.
+     */
+    private static File getLatestSubdirectory(File directory) {
+        File latest = null;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && (latest == null || file.getName().compareTo(latest.getName()) > 0)) {
+                    latest = file;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Creates a directory and its parents if needed.
+     *
+     * @param directory the directory.
+     * @return the path to the directory; or null if it cannot be created.
+     */
+    private static String makeDirectory(File directory) {
+        if (directory.isDirectory() || directory.mkdirs()) {
+            return directory.getPath();
+        }
+        return null;
+    }
+
+    /**
+     * Appends a number padded with leading zeros.
+     *
+     * @param builder the {@link StringBuilder}.
+     * @param number  the non-negative number.
+     * @param digits  the min number of digits.
+     * @return the {@link StringBuilder}.
+     */
+    private static StringBuilder appendNumber(StringBuilder builder, int number, int digits) {
+        String string = Integer.toString(number);
+        for (int i = string.length(); i < digits; i++) {
+            builder.append('0');
+        }
+        return builder.append(string);
+    }
+
+    /**
+     * Replaces characters that would break a manifest record.
+     *
+     * @param field the field; or null.
+     * @return the sanitized field.
+     */
+    private static String sanitizeField(String field) {
+        if (field == null) {
+            return "";
+        }
+        return field.replace(FIELD_SEPARATOR, ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    //
+    // Public inner classes.
+    //
+
+    /**
+     * A photo strip recorded in the manifest.
+     */
+    public static class Strip {
+
+        /**
+         * The path to the photo strip.
+         */
+        private final String mPath;
+
+        /**
+         * The time the photo strip was saved in milliseconds.
+         */
+        private final long mTimestamp;
+
+        /**
+         * The name of the template of the photo strip.
+         */
+        private final String mTemplate;
+
+        /**
+         * The short code of the photo strip; or null if none.
+         */
+        private final String mCode;
+
+        /**
+         * The result of the latest share to each service, by service name.
+         */
+        private final Map<String, Boolean> mShareStates = new HashMap<String, Boolean>();
+
+        /**
+         * Constructor.
+         *
+         * @param path      the path to the photo strip.
+         * @param timestamp the time the photo strip was saved in milliseconds.
+         * @param template  the name of the template of the photo strip.
+         * @param code      the short code of the photo strip; or null if none.
+         */
+        private Strip(String path, long timestamp, String template, String code) {
+            mPath = path;
+            mTimestamp = timestamp;
+            mTemplate = template;
+            mCode = code;
+        }
+
+        /**
+         * Gets the path to the photo strip.
+         *
+         * @return the path.
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        /**
+         * Gets the time the photo strip was saved.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * Gets the name of the template of the photo strip.
+         *
+         * @return the template name.
+         */
+        public String getTemplate() {
+            return mTemplate;
+        }
+
+        /**
+         * Gets the short code of the photo strip.
+         *
+         * @return the code; or null if none.
+         */
+        public String getCode() {
+            return mCode;
+        }
+
+        /**
+         * Gets the result of the latest share to each service.
+         *
+         * @return true for each service the photo strip was shared to, and false for each service that failed, by
+         * service name.
+         */
+        public Map<String, Boolean> getShareStates() {
+            return Collections.unmodifiableMap(mShareStates);
+        }
+    }
+}
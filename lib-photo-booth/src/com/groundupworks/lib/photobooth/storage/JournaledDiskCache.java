@@ -0,0 +1,552 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A size-limited cache of files in a directory, indexed by an append-only journal. The journal records every put,
+ * read and remove, and is replayed into an in-memory index of key to size and last access time when the cache is
+ * opened, so existence checks and eviction never touch the cached files. When the total size exceeds the limit, the
+ * least recently used files are deleted. The journal is compacted once it holds many more records than entries.
+ * <p/>
+ * Each file is named by its key, so keys are restricted to letters, digits, '-' and '_'. The cache opens lazily on
+ * first use, so it can be constructed on the main thread. All methods are thread-safe.
+ *
+ * @author Benedict Lau
+ */
+public class JournaledDiskCache {
+
+    /**
+     * The name of the journal file.
+     */
+    private static final String JOURNAL_FILENAME = "journal";
+
+    /**
+     * The name of the journal file while it is being compacted.
+     */
+    private static final String JOURNAL_TEMP_FILENAME = JOURNAL_FILENAME + AtomicFileWriter.TEMP_SUFFIX;
+
+    /**
+     * The first line of the journal file.
+     */
+    private static final String JOURNAL_MAGIC = "com.groundupworks.lib.photobooth.storage.JournaledDiskCache";
+
+    /**
+     * The version of the journal format.
+     */
+    private static final String JOURNAL_VERSION = "1";
+
+    /**
+     * Journal record of a file being put, followed by the key, size and timestamp.
+     */
+    private static final String RECORD_PUT = "PUT";
+
+    /**
+     * Journal record of a file being read, followed by the key and timestamp.
+     */
+    private static final String RECORD_READ = "READ";
+
+    /**
+     * Journal record of a file being removed, followed by the key.
+     */
+    private static final String RECORD_REMOVE = "REMOVE";
+
+    /**
+     * The number of redundant journal records above which the journal is compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    /**
+     * The pattern of valid keys.
+     */
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,120}");
+
+    /**
+     * The cache directory.
+     */
+    private final File mDirectory;
+
+    /**
+     * The max total size of the cached files in bytes.
+     */
+    private final long mMaxSize;
+
+    /**
+     * The index of key to entry, in least to most recently used order.
+     */
+    private final LinkedHashMap<String, Entry> mIndex = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * The writer appending to the journal; or null if the cache is not open.
+     */
+    private Writer mJournalWriter = null;
+
+    /**
+     * The total size of the cached files in bytes.
+     */
+    private long mSize = 0L;
+
+    /**
+     * The number of journal records that no longer describe an entry.
+     */
+    private int mRedundantRecordCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param directory the cache directory. It is created if it does not exist, and any files in it not recorded in
+     *                  the journal are deleted.
+     * @param maxSize   the max total size of the cached files in bytes.
+     */
+    public JournaledDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Checks whether a key is valid for this cache.
+     *
+     * @param key the key.
+     * @return true if valid; false otherwise.
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && KEY_PATTERN.matcher(key).matches();
+    }
+
+    /**
+     * Gets the path of the file for a key, whether or not it is cached. Write the file to this path, then call
+     * {@link #commit(String)} to add it to the cache.
+     *
+     * @param key the key.
+     * @return the file; or null if the key is invalid or the cache failed to open.
+     */
+    public synchronized File getFile(String key) {
+        if (!isValidKey(key) || !open()) {
+            return null;
+        }
+        return new File(mDirectory, key);
+    }
+
+    /**
+     * Checks whether a key is in the cache, without touching its file or changing its recency.
+     *
+     * @param key the key.
+     * @return true if cached; false otherwise.
+     */
+    public synchronized boolean contains(String key) {
+        return open() && mIndex.containsKey(key);
+    }
+
+    /**
+     * Gets the file for a key and marks it most recently used.
+     *
+     * @param key the key.
+     * @return the file; or null if not cached.
+     */
+    public synchronized File get(String key) {
+        if (!open()) {
+            return null;
+        }
+
+        Entry entry = mIndex.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        entry.mTimestamp = System.currentTimeMillis();
+        appendRecord(RECORD_READ + ' ' + key + ' ' + entry.mTimestamp);
+        mRedundantRecordCount++;
+        compactIfNeeded();
+        return new File(mDirectory, key);
+    }
+
+    /**
+     * Adds the file already written to {@link #getFile(String)} to the cache, replacing any previous entry, and
+     * evicts the least recently used files if the cache is over its size limit. The committed file is never evicted,
+     * even if it alone is over the size limit.
+     *
+     * @param key the key.
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean commit(String key) {
+        if (!isValidKey(key) || !open()) {
+            return false;
+        }
+
+        File file = new File(mDirectory, key);
+        if (!file.isFile()) {
+            return false;
+        }
+
+        Entry entry = new Entry(file.length(), System.currentTimeMillis());
+        Entry previous = mIndex.put(key, entry);
+        if (previous != null) {
+            mSize -= previous.mSize;
+            mRedundantRecordCount++;
+        }
+        mSize += entry.mSize;
+        appendRecord(RECORD_PUT + ' ' + key + ' ' + entry.mSize + ' ' + entry.mTimestamp);
+
+        trimToSize(key);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Encodes data and writes it atomically to the file for a key, then adds it to the cache.
+     *
+     * @param key     the key.
+     * @param encoder the {@link AtomicFileWriter.Encoder}.
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean put(String key, AtomicFileWriter.Encoder encoder) {
+        File file = getFile(key);
+        return file != null && AtomicFileWriter.getInstance().write(encoder, file) && commit(key);
+    }
+
+    /**
+     * Removes a key from the cache and deletes its file.
+     *
+     * @param key the key.
+     * @return true if the key was cached and removed; false otherwise.
+     */
+    public synchronized boolean remove(String key) {
+        if (!open()) {
+            return false;
+        }
+
+        Entry entry = mIndex.remove(key);
+        if (entry == null) {
+            return false;
+        }
+
+        deleteEntry(key, entry);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Gets the total size of the cached files.
+     *
+     * @return the size in bytes.
+     */
+    public synchronized long getSize() {
+        open();
+        return mSize;
+    }
+
+    /**
+     * Gets the max total size of the cached files.
+     *
+     * @return the size in bytes.
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Gets the number of cached files.
+     *
+     * @return the entry count.
+     */
+    public synchronized int getEntryCount() {
+        open();
+        return mIndex.size();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Opens the cache if it is not already open, by replaying the journal into the index and deleting files that are
+     * not indexed. A missing or corrupt journal starts an empty cache.
+     *
+     * @return true if the cache is open; false otherwise.
+     */
+    private boolean open() {
+        if (mJournalWriter != null) {
+            return true;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LogsHelper.slog(JournaledDiskCache.class, "open", "Failed to create " + mDirectory);
+            return false;
+        }
+
+        File journal = new File(mDirectory, JOURNAL_FILENAME);
+        boolean isReplayed = journal.isFile() && readJournal(journal);
+        if (!isReplayed) {
+            mIndex.clear();
+            mSize = 0L;
+            mRedundantRecordCount = 0;
+        }
+
+        // Delete files that are not indexed, including files written but never committed before a crash.
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL_FILENAME) && !mIndex.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        if (isReplayed) {
+            try {
+                mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true)));
+            } catch (IOException e) {
+                LogsHelper.slog(JournaledDiskCache.class, "open", "Failed to open journal: " + e.getMessage());
+                return false;
+            }
+            compactIfNeeded();
+        } else {
+            rewriteJournal();
+        }
+        return mJournalWriter != null;
+    }
+
+    /**
+     * Replays the journal into the index.
+     *
+     * @param journal the journal file.
+     * @return true if successful; false if the journal is unreadable or corrupt.
+     */
+    private boolean readJournal(File journal) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal)));
+            try {
+                if (!JOURNAL_MAGIC.equals(reader.readLine()) || !JOURNAL_VERSION.equals(reader.readLine())) {
+                    return false;
+                }
+
+                int recordCount = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!readRecord(line)) {
+                        // A record cut short by a crash can only be the last one.
+                        return reader.readLine() == null;
+                    }
+                    recordCount++;
+                }
+                mRedundantRecordCount = recordCount - mIndex.size();
+                return true;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(JournaledDiskCache.class, "readJournal", "Failed to read journal: " + e.getMessage());
+            return false;
+        } catch (NumberFormatException e) {
+            LogsHelper.slog(JournaledDiskCache.class, "readJournal", "Corrupt journal: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Applies one journal record to the index.
+     *
+     * @param line the record.
+     * @return true if successful; false if the record is malformed.
+     */
+    private boolean readRecord(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length < 2 || !isValidKey(fields[1])) {
+            return false;
+        }
+
+        String key = fields[1];
+        if (RECORD_PUT.equals(fields[0]) && fields.length == 4) {
+            Entry entry = new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+            Entry previous = mIndex.put(key, entry);
+            if (previous != null) {
+                mSize -= previous.mSize;
+            }
+            mSize += entry.mSize;
+        } else if (RECORD_READ.equals(fields[0]) && fields.length == 3) {
+            Entry entry = mIndex.get(key);
+            if (entry != null) {
+                entry.mTimestamp = Long.parseLong(fields[2]);
+            }
+        } else if (RECORD_REMOVE.equals(fields[0]) && fields.length == 2) {
+            Entry entry = mIndex.remove(key);
+            if (entry != null) {
+                mSize -= entry.mSize;
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends a record to the journal.
+     *
+     * @param record the record.
+     */
+    private void appendRecord(String record) {
+        try {
+            mJournalWriter.write(record);
+            mJournalWriter.write('\n');
+            mJournalWriter.flush();
+        } catch (IOException e) {
+            LogsHelper.slog(JournaledDiskCache.class, "appendRecord", "Failed to append: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes an entry's file and journals the removal. The entry must already be removed from the index.
+     *
+     * @param key   the key.
+     * @param entry the removed entry.
+     */
+    private void deleteEntry(String key, Entry entry) {
+        new File(mDirectory, key).delete();
+        mSize -= entry.mSize;
+        appendRecord(RECORD_REMOVE + ' ' + key);
+
+        // The put record of the entry and this remove record are both redundant now.
+        mRedundantRecordCount += 2;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is within its size limit.
+     *
+     * @param keepKey the key of the entry just committed, which is never evicted.
+     */
+    private void trimToSize(String keepKey) {
+        if (mSize <= mMaxSize) {
+            return;
+        }
+
+        int evictedCount = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = mIndex.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keepKey)) {
+                continue;
+            }
+
+            iterator.remove();
+            deleteEntry(eldest.getKey(), eldest.getValue());
+            evictedCount++;
+        }
+
+        LogsHelper.slog(JournaledDiskCache.class, "trimToSize", "Evicted " + evictedCount + " files from "
+                + mDirectory);
+    }
+
+    /**
+     * Compacts the journal if it holds too many redundant records.
+     */
+    private void compactIfNeeded() {
+        if (mRedundantRecordCount >= COMPACT_THRESHOLD && mRedundantRecordCount >= mIndex.size()) {
+            rewriteJournal();
+        }
+    }
+
+    /**
+     * Rewrites the journal with one record per entry, replacing the old journal atomically.
+     */
+    private void rewriteJournal() {
+        if (mJournalWriter != null) {
+            try {
+                mJournalWriter.close();
+            } catch (IOException e) {
+                // Do nothing.
+            }
+            mJournalWriter = null;
+        }
+
+        File journal = new File(mDirectory, JOURNAL_FILENAME);
+        File tempJournal = new File(mDirectory, JOURNAL_TEMP_FILENAME);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempJournal)));
+            try {
+                writer.write(JOURNAL_MAGIC + '\n' + JOURNAL_VERSION + '\n');
+                for (Map.Entry<String, Entry> entry : mIndex.entrySet()) {
+                    Entry value = entry.getValue();
+                    writer.write(RECORD_PUT + ' ' + entry.getKey() + ' ' + value.mSize + ' ' + value.mTimestamp
+                            + '\n');
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (!tempJournal.renameTo(journal)) {
+                throw new IOException("Failed to rename " + tempJournal);
+            }
+            mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true)));
+            mRedundantRecordCount = 0;
+        } catch (IOException e) {
+            LogsHelper.slog(JournaledDiskCache.class, "rewriteJournal", "Failed to rewrite journal: "
+                    + e.getMessage());
+            tempJournal.delete();
+        }
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * An entry in the index.
+     */
+    private static class Entry {
+
+        /**
+         * The size of the file in bytes.
+         */
+        private final long mSize;
+
+        /**
+         * The time of the last put or read in milliseconds.
+         */
+        private long mTimestamp;
+
+        /**
+         * Constructor.
+         *
+         * @param size      the size of the file in bytes.
+         * @param timestamp the time of the last put or read in milliseconds.
+         */
+        private Entry(long size, long timestamp) {
+            mSize = size;
+            mTimestamp = timestamp;
+        }
+    }
+}
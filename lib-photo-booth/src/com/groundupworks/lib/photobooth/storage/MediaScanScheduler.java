@@ -0,0 +1,302 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.groundupworks.lib.photobooth.framework.BaseApplication;
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Adds saved images to the Android Gallery in batches, so the media scanner does not compete with the next capture.
+ * Paths are collected and registered with one {@link MediaScannerConnection#scanFile} call once the booth has been idle
+ * for a while, or once the oldest path has waited the max delay. Pending paths are persisted so a crash does not lose
+ * them; call {@link #restore()} on startup to register them.
+ * <p/>
+ * All work runs on the worker thread of {@link BaseApplication}.
+ *
+ * @author Benedict Lau
+ */
+public class MediaScanScheduler {
+
+    /**
+     * The time in milliseconds without activity after which the booth is considered idle.
+     */
+    private static final long IDLE_DELAY = 10000L;
+
+    /**
+     * The max time in milliseconds that a path waits to be registered.
+     */
+    private static final long MAX_DELAY = 120000L;
+
+    /**
+     * The name of the file that persists pending paths, in the application files directory.
+     */
+    private static final String PENDING_FILENAME = "media_scan_pending";
+
+    /**
+     * The encoding of the pending paths file.
+     */
+    private static final String PENDING_ENCODING = "UTF-8";
+
+    /**
+     * The scheduler with application scope.
+     */
+    private static MediaScanScheduler sInstance = null;
+
+    /**
+     * The application {@link Context}.
+     */
+    private final Context mContext;
+
+    /**
+     * Handler of the thread that all work runs on.
+     */
+    private final Handler mHandler;
+
+    /**
+     * The file that persists pending paths.
+     */
+    private final File mPendingFile;
+
+    /**
+     * The paths waiting to be registered, in the order they were saved. Only accessed on the handler thread.
+     */
+    private final Set<String> mPendingPaths = new LinkedHashSet<String>();
+
+    /**
+     * The uptime when the oldest pending path was added. Only accessed on the handler thread.
+     */
+    private long mFirstPendingTime = 0L;
+
+    /**
+     * The uptime of the last activity.
+     */
+    private volatile long mLastActivityTime = 0L;
+
+    /**
+     * Registers the pending paths if the booth is idle or the max delay has passed, otherwise checks again later.
+     */
+    private final Runnable mFlushCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (mPendingPaths.isEmpty()) {
+                return;
+            }
+
+            long now = SystemClock.uptimeMillis();
+            if (now >= mLastActivityTime + IDLE_DELAY || now >= mFirstPendingTime + MAX_DELAY) {
+                flushPendingPaths();
+            } else {
+                scheduleFlushCheck();
+            }
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param context the application {@link Context}.
+     * @param looper  the {@link Looper} of the thread that all work runs on.
+     */
+    private MediaScanScheduler(Context context, Looper looper) {
+        mContext = context;
+        mHandler = new Handler(looper);
+        mPendingFile = new File(context.getFilesDir(), PENDING_FILENAME);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the scheduler with application scope.
+     *
+     * @return the {@link MediaScanScheduler}.
+     */
+    public static synchronized MediaScanScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new MediaScanScheduler(BaseApplication.getContext(), BaseApplication.getWorkerLooper());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Asynchronously loads the paths left pending by a previous run and schedules their registration. Call once on
+     * startup.
+     */
+    public void restore() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Set<String> paths = readPendingPaths();
+                if (!paths.isEmpty()) {
+                    LogsHelper.slog(MediaScanScheduler.class, "restore", "Restored " + paths.size() + " paths");
+                    addPendingPaths(paths);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a saved image to be added to the Android Gallery. The mime type is inferred from the file extension.
+     * Saving an image also counts as activity.
+     *
+     * @param path the path to the image.
+     */
+    public void scan(final String path) {
+        if (path == null) {
+            return;
+        }
+
+        onActivity();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Set<String> paths = new LinkedHashSet<String>();
+                paths.add(path);
+                addPendingPaths(paths);
+            }
+        });
+    }
+
+    /**
+     * Notifies the scheduler of user or capture activity, which postpones registration until the booth is idle
+     * again. Cheap enough to call from any thread on every event.
+     */
+    public void onActivity() {
+        mLastActivityTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Asynchronously registers all pending paths now.
+     */
+    public void flush() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mPendingPaths.isEmpty()) {
+                    flushPendingPaths();
+                }
+            }
+        });
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Adds paths to the pending paths, persists them and schedules their registration. Must be called on the handler
+     * thread.
+     *
+     * @param paths the paths to add.
+     */
+    private void addPendingPaths(Set<String> paths) {
+        if (mPendingPaths.isEmpty()) {
+            mFirstPendingTime = SystemClock.uptimeMillis();
+        }
+        mPendingPaths.addAll(paths);
+        writePendingPaths();
+        scheduleFlushCheck();
+    }
+
+    /**
+     * Schedules the next flush check for when the booth would become idle or the max delay would pass, whichever
+     * comes first. Must be called on the handler thread.
+     */
+    private void scheduleFlushCheck() {
+        long checkTime = Math.min(mLastActivityTime + IDLE_DELAY, mFirstPendingTime + MAX_DELAY);
+        mHandler.removeCallbacks(mFlushCheck);
+        mHandler.postAtTime(mFlushCheck, checkTime);
+    }
+
+    /**
+     * Registers all pending paths with the media scanner in one batch and clears them. Must be called on the handler
+     * thread.
+     */
+    private void flushPendingPaths() {
+        mHandler.removeCallbacks(mFlushCheck);
+
+        String[] paths = mPendingPaths.toArray(new String[mPendingPaths.size()]);
+        MediaScannerConnection.scanFile(mContext, paths, null, null);
+        LogsHelper.slog(MediaScanScheduler.class, "flushPendingPaths", "Registered " + paths.length + " paths");
+
+        mPendingPaths.clear();
+        mPendingFile.delete();
+    }
+
+    /**
+     * Persists the pending paths, one per line.
+     */
+    private void writePendingPaths() {
+        StringBuilder builder = new StringBuilder();
+        for (String path : mPendingPaths) {
+            builder.append(path).append('\n');
+        }
+
+        try {
+            AtomicFileWriter.getInstance().write(builder.toString().getBytes(PENDING_ENCODING), mPendingFile);
+        } catch (UnsupportedEncodingException e) {
+            // Do nothing.
+        }
+    }
+
+    /**
+     * Reads the persisted pending paths.
+     *
+     * @return the paths; or an empty set if none.
+     */
+    private Set<String> readPendingPaths() {
+        Set<String> paths = new LinkedHashSet<String>();
+        if (!mPendingFile.isFile()) {
+            return paths;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mPendingFile),
+                    PENDING_ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        paths.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(MediaScanScheduler.class, "readPendingPaths", "Failed to read " + mPendingFile + ": "
+                    + e.getMessage());
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A policy for evicting old photo strips recorded in event manifests. Photo strips are evicted oldest first, either
+ * when they are older than a max age, or while free space is below a floor. A policy can be limited to photo strips
+ * that have been shared to at least one service, so a photo strip is never evicted unless a copy exists elsewhere.
+ *
+ * @author Benedict Lau
+ */
+public class RetentionPolicy {
+
+    /**
+     * The max age of a photo strip in milliseconds; or 0 for no limit.
+     */
+    private final long mMaxAge;
+
+    /**
+     * The free bytes to keep on storage; or 0 for no floor.
+     */
+    private final long mMinFreeBytes;
+
+    /**
+     * Flag to track whether only photo strips shared to a service may be evicted.
+     */
+    private final boolean mIsSharedOnly;
+
+    /**
+     * Constructor.
+     *
+     * @param maxAge       the max age of a photo strip in milliseconds; or 0 for no limit.
+     * @param minFreeBytes the free bytes to keep on storage; or 0 for no floor.
+     * @param isSharedOnly true to only evict photo strips that have been shared to at least one service.
+     */
+    public RetentionPolicy(long maxAge, long minFreeBytes, boolean isSharedOnly) {
+        mMaxAge = maxAge;
+        mMinFreeBytes = minFreeBytes;
+        mIsSharedOnly = isSharedOnly;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the max age of a photo strip.
+     *
+     * @return the max age in milliseconds; or 0 for no limit.
+     */
+    public long getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * Gets the free bytes to keep on storage.
+     *
+     * @return the free bytes; or 0 for no floor.
+     */
+    public long getMinFreeBytes() {
+        return mMinFreeBytes;
+    }
+
+    /**
+     * Checks whether only photo strips shared to a service may be evicted.
+     *
+     * @return true if only shared photo strips may be evicted; false otherwise.
+     */
+    public boolean isSharedOnly() {
+        return mIsSharedOnly;
+    }
+
+    /**
+     * Checks whether the policy needs to run.
+     *
+     * @param freeBytes the free bytes on storage.
+     * @return true if a max age is set or free space is below the floor; false otherwise.
+     */
+    public boolean isDue(long freeBytes) {
+        return mMaxAge > 0L || freeBytes < mMinFreeBytes;
+    }
+
+    /**
+     * Evicts photo strips from events according to the policy. Call from a background thread.
+     *
+     * @param events    the {@link EventStorage} of each event.
+     * @param freeBytes the free bytes on storage.
+     * @return the number of bytes freed.
+     */
+    public long apply(List<EventStorage> events, long freeBytes) {
+        // Collect photo strips from all events, oldest first.
+        List<EventStrip> eventStrips = new ArrayList<EventStrip>();
+        for (EventStorage event : events) {
+            for (EventStorage.Strip strip : event.getStrips()) {
+                eventStrips.add(new EventStrip(event, strip));
+            }
+        }
+        Collections.sort(eventStrips, new Comparator<EventStrip>() {
+            @Override
+            public int compare(EventStrip lhs, EventStrip rhs) {
+                long lhsTimestamp = lhs.mStrip.getTimestamp();
+                long rhsTimestamp = rhs.mStrip.getTimestamp();
+                return lhsTimestamp < rhsTimestamp ? -1 : (lhsTimestamp == rhsTimestamp ? 0 : 1);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        long freedBytes = 0L;
+        int evictedCount = 0;
+        for (EventStrip eventStrip : eventStrips) {
+            boolean isExpired = mMaxAge > 0L && now - eventStrip.mStrip.getTimestamp() > mMaxAge;
+            boolean isSpaceNeeded = freeBytes < mMinFreeBytes - freedBytes;
+            if (!isExpired && !isSpaceNeeded) {
+                // Photo strips are sorted oldest first, so none of the rest are expired either.
+                break;
+            }
+
+            if (!mIsSharedOnly || eventStrip.mStrip.getShareStates().containsValue(Boolean.TRUE)) {
+                freedBytes += eventStrip.mEvent.removeStrip(eventStrip.mStrip);
+                evictedCount++;
+            }
+        }
+
+        if (evictedCount > 0) {
+            LogsHelper.slog(RetentionPolicy.class, "apply", "Evicted " + evictedCount + " photo strips, freeing "
+                    + freedBytes + " bytes");
+        }
+        return freedBytes;
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * A photo strip and the event it belongs to.
+     */
+    private static class EventStrip {
+
+        /**
+         * The event.
+         */
+        private final EventStorage mEvent;
+
+        /**
+         * The photo strip.
+         */
+        private final EventStorage.Strip mStrip;
+
+        /**
+         * Constructor.
+         *
+         * @param event the event.
+         * @param strip the photo strip.
+         */
+        private EventStrip(EventStorage event, EventStorage.Strip strip) {
+            mEvent = event;
+            mStrip = strip;
+        }
+    }
+}
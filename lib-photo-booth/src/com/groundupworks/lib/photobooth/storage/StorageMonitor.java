@@ -0,0 +1,310 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ *
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.storage;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.StatFs;
+
+import com.groundupworks.lib.photobooth.framework.BaseApplication;
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+import com.groundupworks.lib.photobooth.helpers.StorageHelper;
+
+/**
+ * Tracks the state and free space of external storage on its own background thread, so the save path can check them
+ * with a field read instead of a storage call, and refreshes never stall the capture worker. Free space is refreshed
+ * periodically and whenever storage is mounted or unmounted, and is decremented as files are written in between.
+ * Cached directories are cleared on mount and unmount.
+ * <p/>
+ * A {@link RetentionPolicy} can be set to evict old photo strips from the events in an image folder when a refresh
+ * finds them due. When an eviction pass frees nothing, the next pass is backed off, so a full event scan does not
+ * repeat on every refresh while there is nothing left to evict.
+ *
+ * @author Benedict Lau
+ */
+public class StorageMonitor {
+
+    /**
+     * The default free bytes needed to accept a new capture.
+     */
+    public static final long DEFAULT_MIN_FREE_BYTES = 50L * 1024L * 1024L;
+
+    /**
+     * The interval in milliseconds between refreshes.
+     */
+    private static final long REFRESH_INTERVAL = 30000L;
+
+    /**
+     * The min interval in milliseconds between runs of a retention policy with a max age, and the max back off
+     * between runs that free nothing.
+     */
+    private static final long RETENTION_INTERVAL = 60L * 60L * 1000L;
+
+    /**
+     * The name of the thread that refreshes run on.
+     */
+    private static final String MONITOR_THREAD_NAME = "storageMonitorThread";
+
+    /**
+     * The monitor with application scope.
+     */
+    private static StorageMonitor sInstance = null;
+
+    /**
+     * The application {@link Context}.
+     */
+    private final Context mContext;
+
+    /**
+     * Handler of the thread that refreshes run on.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Flag to track whether external storage is mounted.
+     */
+    private volatile boolean mIsStorageAvailable;
+
+    /**
+     * The estimated free bytes on external storage.
+     */
+    private volatile long mFreeBytes = Long.MAX_VALUE;
+
+    /**
+     * The free bytes needed to accept a new capture.
+     */
+    private volatile long mMinFreeBytes = DEFAULT_MIN_FREE_BYTES;
+
+    /**
+     * The retention policy; or null if none. Only accessed on the handler thread.
+     */
+    private RetentionPolicy mRetentionPolicy = null;
+
+    /**
+     * The image folder the retention policy applies to. Only accessed on the handler thread.
+     */
+    private String mRetentionImageFolder = null;
+
+    /**
+     * The time the retention policy last ran in milliseconds. Only accessed on the handler thread.
+     */
+    private long mLastRetentionTime = 0L;
+
+    /**
+     * The min interval in milliseconds before the retention policy runs again to free space, doubled each time a run
+     * frees nothing. Only accessed on the handler thread.
+     */
+    private long mRetentionBackoff = 0L;
+
+    /**
+     * Flag to track whether the monitor is started.
+     */
+    private boolean mIsStarted = false;
+
+    /**
+     * Refreshes and schedules the next refresh.
+     */
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            mHandler.removeCallbacks(mRefresh);
+            mHandler.postDelayed(mRefresh, REFRESH_INTERVAL);
+        }
+    };
+
+    /**
+     * Receives external storage mount and unmount broadcasts.
+     */
+    private final BroadcastReceiver mMediaReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            LogsHelper.slog(StorageMonitor.class, "onReceive", intent.getAction());
+            mIsStorageAvailable = StorageHelper.isExternalStorageAvailable();
+            StorageHelper.clearDirectoryCache();
+            EventStorage.clearDirectoryCaches();
+            mHandler.post(mRefresh);
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param context the application {@link Context}.
+     * @param looper  the {@link Looper} of the thread that refreshes run on.
+     */
+    private StorageMonitor(Context context, Looper looper) {
+        mContext = context;
+        mHandler = new Handler(looper);
+        mIsStorageAvailable = StorageHelper.isExternalStorageAvailable();
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the monitor with application scope.
+     *
+     * @return the {@link StorageMonitor}.
+     */
+    public static synchronized StorageMonitor getInstance() {
+        if (sInstance == null) {
+            HandlerThread monitorThread = new HandlerThread(MONITOR_THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+            monitorThread.start();
+            sInstance = new StorageMonitor(BaseApplication.getContext(), monitorThread.getLooper());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts listening for mount and unmount broadcasts and refreshing in the background. Call on the main thread.
+     */
+    public synchronized void start() {
+        if (mIsStarted) {
+            return;
+        }
+        mIsStarted = true;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_EJECT);
+        filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+        filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+        filter.addAction(Intent.ACTION_MEDIA_SHARED);
+        filter.addDataScheme("file");
+        mContext.registerReceiver(mMediaReceiver, filter);
+
+        mHandler.post(mRefresh);
+    }
+
+    /**
+     * Checks whether external storage is mounted, as of the last broadcast or refresh.
+     *
+     * @return true if available; false otherwise.
+     */
+    public boolean isStorageAvailable() {
+        return mIsStorageAvailable;
+    }
+
+    /**
+     * Gets the estimated free bytes on external storage.
+     *
+     * @return the free bytes; or {@link Long#MAX_VALUE} before the first refresh.
+     */
+    public long getFreeBytes() {
+        return mFreeBytes;
+    }
+
+    /**
+     * Checks whether there is enough storage to accept a new capture. Only reads the state cached by the last refresh,
+     * never storage itself, so it is cheap enough to call on every frame.
+     *
+     * @return true if external storage is available and has enough free space; false otherwise.
+     */
+    public boolean hasSpaceForCapture() {
+        return mIsStorageAvailable && mFreeBytes >= mMinFreeBytes;
+    }
+
+    /**
+     * Sets the free bytes needed to accept a new capture.
+     *
+     * @param minFreeBytes the free bytes.
+     */
+    public void setMinFreeBytes(long minFreeBytes) {
+        mMinFreeBytes = minFreeBytes;
+    }
+
+    /**
+     * Updates the free space estimate after writing files, until the next refresh measures it.
+     *
+     * @param bytes the number of bytes written.
+     */
+    public void onBytesWritten(long bytes) {
+        mFreeBytes = Math.max(0L, mFreeBytes - bytes);
+    }
+
+    /**
+     * Sets the retention policy applied to the events in an image folder on refresh.
+     *
+     * @param policy      the {@link RetentionPolicy}; or null to evict nothing.
+     * @param imageFolder the image folder name.
+     */
+    public void setRetentionPolicy(final RetentionPolicy policy, final String imageFolder) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRetentionPolicy = policy;
+                mRetentionImageFolder = imageFolder;
+                mLastRetentionTime = 0L;
+                mRetentionBackoff = 0L;
+            }
+        });
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Measures the state and free space of external storage, and applies the retention policy if due. Must be called
+     * on the handler thread.
+     */
+    private void refresh() {
+        boolean isStorageAvailable = StorageHelper.isExternalStorageAvailable();
+        long freeBytes = 0L;
+        if (isStorageAvailable) {
+            try {
+                StatFs statFs = new StatFs(Environment.getExternalStorageDirectory().getPath());
+                freeBytes = (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+            } catch (IllegalArgumentException e) {
+                LogsHelper.slog(StorageMonitor.class, "refresh", "Failed to stat storage: " + e.getMessage());
+                isStorageAvailable = false;
+            }
+        }
+
+        RetentionPolicy policy = mRetentionPolicy;
+        if (isStorageAvailable && policy != null && policy.isDue(freeBytes)) {
+            long now = System.currentTimeMillis();
+            boolean isSpaceNeeded = freeBytes < policy.getMinFreeBytes();
+            long interval = isSpaceNeeded ? mRetentionBackoff : RETENTION_INTERVAL;
+            if (now - mLastRetentionTime >= interval) {
+                mLastRetentionTime = now;
+                long freedBytes = policy.apply(EventStorage.getEvents(mRetentionImageFolder), freeBytes);
+                if (freedBytes > 0L) {
+                    freeBytes += freedBytes;
+                    mRetentionBackoff = 0L;
+                } else {
+                    // Nothing is evictable yet, so wait longer before scanning the events again.
+                    mRetentionBackoff = Math.min(Math.max(2L * mRetentionBackoff, REFRESH_INTERVAL),
+                            RETENTION_INTERVAL);
+                }
+            }
+        }
+
+        mIsStorageAvailable = isStorageAvailable;
+        mFreeBytes = freeBytes;
+    }
+}
@@ -0,0 +1,598 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.lib.photobooth.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+import com.groundupworks.lib.photobooth.storage.EncodedImageCache;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * View that displays a saved photo strip and supports pinch-zoom and panning without ever holding the full-resolution
+ * image in memory. A low-resolution preview of the whole strip is drawn first, then only the tiles visible at the
+ * current zoom are decoded with a {@link BitmapRegionDecoder} on a background thread and kept in a small LRU cache.
+ * A photo strip still in the {@link EncodedImageCache} is decoded from memory.
+ *
+ * @author Benedict Lau
+ */
+public class StripViewer extends View {
+
+    /**
+     * The width and height of a decoded tile in pixels.
+     */
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * The fraction of the max heap used by the tile cache.
+     */
+    private static final int TILE_CACHE_HEAP_FRACTION = 16;
+
+    /**
+     * The max scale relative to the full-resolution image.
+     */
+    private static final float MAX_SCALE = 2f;
+
+    /**
+     * The name of the tile decoding thread.
+     */
+    private static final String DECODE_THREAD_NAME = "stripViewerDecodeThread";
+
+    /**
+     * The paint used to draw scaled bitmaps.
+     */
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Handler to deliver decoded bitmaps on the ui thread.
+     */
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Cache of decoded tiles keyed by sample size and tile position. Only accessed on the ui thread.
+     */
+    private final LruCache<String, Bitmap> mTileCache = new LruCache<String, Bitmap>(
+            (int) (Runtime.getRuntime().maxMemory() / TILE_CACHE_HEAP_FRACTION)) {
+
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            oldValue.recycle();
+        }
+    };
+
+    /**
+     * The keys of the tiles queued for decoding.
+     */
+    private final Set<String> mPendingTiles = new HashSet<String>();
+
+    /**
+     * The thread that decodes tiles.
+     */
+    private HandlerThread mDecodeThread = null;
+
+    /**
+     * Handler to queue work on the decode thread.
+     */
+    private Handler mDecodeHandler = null;
+
+    /**
+     * The path to the displayed image; or null if no image is set.
+     */
+    private String mImagePath = null;
+
+    /**
+     * The region decoder of the displayed image; or null if not yet opened.
+     */
+    private BitmapRegionDecoder mDecoder = null;
+
+    /**
+     * The width of the full-resolution image.
+     */
+    private int mImageWidth = 0;
+
+    /**
+     * The height of the full-resolution image.
+     */
+    private int mImageHeight = 0;
+
+    /**
+     * The low-resolution preview of the whole image; or null if not yet decoded.
+     */
+    private Bitmap mPreview = null;
+
+    /**
+     * The sample size the preview is decoded at.
+     */
+    private int mPreviewSampleSize = 1;
+
+    /**
+     * A bitmap drawn in place of the preview until it is decoded; or null. Not owned by this view.
+     */
+    private Bitmap mPlaceholder = null;
+
+    /**
+     * The scale from image pixels to view pixels.
+     */
+    private float mScale = 1f;
+
+    /**
+     * The scale that fits the whole image in the view.
+     */
+    private float mFitScale = 1f;
+
+    /**
+     * The x position of the image origin in view pixels.
+     */
+    private float mTranslateX = 0f;
+
+    /**
+     * The y position of the image origin in view pixels.
+     */
+    private float mTranslateY = 0f;
+
+    /**
+     * Detector for pinch-zoom gestures.
+     */
+    private ScaleGestureDetector mScaleDetector;
+
+    /**
+     * Detector for pan and double-tap gestures.
+     */
+    private GestureDetector mGestureDetector;
+
+    /**
+     * Constructor.
+     *
+     * @param context the {@link Context} the view is running in, through which it can access the current theme, resources,
+     *                etc.
+     */
+    public StripViewer(Context context) {
+        super(context);
+        init(context);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param context the {@link Context} the view is running in, through which it can access the current theme, resources,
+     *                etc.
+     * @param attrs   the attributes of the XML tag that is inflating the view.
+     */
+    public StripViewer(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param context  the {@link Context} the view is running in, through which it can access the current theme, resources,
+     *                 etc.
+     * @param attrs    the attributes of the XML tag that is inflating the view.
+     * @param defStyle the default style to apply to this view. If 0, no style will be applied (beyond what is included in
+     *                 the theme). This may either be an attribute resource, whose value will be retrieved from the current
+     *                 theme, or an explicit style resource.
+     */
+    public StripViewer(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init(context);
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Sets the saved image to display.
+     *
+     * @param imagePath   the path to the Jpeg image.
+     * @param placeholder an optional low-resolution bitmap of the same image to draw until the preview is decoded. The
+     *                    caller keeps ownership of the placeholder. Pass null to disable.
+     */
+    public void setImage(String imagePath, Bitmap placeholder) {
+        releaseImage();
+
+        mImagePath = imagePath;
+        mPlaceholder = placeholder;
+        if (placeholder != null) {
+            mImageWidth = placeholder.getWidth();
+            mImageHeight = placeholder.getHeight();
+            resetScale();
+        }
+
+        if (mDecodeHandler != null) {
+            openImage();
+        }
+        invalidate();
+    }
+
+    //
+    // View implementation.
+    //
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        mDecodeThread = new HandlerThread(DECODE_THREAD_NAME);
+        mDecodeThread.start();
+        mDecodeHandler = new Handler(mDecodeThread.getLooper());
+
+        if (mImagePath != null) {
+            openImage();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        releaseImage();
+
+        // Quit after all queued work, since quitting directly would drop it.
+        final Handler decodeHandler = mDecodeHandler;
+        decodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myLooper().quit();
+            }
+        });
+        mDecodeHandler = null;
+        mDecodeThread = null;
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetScale();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean isHandled = mScaleDetector.onTouchEvent(event);
+        isHandled = mGestureDetector.onTouchEvent(event) || isHandled;
+        return isHandled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        Bitmap base = mPreview != null ? mPreview : mPlaceholder;
+        if (base == null || mImageWidth <= 0 || mImageHeight <= 0) {
+            return;
+        }
+
+        canvas.save();
+        canvas.translate(mTranslateX, mTranslateY);
+        canvas.scale(mScale, mScale);
+
+        // Draw the whole image at low resolution.
+        canvas.drawBitmap(base, null, new RectF(0, 0, mImageWidth, mImageHeight), mPaint);
+
+        // Draw the visible tiles if the zoom needs more detail than the preview has.
+        int sampleSize = getSampleSize(mScale);
+        if (mDecoder != null && sampleSize < mPreviewSampleSize) {
+            drawTiles(canvas, sampleSize);
+        }
+
+        canvas.restore();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Initializes the gesture detectors.
+     *
+     * @param context the {@link Context}.
+     */
+    private void init(Context context) {
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                float scale = Math.max(mFitScale, Math.min(mScale * detector.getScaleFactor(), getMaxScale()));
+                float focusX = detector.getFocusX();
+                float focusY = detector.getFocusY();
+                mTranslateX = focusX - (focusX - mTranslateX) * scale / mScale;
+                mTranslateY = focusY - (focusY - mTranslateY) * scale / mScale;
+                mScale = scale;
+                clampTranslation();
+                invalidate();
+                return true;
+            }
+        });
+
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                mTranslateX -= distanceX;
+                mTranslateY -= distanceY;
+                clampTranslation();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                resetScale();
+                invalidate();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Opens the region decoder and decodes the preview on the decode thread.
+     */
+    private void openImage() {
+        final String imagePath = mImagePath;
+        final int previewMaxSize = Math.max(Math.max(getWidth(), getHeight()), TILE_SIZE);
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                BitmapRegionDecoder decoder = null;
+                Bitmap preview = null;
+                int previewSampleSize = 1;
+                try {
+                    // Read a recently written Jpeg from memory instead of storage.
+                    byte[] jpegData = EncodedImageCache.getInstance().get(imagePath);
+                    if (jpegData != null) {
+                        decoder = BitmapRegionDecoder.newInstance(jpegData, 0, jpegData.length, false);
+                    } else {
+                        decoder = BitmapRegionDecoder.newInstance(imagePath, false);
+                    }
+
+                    // Decode the preview at the largest sample size that still fills the view.
+                    int longEdge = Math.max(decoder.getWidth(), decoder.getHeight());
+                    while (longEdge / (previewSampleSize * 2) >= previewMaxSize) {
+                        previewSampleSize *= 2;
+                    }
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = previewSampleSize;
+                    options.inPreferredConfig = Bitmap.Config.RGB_565;
+                    preview = decoder.decodeRegion(new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), options);
+                } catch (IOException e) {
+                    LogsHelper.slog(StripViewer.class, "openImage", "Failed to open " + imagePath);
+                }
+
+                final BitmapRegionDecoder openedDecoder = decoder;
+                final Bitmap openedPreview = preview;
+                final int openedSampleSize = previewSampleSize;
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (imagePath.equals(mImagePath) && openedDecoder != null && openedPreview != null) {
+                            mDecoder = openedDecoder;
+                            mPreview = openedPreview;
+                            mPreviewSampleSize = openedSampleSize;
+                            mImageWidth = openedDecoder.getWidth();
+                            mImageHeight = openedDecoder.getHeight();
+                            resetScale();
+                            invalidate();
+                        } else {
+                            // The image changed or failed to open.
+                            if (openedPreview != null) {
+                                openedPreview.recycle();
+                            }
+                            if (openedDecoder != null) {
+                                recycleDecoder(openedDecoder);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Releases the displayed image, its tiles and its decoder.
+     */
+    private void releaseImage() {
+        if (mDecodeHandler != null) {
+            mDecodeHandler.removeCallbacksAndMessages(null);
+        }
+        mPendingTiles.clear();
+        mTileCache.evictAll();
+
+        if (mPreview != null) {
+            mPreview.recycle();
+            mPreview = null;
+        }
+        if (mDecoder != null) {
+            recycleDecoder(mDecoder);
+            mDecoder = null;
+        }
+
+        mImagePath = null;
+        mPlaceholder = null;
+        mImageWidth = 0;
+        mImageHeight = 0;
+    }
+
+    /**
+     * Recycles a region decoder on the decode thread, after any decode in progress.
+     *
+     * @param decoder the decoder.
+     */
+    private void recycleDecoder(final BitmapRegionDecoder decoder) {
+        if (mDecodeHandler != null) {
+            mDecodeHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    decoder.recycle();
+                }
+            });
+        } else {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Draws the tiles visible in the view, and queues the missing ones for decoding. The canvas must be transformed to
+     * image coordinates.
+     *
+     * @param canvas     the canvas.
+     * @param sampleSize the sample size of the tiles.
+     */
+    private void drawTiles(Canvas canvas, int sampleSize) {
+        // Only the tiles visible now are worth decoding.
+        mDecodeHandler.removeCallbacksAndMessages(null);
+        mPendingTiles.clear();
+
+        // Find the visible region in image coordinates.
+        int left = Math.max(0, (int) (-mTranslateX / mScale));
+        int top = Math.max(0, (int) (-mTranslateY / mScale));
+        int right = Math.min(mImageWidth, (int) Math.ceil((getWidth() - mTranslateX) / mScale));
+        int bottom = Math.min(mImageHeight, (int) Math.ceil((getHeight() - mTranslateY) / mScale));
+
+        int tileImageSize = TILE_SIZE * sampleSize;
+        for (int row = top / tileImageSize; row * tileImageSize < bottom; row++) {
+            for (int col = left / tileImageSize; col * tileImageSize < right; col++) {
+                Rect region = new Rect(col * tileImageSize, row * tileImageSize,
+                        Math.min((col + 1) * tileImageSize, mImageWidth),
+                        Math.min((row + 1) * tileImageSize, mImageHeight));
+                String key = sampleSize + "/" + col + "/" + row;
+
+                Bitmap tile = mTileCache.get(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, region, mPaint);
+                } else {
+                    requestTile(key, region, sampleSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a tile for decoding. The tile is added to the cache and the view redrawn once decoded.
+     *
+     * @param key        the cache key of the tile.
+     * @param region     the region of the image covered by the tile.
+     * @param sampleSize the sample size to decode at.
+     */
+    private void requestTile(final String key, final Rect region, final int sampleSize) {
+        mPendingTiles.add(key);
+
+        final BitmapRegionDecoder decoder = mDecoder;
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSize;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                final Bitmap tile = decoder.isRecycled() ? null : decoder.decodeRegion(region, options);
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (tile != null) {
+                            if (decoder == mDecoder && mPendingTiles.remove(key)) {
+                                mTileCache.put(key, tile);
+                                invalidate();
+                            } else {
+                                tile.recycle();
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Resets the scale to fit the whole image in the view, centered.
+     */
+    private void resetScale() {
+        if (mImageWidth > 0 && mImageHeight > 0 && getWidth() > 0 && getHeight() > 0) {
+            mFitScale = Math.min((float) getWidth() / mImageWidth, (float) getHeight() / mImageHeight);
+            mScale = mFitScale;
+            clampTranslation();
+        }
+    }
+
+    /**
+     * Keeps the image within the view bounds, centered along axes where it is smaller than the view.
+     */
+    private void clampTranslation() {
+        float scaledWidth = mImageWidth * mScale;
+        float scaledHeight = mImageHeight * mScale;
+
+        if (scaledWidth <= getWidth()) {
+            mTranslateX = (getWidth() - scaledWidth) / 2f;
+        } else {
+            mTranslateX = Math.max(getWidth() - scaledWidth, Math.min(mTranslateX, 0f));
+        }
+
+        if (scaledHeight <= getHeight()) {
+            mTranslateY = (getHeight() - scaledHeight) / 2f;
+        } else {
+            mTranslateY = Math.max(getHeight() - scaledHeight, Math.min(mTranslateY, 0f));
+        }
+    }
+
+    /**
+     * Gets the max scale, which is never below the fit scale.
+     *
+     * @return the max scale.
+     */
+    private float getMaxScale() {
+        return Math.max(mFitScale, MAX_SCALE);
+    }
+
+    /**
+     * Gets the largest power-of-two sample size that still gives at least one image pixel per view pixel.
+     *
+     * @param scale the scale from image pixels to view pixels.
+     * @return the sample size.
+     */
+    private static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -19,6 +19,11 @@ package com.groundupworks.partyphotobooth;
 import android.os.Handler;
 
 import com.groundupworks.lib.photobooth.framework.BaseApplication;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.storage.MediaScanScheduler;
+import com.groundupworks.lib.photobooth.storage.RetentionPolicy;
+import com.groundupworks.lib.photobooth.storage.StorageMonitor;
+import com.groundupworks.partyphotobooth.controllers.PhotoStripSubmissionPipeline;
 
 /**
  * A concrete {@link BaseApplication} class.
@@ -35,7 +40,23 @@ public class MyApplication extends BaseApplication {
     @Override
     public void onCreate() {
         super.onCreate();
-        mCache = new PersistedBitmapCache(this, new Handler(getWorkerLooper()), new Handler(getMainLooper()));
+        mCache = new PersistedBitmapCache(this, new Handler(getMainLooper()));
+
+        // Track free space in the background, and evict the oldest shared photo strips when it runs low.
+        StorageMonitor monitor = StorageMonitor.getInstance();
+        monitor.setRetentionPolicy(new RetentionPolicy(0L, 2L * StorageMonitor.DEFAULT_MIN_FREE_BYTES, true),
+                getString(R.string.image_helper__image_folder_name));
+        monitor.start();
+
+        // Clean up writes interrupted by a crash, and add photo strips left pending to the Android Gallery.
+        new Handler(getWorkerLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                ImageHelper.recoverImageDirectories(getString(R.string.image_helper__image_folder_name));
+                PhotoStripSubmissionPipeline.getCurrentEventStorage().recover();
+                MediaScanScheduler.getInstance().restore();
+            }
+        });
     }
 
     //
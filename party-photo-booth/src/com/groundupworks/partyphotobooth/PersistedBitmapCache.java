@@ -21,62 +21,160 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
 
-import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
 import com.groundupworks.lib.photobooth.helpers.StorageHelper;
+import com.groundupworks.lib.photobooth.storage.JournaledDiskCache;
 import com.groundupworks.partyphotobooth.helpers.TextHelper;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A bitmap in-memory cache backed with disk storage using the cache directory. Note that the disk cache
  * may be cleared when the device runs out of storage space.
+ * <p/>
+ * The in-memory cache is bounded by the byte size of its bitmaps and evicts the least recently used ones first.
+ * Evicted bitmaps stay in the disk cache and are loaded again on the next {@link #asyncGet(String,
+ * PersistedBitmapCache.IAsyncGetCallbacks)}.
+ * <p/>
+ * Bitmaps are stored on disk as a small header followed by their raw pixel data, so loading is a memory-mapped copy
+ * into a new bitmap instead of an image decode. The disk cache is a {@link JournaledDiskCache} with a total size
+ * limit, so existence checks never touch the files. Bitmaps stored as PNG by older versions are migrated on first get.
+ * <p/>
+ * Async commands run on a few I/O threads owned by the cache, with each key always handled by the same thread so that
+ * commands on a key run in order. Concurrent gets for a key share one load, and each command returns a
+ * {@link Request} that callers can cancel when they go away.
  *
  * @author Benedict Lau
  */
 public class PersistedBitmapCache {
 
+    /**
+     * Magic number at the start of raw pixel cache files.
+     */
+    private static final int FILE_MAGIC = 0x50424331;
+
+    /**
+     * Version of the raw pixel cache file format.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Size of the raw pixel cache file header in bytes: magic, version, config, width, height and pixel byte count.
+     */
+    private static final int HEADER_SIZE = 6 * 4;
+
+    /**
+     * The suffix of temp files written before being renamed to their final name.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The default in-memory cache budget as a fraction of the max heap size.
+     */
+    private static final int DEFAULT_MEM_CACHE_DIVISOR = 8;
+
+    /**
+     * The default disk cache size limit in bytes.
+     */
+    public static final long DEFAULT_DISK_CACHE_SIZE = 32L * 1024L * 1024L;
+
+    /**
+     * The name of the disk cache directory within the application cache directory.
+     */
+    private static final String DISK_CACHE_DIRNAME = "bitmaps";
+
+    /**
+     * The number of I/O threads.
+     */
+    private static final int IO_LANE_COUNT = 2;
+
+    /**
+     * The name prefix of the I/O threads.
+     */
+    private static final String IO_THREAD_NAME = "bitmapCacheIoThread";
+
     /**
      * In-memory cache.
      */
-    private final Map<String, Bitmap> mMemCache;
+    private final BitmapLruCache mMemCache;
 
     /**
-     * The disk cache directory.
+     * The disk cache.
      */
-    private final File mDiskCacheDir;
+    private final JournaledDiskCache mDiskCache;
 
     /**
-     * Handler for background tasks.
+     * The application cache directory, where older versions stored bitmaps as PNG.
      */
-    private final Handler mWorkerHandler;
+    private final File mLegacyCacheDir;
+
+    /**
+     * Handlers of the I/O threads that process async commands.
+     */
+    private final Handler[] mIoLanes;
+
+    /**
+     * Memoized disk cache filenames by key.
+     */
+    private final Map<String, String> mFilenames = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The callers waiting on each key being loaded by an async get. Guarded by itself.
+     */
+    private final Map<String, List<PendingGet>> mPendingGets = new HashMap<String, List<PendingGet>>();
 
     /**
      * Handler for callbacks.
      */
     private final Handler mCallbackHandler;
 
+    /**
+     * Constructor. The in-memory cache budget is {@link #getDefaultMemCacheSize()} and the disk cache size limit is
+     * {@link #DEFAULT_DISK_CACHE_SIZE}.
+     *
+     * @param context         the {@link Context}.
+     * @param callbackHandler a {@link Handler} associated with the thread that callbacks will be posted
+     *                        to. Pass null to post callbacks to the main thread.
+     */
+    public PersistedBitmapCache(Context context, Handler callbackHandler) {
+        this(context, callbackHandler, getDefaultMemCacheSize(), DEFAULT_DISK_CACHE_SIZE);
+    }
+
     /**
      * Constructor.
      *
      * @param context         the {@link Context}.
-     * @param workerHandler   a {@link Handler} associated with the background thread that will be used
-     *                        to process async commands.
      * @param callbackHandler a {@link Handler} associated with the thread that callbacks will be posted
      *                        to. Pass null to post callbacks to the main thread.
+     * @param memCacheSize    the max total byte size of bitmaps in the in-memory cache.
+     * @param diskCacheSize   the max total byte size of files in the disk cache.
      */
-    public PersistedBitmapCache(Context context, Handler workerHandler, Handler callbackHandler) {
-        mMemCache = new ConcurrentHashMap<String, Bitmap>();
-        mDiskCacheDir = context.getCacheDir();
-        mWorkerHandler = workerHandler;
+    public PersistedBitmapCache(Context context, Handler callbackHandler, int memCacheSize, long diskCacheSize) {
+        mMemCache = new BitmapLruCache(memCacheSize);
+        mLegacyCacheDir = context.getCacheDir();
+        mDiskCache = new JournaledDiskCache(new File(mLegacyCacheDir, DISK_CACHE_DIRNAME), diskCacheSize);
+        mIoLanes = new Handler[IO_LANE_COUNT];
+        for (int i = 0; i < IO_LANE_COUNT; i++) {
+            HandlerThread ioThread = new HandlerThread(IO_THREAD_NAME + i, Process.THREAD_PRIORITY_BACKGROUND);
+            ioThread.start();
+            mIoLanes[i] = new Handler(ioThread.getLooper());
+        }
         if (callbackHandler != null) {
             mCallbackHandler = callbackHandler;
         } else {
@@ -89,7 +187,8 @@ public class PersistedBitmapCache {
     //
 
     /**
-     * Puts bitmap into the cache.
+     * Puts bitmap into the cache. The bitmap itself is put in the memory cache, so it must not be recycled or
+     * modified by the caller afterwards.
      *
      * @param key    the key for the bitmap.
      * @param bitmap the bitmap.
@@ -99,30 +198,19 @@ public class PersistedBitmapCache {
         boolean isSuccessful = true;
 
         // Get unique filename based on key.
-        final String filename = StorageHelper.generateValidFilename(key);
-        if (TextHelper.isValid(filename)) {
-            final File file = new File(mDiskCacheDir, filename);
-
-            // Store PNG in disk cache.
-            try {
-                final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
-                isSuccessful = ImageHelper.writePng(bitmap, outputStream);
-                outputStream.flush();
-                outputStream.close();
-            } catch (FileNotFoundException e) {
-                isSuccessful = false;
-            } catch (IOException e) {
-                isSuccessful = false;
+        final String filename = getFilename(key);
+        if (filename != null) {
+            final File file = mDiskCache.getFile(filename);
+
+            // Store raw pixels in disk cache, and the same bitmap in memory cache.
+            Bitmap storedBitmap = bitmap;
+            if (toConfigCode(storedBitmap.getConfig()) == 0) {
+                storedBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
             }
-
+            isSuccessful = file != null && storedBitmap != null && writePixels(storedBitmap, file)
+                    && mDiskCache.commit(filename);
             if (isSuccessful) {
-                // Read PNG from disk cache and put bitmap in memory cache.
-                Bitmap storedBitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
-                if (storedBitmap != null) {
-                    mMemCache.put(key, storedBitmap);
-                } else {
-                    isSuccessful = false;
-                }
+                mMemCache.put(key, storedBitmap);
             }
         }
 
@@ -130,26 +218,28 @@ public class PersistedBitmapCache {
     }
 
     /**
-     * Gets bitmap from the cache.
+     * Loads bitmap from the disk cache into the memory cache.
      *
      * @param key the key for the bitmap.
      * @return the bitmap; or null if failed.
      */
-    private Bitmap get(String key) {
-        // Try to get bitmap from memory cache.
-        Bitmap bitmap = mMemCache.get(key);
-
-        // Try to get PNG from disk cache if bitmap not found in memory cache.
-        if (bitmap == null) {
-            // Get unique filename based on key.
-            String filename = StorageHelper.generateValidFilename(key);
-            if (TextHelper.isValid(filename)) {
-                final File file = new File(mDiskCacheDir, filename);
-                bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+    private Bitmap load(String key) {
+        Bitmap bitmap = null;
+
+        // Get unique filename based on key.
+        String filename = getFilename(key);
+        if (filename != null) {
+            if (mDiskCache.contains(filename)) {
+                bitmap = readPixels(mDiskCache.get(filename));
                 if (bitmap != null) {
                     // Put bitmap in memory cache.
                     mMemCache.put(key, bitmap);
+                } else {
+                    // Drop the entry if its file is gone or unreadable.
+                    mDiskCache.remove(filename);
                 }
+            } else {
+                bitmap = migrateLegacyFile(key, filename);
             }
         }
 
@@ -166,11 +256,12 @@ public class PersistedBitmapCache {
         boolean isSuccessful = true;
 
         // Get unique filename based on key.
-        final String filename = StorageHelper.generateValidFilename(key);
-        if (TextHelper.isValid(filename)) {
-            // Remove PNG from disk cache.
-            final File file = new File(mDiskCacheDir, filename);
-            isSuccessful = file.delete();
+        final String filename = getFilename(key);
+        if (filename != null) {
+            // Remove file from disk cache.
+            final boolean isRemoved = mDiskCache.remove(filename);
+            final boolean isLegacyRemoved = new File(mLegacyCacheDir, filename).delete();
+            isSuccessful = isRemoved || isLegacyRemoved;
 
             // Remove bitmap from memory cache.
             mMemCache.remove(key);
@@ -179,15 +270,335 @@ public class PersistedBitmapCache {
         return isSuccessful;
     }
 
+    /**
+     * Gets the disk cache filename for a key, generating it on first use.
+     *
+     * @param key the key for the bitmap.
+     * @return the filename; or null if failed.
+     */
+    private String getFilename(String key) {
+        String filename = mFilenames.get(key);
+        if (filename == null) {
+            filename = StorageHelper.generateValidFilename(key);
+            if (!TextHelper.isValid(filename)) {
+                return null;
+            }
+            mFilenames.put(key, filename);
+        }
+        return filename;
+    }
+
+    /**
+     * Gets the I/O thread that handles a key.
+     *
+     * @param key the key for the bitmap.
+     * @return the {@link Handler} of the I/O thread.
+     */
+    private Handler getIoLane(String key) {
+        return mIoLanes[(key.hashCode() & Integer.MAX_VALUE) % mIoLanes.length];
+    }
+
+    /**
+     * Loads a bitmap for the callers waiting on a key and posts the result to each caller that has not cancelled.
+     * The load is skipped if all callers have cancelled.
+     *
+     * @param key the key for the bitmap.
+     */
+    private void loadForPendingGets(final String key) {
+        final Bitmap bitmap = isPendingGetCancelled(key) ? null : load(key);
+
+        final List<PendingGet> pendingGets;
+        synchronized (mPendingGets) {
+            pendingGets = mPendingGets.remove(key);
+        }
+
+        for (PendingGet pendingGet : pendingGets) {
+            postGetResult(key, bitmap, pendingGet.mRequest, pendingGet.mCallbacks);
+        }
+    }
+
+    /**
+     * Checks whether all callers waiting on a key have cancelled.
+     *
+     * @param key the key for the bitmap.
+     * @return true if all have cancelled; false otherwise.
+     */
+    private boolean isPendingGetCancelled(String key) {
+        synchronized (mPendingGets) {
+            for (PendingGet pendingGet : mPendingGets.get(key)) {
+                if (!pendingGet.mRequest.isCancelled()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Posts the result of a get to the callback thread, unless the request is cancelled by then.
+     *
+     * @param key       the key for the bitmap.
+     * @param bitmap    the bitmap; or null if failed.
+     * @param request   the {@link Request}.
+     * @param callbacks the callbacks for the request.
+     */
+    private void postGetResult(final String key, final Bitmap bitmap, final Request request,
+                               final IAsyncGetCallbacks callbacks) {
+        mCallbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+
+                if (bitmap != null) {
+                    callbacks.onSuccess(key, bitmap);
+                } else {
+                    callbacks.onFailure(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves a bitmap stored as PNG by an older version into the cache.
+     *
+     * @param key      the key for the bitmap.
+     * @param filename the filename generated from the key.
+     * @return the bitmap; or null if there is no PNG for the key.
+     */
+    private Bitmap migrateLegacyFile(String key, String filename) {
+        final File legacyFile = new File(mLegacyCacheDir, filename);
+        if (!legacyFile.isFile()) {
+            return null;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(legacyFile.getAbsolutePath());
+        if (bitmap != null && put(key, bitmap)) {
+            legacyFile.delete();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Writes the header and raw pixels of a bitmap to a temp file with one channel write, then renames the temp file
+     * to its final name.
+     *
+     * @param bitmap the bitmap. Its config must have a config code.
+     * @param file   the file to write to.
+     * @return true if successful; false otherwise.
+     */
+    private static boolean writePixels(Bitmap bitmap, File file) {
+        int byteCount = getByteCount(bitmap);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(toConfigCode(bitmap.getConfig()))
+                .putInt(bitmap.getWidth()).putInt(bitmap.getHeight()).putInt(byteCount);
+        header.flip();
+
+        ByteBuffer pixels = ByteBuffer.allocateDirect(byteCount);
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.flip();
+
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        boolean isSuccessful = false;
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                FileChannel channel = outputStream.getChannel();
+                ByteBuffer[] buffers = new ByteBuffer[]{header, pixels};
+                while (pixels.hasRemaining()) {
+                    channel.write(buffers);
+                }
+                isSuccessful = true;
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(PersistedBitmapCache.class, "writePixels", "Failed to write " + tempFile + ": "
+                    + e.getMessage());
+            isSuccessful = false;
+        }
+
+        if (isSuccessful && !tempFile.renameTo(file)) {
+            LogsHelper.slog(PersistedBitmapCache.class, "writePixels", "Failed to rename " + tempFile);
+            isSuccessful = false;
+        }
+
+        if (!isSuccessful) {
+            tempFile.delete();
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Reads a bitmap from a raw pixel cache file by memory mapping its pixel data.
+     *
+     * @param file the file to read from; or null.
+     * @return the bitmap; or null if the file does not exist, is not in the raw pixel format, or failed to read.
+     */
+    private static Bitmap readPixels(File file) {
+        if (file == null || !file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        Bitmap bitmap = null;
+        try {
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                FileChannel channel = inputStream.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                int bytesRead = 0;
+                while (header.hasRemaining() && bytesRead >= 0) {
+                    bytesRead = channel.read(header);
+                }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getInt() != FILE_MAGIC
+                        || header.getInt() != FILE_VERSION) {
+                    return null;
+                }
+
+                Bitmap.Config config = fromConfigCode(header.getInt());
+                int width = header.getInt();
+                int height = header.getInt();
+                int byteCount = header.getInt();
+                if (config == null || width <= 0 || height <= 0 || channel.size() < HEADER_SIZE + byteCount) {
+                    return null;
+                }
+
+                MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, byteCount);
+                bitmap = Bitmap.createBitmap(width, height, config);
+                if (getByteCount(bitmap) != byteCount) {
+                    bitmap.recycle();
+                    return null;
+                }
+                bitmap.copyPixelsFromBuffer(pixels);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            LogsHelper.slog(PersistedBitmapCache.class, "readPixels", "Failed to read " + file + ": "
+                    + e.getMessage());
+            bitmap = null;
+        } catch (OutOfMemoryError e) {
+            LogsHelper.slog(PersistedBitmapCache.class, "readPixels", "Out of memory reading " + file);
+            bitmap = null;
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Gets the byte size of a bitmap's pixels. Equivalent to {@link Bitmap#getByteCount()}, which is not available
+     * on all supported platform versions.
+     *
+     * @param bitmap the bitmap.
+     * @return the byte size.
+     */
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Gets the code stored in cache files for a bitmap config.
+     *
+     * @param config the bitmap config.
+     * @return the config code; or 0 if the config cannot be stored as raw pixels.
+     */
+    private static int toConfigCode(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the bitmap config for a code stored in cache files.
+     *
+     * @param code the config code.
+     * @return the bitmap config; or null if the code is unknown.
+     */
+    private static Bitmap.Config fromConfigCode(int code) {
+        switch (code) {
+            case 1:
+                return Bitmap.Config.ARGB_8888;
+            case 2:
+                return Bitmap.Config.RGB_565;
+            case 3:
+                return Bitmap.Config.ALPHA_8;
+            default:
+                return null;
+        }
+    }
+
     //
     // Public methods.
     //
 
+    /**
+     * Gets the default in-memory cache budget, which is a fraction of the max heap size.
+     *
+     * @return the budget in bytes.
+     */
+    public static int getDefaultMemCacheSize() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / DEFAULT_MEM_CACHE_DIVISOR, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the total byte size of bitmaps in the in-memory cache.
+     *
+     * @return the size in bytes.
+     */
+    public int getMemCacheSize() {
+        return mMemCache.size();
+    }
+
+    /**
+     * Gets the max total byte size of bitmaps in the in-memory cache.
+     *
+     * @return the size in bytes.
+     */
+    public int getMaxMemCacheSize() {
+        return mMemCache.maxSize();
+    }
+
+    /**
+     * Gets the number of lookups that found a bitmap in the in-memory cache.
+     *
+     * @return the hit count.
+     */
+    public int getHitCount() {
+        return mMemCache.hitCount();
+    }
+
+    /**
+     * Gets the number of lookups that did not find a bitmap in the in-memory cache.
+     *
+     * @return the miss count.
+     */
+    public int getMissCount() {
+        return mMemCache.missCount();
+    }
+
+    /**
+     * Gets the number of bitmaps evicted from the in-memory cache to stay within its budget. Evicted bitmaps remain
+     * in the disk cache.
+     *
+     * @return the eviction count.
+     */
+    public int getEvictionCount() {
+        return mMemCache.evictionCount();
+    }
+
     /**
      * Synchronously tries to get bitmap from the memory cache. No attempt will be made to load from
      * the disk cache. The bitmap will only be available if a prior
      * {@link #asyncPut(String, Bitmap, PersistedBitmapCache.IAsyncPutCallbacks)} or
-     * {@link #asyncGet(String, PersistedBitmapCache.IAsyncGetCallbacks)} operation has completed successfully.
+     * {@link #asyncGet(String, PersistedBitmapCache.IAsyncGetCallbacks)} operation has completed successfully,
+     * and the bitmap has not since been evicted from the memory cache.
      *
      * @param key the key for the bitmap.
      * @return the bitmap; or null if failed.
@@ -197,109 +608,196 @@ public class PersistedBitmapCache {
     }
 
     /**
-     * Asynchronously puts a bitmap into the cache using a background thread.
+     * Asynchronously puts a bitmap into the cache using a background thread. Cancelling the returned request only
+     * suppresses the callbacks; the bitmap is still stored.
      *
      * @param key       the key for the bitmap.
      * @param bitmap    the bitmap.
      * @param callbacks the callbacks for this operation.
+     * @return the {@link Request}.
      */
-    public void asyncPut(final String key, final Bitmap bitmap, final IAsyncPutCallbacks callbacks) {
-        mWorkerHandler.post(new Runnable() {
+    public Request asyncPut(final String key, final Bitmap bitmap, final IAsyncPutCallbacks callbacks) {
+        final Request request = new Request();
+        getIoLane(key).post(new Runnable() {
             @Override
             public void run() {
-                final Runnable runnable;
                 final boolean isSuccessful = put(key, bitmap);
 
-                if (isSuccessful) {
-                    runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            callbacks.onSuccess(key);
+                // Post callback to callback handler thread.
+                mCallbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
                         }
-                    };
-                } else {
-                    runnable = new Runnable() {
-                        @Override
-                        public void run() {
+
+                        if (isSuccessful) {
+                            callbacks.onSuccess(key);
+                        } else {
                             callbacks.onFailure(key);
                         }
-                    };
-                }
-
-                // Post callback to callback handler thread.
-                mCallbackHandler.post(runnable);
+                    }
+                });
             }
         });
+        return request;
     }
 
     /**
-     * Asynchronously gets a bitmap from the cache using a background thread.
+     * Asynchronously gets a bitmap from the cache using a background thread. A bitmap in the memory cache is
+     * returned without going to the background thread, and concurrent gets for the same key share one load from the
+     * disk cache, which is skipped if all of them are cancelled before it starts.
      *
      * @param key       the key for the bitmap.
      * @param callbacks the callbacks for this operation.
+     * @return the {@link Request}.
      */
-    public void asyncGet(final String key, final IAsyncGetCallbacks callbacks) {
-        mWorkerHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                final Runnable runnable;
-                final Bitmap bitmap = get(key);
+    public Request asyncGet(final String key, final IAsyncGetCallbacks callbacks) {
+        final Request request = new Request();
 
-                if (bitmap != null) {
-                    runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            callbacks.onSuccess(key, bitmap);
-                        }
-                    };
-                } else {
-                    runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            callbacks.onFailure(key);
-                        }
-                    };
-                }
+        final Bitmap bitmap = mMemCache.get(key);
+        if (bitmap != null) {
+            postGetResult(key, bitmap, request, callbacks);
+            return request;
+        }
 
-                // Post callback to callback handler thread.
-                mCallbackHandler.post(runnable);
+        synchronized (mPendingGets) {
+            List<PendingGet> pendingGets = mPendingGets.get(key);
+            if (pendingGets != null) {
+                // Join the load already queued for this key.
+                pendingGets.add(new PendingGet(request, callbacks));
+                return request;
+            }
+
+            pendingGets = new ArrayList<PendingGet>();
+            pendingGets.add(new PendingGet(request, callbacks));
+            mPendingGets.put(key, pendingGets);
+        }
+
+        getIoLane(key).post(new Runnable() {
+            @Override
+            public void run() {
+                loadForPendingGets(key);
             }
         });
+        return request;
     }
 
     /**
-     * Asynchronously removes a bitmap from the cache using a background thread.
+     * Asynchronously removes a bitmap from the cache using a background thread. Cancelling the returned request only
+     * suppresses the callbacks; the bitmap is still removed.
      *
      * @param key       the key for the bitmap.
      * @param callbacks the callbacks for this operation.
+     * @return the {@link Request}.
      */
-    public void asyncRemove(final String key, final IAsyncRemoveCallbacks callbacks) {
-        mWorkerHandler.post(new Runnable() {
+    public Request asyncRemove(final String key, final IAsyncRemoveCallbacks callbacks) {
+        final Request request = new Request();
+        getIoLane(key).post(new Runnable() {
             @Override
             public void run() {
-                final Runnable runnable;
                 final boolean isSuccessful = remove(key);
 
-                if (isSuccessful) {
-                    runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            callbacks.onSuccess(key);
+                // Post callback to callback handler thread.
+                mCallbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
                         }
-                    };
-                } else {
-                    runnable = new Runnable() {
-                        @Override
-                        public void run() {
+
+                        if (isSuccessful) {
+                            callbacks.onSuccess(key);
+                        } else {
                             callbacks.onFailure(key);
                         }
-                    };
-                }
-
-                // Post callback to callback handler thread.
-                mCallbackHandler.post(runnable);
+                    }
+                });
             }
         });
+        return request;
+    }
+
+    //
+    // Public inner classes.
+    //
+
+    /**
+     * A token for an async command. Cancel it when the caller goes away to stop its callbacks from being called.
+     */
+    public static class Request {
+
+        /**
+         * Flag to track whether the request is cancelled.
+         */
+        private volatile boolean mIsCancelled = false;
+
+        /**
+         * Cancels the request. If called on the callback thread, no callbacks will be called after this returns.
+         */
+        public void cancel() {
+            mIsCancelled = true;
+        }
+
+        /**
+         * Checks whether the request is cancelled.
+         *
+         * @return true if cancelled; false otherwise.
+         */
+        public boolean isCancelled() {
+            return mIsCancelled;
+        }
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * An in-memory LRU cache of bitmaps bounded by their total byte size.
+     */
+    private static class BitmapLruCache extends LruCache<String, Bitmap> {
+
+        /**
+         * Constructor.
+         *
+         * @param maxSize the max total byte size of the bitmaps.
+         */
+        private BitmapLruCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return getByteCount(bitmap);
+        }
+    }
+
+    /**
+     * A caller waiting on an async get.
+     */
+    private static class PendingGet {
+
+        /**
+         * The request of the caller.
+         */
+        private final Request mRequest;
+
+        /**
+         * The callbacks of the caller.
+         */
+        private final IAsyncGetCallbacks mCallbacks;
+
+        /**
+         * Constructor.
+         *
+         * @param request   the request of the caller.
+         * @param callbacks the callbacks of the caller.
+         */
+        private PendingGet(Request request, IAsyncGetCallbacks callbacks) {
+            mRequest = request;
+            mCallbacks = callbacks;
+        }
     }
 
     //
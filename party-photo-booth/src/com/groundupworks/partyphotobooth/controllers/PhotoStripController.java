@@ -20,18 +20,26 @@ import android.app.Application;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.media.MediaScannerConnection;
 import android.os.Bundle;
 import android.os.Message;
-import android.util.SparseArray;
+import android.util.SparseIntArray;
 
+import com.groundupworks.lib.photobooth.arrangements.BaseArrangement;
+import com.groundupworks.lib.photobooth.arrangements.GridTemplate;
+import com.groundupworks.lib.photobooth.arrangements.PhotoStripSurface;
 import com.groundupworks.lib.photobooth.framework.BaseController;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper;
-import com.groundupworks.lib.photobooth.helpers.ImageHelper.Arrangement;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper.JpegCodec;
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+import com.groundupworks.lib.photobooth.storage.EventStorage;
+import com.groundupworks.lib.photobooth.storage.FramePack;
+import com.groundupworks.lib.photobooth.storage.MediaScanScheduler;
+import com.groundupworks.lib.photobooth.storage.StorageMonitor;
 import com.groundupworks.partyphotobooth.MyApplication;
 import com.groundupworks.partyphotobooth.R;
 import com.groundupworks.partyphotobooth.arrangements.BaseTitleHeader;
 import com.groundupworks.partyphotobooth.arrangements.TitledBoxArrangement;
+import com.groundupworks.partyphotobooth.arrangements.TitledGridArrangement;
 import com.groundupworks.partyphotobooth.arrangements.TitledHorizontalArrangement;
 import com.groundupworks.partyphotobooth.arrangements.TitledVerticalArrangement;
 import com.groundupworks.partyphotobooth.fragments.PhotoStripFragment;
@@ -45,15 +53,6 @@ import com.groundupworks.wings.dropbox.DropboxEndpoint;
 import com.groundupworks.wings.facebook.FacebookEndpoint;
 import com.groundupworks.wings.gcp.GoogleCloudPrintEndpoint;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.util.LinkedList;
-import java.util.List;
-
 public class PhotoStripController extends BaseController {
 
     //
@@ -66,6 +65,8 @@ public class PhotoStripController extends BaseController {
 
     public static final int ERROR_PHOTO_STRIP_SUBMIT = -3;
 
+    public static final int ERROR_STORAGE_FULL = -4;
+
     public static final int THUMB_BITMAP_READY = 0;
 
     public static final int FRAME_REMOVED = 1;
@@ -84,6 +85,8 @@ public class PhotoStripController extends BaseController {
 
     public static final String MESSAGE_BUNDLE_KEY_GCP_SHARED = "gcpShared";
 
+    public static final String MESSAGE_BUNDLE_KEY_CODE = "code";
+
     /**
      * The {@link Application} {@link Context}.
      */
@@ -114,10 +117,20 @@ public class PhotoStripController extends BaseController {
      */
     private Bitmap mLogo = null;
 
+    /**
+     * The storage of the event.
+     */
+    private EventStorage mEventStorage;
+
+    /**
+     * The name of the photo strip template.
+     */
+    private String mTemplateName;
+
     /**
      * The photo strip arrangement.
      */
-    private PhotoStripArrangement mArrangementPref;
+    private BaseArrangement mArrangement;
 
     /**
      * The theme.
@@ -135,14 +148,51 @@ public class PhotoStripController extends BaseController {
     private int mThumbSize;
 
     /**
-     * List storing the frame bitmaps used to construct the photo strip.
+     * The photo strip surface that frames are composed into as they arrive. Created when the first frame of a photo
+     * strip arrives.
+     */
+    private PhotoStripSurface mSurface = null;
+
+    /**
+     * Flags indicating which slots of the photo strip surface have a frame drawn in them.
      */
-    private List<Bitmap> mFramesList;
+    private boolean[] mSlotsFilled;
 
     /**
-     * Map storing the mapping between unique keys used to identify each frame bitmap and the bitmaps themselves.
+     * The pack the Jpeg data of each frame is appended to as it arrives, so it is not held in memory until the photo
+     * strip is submitted. Picked when the first frame of a photo strip arrives.
      */
-    private SparseArray<Bitmap> mFramesMap;
+    private FramePack mFramePack = null;
+
+    /**
+     * The offset in the frame pack of the Jpeg data of the frame drawn in each slot.
+     */
+    private long[] mSlotsFrameOffset;
+
+    /**
+     * The length of the Jpeg data of the frame drawn in each slot.
+     */
+    private int[] mSlotsFrameLength;
+
+    /**
+     * The length of the short edge of the frame drawn in each slot, at camera resolution.
+     */
+    private int[] mSlotsShortEdge;
+
+    /**
+     * The clockwise rotation in degrees applied to the frame drawn in each slot.
+     */
+    private float[] mSlotsRotation;
+
+    /**
+     * The horizontal reflection applied to the frame drawn in each slot.
+     */
+    private boolean[] mSlotsReflection;
+
+    /**
+     * Map storing the mapping between unique keys used to identify each frame and the slots they are drawn in.
+     */
+    private SparseIntArray mFramesMap;
 
     /**
      * The unique key for the current frame.
@@ -169,15 +219,43 @@ public class PhotoStripController extends BaseController {
             mLogo = MyApplication.getBitmapCache().tryGet(BaseTitleHeader.EVENT_LOGO_CACHE_KEY);
         }
 
-        PhotoStripTemplate template = mPreferencesHelper.getPhotoStripTemplate(mContext);
-        mArrangementPref = template.getArrangement();
+        mEventStorage = PhotoStripSubmissionPipeline.getCurrentEventStorage();
 
+        PhotoStripTemplate template = mPreferencesHelper.getPhotoStripTemplate(mContext);
+        mTemplateName = template.name();
         mTheme = Theme.from(mContext, mPreferencesHelper.getPhotoBoothTheme(mContext));
 
+        // Select arrangement.
+        PhotoStripArrangement arrangementPref = template.getArrangement();
+        GridTemplate gridTemplate = null;
+        if (PhotoStripArrangement.GRID.equals(arrangementPref)) {
+            gridTemplate = GridTemplate.load(mContext.getAssets(), template.getSpecPath());
+            if (gridTemplate != null && gridTemplate.getCapacity() < template.getNumPhotos()) {
+                // Fall back to the default arrangement if the template cannot hold all frames.
+                gridTemplate = null;
+            }
+        }
+
+        if (gridTemplate != null) {
+            mArrangement = new TitledGridArrangement(gridTemplate, mLineOne, mLineTwo, mDate, mLogo,
+                    mTheme.getFont());
+        } else if (PhotoStripArrangement.HORIZONTAL.equals(arrangementPref)) {
+            mArrangement = new TitledHorizontalArrangement(mLineOne, mLineTwo, mDate, mLogo, mTheme.getFont());
+        } else if (PhotoStripArrangement.BOX.equals(arrangementPref)) {
+            mArrangement = new TitledBoxArrangement(mLineOne, mLineTwo, mDate, mLogo, mTheme.getFont());
+        } else {
+            mArrangement = new TitledVerticalArrangement(mLineOne, mLineTwo, mDate, mLogo, mTheme.getFont());
+        }
+
         // Set params for frame management.
         mFramesTotalPref = template.getNumPhotos();
-        mFramesList = new LinkedList<Bitmap>();
-        mFramesMap = new SparseArray<Bitmap>(mFramesTotalPref);
+        mSlotsFilled = new boolean[mFramesTotalPref];
+        mSlotsFrameOffset = new long[mFramesTotalPref];
+        mSlotsFrameLength = new int[mFramesTotalPref];
+        mSlotsShortEdge = new int[mFramesTotalPref];
+        mSlotsRotation = new float[mFramesTotalPref];
+        mSlotsReflection = new boolean[mFramesTotalPref];
+        mFramesMap = new SparseIntArray(mFramesTotalPref);
         mFramesCurrKey = 0;
 
         // Set params from resources.
@@ -187,6 +265,9 @@ public class PhotoStripController extends BaseController {
 
     @Override
     protected void handleEvent(Message msg) {
+        // Hold off adding saved photo strips to the Android Gallery while a session is active.
+        MediaScanScheduler.getInstance().onActivity();
+
         switch (msg.what) {
             case PhotoStripFragment.JPEG_DATA_READY:
                 Bundle bundle = msg.getData();
@@ -206,6 +287,11 @@ public class PhotoStripController extends BaseController {
         }
     }
 
+    @Override
+    protected void dispose() {
+        resetPhotoStrip();
+    }
+
     //
     // Private methods.
     //
@@ -229,13 +315,36 @@ public class PhotoStripController extends BaseController {
      * @param reflection horizontal reflection applied to image.
      */
     private void processJpegData(byte[] jpegData, float rotation, boolean reflection) {
-        Bitmap frame = ImageHelper.createImage(jpegData, rotation, reflection, mTheme.getFilter());
+        // Reject the frame before decoding if the photo strip could not be saved.
+        if (!StorageMonitor.getInstance().hasSpaceForCapture()) {
+            LogsHelper.slog(PhotoStripController.class, "processJpegData", "Not enough storage for capture");
+            reportError(ERROR_STORAGE_FULL);
+            return;
+        }
+
+        // Decode subsampled to the frame size instead of the full camera resolution. The platform codec stays the
+        // default until BenchmarkHelper.benchmarkJpegDecoders() shows the pure-Java decoder is faster on devices.
+        Bitmap frame = ImageHelper.createImage(jpegData, rotation, reflection, mTheme.getFilter(),
+                ImageHelper.IMAGE_SIZE, JpegCodec.PLATFORM);
         if (frame != null) {
             // Create thumbnail bitmap.
             Bitmap thumb = Bitmap.createScaledBitmap(frame, mThumbSize, mThumbSize, true);
             if (thumb != null) {
-                // Store frame bitmap.
-                int key = storeFrame(frame);
+                // Compose frame into its slot of the photo strip.
+                int key = storeFrame(frame, jpegData, rotation, reflection);
+
+                // Recycle frame bitmap if it is not the same object referenced by thumb.
+                if (frame != thumb) {
+                    frame.recycle();
+                }
+                frame = null;
+
+                if (key < 0) {
+                    // An error has occurred.
+                    thumb.recycle();
+                    reportError(ERROR_JPEG_DATA);
+                    return;
+                }
 
                 // Notify ui.
                 Message uiMsg = Message.obtain();
@@ -265,13 +374,21 @@ public class PhotoStripController extends BaseController {
      * @param key the key of the frame to remove.
      */
     private void processFrameRemoval(int key) {
-        // Remove frame.
-        Bitmap frame = mFramesMap.get(key);
-        mFramesList.remove(frame);
+        // Clear the slot the frame is drawn in.
+        int slot = mFramesMap.get(key, -1);
+        if (slot >= 0) {
+            mSurface.clearSlot(slot);
+            mSlotsFilled[slot] = false;
+        }
 
         // Remove mapping.
         mFramesMap.delete(key);
 
+        // Release the surface if the photo strip is abandoned.
+        if (mFramesMap.size() == 0) {
+            resetPhotoStrip();
+        }
+
         // Notify ui.
         Message uiMsg = Message.obtain();
         uiMsg.what = FRAME_REMOVED;
@@ -285,122 +402,129 @@ public class PhotoStripController extends BaseController {
         /*
          * Confirm frame count.
          */
-        if (mFramesList.size() < mFramesTotalPref) {
+        if (!isPhotoStripComplete()) {
             reportError(ERROR_PHOTO_MISSING);
             return;
         }
 
         /*
-         * Create photo strip.
+         * Confirm storage is available, since errors past this point can no longer be shown to the user.
          */
-        // Select arrangement.
-        Arrangement arrangement = null;
-        if (PhotoStripArrangement.HORIZONTAL.equals(mArrangementPref)) {
-            arrangement = new TitledHorizontalArrangement(mLineOne, mLineTwo, mDate, mLogo, mTheme.getFont());
-        } else if (PhotoStripArrangement.BOX.equals(mArrangementPref)) {
-            arrangement = new TitledBoxArrangement(mLineOne, mLineTwo, mDate, mLogo, mTheme.getFont());
-        } else {
-            arrangement = new TitledVerticalArrangement(mLineOne, mLineTwo, mDate, mLogo, mTheme.getFont());
-        }
-
-        // Create photo strip as a single bitmap.
-        Bitmap[] bitmaps = new Bitmap[mFramesTotalPref];
-        int i = 0;
-        for (Bitmap frame : mFramesList) {
-            bitmaps[i++] = frame;
+        if (mEventStorage.getEventDirectory() == null) {
+            // Invalid external storage state or failed directory creation.
+            reportError(ERROR_PHOTO_STRIP_SUBMIT);
+            return;
         }
-        Bitmap photoStrip = ImageHelper.createPhotoStrip(bitmaps, arrangement);
 
-        // Reset frame management params.
-        mFramesList.clear();
+        /*
+         * Take the photo strip. All frames are already composed into the surface. The code for guests to find the
+         * photo strip by is reserved now, so it can be shown before the photo strip is saved.
+         */
+        String code = mEventStorage.reserveCode();
+        Bitmap photoStrip = mSurface.getBitmap();
+        PhotoStripSubmissionPipeline.Submission submission = new PhotoStripSubmissionPipeline.Submission(
+                photoStrip, mEventStorage, mTemplateName, code, mArrangement, mTheme.getFilter(),
+                mFramePack, mSlotsFrameOffset.clone(), mSlotsFrameLength.clone(),
+                ImageHelper.getPrintImageSize(mSlotsShortEdge), mSlotsRotation.clone(), mSlotsReflection.clone());
+
+        // Reset frame management params. The pipeline now owns the surface bitmap.
+        mSurface = null;
+        resetPhotoStrip();
         mFramesMap.clear();
         mFramesCurrKey = 0;
 
         /*
-         * Save photo strip bitmap as Jpeg.
+         * Queue the photo strip to be saved and shared in the background.
          */
-        Context context = MyApplication.getContext();
-        try {
-            String imageDirectory = ImageHelper.getCapturedImageDirectory(context
-                    .getString(R.string.image_helper__image_folder_name));
-            if (imageDirectory != null) {
-                String imageName = ImageHelper.generateCapturedImageName(context
-                        .getString(R.string.image_helper__image_filename_prefix));
-                File file = new File(imageDirectory, imageName);
-                final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
-
-                // Convert to Jpeg and writes to file.
-                boolean isSuccessful = ImageHelper.writeJpeg(photoStrip, outputStream);
-                outputStream.flush();
-                outputStream.close();
-
-                if (isSuccessful) {
-                    String jpegPath = file.getPath();
-                    // Request adding Jpeg to Android Gallery.
-                    MediaScannerConnection.scanFile(context, new String[]{jpegPath},
-                            new String[]{ImageHelper.JPEG_MIME_TYPE}, null);
-
-                    // Share to Facebook.
-                    boolean facebookShared = false;
-                    if (Wings.getEndpoint(FacebookEndpoint.class).isLinked()) {
-                        facebookShared = Wings.share(jpegPath, FacebookEndpoint.class);
-                    }
-
-                    // Share to Dropbox.
-                    boolean dropboxShared = false;
-                    if (Wings.getEndpoint(DropboxEndpoint.class).isLinked()) {
-                        dropboxShared = Wings.share(jpegPath, DropboxEndpoint.class);
-                    }
-
-                    // Share to Google Cloud Print.
-                    boolean gcpShared = false;
-                    if (Wings.getEndpoint(GoogleCloudPrintEndpoint.class).isLinked()) {
-                        gcpShared = Wings.share(jpegPath, GoogleCloudPrintEndpoint.class);
-                    }
-
-                    // Notify ui the Jpeg is saved and shared to linked services.
-                    Message uiMsg = Message.obtain();
-                    uiMsg.what = PHOTO_STRIP_SUBMITTED;
-                    Bundle bundle = new Bundle();
-                    bundle.putBoolean(MESSAGE_BUNDLE_KEY_FACEBOOK_SHARED, facebookShared);
-                    bundle.putBoolean(MESSAGE_BUNDLE_KEY_DROPBOX_SHARED, dropboxShared);
-                    bundle.putBoolean(MESSAGE_BUNDLE_KEY_GCP_SHARED, gcpShared);
-                    uiMsg.setData(bundle);
-                    sendUiUpdate(uiMsg);
-                } else {
-                    reportError(ERROR_PHOTO_STRIP_SUBMIT);
-                }
-            } else {
-                // Invalid external storage state or failed directory creation.
-                reportError(ERROR_PHOTO_STRIP_SUBMIT);
+        if (PhotoStripSubmissionPipeline.getInstance().submit(submission)) {
+            // Notify ui the photo strip is queued to be saved and shared to linked services.
+            Message uiMsg = Message.obtain();
+            uiMsg.what = PHOTO_STRIP_SUBMITTED;
+            Bundle bundle = new Bundle();
+            bundle.putBoolean(MESSAGE_BUNDLE_KEY_FACEBOOK_SHARED, Wings.getEndpoint(FacebookEndpoint.class)
+                    .isLinked());
+            bundle.putBoolean(MESSAGE_BUNDLE_KEY_DROPBOX_SHARED, Wings.getEndpoint(DropboxEndpoint.class)
+                    .isLinked());
+            bundle.putBoolean(MESSAGE_BUNDLE_KEY_GCP_SHARED, Wings.getEndpoint(GoogleCloudPrintEndpoint.class)
+                    .isLinked());
+            bundle.putString(MESSAGE_BUNDLE_KEY_CODE, code);
+            uiMsg.setData(bundle);
+            sendUiUpdate(uiMsg);
+        } else {
+            // The pipeline did not take ownership of the photo strip.
+            if (photoStrip != null) {
+                photoStrip.recycle();
             }
-        } catch (FileNotFoundException e) {
-            reportError(ERROR_PHOTO_STRIP_SUBMIT);
-        } catch (IOException e) {
             reportError(ERROR_PHOTO_STRIP_SUBMIT);
         }
-
-        /*
-         * Recycle photo strip bitmap.
-         */
-        if (photoStrip != null) {
-            photoStrip.recycle();
-            photoStrip = null;
-        }
     }
 
     /**
-     * Stores frame bitmap in next available slot in frames map.
+     * Draws frame bitmap into the next available slot of the photo strip surface, and appends its source Jpeg data to
+     * the frame pack. The surface is laid out and the frame pack picked when the first frame of a photo strip arrives.
      *
-     * @param frame the bitmap to store. Must not be null.
-     * @return the key of the stored frame.
+     * @param frame      the bitmap to store. Must not be null.
+     * @param jpegData   byte array of the source Jpeg data of the frame.
+     * @param rotation   clockwise rotation applied to the frame in degrees.
+     * @param reflection horizontal reflection applied to the frame.
+     * @return the key of the stored frame; or -1 if unsuccessful.
      */
-    private int storeFrame(Bitmap frame) {
-        int key = mFramesCurrKey;
+    private int storeFrame(Bitmap frame, byte[] jpegData, float rotation, boolean reflection) {
+        // Lay out photo strip surface.
+        if (mSurface == null) {
+            mSurface = mArrangement.createSurface(mFramesTotalPref, frame.getWidth(), frame.getHeight());
+            if (mSurface == null) {
+                return -1;
+            }
+        }
+
+        // Find the first empty slot.
+        int slot = -1;
+        for (int i = 0; i < mFramesTotalPref; i++) {
+            if (!mSlotsFilled[i]) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            return -1;
+        }
+
+        // Crop and orient the frame losslessly before keeping it, so it is stored smaller and is not transformed again
+        // when the photo strip is rendered for print or re-rendered.
+        byte[] orientedJpegData = ImageHelper.createOrientedJpeg(jpegData, rotation, reflection);
+        if (orientedJpegData != null) {
+            jpegData = orientedJpegData;
+            rotation = 0f;
+            reflection = false;
+        }
 
-        // Add frame to list and map.
-        mFramesList.add(frame);
-        mFramesMap.put(key, frame);
+        // Keep the source Jpeg data on storage instead of in memory.
+        if (mFramePack == null) {
+            mFramePack = mEventStorage.getFramePack(System.currentTimeMillis());
+            if (mFramePack == null) {
+                return -1;
+            }
+        }
+        long frameOffset = mFramePack.appendFrame(jpegData);
+        if (frameOffset < 0L) {
+            LogsHelper.slog(PhotoStripController.class, "storeFrame", "Failed to append frame");
+            return -1;
+        }
+        StorageMonitor.getInstance().onBytesWritten(jpegData.length);
+
+        // Draw frame into slot.
+        mSurface.drawFrame(slot, frame);
+        mSlotsFilled[slot] = true;
+        mSlotsFrameOffset[slot] = frameOffset;
+        mSlotsFrameLength[slot] = jpegData.length;
+        mSlotsShortEdge[slot] = ImageHelper.getImageShortEdge(jpegData);
+        mSlotsRotation[slot] = rotation;
+        mSlotsReflection[slot] = reflection;
+
+        // Add mapping.
+        int key = mFramesCurrKey;
+        mFramesMap.put(key, slot);
 
         // Increment frame key.
         mFramesCurrKey++;
@@ -408,12 +532,26 @@ public class PhotoStripController extends BaseController {
         return key;
     }
 
+    /**
+     * Empties the slots of the photo strip, recycling the photo strip surface if it is still held.
+     */
+    private void resetPhotoStrip() {
+        if (mSurface != null) {
+            mSurface.recycle();
+            mSurface = null;
+        }
+        mFramePack = null;
+        for (int i = 0; i < mFramesTotalPref; i++) {
+            mSlotsFilled[i] = false;
+        }
+    }
+
     /**
      * Checks whether we have all the frames needed to construct a photo strip.
      *
      * @return true if we have enough frames; false otherwise.
      */
     private boolean isPhotoStripComplete() {
-        return mFramesList.size() == mFramesTotalPref;
+        return mFramesMap.size() == mFramesTotalPref;
     }
 }
@@ -0,0 +1,719 @@
+/*
+ * This file is part of Flying PhotoBooth.
+ * 
+ * Flying PhotoBooth is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Flying PhotoBooth is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Flying PhotoBooth.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.groundupworks.partyphotobooth.controllers;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.groundupworks.lib.photobooth.arrangements.BaseArrangement;
+import com.groundupworks.lib.photobooth.arrangements.TiledPhotoStripRenderer;
+import com.groundupworks.lib.photobooth.helpers.BenchmarkHelper;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.helpers.ImageHelper.ImageFilter;
+import com.groundupworks.lib.photobooth.helpers.LogsHelper;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+import com.groundupworks.lib.photobooth.renditions.Rendition;
+import com.groundupworks.lib.photobooth.renditions.RenditionGenerator;
+import com.groundupworks.lib.photobooth.storage.AtomicFileWriter;
+import com.groundupworks.lib.photobooth.storage.EncodedImageCache;
+import com.groundupworks.lib.photobooth.storage.EventStorage;
+import com.groundupworks.lib.photobooth.storage.FramePack;
+import com.groundupworks.lib.photobooth.storage.MediaScanScheduler;
+import com.groundupworks.lib.photobooth.storage.StorageMonitor;
+import com.groundupworks.partyphotobooth.BuildConfig;
+import com.groundupworks.partyphotobooth.MyApplication;
+import com.groundupworks.partyphotobooth.R;
+import com.groundupworks.partyphotobooth.helpers.PreferencesHelper;
+import com.groundupworks.wings.Wings;
+import com.groundupworks.wings.dropbox.DropboxEndpoint;
+import com.groundupworks.wings.facebook.FacebookEndpoint;
+import com.groundupworks.wings.gcp.GoogleCloudPrintEndpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes submitted photo strips in stages, so the worker thread shared by the controllers is free as soon as a
+ * photo strip is queued. Each stage has its own thread and a bounded input queue: compose the renditions, encode them
+ * to Jpeg, persist them to storage, queue the full-size Jpeg for the Android Gallery, then share to linked services. A
+ * full queue blocks the stage feeding it, so a slow stage holds back the stages before it instead of letting memory
+ * grow. The queues get longer as the items get smaller, so a slow SD card fills up with compact encoded Jpegs long
+ * before it holds back new submissions.
+ * <p/>
+ * A photo strip dropped before it is saved, because a stage failed or threw, is reported through {@link ICallbacks}
+ * on the ui thread, since the ui has already moved on by then.
+ * <p/>
+ * Photo strips are stored with the {@link EventStorage} of the event they were taken at, which records each one and
+ * its share results in the event manifest, and keeps its source frames in a {@link FramePack} for re-rendering.
+ *
+ * @author Benedict Lau
+ */
+public class PhotoStripSubmissionPipeline {
+
+    //
+    // Queue capacities of each stage.
+    //
+
+    private static final int COMPOSE_QUEUE_CAPACITY = 1;
+
+    private static final int ENCODE_QUEUE_CAPACITY = 1;
+
+    private static final int PERSIST_QUEUE_CAPACITY = 4;
+
+    private static final int SCAN_QUEUE_CAPACITY = 8;
+
+    private static final int SHARE_QUEUE_CAPACITY = 8;
+
+    /**
+     * The time in seconds to wait for room in the first stage before a submission fails.
+     */
+    private static final long SUBMIT_TIMEOUT_SECONDS = 5L;
+
+    //
+    // Indices of the renditions generated from the photo strip.
+    //
+
+    private static final int RENDITION_FULL = 0;
+
+    private static final int RENDITION_WEB = 1;
+
+    private static final int RENDITION_GALLERY_ICON = 2;
+
+    private static final int RENDITION_COUNT = 3;
+
+    //
+    // Service names recorded in the event manifest.
+    //
+
+    private static final String SERVICE_FACEBOOK = "facebook";
+
+    private static final String SERVICE_DROPBOX = "dropbox";
+
+    private static final String SERVICE_GCP = "gcp";
+
+    /**
+     * The number of timed runs per encoding profile when benchmarking in debug builds.
+     */
+    private static final int BENCHMARK_ITERATIONS = 3;
+
+    /**
+     * Flag to track whether the encoding profiles have been benchmarked in this process. Only accessed by the compose
+     * stage.
+     */
+    private static boolean sIsBenchmarked = false;
+
+    /**
+     * The pipeline with application scope.
+     */
+    private static PhotoStripSubmissionPipeline sInstance = null;
+
+    /**
+     * The first stage of the pipeline.
+     */
+    private final Stage mFirstStage;
+
+    /**
+     * Handler to deliver callbacks on the ui thread.
+     */
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Callbacks for photo strips that fail to be saved.
+     */
+    private volatile WeakReference<ICallbacks> mCallbacks = new WeakReference<ICallbacks>(null);
+
+    /**
+     * Constructor. Starts the stage threads.
+     */
+    private PhotoStripSubmissionPipeline() {
+        Stage shareStage = new Stage("shareStage", SHARE_QUEUE_CAPACITY, null) {
+            @Override
+            protected boolean process(Submission submission) {
+                return share(submission);
+            }
+        };
+        Stage scanStage = new Stage("scanStage", SCAN_QUEUE_CAPACITY, shareStage) {
+            @Override
+            protected boolean process(Submission submission) {
+                return scan(submission);
+            }
+        };
+        Stage persistStage = new Stage("persistStage", PERSIST_QUEUE_CAPACITY, scanStage) {
+            @Override
+            protected boolean process(Submission submission) {
+                return persist(submission);
+            }
+        };
+        Stage encodeStage = new Stage("encodeStage", ENCODE_QUEUE_CAPACITY, persistStage) {
+            @Override
+            protected boolean process(Submission submission) {
+                return encode(submission);
+            }
+        };
+        mFirstStage = new Stage("composeStage", COMPOSE_QUEUE_CAPACITY, encodeStage) {
+            @Override
+            protected boolean process(Submission submission) {
+                return compose(submission);
+            }
+        };
+
+        shareStage.start();
+        scanStage.start();
+        persistStage.start();
+        encodeStage.start();
+        mFirstStage.start();
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the pipeline with application scope.
+     *
+     * @return the pipeline.
+     */
+    public static synchronized PhotoStripSubmissionPipeline getInstance() {
+        if (sInstance == null) {
+            sInstance = new PhotoStripSubmissionPipeline();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a photo strip for processing. Blocks only if the first stage is full, for up to
+     * {@link #SUBMIT_TIMEOUT_SECONDS}.
+     *
+     * @param submission the {@link Submission}. The pipeline takes ownership of its bitmaps if queued.
+     * @return true if the photo strip is queued; false otherwise.
+     */
+    public boolean submit(Submission submission) {
+        return mFirstStage.enqueue(submission);
+    }
+
+    /**
+     * Sets the callbacks for photo strips that fail to be saved. Only a weak reference is kept.
+     *
+     * @param callbacks the {@link ICallbacks}; or null to clear.
+     */
+    public void setCallbacks(ICallbacks callbacks) {
+        mCallbacks = new WeakReference<ICallbacks>(callbacks);
+    }
+
+    /**
+     * Gets the storage of the event currently set up in preferences.
+     *
+     * @return the {@link EventStorage}.
+     */
+    public static EventStorage getCurrentEventStorage() {
+        Context context = MyApplication.getContext();
+        PreferencesHelper preferencesHelper = new PreferencesHelper();
+        long date = preferencesHelper.getEventDate(context);
+        String eventName = EventStorage.generateEventName(preferencesHelper.getEventLineOne(context),
+                date != PreferencesHelper.EVENT_DATE_HIDDEN ? date : -1L);
+        return EventStorage.getInstance(context.getString(R.string.image_helper__image_folder_name), eventName);
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Generates the renditions of the photo strip.
+     *
+     * @param submission the {@link Submission}.
+     * @return true if successful; false otherwise.
+     */
+    private static boolean compose(Submission submission) {
+        // Debug builds log an encoding profile benchmark of the first photo strip.
+        if (BuildConfig.DEBUG && !sIsBenchmarked) {
+            sIsBenchmarked = true;
+            BenchmarkHelper.benchmarkEncodingProfiles(new Bitmap[]{submission.mPhotoStrip}, BENCHMARK_ITERATIONS);
+        }
+
+        Rendition[] renditions = new Rendition[RENDITION_COUNT];
+        renditions[RENDITION_FULL] = Rendition.FULL;
+        renditions[RENDITION_WEB] = Rendition.WEB;
+        renditions[RENDITION_GALLERY_ICON] = Rendition.GALLERY_ICON;
+
+        submission.mRenditions = renditions;
+        submission.mRenditionBitmaps = RenditionGenerator.generate(submission.mPhotoStrip, renditions);
+        if (submission.mRenditionBitmaps == null) {
+            return false;
+        }
+
+        // The photo strip is the full rendition, now owned by the rendition bitmaps.
+        submission.mPhotoStrip = null;
+        return true;
+    }
+
+    /**
+     * Encodes the renditions with their encoding profiles, and renders the print-resolution photo strip if Google Cloud
+     * Print is linked.
+     *
+     * @param submission the {@link Submission}.
+     * @return true if successful; false otherwise.
+     */
+    private static boolean encode(Submission submission) {
+        final int numRenditions = submission.mRenditions.length;
+        submission.mRenditionJpegs = new byte[numRenditions][];
+        for (int i = 0; i < numRenditions; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            EncodingProfile profile = submission.mRenditions[i].getEncodingProfile();
+            if (ImageHelper.writeImage(submission.mRenditionBitmaps[i], profile, outputStream)) {
+                submission.mRenditionJpegs[i] = outputStream.toByteArray();
+            } else if (i == RENDITION_FULL) {
+                return false;
+            }
+        }
+        recycleRenditionBitmaps(submission);
+
+        if (Wings.getEndpoint(GoogleCloudPrintEndpoint.class).isLinked()) {
+            submission.mPrintJpeg = renderPrintPhotoStrip(submission);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the encoded Jpegs to storage atomically and records the photo strip in the event manifest. The full-size
+     * Jpeg goes in the event's image directory for the current hour, and the other renditions, the print-resolution
+     * photo strip and the source frames where they are hidden from the Android Gallery. Only the full-size and
+     * print-resolution Jpegs, which are read back to reshare and reprint, stay in the {@link EncodedImageCache}.
+     *
+     * @param submission the {@link Submission}.
+     * @return true if the full-size Jpeg is written; false otherwise.
+     */
+    private static boolean persist(Submission submission) {
+        Context context = MyApplication.getContext();
+        EventStorage eventStorage = submission.mEventStorage;
+        long timestamp = System.currentTimeMillis();
+        String imageDirectory = eventStorage.getImageDirectory(timestamp);
+        if (imageDirectory == null) {
+            return false;
+        }
+
+        String imageName = ImageHelper.generateCapturedImageName(context
+                .getString(R.string.image_helper__image_filename_prefix), timestamp);
+        File file = new File(imageDirectory, imageName);
+        EncodedImageCache encodedImageCache = EncodedImageCache.getInstance();
+        if (!encodedImageCache.write(submission.mRenditionJpegs[RENDITION_FULL], file)) {
+            return false;
+        }
+        long bytesWritten = submission.mRenditionJpegs[RENDITION_FULL].length;
+        submission.mJpegPath = file.getPath();
+        submission.mWebJpegPath = submission.mJpegPath;
+        submission.mPrintJpegPath = submission.mJpegPath;
+        eventStorage.addStrip(submission.mJpegPath, timestamp, submission.mTemplate, submission.mCode);
+
+        // Keep the source frames, so the photo strip can be re-rendered later.
+        long framesWritten = persistFrames(submission, eventStorage.getFramePack(timestamp), timestamp);
+        if (framesWritten >= 0L) {
+            bytesWritten += framesWritten;
+        } else {
+            LogsHelper.slog(PhotoStripSubmissionPipeline.class, "persist", "Failed to keep source frames");
+        }
+
+        String renditionDirectory = eventStorage.getRenditionDirectory(timestamp);
+        if (renditionDirectory != null) {
+            for (int i = 0; i < submission.mRenditions.length; i++) {
+                byte[] jpeg = submission.mRenditionJpegs[i];
+                if (i != RENDITION_FULL && jpeg != null) {
+                    File renditionFile = new File(renditionDirectory,
+                            ImageHelper.generateRenditionImageName(imageName, submission.mRenditions[i].getSuffix()));
+                    if (AtomicFileWriter.getInstance().write(jpeg, renditionFile)) {
+                        bytesWritten += jpeg.length;
+                        if (i == RENDITION_WEB) {
+                            submission.mWebJpegPath = renditionFile.getPath();
+                        }
+                    }
+                }
+            }
+
+            // The print-resolution photo strip is a rendition too, so it is kept out of the Android Gallery and
+            // deleted along with the photo strip.
+            if (submission.mPrintJpeg != null) {
+                File printFile = new File(renditionDirectory, ImageHelper.generatePrintImageName(imageName));
+                if (encodedImageCache.write(submission.mPrintJpeg, printFile)) {
+                    bytesWritten += submission.mPrintJpeg.length;
+                    submission.mPrintJpegPath = printFile.getPath();
+                }
+            }
+        }
+        StorageMonitor.getInstance().onBytesWritten(bytesWritten);
+
+        // The encoded Jpegs are no longer needed.
+        submission.mRenditionJpegs = null;
+        submission.mPrintJpeg = null;
+        return true;
+    }
+
+    /**
+     * Records the session of the photo strip in the frame pack of the shard it is saved in. The frames were appended
+     * to a frame pack as they were captured, so the session points at them, unless the photo strip is saved in a later
+     * shard than the frames were captured in, in which case they are copied over.
+     *
+     * @param submission the {@link Submission}.
+     * @param framePack  the {@link FramePack} of the shard the photo strip is saved in; or null if unavailable.
+     * @param timestamp  the time the photo strip was saved in milliseconds.
+     * @return the number of frame bytes written; or -1 if unsuccessful.
+     */
+    private static long persistFrames(Submission submission, FramePack framePack, long timestamp) {
+        if (framePack == null || submission.mFramePack == null) {
+            return -1L;
+        }
+
+        if (framePack == submission.mFramePack) {
+            return framePack.appendSession(timestamp, submission.mSlotsFrameOffset, submission.mSlotsFrameLength,
+                    submission.mSlotsRotation, submission.mSlotsReflection) ? 0L : -1L;
+        }
+
+        final int frameCount = submission.mSlotsFrameOffset.length;
+        byte[][] slotsJpegData = new byte[frameCount][];
+        long bytesWritten = 0L;
+        for (int i = 0; i < frameCount; i++) {
+            slotsJpegData[i] = readFrame(submission, i);
+            if (slotsJpegData[i] == null) {
+                return -1L;
+            }
+            bytesWritten += slotsJpegData[i].length;
+        }
+        return framePack.append(timestamp, slotsJpegData, submission.mSlotsRotation, submission.mSlotsReflection)
+                ? bytesWritten : -1L;
+    }
+
+    /**
+     * Reads the source Jpeg data of a frame of the photo strip back from the frame pack.
+     *
+     * @param submission the {@link Submission}.
+     * @param index      the index of the frame.
+     * @return the Jpeg data; or null if unsuccessful.
+     */
+    private static byte[] readFrame(Submission submission, int index) {
+        if (submission.mFramePack == null) {
+            return null;
+        }
+        return submission.mFramePack.readFrame(submission.mSlotsFrameOffset[index],
+                submission.mSlotsFrameLength[index]);
+    }
+
+    /**
+     * Queues the full-size Jpeg to be added to the Android Gallery once the booth is idle.
+     *
+     * @param submission the {@link Submission}.
+     * @return true.
+     */
+    private static boolean scan(Submission submission) {
+        MediaScanScheduler.getInstance().scan(submission.mJpegPath);
+        return true;
+    }
+
+    /**
+     * Shares to linked services and records the results in the event manifest. Facebook and Dropbox get the web
+     * rendition, and Google Cloud Print gets the print-resolution photo strip if it was rendered.
+     *
+     * @param submission the {@link Submission}.
+     * @return true.
+     */
+    private static boolean share(Submission submission) {
+        EventStorage eventStorage = submission.mEventStorage;
+        if (Wings.getEndpoint(FacebookEndpoint.class).isLinked()) {
+            boolean isShared = Wings.share(submission.mWebJpegPath, FacebookEndpoint.class);
+            if (!isShared) {
+                LogsHelper.slog(PhotoStripSubmissionPipeline.class, "share", "Failed to share to Facebook");
+            }
+            eventStorage.setShareState(submission.mJpegPath, SERVICE_FACEBOOK, isShared);
+        }
+
+        if (Wings.getEndpoint(DropboxEndpoint.class).isLinked()) {
+            boolean isShared = Wings.share(submission.mWebJpegPath, DropboxEndpoint.class);
+            if (!isShared) {
+                LogsHelper.slog(PhotoStripSubmissionPipeline.class, "share", "Failed to share to Dropbox");
+            }
+            eventStorage.setShareState(submission.mJpegPath, SERVICE_DROPBOX, isShared);
+        }
+
+        if (Wings.getEndpoint(GoogleCloudPrintEndpoint.class).isLinked()) {
+            boolean isShared = Wings.share(submission.mPrintJpegPath, GoogleCloudPrintEndpoint.class);
+            if (!isShared) {
+                LogsHelper.slog(PhotoStripSubmissionPipeline.class, "share", "Failed to share to Google Cloud Print");
+            }
+            eventStorage.setShareState(submission.mJpegPath, SERVICE_GCP, isShared);
+        }
+        return true;
+    }
+
+    /**
+     * Renders the photo strip at print resolution from the source Jpeg data of its frames, read back one at a time from
+     * the frame pack.
+     *
+     * @param submission the {@link Submission}.
+     * @return the encoded print-resolution photo strip; or null if unsuccessful.
+     */
+    private static byte[] renderPrintPhotoStrip(final Submission submission) {
+        TiledPhotoStripRenderer renderer = new TiledPhotoStripRenderer(submission.mArrangement);
+        TiledPhotoStripRenderer.FrameSource source = new TiledPhotoStripRenderer.FrameSource() {
+            @Override
+            public Bitmap createFrame(int index, int frameSize) {
+                byte[] jpegData = readFrame(submission, index);
+                if (jpegData == null) {
+                    return null;
+                }
+                return ImageHelper.createImage(jpegData, submission.mSlotsRotation[index],
+                        submission.mSlotsReflection[index], submission.mFilter, frameSize);
+            }
+        };
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (renderer.render(submission.mSlotsFrameOffset.length, submission.mPrintImageSize, source,
+                EncodingProfile.PRINT, outputStream)) {
+            return outputStream.toByteArray();
+        }
+        return null;
+    }
+
+    /**
+     * Drops a submission that a stage failed to process, and reports the failure on the ui thread if the photo strip
+     * was not saved.
+     *
+     * @param submission the {@link Submission}.
+     */
+    private void drop(Submission submission) {
+        recycleRenditionBitmaps(submission);
+        if (submission.mJpegPath == null) {
+            final String code = submission.mCode;
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ICallbacks callbacks = mCallbacks.get();
+                    if (callbacks != null) {
+                        callbacks.onSubmissionFailed(code);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Recycles the bitmaps held by a submission.
+     *
+     * @param submission the {@link Submission}.
+     */
+    private static void recycleRenditionBitmaps(Submission submission) {
+        if (submission.mRenditionBitmaps != null) {
+            for (Bitmap bitmap : submission.mRenditionBitmaps) {
+                bitmap.recycle();
+            }
+            submission.mRenditionBitmaps = null;
+        }
+        if (submission.mPhotoStrip != null) {
+            submission.mPhotoStrip.recycle();
+            submission.mPhotoStrip = null;
+        }
+    }
+
+    //
+    // Public inner classes.
+    //
+
+    /**
+     * A photo strip travelling through the pipeline. Each stage fills in what the next one needs and drops what is no
+     * longer needed.
+     */
+    public static class Submission {
+
+        private Bitmap mPhotoStrip;
+
+        private final EventStorage mEventStorage;
+
+        private final String mTemplate;
+
+        private final String mCode;
+
+        private final BaseArrangement mArrangement;
+
+        private final ImageFilter mFilter;
+
+        private final FramePack mFramePack;
+
+        private final long[] mSlotsFrameOffset;
+
+        private final int[] mSlotsFrameLength;
+
+        private final int mPrintImageSize;
+
+        private final float[] mSlotsRotation;
+
+        private final boolean[] mSlotsReflection;
+
+        private Rendition[] mRenditions = null;
+
+        private Bitmap[] mRenditionBitmaps = null;
+
+        private byte[][] mRenditionJpegs = null;
+
+        private byte[] mPrintJpeg = null;
+
+        private String mJpegPath = null;
+
+        private String mWebJpegPath = null;
+
+        private String mPrintJpegPath = null;
+
+        /**
+         * Constructor.
+         *
+         * @param photoStrip       the composed photo strip.
+         * @param eventStorage     the storage of the event the photo strip was taken at.
+         * @param template         the name of the template of the photo strip.
+         * @param code             the code reserved for guests to find the photo strip by; or null if none.
+         * @param arrangement      the arrangement of the photo strip, used to render it at print resolution.
+         * @param filter           the filter applied to the frames; or null.
+         * @param framePack        the {@link FramePack} the frames were appended to as they were captured.
+         * @param slotsFrameOffset the offset in the frame pack of the Jpeg data of the frame in each slot.
+         * @param slotsFrameLength the length of the Jpeg data of the frame in each slot.
+         * @param printImageSize   the size to render frames at for print.
+         * @param slotsRotation    the clockwise rotation in degrees applied to the frame in each slot.
+         * @param slotsReflection  the horizontal reflection applied to the frame in each slot.
+         */
+        public Submission(Bitmap photoStrip, EventStorage eventStorage, String template, String code,
+                          BaseArrangement arrangement, ImageFilter filter, FramePack framePack,
+                          long[] slotsFrameOffset, int[] slotsFrameLength, int printImageSize,
+                          float[] slotsRotation, boolean[] slotsReflection) {
+            mPhotoStrip = photoStrip;
+            mEventStorage = eventStorage;
+            mTemplate = template;
+            mCode = code;
+            mArrangement = arrangement;
+            mFilter = filter;
+            mFramePack = framePack;
+            mSlotsFrameOffset = slotsFrameOffset;
+            mSlotsFrameLength = slotsFrameLength;
+            mPrintImageSize = printImageSize;
+            mSlotsRotation = slotsRotation;
+            mSlotsReflection = slotsReflection;
+        }
+    }
+
+    //
+    // Private inner classes.
+    //
+
+    /**
+     * A stage of the pipeline with its own thread and bounded input queue. A submission that fails, or throws, is
+     * dropped without stopping the stage.
+     */
+    private abstract class Stage extends Thread {
+
+        /**
+         * The input queue.
+         */
+        private final BlockingQueue<Submission> mQueue;
+
+        /**
+         * The stage to pass processed submissions to; or null if this is the last stage.
+         */
+        private final Stage mNextStage;
+
+        /**
+         * Constructor.
+         *
+         * @param name      the name of the stage thread.
+         * @param capacity  the capacity of the input queue.
+         * @param nextStage the stage to pass processed submissions to; or null if this is the last stage.
+         */
+        Stage(String name, int capacity, Stage nextStage) {
+            super(name);
+            setDaemon(true);
+            mQueue = new ArrayBlockingQueue<Submission>(capacity);
+            mNextStage = nextStage;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Submission submission = mQueue.take();
+                    boolean isProcessed;
+                    try {
+                        isProcessed = process(submission);
+                    } catch (RuntimeException e) {
+                        LogsHelper.slog(PhotoStripSubmissionPipeline.class, getName(), "Failed: " + e);
+                        isProcessed = false;
+                    } catch (Error e) {
+                        // Most likely out of memory, which dropping the submission relieves.
+                        LogsHelper.slog(PhotoStripSubmissionPipeline.class, getName(), "Failed: " + e);
+                        isProcessed = false;
+                    }
+
+                    if (!isProcessed) {
+                        LogsHelper.slog(PhotoStripSubmissionPipeline.class, getName(), "Submission dropped");
+                        drop(submission);
+                    } else if (mNextStage != null) {
+                        mNextStage.mQueue.put(submission);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stop processing.
+            }
+        }
+
+        /**
+         * Queues a submission, blocking for up to {@link #SUBMIT_TIMEOUT_SECONDS} while the queue is full.
+         *
+         * @param submission the {@link Submission}.
+         * @return true if queued; false if the queue stayed full or the wait was interrupted.
+         */
+        boolean enqueue(Submission submission) {
+            try {
+                return mQueue.offer(submission, SUBMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Processes a submission on the stage thread.
+         *
+         * @param submission the {@link Submission}.
+         * @return true to pass the submission to the next stage; false to drop it.
+         */
+        protected abstract boolean process(Submission submission);
+    }
+
+    //
+    // Interfaces.
+    //
+
+    /**
+     * Callbacks for photo strips that fail to be saved after they are queued.
+     */
+    public interface ICallbacks {
+
+        /**
+         * A photo strip was dropped before it was saved.
+         *
+         * @param code the code reserved for guests to find the photo strip by; or null if none.
+         */
+        void onSubmissionFailed(String code);
+    }
+}
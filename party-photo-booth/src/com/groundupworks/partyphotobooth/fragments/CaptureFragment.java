@@ -41,6 +41,7 @@ import com.groundupworks.lib.photobooth.framework.BaseApplication;
 import com.groundupworks.lib.photobooth.helpers.CameraAudioHelper;
 import com.groundupworks.lib.photobooth.helpers.CameraHelper;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
 import com.groundupworks.lib.photobooth.views.AnimationDrawableCallback;
 import com.groundupworks.lib.photobooth.views.CenteredPreview;
 import com.groundupworks.partyphotobooth.R;
@@ -73,9 +74,9 @@ public class CaptureFragment extends Fragment {
     private static final int INVALID_CAMERA_ID = -1;
 
     /**
-     * The default captured Jpeg quality.
+     * The captured Jpeg quality. Captured frames are the source of every rendition, so they use archive quality.
      */
-    private static final int CAPTURED_JPEG_QUALITY = 100;
+    private static final int CAPTURED_JPEG_QUALITY = EncodingProfile.ARCHIVE.getQuality();
 
     /**
      * Callbacks for this fragment.
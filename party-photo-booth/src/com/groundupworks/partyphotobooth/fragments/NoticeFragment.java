@@ -54,6 +54,8 @@ public class NoticeFragment extends Fragment {
 
     private static final String FRAGMENT_BUNDLE_KEY_GCP_SHARED = "gcpShared";
 
+    private static final String FRAGMENT_BUNDLE_KEY_CODE = "code";
+
     /**
      * The name of the auto-dismissal timer.
      */
@@ -91,6 +93,8 @@ public class NoticeFragment extends Fragment {
 
     private TextView mGcpNotice;
 
+    private TextView mCodeNotice;
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -107,6 +111,7 @@ public class NoticeFragment extends Fragment {
         mFacebookNotice = (TextView) view.findViewById(R.id.notice_facebook);
         mDropboxNotice = (TextView) view.findViewById(R.id.notice_dropbox);
         mGcpNotice = (TextView) view.findViewById(R.id.notice_gcp);
+        mCodeNotice = (TextView) view.findViewById(R.id.notice_code);
 
         return view;
     }
@@ -154,6 +159,13 @@ public class NoticeFragment extends Fragment {
             }
         }
 
+        String code = args.getString(FRAGMENT_BUNDLE_KEY_CODE);
+        if (code != null) {
+            mCodeNotice.setText(getString(R.string.notice__code_text, code));
+            mCodeNotice.setVisibility(View.VISIBLE);
+            mIsScreenValid = true;
+        }
+
         // Set click behaviour of Ok button or send dismissal request depending on whether the screen is valid.
         if (mIsScreenValid) {
             mOkButton.setOnClickListener(new OnClickListener() {
@@ -242,15 +254,18 @@ public class NoticeFragment extends Fragment {
      * @param facebookShared true if the photo strip is marked for Facebook sharing; false otherwise.
      * @param dropboxShared  true if the photo strip is marked for Dropbox sharing; false otherwise.
      * @param gcpShared      true if the photo strip is marked for Google Cloud Print sharing; false otherwise.
+     * @param code           the code for guests to find the photo strip by; or null if none.
      * @return the new {@link NoticeFragment} instance.
      */
-    public static NoticeFragment newInstance(boolean facebookShared, boolean dropboxShared, boolean gcpShared) {
+    public static NoticeFragment newInstance(boolean facebookShared, boolean dropboxShared, boolean gcpShared,
+                                             String code) {
         NoticeFragment fragment = new NoticeFragment();
 
         Bundle args = new Bundle();
         args.putBoolean(FRAGMENT_BUNDLE_KEY_FACEBOOK_SHARED, facebookShared);
         args.putBoolean(FRAGMENT_BUNDLE_KEY_DROPBOX_SHARED, dropboxShared);
         args.putBoolean(FRAGMENT_BUNDLE_KEY_GCP_SHARED, gcpShared);
+        args.putString(FRAGMENT_BUNDLE_KEY_CODE, code);
         fragment.setArguments(args);
 
         return fragment;
@@ -275,10 +275,11 @@ public class PhotoStripFragment extends ControllerBackedFragment<PhotoStripContr
                 boolean facebookShared = bundle.getBoolean(PhotoStripController.MESSAGE_BUNDLE_KEY_FACEBOOK_SHARED);
                 boolean dropboxShared = bundle.getBoolean(PhotoStripController.MESSAGE_BUNDLE_KEY_DROPBOX_SHARED);
                 boolean gcpShared = bundle.getBoolean(PhotoStripController.MESSAGE_BUNDLE_KEY_GCP_SHARED);
+                String code = bundle.getString(PhotoStripController.MESSAGE_BUNDLE_KEY_CODE);
 
                 // Call to client.
                 if (callbacks != null) {
-                    callbacks.onPhotoStripSubmitted(facebookShared, dropboxShared, gcpShared);
+                    callbacks.onPhotoStripSubmitted(facebookShared, dropboxShared, gcpShared, code);
                 }
                 break;
             case PhotoStripController.ERROR_JPEG_DATA:
@@ -299,6 +300,12 @@ public class PhotoStripFragment extends ControllerBackedFragment<PhotoStripContr
                     callbacks.onErrorPhotoStripSubmit();
                 }
                 break;
+            case PhotoStripController.ERROR_STORAGE_FULL:
+                // Call to client.
+                if (callbacks != null) {
+                    callbacks.onErrorStorageFull();
+                }
+                break;
             default:
                 break;
         }
@@ -536,8 +543,10 @@ public class PhotoStripFragment extends ControllerBackedFragment<PhotoStripContr
          * @param facebookShared true if the photo strip is marked for Facebook sharing; false otherwise.
          * @param dropboxShared  true if the photo strip is marked for Dropbox sharing; false otherwise.
          * @param gcpShared      true if the photo strip is marked for Google Cloud Print sharing; false otherwise.
+         * @param code           the code for guests to find the photo strip by; or null if none.
          */
-        public void onPhotoStripSubmitted(boolean facebookShared, boolean dropboxShared, boolean gcpShared);
+        public void onPhotoStripSubmitted(boolean facebookShared, boolean dropboxShared, boolean gcpShared,
+                                          String code);
 
         /**
          * An error occurred while attempting to add a new photo.
@@ -553,5 +562,10 @@ public class PhotoStripFragment extends ControllerBackedFragment<PhotoStripContr
          * An error occurred while attempting to submit the current photo strip.
          */
         public void onErrorPhotoStripSubmit();
+
+        /**
+         * A new photo was rejected because there is not enough storage to save the photo strip.
+         */
+        public void onErrorStorageFull();
     }
 }
@@ -136,7 +136,17 @@ public class PreferencesHelper {
         /**
          * Box arrangement of 4 photos.
          */
-        BOX_4(PhotoStripArrangement.BOX, 4);
+        BOX_4(PhotoStripArrangement.BOX, 4),
+
+        /**
+         * Grid arrangement of 6 photos in 2 columns.
+         */
+        GRID_6(PhotoStripArrangement.GRID, 6, "templates/grid_6.json"),
+
+        /**
+         * Grid arrangement of 9 photos in 3 columns.
+         */
+        GRID_9(PhotoStripArrangement.GRID, 9, "templates/grid_9.json");
 
         /**
          * The arrangement of the photo strip.
@@ -148,6 +158,11 @@ public class PreferencesHelper {
          */
         private int mNumPhotos;
 
+        /**
+         * The asset path of the template specification.
+         */
+        private String mSpecPath;
+
         /**
          * Constructor.
          *
@@ -155,8 +170,20 @@ public class PreferencesHelper {
          * @param numPhotos   the number of photos in the photo strip.
          */
         private PhotoStripTemplate(PhotoStripArrangement arrangement, int numPhotos) {
+            this(arrangement, numPhotos, null);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param arrangement the arrangement of the photo strip.
+         * @param numPhotos   the number of photos in the photo strip.
+         * @param specPath    the asset path of the template specification; or null if the arrangement is built-in.
+         */
+        private PhotoStripTemplate(PhotoStripArrangement arrangement, int numPhotos, String specPath) {
             mArrangement = arrangement;
             mNumPhotos = numPhotos;
+            mSpecPath = specPath;
         }
 
         /**
@@ -176,6 +203,15 @@ public class PreferencesHelper {
         public int getNumPhotos() {
             return mNumPhotos;
         }
+
+        /**
+         * Gets the asset path of the template specification for the {@link PhotoStripArrangement#GRID} arrangement.
+         *
+         * @return the asset path; or null if the arrangement is built-in.
+         */
+        public String getSpecPath() {
+            return mSpecPath;
+        }
     }
 
     /**
@@ -196,7 +232,12 @@ public class PreferencesHelper {
         /**
          * Box arrangement of photos.
          */
-        BOX
+        BOX,
+
+        /**
+         * Grid arrangement of photos described by a template specification.
+         */
+        GRID
     }
 
     /**
@@ -34,6 +34,7 @@ import android.widget.ImageView;
 import android.widget.Toast;
 
 import com.groundupworks.partyphotobooth.R;
+import com.groundupworks.partyphotobooth.controllers.PhotoStripSubmissionPipeline;
 import com.groundupworks.partyphotobooth.fragments.CaptureFragment;
 import com.groundupworks.partyphotobooth.fragments.ConfirmationFragment;
 import com.groundupworks.partyphotobooth.fragments.ErrorDialogFragment;
@@ -51,7 +52,7 @@ import java.lang.ref.WeakReference;
  */
 public class KioskActivity extends FragmentActivity implements KioskSetupFragment.ICallbacks,
         PhotoStripFragment.ICallbacks, CaptureFragment.ICallbacks, ConfirmationFragment.ICallbacks,
-        NoticeFragment.ICallbacks, ErrorDialogFragment.ICallbacks {
+        NoticeFragment.ICallbacks, ErrorDialogFragment.ICallbacks, PhotoStripSubmissionPipeline.ICallbacks {
 
     /**
      * Package private flag to track whether the single instance {@link KioskActivity} is in foreground.
@@ -138,6 +139,7 @@ public class KioskActivity extends FragmentActivity implements KioskSetupFragmen
     public void onResume() {
         super.onResume();
         sIsInForeground = true;
+        PhotoStripSubmissionPipeline.getInstance().setCallbacks(this);
 
         // Choose fragments to start with based on whether Kiosk mode setup has completed.
         if (mKioskModeHelper.isSetupCompleted()) {
@@ -154,6 +156,7 @@ public class KioskActivity extends FragmentActivity implements KioskSetupFragmen
     @Override
     public void onPause() {
         sIsInForeground = false;
+        PhotoStripSubmissionPipeline.getInstance().setCallbacks(null);
         super.onPause();
     }
 
@@ -255,14 +258,15 @@ public class KioskActivity extends FragmentActivity implements KioskSetupFragmen
     }
 
     @Override
-    public void onPhotoStripSubmitted(boolean facebookShared, boolean dropboxShared, boolean gcpShared) {
+    public void onPhotoStripSubmitted(boolean facebookShared, boolean dropboxShared, boolean gcpShared,
+                                      String code) {
         // Reset photo booth ui.
         launchPhotoBoothUi();
 
-        if (facebookShared || dropboxShared || gcpShared) {
+        if (facebookShared || dropboxShared || gcpShared || code != null) {
             if (mPreferencesHelper.getNoticeEnabled(this)) {
                 // Show notice fragment.
-                launchNoticeFragment(facebookShared, dropboxShared, gcpShared);
+                launchNoticeFragment(facebookShared, dropboxShared, gcpShared, code);
             }
         }
     }
@@ -288,6 +292,13 @@ public class KioskActivity extends FragmentActivity implements KioskSetupFragmen
         launchPhotoBoothUi();
     }
 
+    @Override
+    public void onErrorStorageFull() {
+        // Storage is too low to save the photo strip. Relaunch capture fragment so the photo can be retaken once freed.
+        Toast.makeText(this, getString(R.string.photostrip__error_storage_full), Toast.LENGTH_LONG).show();
+        launchCaptureFragment();
+    }
+
     //
     // Implementation of the CaptureFragment callbacks.
     //
@@ -341,6 +352,18 @@ public class KioskActivity extends FragmentActivity implements KioskSetupFragmen
         dismissNoticeFragment();
     }
 
+    //
+    // Implementation of the PhotoStripSubmissionPipeline callbacks.
+    //
+
+    @Override
+    public void onSubmissionFailed(String code) {
+        // A queued photo strip could not be saved, so any code shown for it leads nowhere.
+        String message = code != null ? getString(R.string.photostrip__error_save_code, code)
+                : getString(R.string.photostrip__error_save);
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
     //
     // Implementation of the ErrorDialogFragment callbacks.
     //
@@ -412,9 +435,11 @@ public class KioskActivity extends FragmentActivity implements KioskSetupFragmen
      * @param facebookShared true if the photo strip is marked for Facebook sharing; false otherwise.
      * @param dropboxShared  true if the photo strip is marked for Dropbox sharing; false otherwise.
      * @param gcpShared      true if the photo strip is marked for Google Cloud Print sharing; false otherwise.
+     * @param code           the code for guests to find the photo strip by; or null if none.
      */
-    private void launchNoticeFragment(boolean facebookShared, boolean dropboxShared, boolean gcpShared) {
-        mNoticeFragment = NoticeFragment.newInstance(facebookShared, dropboxShared, gcpShared);
+    private void launchNoticeFragment(boolean facebookShared, boolean dropboxShared, boolean gcpShared,
+                                      String code) {
+        mNoticeFragment = NoticeFragment.newInstance(facebookShared, dropboxShared, gcpShared, code);
         replaceTopFragment(mNoticeFragment);
     }
 
@@ -42,11 +42,17 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.groundupworks.lib.photobooth.contactsheet.ContactSheetRenderer;
+import com.groundupworks.lib.photobooth.export.ZipExporter;
 import com.groundupworks.lib.photobooth.helpers.ImageHelper;
+import com.groundupworks.lib.photobooth.jpeg.JpegEncoder;
+import com.groundupworks.lib.photobooth.renditions.EncodingProfile;
+import com.groundupworks.lib.photobooth.storage.EventStorage;
 import com.groundupworks.partyphotobooth.MyApplication;
 import com.groundupworks.partyphotobooth.PersistedBitmapCache;
 import com.groundupworks.partyphotobooth.R;
 import com.groundupworks.partyphotobooth.arrangements.BaseTitleHeader;
+import com.groundupworks.partyphotobooth.controllers.PhotoStripSubmissionPipeline;
 import com.groundupworks.partyphotobooth.helpers.PreferencesHelper;
 import com.groundupworks.partyphotobooth.helpers.TextHelper;
 
@@ -86,6 +92,11 @@ public class EventInfoSetupFragment extends Fragment {
      */
     private PersistedBitmapCache mBitmapCache = MyApplication.getBitmapCache();
 
+    /**
+     * The pending request to load the event logo; or null if none.
+     */
+    private PersistedBitmapCache.Request mLoadLogoRequest = null;
+
     //
     // Views.
     //
@@ -104,6 +115,10 @@ public class EventInfoSetupFragment extends Fragment {
 
     private Button mNext;
 
+    private Button mExport;
+
+    private Button mContactSheet;
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -123,6 +138,8 @@ public class EventInfoSetupFragment extends Fragment {
         mDate = (DatePicker) view.findViewById(R.id.setup_event_info_date);
         mDateHidden = (CheckBox) view.findViewById(R.id.setup_event_info_date_hidden);
         mNext = (Button) view.findViewById(R.id.setup_event_info_button_next);
+        mExport = (Button) view.findViewById(R.id.setup_event_info_button_export);
+        mContactSheet = (Button) view.findViewById(R.id.setup_event_info_button_contact_sheet);
 
         return view;
     }
@@ -196,6 +213,20 @@ public class EventInfoSetupFragment extends Fragment {
                 }
             }
         });
+
+        mExport.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                exportStrips();
+            }
+        });
+
+        mContactSheet.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                renderContactSheet();
+            }
+        });
     }
 
     @Override
@@ -246,6 +277,17 @@ public class EventInfoSetupFragment extends Fragment {
         super.onPause();
     }
 
+    @Override
+    public void onDestroyView() {
+        // Stop the logo from being delivered to the destroyed views.
+        if (mLoadLogoRequest != null) {
+            mLoadLogoRequest.cancel();
+            mLoadLogoRequest = null;
+        }
+
+        super.onDestroyView();
+    }
+
     //
     // Private methods.
     //
@@ -270,10 +312,11 @@ public class EventInfoSetupFragment extends Fragment {
      * @param srcUri the {@link Uri} to the source image.
      */
     private void loadLogo(final String srcUri) {
-        mBitmapCache.asyncGet(BaseTitleHeader.EVENT_LOGO_CACHE_KEY, new PersistedBitmapCache.IAsyncGetCallbacks() {
+        mLoadLogoRequest = mBitmapCache.asyncGet(BaseTitleHeader.EVENT_LOGO_CACHE_KEY, new PersistedBitmapCache.IAsyncGetCallbacks() {
 
             @Override
             public void onSuccess(String key, Bitmap bitmap) {
+                mLoadLogoRequest = null;
                 if (isActivityAlive()) {
                     mLogoUri.setText(srcUri);
 
@@ -290,6 +333,7 @@ public class EventInfoSetupFragment extends Fragment {
 
             @Override
             public void onFailure(String key) {
+                mLoadLogoRequest = null;
                 if (isActivityAlive()) {
                     newLogo(Uri.parse(srcUri));
                 }
@@ -399,6 +443,95 @@ public class EventInfoSetupFragment extends Fragment {
         startActivityForResult(chooserIntent, EVENT_LOGO_REQUEST_CODE);
     }
 
+    /**
+     * Exports the photo strips of the current event into one archive next to the event directory, so they can be
+     * copied off the device as a single file, and updates ui when the operation completes. An export left incomplete
+     * resumes where it left off.
+     */
+    private void exportStrips() {
+        mExport.setEnabled(false);
+        Toast.makeText(getActivity(), getString(R.string.event_info_setup__export_started), Toast.LENGTH_SHORT).show();
+
+        final Handler workerHandler = new Handler(MyApplication.getWorkerLooper());
+        workerHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                EventStorage eventStorage = PhotoStripSubmissionPipeline.getCurrentEventStorage();
+                final ZipExporter exporter = eventStorage.getExporter();
+                final boolean isExported = eventStorage.exportStrips(exporter, null);
+
+                if (isActivityAlive()) {
+                    getActivity().runOnUiThread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (isActivityAlive()) {
+                                String message;
+                                int skippedCount = exporter.getSkippedNames().size();
+                                String path = exporter.getZipFile().getPath();
+                                if (!isExported) {
+                                    message = getString(R.string.event_info_setup__error_export);
+                                } else if (skippedCount > 0) {
+                                    message = getString(R.string.event_info_setup__export_complete_skipped, path,
+                                            skippedCount);
+                                } else {
+                                    message = getString(R.string.event_info_setup__export_complete, path);
+                                }
+                                Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
+                                mExport.setEnabled(true);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Renders printable contact sheets of the photo strips of the current event, one Jpeg per page next to the event
+     * directory, and updates ui when the operation completes.
+     */
+    private void renderContactSheet() {
+        mContactSheet.setEnabled(false);
+        Toast.makeText(getActivity(), getString(R.string.event_info_setup__contact_sheet_started),
+                Toast.LENGTH_SHORT).show();
+
+        final Handler workerHandler = new Handler(MyApplication.getWorkerLooper());
+        workerHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                final EventStorage eventStorage = PhotoStripSubmissionPipeline.getCurrentEventStorage();
+                ContactSheetRenderer renderer = new ContactSheetRenderer(ContactSheetRenderer.DEFAULT_PAGE_WIDTH,
+                        ContactSheetRenderer.DEFAULT_PAGE_HEIGHT, ContactSheetRenderer.DEFAULT_COLUMNS,
+                        ContactSheetRenderer.DEFAULT_ROWS, ContactSheetRenderer.DEFAULT_SPACING, EncodingProfile.PRINT,
+                        JpegEncoder.getDefaultThreadCount());
+                final int pageCount = eventStorage.renderContactSheet(renderer);
+
+                if (isActivityAlive()) {
+                    getActivity().runOnUiThread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (isActivityAlive()) {
+                                String message;
+                                if (pageCount < 0) {
+                                    message = getString(R.string.event_info_setup__error_contact_sheet);
+                                } else {
+                                    message = getString(R.string.event_info_setup__contact_sheet_complete, pageCount,
+                                            eventStorage.getContactSheetDirectory().getPath());
+                                }
+                                Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
+                                mContactSheet.setEnabled(true);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
     /**
      * Posts a toast to indicate that the selected logo failed to load.
      */
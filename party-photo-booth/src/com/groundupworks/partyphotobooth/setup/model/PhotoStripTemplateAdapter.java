@@ -119,6 +119,20 @@ public class PhotoStripTemplateAdapter extends BaseSpinnerAdapter<PhotoStripTemp
         box4.mDescription = context.getString(R.string.photo_strip_template_adapter__4_box_description);
         modes.put(PhotoStripTemplate.BOX_4.ordinal(), box4);
 
+        // Add Grid 6.
+        PhotoStripTemplateAdapter.Template grid6 = new PhotoStripTemplateAdapter.Template();
+        grid6.mTemplate = PhotoStripTemplate.GRID_6;
+        grid6.mDisplayName = context.getString(R.string.photo_strip_template_adapter__6_grid_display_name);
+        grid6.mDescription = context.getString(R.string.photo_strip_template_adapter__6_grid_description);
+        modes.put(PhotoStripTemplate.GRID_6.ordinal(), grid6);
+
+        // Add Grid 9.
+        PhotoStripTemplateAdapter.Template grid9 = new PhotoStripTemplateAdapter.Template();
+        grid9.mTemplate = PhotoStripTemplate.GRID_9;
+        grid9.mDisplayName = context.getString(R.string.photo_strip_template_adapter__9_grid_display_name);
+        grid9.mDescription = context.getString(R.string.photo_strip_template_adapter__9_grid_description);
+        modes.put(PhotoStripTemplate.GRID_9.ordinal(), grid9);
+
         return modes;
     }
 